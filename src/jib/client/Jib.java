@@ -6,6 +6,7 @@ import javac.com.sun.tools.javac.Javac;
 import jvm.main.JVM;
 
 import com.google.gwt.core.client.EntryPoint;
+import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.user.client.ui.Button;
@@ -39,12 +40,31 @@ public class Jib implements EntryPoint {
         RootPanel.get("btn-div").add(runButton);
         runButton.addStyleName("runButton");
 
+        final Button stopButton = new Button("Stop");
+        RootPanel.get("btn-div").add(stopButton);
+        stopButton.addStyleName("runButton");
+        stopButton.setEnabled(false);
+
         debugSuccess("Run button created and attached to DOM");
 
+        stopButton.addClickHandler(new ClickHandler() {
+            @Override
+            public void onClick(ClickEvent event) {
+                JVM.stop();
+                System.out.println("Stopped.");
+                debugWarning("JVM execution stopped");
+                stopButton.setEnabled(false);
+                runButton.setEnabled(true);
+            }
+        });
+
         runButton.addClickHandler(new ClickHandler() {
             @Override
             public void onClick(ClickEvent event) {
                 debugMilestone("=== RUN BUTTON CLICKED - Starting execution ===");
+                // Only one program runs at a time: it shares the loaded classes.
+                JVM.stop();
+                runButton.setEnabled(false);
                 try {
                     log.setValue("");
                     debugInfo("Output log cleared");
@@ -73,11 +93,20 @@ public class Jib implements EntryPoint {
 
                         debugMilestone("Setting up JVM class loader");
                         JVM.setClassLoader(new JibClassLoader());
+                        JVM.setJit(true);
                         debugSuccess("JibClassLoader installed");
 
                         debugMilestone("Starting JVM execution of: " + className);
-                        JVM.run(className);
-                        debugSuccess("JVM execution completed");
+                        stopButton.setEnabled(true);
+                        JVM.run(className, Scheduler.get(), new Runnable() {
+                            @Override
+                            public void run() {
+                                debugSuccess("JVM execution completed");
+                                stopButton.setEnabled(false);
+                                runButton.setEnabled(true);
+                            }
+                        });
+                        return;
 
                     } else {
                         debugError("Compilation failed - check output for errors");
@@ -89,6 +118,8 @@ public class Jib implements EntryPoint {
                     System.err.println("Error: " + e.getMessage());
                     e.printStackTrace();
                 }
+                stopButton.setEnabled(false);
+                runButton.setEnabled(true);
             }
         });
     }
@@ -118,6 +118,16 @@ public class JAttribute {
         }
         private CodeAttribute(){}
 
+        /** The line number table of the code, or null if it has none. */
+        public LineNumberTable getLineNumberTable() {
+            for (JAttribute a : attributes) {
+                if (a instanceof LineNumberTable) {
+                    return (LineNumberTable) a;
+                }
+            }
+            return null;
+        }
+
 
 
         private static CodeAttribute bootCode = new CodeAttribute(){
@@ -162,6 +172,29 @@ public class JAttribute {
         public static CodeAttribute getBootCode(){
             return bootCode;
         }
+
+        private static CodeAttribute threadBootCode = new CodeAttribute(){
+            {
+                maxStack = 1;
+                maxLocals = 1;
+                argsSize = 1;
+
+                byte [] bytecode = {
+                // invoke run() on the Thread object
+                OPCodes.OP_aload_0,
+                OPCodes.OP_invokevirtual,
+                0,
+                6,
+
+                // exit the thread
+                OPCodes.OP_impdep1,
+                };
+                this.bytecode = bytecode;
+            }
+        };
+        public static CodeAttribute getThreadBootCode(){
+            return threadBootCode;
+        }
     }
 
     /**
@@ -173,7 +206,6 @@ public class JAttribute {
      */
     public static class LineNumberTable extends JAttribute {
         private static class LinePCPair {
-            @SuppressWarnings("unused")
             int startpc, lineno;
 
             public LinePCPair(int startpc, int lineno) {
@@ -198,6 +230,23 @@ public class JAttribute {
                 lines[i] = new LinePCPair(startpc, lineno);
             }
         }
+
+        /**
+         * The source line of the instruction at the given bytecode offset,
+         * or -1 if it is not known.
+         */
+        public int getLineNumber(int pc) {
+            int line = -1;
+            int start = -1;
+            // The entries are not necessarily sorted by pc.
+            for (LinePCPair pair : lines) {
+                if (pair.startpc <= pc && pair.startpc > start) {
+                    start = pair.startpc;
+                    line = pair.lineno;
+                }
+            }
+            return line;
+        }
     }
 
     /**
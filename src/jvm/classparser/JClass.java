@@ -11,7 +11,7 @@ import jvm.classparser.jconstants.JConstant;
 import jvm.classparser.jconstants.JDataConstant;
 import jvm.classparser.jconstants.JMemberConstant;
 import jvm.execution.JClassLoader;
-import jvm.execution.JClassLoader.JClassNotInitializedException;
+import jvm.execution.VMThread;
 import jvm.execution.objrepr.ObjectRepr;
 import jvm.util.DataInputStream;
 
@@ -26,12 +26,18 @@ import jvm.util.DataInputStream;
  */
 public class JClass implements ObjectRepr {
     private final static int MAGIC = 0xCAFEBABE;
+    public static final int INTERFACE = 0x0200;
 
     public enum Status {
-        PREPARED, INITIALIZED
+        PREPARED, INITIALIZING, INITIALIZED
     }
 
+    private static int nextTypeId = 0;
+
     private Status status = Status.PREPARED;
+    // The thread that runs the class initializer, while INITIALIZING
+    private VMThread initializer;
+    private final int typeId = nextTypeId++;
     protected String name;
     private short flags;
 
@@ -45,6 +51,35 @@ public class JClass implements ObjectRepr {
     private Vector<JAttribute> attributes = new Vector<JAttribute>();
     private JMethod clinit;
 
+    // Instance fields, including the inherited ones, in object layout order
+    private JField[] instanceFields;
+
+    // The initial values of the instance fields, built when the class is
+    // linked, and the layout cached by the object representation.
+    private Object[] instanceValues;
+    private Object objectLayout;
+
+    // Static fields declared by this class and their values
+    private JField[] staticFields;
+    private Object[] staticValues;
+
+    // Set when this class and all its superclasses are known to be initialized
+    private boolean initialized;
+
+    // Dispatch tables, built when the class is linked
+    private JMethod[] vtable;
+    private JClass[] itableKeys;
+    private JMethod[][] itables;
+
+    // The superclasses from java/lang/Object down to this class, which is at
+    // the index given by its depth in the hierarchy.
+    private JClass[] display;
+
+    // The type IDs of the last interfaces for which a subtype test succeeded
+    // and failed, respectively.
+    private int lastInterfaceHit = -1;
+    private int lastInterfaceMiss = -1;
+
     private String sourceFile;
     private int minVer, majVer;
 
@@ -104,14 +139,16 @@ public class JClass implements ObjectRepr {
     private JClass() {
     }
 
-    public void ensureInitialized() throws JClassNotInitializedException {
-        if (this.status == Status.PREPARED) {
-            throw new JClassNotInitializedException(this);
-        }
-
-        if (this.superClass != null) {
-            this.superClass.ensureInitialized();
+    /**
+     * Determine if the initializers of this class and of its superclasses
+     * have returned. Once true, the answer is a single field read.
+     */
+    public boolean isInitialized() {
+        if (!this.initialized) {
+            this.initialized = this.status == Status.INITIALIZED
+                    && (this.superClass == null || this.superClass.isInitialized());
         }
+        return this.initialized;
     }
 
     /**
@@ -130,7 +167,10 @@ public class JClass implements ObjectRepr {
                 this.cpool.add(new JClassConstant(JClassLoader.STRING_CLASS_NAME));
                 this.cpool.add(consolePrintStream);
                 this.cpool.add(new JMemberConstant(consolePrintStream, "register", "()V"));
-                this.getMethods().add(JMethod.getBootMehtod());
+                this.cpool.add(new JMemberConstant(
+                        new JClassConstant("java/lang/Thread"), "run", "()V"));
+                this.getMethods().add(JMethod.createBootMethod(this));
+                this.getMethods().add(JMethod.createThreadBootMethod(this));
             }
 
             public String getName() {
@@ -159,6 +199,12 @@ public class JClass implements ObjectRepr {
                 {
                     name = type;
                 }
+
+                // Arrays have the methods of java/lang/Object.
+                @Override
+                public JMethod[] getVTable() {
+                    return JClassLoader.getInstance().getClassByName("java/lang/Object").getVTable();
+                }
             };
             arrayClassCache.put(ret.name, ret);
         }
@@ -221,12 +267,452 @@ public class JClass implements ObjectRepr {
         return methods;
     }
 
+    /**
+     * Find a method declared in this class by its name and descriptor.
+     */
+    public JMethod getDeclaredMethod(String memberName) {
+        for (JMethod m : methods) {
+            if (m.getMemberName().equals(memberName)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a method declared in this class or inherited from a superclass.
+     */
+    public JMethod lookupMethod(String memberName) {
+        for (JClass c = this; c != null; c = c.superClass) {
+            JMethod m = c.getDeclaredMethod(memberName);
+            if (m != null) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The instance fields of this class, the inherited ones first. The
+     * position of a field in this array is its offset in the objects of
+     * this class and of all its subclasses.
+     */
+    public JField[] getInstanceFields() {
+        if (instanceFields == null) {
+            Vector<JField> layout = new Vector<JField>();
+            if (superClass != null) {
+                for (JField f : superClass.getInstanceFields()) {
+                    layout.add(f);
+                }
+            }
+            for (JField f : fields) {
+                if (!f.isStatic()) {
+                    layout.add(f);
+                }
+            }
+            instanceFields = layout.toArray(new JField[layout.size()]);
+        }
+        return instanceFields;
+    }
+
+    /**
+     * The initial values of the instance fields, at their offsets, that are
+     * copied in the new objects of this class.
+     */
+    public Object[] getInstanceValues() {
+        if (vtable == null) {
+            link();
+        }
+        return instanceValues;
+    }
+
+    /** The layout of the objects of this class cached by their representation. */
+    public Object getObjectLayout() {
+        return objectLayout;
+    }
+
+    public void setObjectLayout(Object objectLayout) {
+        this.objectLayout = objectLayout;
+    }
+
+    /**
+     * Returns the offset of an instance field in the objects of the class
+     * that the field reference names. The offset is cached in the reference.
+     */
+    public static int getFieldOffset(JMemberConstant fld) {
+        if (!fld.isResolved()) {
+            JField[] layout = fld.getClassConstant().getJClass().getInstanceFields();
+            String memberName = fld.getMemberName();
+            // Search backwards so that fields hide the ones in superclasses.
+            int i = layout.length - 1;
+            while (i >= 0 && !layout[i].getMemberName().equals(memberName)) {
+                i--;
+            }
+            if (i < 0) {
+                throw new AssertionError("Field not resolved: " + fld.getFullName());
+            }
+            fld.resolve(null, i);
+        }
+        return fld.getSlot();
+    }
+
+    /** The static fields declared by this class, in the order of their values. */
+    public JField[] getStaticFields() {
+        if (staticFields == null) {
+            Vector<JField> layout = new Vector<JField>();
+            for (JField f : fields) {
+                if (f.isStatic()) {
+                    layout.add(f);
+                }
+            }
+            staticFields = layout.toArray(new JField[layout.size()]);
+        }
+        return staticFields;
+    }
+
+    /** The values of the static fields declared by this class. */
+    public Object[] getStaticValues() {
+        if (staticValues == null) {
+            JField[] layout = getStaticFields();
+            staticValues = new Object[layout.length];
+            for (int i = 0; i < layout.length; i++) {
+                staticValues[i] = layout[i].getInitValue();
+            }
+        }
+        return staticValues;
+    }
+
+    /**
+     * Returns the offset of a static field in the static values of the class
+     * that declares it, which may be a superclass or an interface of the
+     * class that the reference names. Both are cached in the reference.
+     */
+    public static int getStaticFieldOffset(JMemberConstant fld) {
+        if (!fld.isResolved()) {
+            String memberName = fld.getMemberName();
+            JClass holder = fld.getClassConstant().getJClass().lookupStaticField(memberName);
+            if (holder == null) {
+                throw new AssertionError("Field not resolved: " + fld.getFullName());
+            }
+            fld.resolve(holder, holder.indexOfStaticField(memberName));
+        }
+        return fld.getSlot();
+    }
+
+    /**
+     * Find the class that declares a static field: this class, one of its
+     * superinterfaces or one of its superclasses, in this order.
+     */
+    private JClass lookupStaticField(String memberName) {
+        if (indexOfStaticField(memberName) >= 0) {
+            return this;
+        }
+        for (JClassConstant ic : interfaces) {
+            JClass holder = ic.getJClass().lookupStaticField(memberName);
+            if (holder != null) {
+                return holder;
+            }
+        }
+        return superClass == null ? null : superClass.lookupStaticField(memberName);
+    }
+
+    private int indexOfStaticField(String memberName) {
+        JField[] layout = getStaticFields();
+        for (int i = 0; i < layout.length; i++) {
+            if (layout[i].getMemberName().equals(memberName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isInterface() {
+        return (flags & INTERFACE) == INTERFACE;
+    }
+
+    public boolean isArray() {
+        return JType.isArray(getName());
+    }
+
+    /** A number that is unique to this class. */
+    public int getTypeId() {
+        return typeId;
+    }
+
+    /**
+     * Determine if the instances of this class are also instances of the
+     * other one. A superclass is found at a fixed index in the display;
+     * interfaces are searched in the itables and the last result is cached.
+     */
+    public boolean isSubtypeOf(JClass t) {
+        if (this == t) {
+            return true;
+        }
+        if (isArray()) {
+            return isArraySubtypeOf(t);
+        }
+        if (vtable == null) {
+            link();
+        }
+        if (t.isInterface()) {
+            return implementsInterface(t);
+        }
+        if (t.vtable == null) {
+            t.link();
+        }
+        int depth = t.display.length - 1;
+        return depth < display.length && display[depth] == t;
+    }
+
+    private boolean implementsInterface(JClass itf) {
+        int id = itf.typeId;
+        if (id == lastInterfaceHit) {
+            return true;
+        } else if (id == lastInterfaceMiss) {
+            return false;
+        }
+        for (JClass key : itableKeys) {
+            if (key == itf) {
+                lastInterfaceHit = id;
+                return true;
+            }
+        }
+        lastInterfaceMiss = id;
+        return false;
+    }
+
+    private boolean isArraySubtypeOf(JClass t) {
+        String tname = t.getName();
+        if (!JType.isArray(tname)) {
+            return tname.equals(JClassLoader.OBJECT_CLASS_NAME)
+                    || tname.equals("java/lang/Cloneable")
+                    || tname.equals("java/io/Serializable");
+        }
+        String elem = JType.elemType(getName());
+        String telem = JType.elemType(tname);
+        if (JType.isPrimitive(elem) || JType.isPrimitive(telem)) {
+            return elem.equals(telem);
+        }
+        return getElemClass(elem).isSubtypeOf(getElemClass(telem));
+    }
+
+    private static JClass getElemClass(String elem) {
+        if (JType.isArray(elem)) {
+            return getArrayClass(elem);
+        }
+        return JClassLoader.getInstance().getClassByName(
+                elem.substring(1, elem.length() - 1));
+    }
+
+    /**
+     * Find the method that is invoked on an instance of this class by an
+     * invokevirtual or invokeinterface of the given method. The method
+     * reference is resolved to a slot on first use.
+     */
+    public JMethod dispatchVirtual(JMemberConstant cm) {
+        if (!cm.isResolved()) {
+            resolveSlot(cm);
+        }
+        if (cm.getTarget() != null) {
+            return cm.getTarget();
+        }
+        JClass itf = cm.getHolder();
+        if (itf == null) {
+            return getVTable()[cm.getSlot()];
+        }
+        return getITable(itf)[cm.getSlot()];
+    }
+
+    public JMethod[] getVTable() {
+        if (vtable == null) {
+            link();
+        }
+        return vtable;
+    }
+
+    /**
+     * Returns the methods that implement the methods of the given interface,
+     * in the order in which they are declared by the interface.
+     */
+    public JMethod[] getITable(JClass itf) {
+        if (vtable == null) {
+            link();
+        }
+        for (int i = 0; i < itableKeys.length; i++) {
+            if (itableKeys[i] == itf) {
+                return itables[i];
+            }
+        }
+        throw new AssertionError(name + " does not implement " + itf.name);
+    }
+
+    /**
+     * Resolve a method reference to a vtable slot, or to an itable slot if
+     * it refers to a method declared by an interface.
+     */
+    private static void resolveSlot(JMemberConstant cm) {
+        JClass owner = cm.getClassConstant().getJClass();
+        String memberName = cm.getMemberName();
+        if (owner.isInterface()) {
+            for (JClass itf : owner.getAllInterfaces()) {
+                int slot = indexOf(itf.getInterfaceMethods(), memberName);
+                if (slot >= 0) {
+                    cm.resolve(itf, slot);
+                    return;
+                }
+            }
+            // Methods of java/lang/Object invoked through an interface.
+            owner = owner.superClass;
+        }
+        int slot = indexOf(owner.getVTable(), memberName);
+        if (slot < 0) {
+            // Private methods of the class are not dispatched.
+            JMethod m = owner.getDeclaredMethod(memberName);
+            if (m == null || !m.isPrivate()) {
+                throw new AssertionError("Method not resolved: " + cm.getFullName());
+            }
+            cm.resolve(m);
+            return;
+        }
+        cm.resolve(null, slot);
+    }
+
+    /**
+     * Build the vtable and the itables. The vtable starts with the slots of
+     * the superclass; overriding methods replace the inherited ones in their
+     * slots and new methods get new slots at the end. Interface methods that
+     * are not implemented get a slot too, so that they can be overridden by
+     * subclasses. The display of the superclasses and the initial values of
+     * the instance fields are built too.
+     */
+    private void link() {
+        JField[] layout = getInstanceFields();
+        instanceValues = new Object[layout.length];
+        for (int i = 0; i < layout.length; i++) {
+            instanceValues[i] = layout[i].getInitValue();
+        }
+
+        Vector<JMethod> vt = new Vector<JMethod>();
+        if (superClass != null) {
+            for (JMethod m : superClass.getVTable()) {
+                vt.add(m);
+            }
+            JClass[] sdisplay = superClass.display;
+            display = new JClass[sdisplay.length + 1];
+            System.arraycopy(sdisplay, 0, display, 0, sdisplay.length);
+            display[sdisplay.length] = this;
+        } else {
+            display = new JClass[] { this };
+        }
+
+        if (!isInterface()) {
+            for (JMethod m : methods) {
+                if (isVirtual(m)) {
+                    int slot = indexOf(vt, m.getMemberName());
+                    if (slot >= 0) {
+                        vt.set(slot, m);
+                    } else {
+                        vt.add(m);
+                    }
+                }
+            }
+        }
+
+        Vector<JClass> allInterfaces = getAllInterfaces();
+        for (JClass itf : allInterfaces) {
+            for (JMethod m : itf.getInterfaceMethods()) {
+                if (indexOf(vt, m.getMemberName()) < 0) {
+                    vt.add(m);
+                }
+            }
+        }
+        vtable = vt.toArray(new JMethod[vt.size()]);
+
+        itableKeys = allInterfaces.toArray(new JClass[allInterfaces.size()]);
+        itables = new JMethod[itableKeys.length][];
+        for (int i = 0; i < itableKeys.length; i++) {
+            JMethod[] imethods = itableKeys[i].getInterfaceMethods();
+            itables[i] = new JMethod[imethods.length];
+            for (int j = 0; j < imethods.length; j++) {
+                itables[i][j] = vtable[indexOf(vt, imethods[j].getMemberName())];
+            }
+        }
+    }
+
+    /** The methods declared by an interface, in the order of the itable. */
+    private JMethod[] getInterfaceMethods() {
+        Vector<JMethod> ret = new Vector<JMethod>();
+        for (JMethod m : methods) {
+            if (isVirtual(m)) {
+                ret.add(m);
+            }
+        }
+        return ret.toArray(new JMethod[ret.size()]);
+    }
+
+    /**
+     * All the interfaces implemented by this class, directly or inherited
+     * from superclasses and superinterfaces. An interface is included in its
+     * own list.
+     */
+    private Vector<JClass> getAllInterfaces() {
+        Vector<JClass> ret = new Vector<JClass>();
+        if (isInterface()) {
+            ret.add(this);
+        } else if (superClass != null) {
+            ret.addAll(superClass.getAllInterfaces());
+        }
+        for (JClassConstant ic : interfaces) {
+            for (JClass itf : ic.getJClass().getAllInterfaces()) {
+                if (!ret.contains(itf)) {
+                    ret.add(itf);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isVirtual(JMethod m) {
+        return !m.isStatic() && !m.isPrivate()
+                && !m.getMemberName().startsWith("<");
+    }
+
+    private static int indexOf(JMethod[] table, String memberName) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i].getMemberName().equals(memberName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(Vector<JMethod> table, String memberName) {
+        for (int i = 0; i < table.size(); i++) {
+            if (table.get(i).getMemberName().equals(memberName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public Status getStatus() {
         return status;
     }
 
     public void setStatus(Status status) {
         this.status = status;
+        this.initializer = null;
+    }
+
+    /** Record that the given thread runs the class initializer. */
+    public void startInitialization(VMThread thread) {
+        this.status = Status.INITIALIZING;
+        this.initializer = thread;
+    }
+
+    /** The thread that runs the class initializer, or null. */
+    public VMThread getInitializer() {
+        return initializer;
     }
 
     public int getMinorVersion() {
@@ -273,16 +759,6 @@ public class JClass implements ObjectRepr {
         throw new UnsupportedOperationException(cm.toString());
     }
 
-    @Override
-    public JMethod dispatchSuperMethod(JMemberConstant cm) {
-        throw new UnsupportedOperationException(cm.toString());
-    }
-
-    @Override
-    public JMethod dispatchNonVirtualMethod(JMemberConstant cm) {
-        throw new UnsupportedOperationException(cm.toString());
-    }
-
     @Override
     public JClass getJClass() {
         return JClassLoader.getInstance().getClassByName("java/lang/Class");
@@ -5,6 +5,7 @@ import java.util.Vector;
 
 import jvm.classparser.JAttribute.CodeAttribute;
 import jvm.classparser.JAttribute.ConstantValueAttribute;
+import jvm.execution.DecodedCode;
 import jvm.execution.Natives;
 import jvm.util.DataInputStream;
 
@@ -16,7 +17,9 @@ import jvm.util.DataInputStream;
  * @author ctalau
  */
 public class JMember {
+    public static final int PRIVATE = 0x0002;
     public static final int STATIC = 0x0008;
+    public static final int SYNCHRONIZED = 0x0020;
     public static final int NATIVE = 0x0100;
 
     protected int flags; // static or not?
@@ -58,6 +61,14 @@ public class JMember {
         return (flags & STATIC) == STATIC;
     }
 
+    public boolean isPrivate(){
+        return (flags & PRIVATE) == PRIVATE;
+    }
+
+    public boolean isSynchronized(){
+        return (flags & SYNCHRONIZED) == SYNCHRONIZED;
+    }
+
     public String getMemberName() {
         return memberName;
     }
@@ -66,6 +77,11 @@ public class JMember {
         return fullName;
     }
 
+    /** The type descriptor of the member. */
+    public String getType() {
+        return type;
+    }
+
     public int getID(){
         return id;
     }
@@ -80,6 +96,9 @@ public class JMember {
         // size of the arguments on the stack, including dispatch object
         protected int argsSize, retSize;
         protected List<Integer> argsSizes;
+        // type of the arguments, as in [JType.argsTypes], and of the result
+        protected String argsTypes;
+        protected char retType;
 
         public static JMethod readMethod(DataInputStream is, JClass cls, int id) {
             int flags = is.readUShort();
@@ -88,35 +107,59 @@ public class JMember {
                 JNativeMethod jnm = Natives.getNativeMethod(jm.getFullName());
                 jnm.init(jm);
                 return jnm;
-            } else {
-                return new JBytecodeMethod(is, cls, id, flags);
             }
+            JBytecodeMethod bm = new JBytecodeMethod(is, cls, id, flags);
+            JNativeMethod intrinsic = Natives.getIntrinsic(bm.getFullName());
+            if (intrinsic != null) {
+                intrinsic.init(bm);
+                return intrinsic;
+            }
+            return bm;
         }
 
         protected JMethod(DataInputStream is, JClass cls, int id, int flags) {
             super(is, cls, id, flags);
             this.argsSize = JType.argsSize(type);
             this.argsSizes = JType.argsSizes(type);
+            this.argsTypes = JType.argsTypes(type);
 
             // Instance methods have on the stack the dispatch object
             if (!isStatic()){
                 this.argsSizes.add(0, 1);
+                this.argsTypes = "L" + this.argsTypes;
                 this.argsSize++;
             }
             this.retSize = JType.retSize(type);
+            this.retType = JType.retType(type);
         }
 
         protected JMethod() {
         }
 
-        private static JBytecodeMethod bootMehtod = new JBytecodeMethod(){{
-            this.flags = STATIC;
-            this.memberName = this.fullName = "<initmethod>";
-            this.code = CodeAttribute.getBootCode();
-        }};
+        /**
+         * The boot method belongs to the boot class, so that its constants
+         * are resolved against the class that was booted.
+         */
+        public static JBytecodeMethod createBootMethod(final JClass bootClass) {
+            return new JBytecodeMethod(){{
+                this.flags = STATIC;
+                this.memberName = this.fullName = "<initmethod>";
+                this.code = CodeAttribute.getBootCode();
+                this.cls = bootClass;
+            }};
+        }
 
-        public static JBytecodeMethod getBootMehtod() {
-            return bootMehtod;
+        /**
+         * The bottom frame of the threads started by the program, that
+         * invokes the run() method of the Thread object in its first local.
+         */
+        public static JBytecodeMethod createThreadBootMethod(final JClass bootClass) {
+            return new JBytecodeMethod(){{
+                this.flags = STATIC;
+                this.memberName = this.fullName = "<threadmethod>";
+                this.code = CodeAttribute.getThreadBootCode();
+                this.cls = bootClass;
+            }};
         }
 
         @Override
@@ -136,6 +179,14 @@ public class JMember {
             return argsSizes;
         }
 
+        public String getArgsTypes() {
+            return argsTypes;
+        }
+
+        public char getRetType() {
+            return retType;
+        }
+
         public JClass getJClass() {
             return cls;
         }
@@ -146,6 +197,7 @@ public class JMember {
 
     public static class JBytecodeMethod extends JMethod {
         protected CodeAttribute code;
+        private DecodedCode decoded;
 
         public JBytecodeMethod(DataInputStream is, JClass cls, int id, int flags) {
             super(is, cls, id, flags);
@@ -160,10 +212,48 @@ public class JMember {
         public CodeAttribute getCode() {
             return code;
         }
+
+        /**
+         * The decoded code is built lazily, when the method is first invoked.
+         */
+        public DecodedCode getDecodedCode() {
+            if (decoded == null) {
+                decoded = new DecodedCode(this);
+            }
+            return decoded;
+        }
     }
 
     public static abstract class JNativeMethod extends JMethod {
         public abstract Object call(Object... args);
+
+        /*
+         * Entry points for each number of arguments. The natives of that
+         * arity override them, so that no array of arguments is allocated.
+         */
+        public Object call0() {
+            return call();
+        }
+
+        public Object call1(Object arg1) {
+            return call(arg1);
+        }
+
+        public Object call2(Object arg1, Object arg2) {
+            return call(arg1, arg2);
+        }
+
+        public Object call3(Object arg1, Object arg2, Object arg3) {
+            return call(arg1, arg2, arg3);
+        }
+
+        public Object call4(Object arg1, Object arg2, Object arg3, Object arg4) {
+            return call(arg1, arg2, arg3, arg4);
+        }
+
+        public Object call5(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+            return call(arg1, arg2, arg3, arg4, arg5);
+        }
         public void init(JMethod jm) {
             this.attributes = jm.attributes;
             this.cls = jm.cls;
@@ -175,7 +265,9 @@ public class JMember {
 
             this.argsSize = jm.argsSize;
             this.argsSizes = jm.argsSizes;
+            this.argsTypes = jm.argsTypes;
             this.retSize = jm.retSize;
+            this.retType = jm.retType;
         }
     }
 
@@ -183,6 +275,10 @@ public class JMember {
         public Object call(Object... args) {
             return call();
         }
+        @Override
+        public Object call0() {
+            return call();
+        }
         protected abstract R call();
     }
 
@@ -191,6 +287,11 @@ public class JMember {
         public Object call(Object... args) {
             return call((T1)args[0]);
         }
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object call1(Object arg1) {
+            return call((T1)arg1);
+        }
         public abstract R call(T1 arg1);
     }
 
@@ -199,6 +300,11 @@ public class JMember {
         public Object call(Object... args) {
             return call((T1)args[0], (T2)args[1]);
         }
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object call2(Object arg1, Object arg2) {
+            return call((T1)arg1, (T2)arg2);
+        }
         public abstract R call(T1 arg1, T2 arg2);
     }
 
@@ -207,6 +313,11 @@ public class JMember {
         public Object call(Object... args) {
             return call((T1)args[0], (T2)args[1], (T3)args[2]);
         }
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object call3(Object arg1, Object arg2, Object arg3) {
+            return call((T1)arg1, (T2)arg2, (T3)arg3);
+        }
         public abstract R call(T1 arg1, T2 arg2, T3 arg3);
     }
 
@@ -215,6 +326,11 @@ public class JMember {
         public Object call(Object... args) {
             return call((T1)args[0], (T2)args[1], (T3)args[2], (T4)args[3]);
         }
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object call4(Object arg1, Object arg2, Object arg3, Object arg4) {
+            return call((T1)arg1, (T2)arg2, (T3)arg3, (T4)arg4);
+        }
         public abstract R call(T1 arg1, T2 arg2, T3 arg3, T4 arg4);
     }
 
@@ -223,6 +339,11 @@ public class JMember {
         public Object call(Object... args) {
             return call((T1)args[0], (T2)args[1], (T3)args[2], (T4)args[3], (T5)args[4]);
         }
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object call5(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+            return call((T1)arg1, (T2)arg2, (T3)arg3, (T4)arg4, (T5)arg5);
+        }
         public abstract R call(T1 arg1, T2 arg2, T3 arg3, T4 arg4, T5 arg5);
     }
 
@@ -2,7 +2,6 @@ package jvm.classparser;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 
 
@@ -69,21 +68,17 @@ public class JType {
         }
     }
 
+    // Values of type byte, char, short and boolean are represented as int.
     private static HashMap<Character, Object> def = new HashMap<Character, Object>();
-    private static HashSet<Character> intCastable = new HashSet<Character>();
     static {
-        def.put('B', new Byte((byte)0));
-        def.put('C', new Character((char)0));
+        def.put('B', new Integer(0));
+        def.put('C', new Integer(0));
         def.put('D', new Double(0.0));
         def.put('F', new Float(0.0f));
         def.put('I', new Integer(0));
         def.put('J', new Long(0L));
-        def.put('S', new Short((short)0));
+        def.put('S', new Integer(0));
         def.put('Z', new Integer(0));
-
-        intCastable.add('B');
-        intCastable.add('C');
-        intCastable.add('S');
     }
 
     private static String [] names =
@@ -97,14 +92,6 @@ public class JType {
         return def.get(type.charAt(0));
     }
 
-    public static Object getDefaultElemValue(String type){
-        if (intCastable.contains(type.charAt(0))){
-            return def.get('I');
-        } else {
-            return def.get(type.charAt(0));
-        }
-    }
-
     public static int argsSize(String type){
         if (type.startsWith("(")) {
             int sum = 0;
@@ -118,42 +105,53 @@ public class JType {
     }
 
     public static List<Integer> argsSizes(String type) {
+        String types = argsTypes(type);
+        List<Integer> ret = new ArrayList<Integer>();
+        for (int i = 0; i < types.length(); i++) {
+            ret.add(size(types.substring(i, i + 1)));
+        }
+        return ret;
+    }
+
+    /**
+     * The first character of the descriptor of each argument of a method:
+     * the primitive type, 'L' or '['.
+     */
+    public static String argsTypes(String type) {
         if (!type.startsWith("("))    // field
             throw new AssertionError(type);
 
         type = type.substring(1, type.indexOf(')'));
 
-        List<Integer> ret = new ArrayList<Integer>();
+        StringBuilder ret = new StringBuilder();
         char [] chars = type.toCharArray();
         int pos = 0;
 
         while (pos < chars.length){
-            switch (chars[pos++]){
-            case 'B':
-            case 'C':
-            case 'F':
-            case 'I':
-            case 'S':
-            case 'Z':
-                ret.add(1); break;
-            case 'D':
-            case 'J':
-                ret.add(2); break;
+            char c = chars[pos++];
+            ret.append(c);
+            switch (c){
             case 'L':
                 while (chars[pos] != ';') pos += 1;
                 pos++;
-                ret.add(1);
                 break;
             case '[':
                 while (chars[pos] == '[') pos++;
                 if (chars[pos] == 'L') {
                     while (chars[pos++] != ';');
+                } else {
+                    pos++;
                 }
-                pos++;
-                ret.add(1);
             }
         }
-        return ret;
+        return ret.toString();
+    }
+
+    /**
+     * The first character of the descriptor of the return type of a method.
+     */
+    public static char retType(String type){
+        return type.charAt(type.indexOf(')') + 1);
     }
 
 
@@ -4,7 +4,6 @@ package jvm.classparser.jconstants;
 
 public abstract class JDataConstant implements JConstant {
 
-    /** Returns the representation of the object: value type, string or class.
-     * @throws JClassNotLoadedException */
+    /** Returns the representation of the object: value type, string or class. */
     public abstract Object getRepr();
 }
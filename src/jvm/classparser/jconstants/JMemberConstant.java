@@ -1,6 +1,8 @@
 package jvm.classparser.jconstants;
 
+import jvm.classparser.JClass;
 import jvm.classparser.JConstantPool;
+import jvm.classparser.JMember.JMethod;
 import jvm.classparser.JType;
 import jvm.execution.ExecutionEngine;
 import jvm.util.DataInputStream;
@@ -16,6 +18,20 @@ public class JMemberConstant implements JConstant {
      */
     protected int size, argsSize;
 
+    /**
+     * Once resolved: for methods, the vtable slot (or the itable slot, if
+     * [holder] is not null); for instance fields, the offset in the object;
+     * for static fields, the offset in the static values of [holder].
+     */
+    private int slot = -1;
+    private JClass holder;
+
+    // The method invoked without dispatch, for private methods.
+    private JMethod target;
+
+    // Data cached by the object representation, e.g. field accessors.
+    private Object accessor;
+
 
     public static JConstant createConstantStub(int tag, DataInputStream is){
         if (tag == JConstant.CONSTANT_NameAndType){
@@ -63,6 +79,51 @@ public class JMemberConstant implements JConstant {
         return type;
     }
 
+    /** The first character of the type descriptor. */
+    public char getTypeTag() {
+        return type.charAt(0);
+    }
+
+    public boolean isResolved() {
+        return slot >= 0;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * The interface whose itable contains the method (null for vtable slots),
+     * or the class that declares the static field.
+     */
+    public JClass getHolder() {
+        return holder;
+    }
+
+    public void resolve(JClass holder, int slot) {
+        this.holder = holder;
+        this.slot = slot;
+    }
+
+    /** The method invoked by this reference if it is not dispatched. */
+    public JMethod getTarget() {
+        return target;
+    }
+
+    public void resolve(JMethod target) {
+        this.target = target;
+        this.slot = 0;
+    }
+
+    /** The data cached by the object representation for this field. */
+    public Object getAccessor() {
+        return accessor;
+    }
+
+    public void setAccessor(Object accessor) {
+        this.accessor = accessor;
+    }
+
     private JMemberConstant(){}
 
     public static JMemberConstant getBootMethodRef(final String bootClass){
@@ -2,11 +2,11 @@ package jvm.classparser.jconstants;
 
 import jvm.classparser.JClass;
 import jvm.classparser.JConstantPool;
-import jvm.classparser.JMember.JMethod;
 import jvm.execution.JClassLoader;
 import jvm.execution.objrepr.ArrayRepr;
 import jvm.execution.objrepr.ObjectFactory;
 import jvm.execution.objrepr.ObjectRepr;
+import jvm.execution.objrepr.java.JavaPrimitiveArrayRepr;
 import jvm.util.DataInputStream;
 
 /**
@@ -43,62 +43,37 @@ public class JStringConstant extends JDataConstant {
         return "\"" + value + "\"";
     }
 
-    private static JMemberConstant valueField = new JMemberConstant(
-            new JClassConstant(JClassLoader.STRING_CLASS_NAME), "value", "[C");
-    private static JClass stringClass = JClassLoader.getInstance()
-            .getClassByName(JClassLoader.STRING_CLASS_NAME);
-
-    public static ObjectRepr createString(final String value) {
-        ArrayRepr charArray = new ArrayRepr() {
-
-            @Override
-            public Object get(int i) {
-                return value.charAt(i);
-            }
-
-            @Override
-            public void set(int i, Object val) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public int length() {
-                return value.length();
-            }
-
-            @Override
-            public JMethod dispatchMethod(JMemberConstant cm) {
-                // XXX: at least check that it is not required.
-                throw new UnsupportedOperationException();
-            }
+    private static JMemberConstant valueField;
+    private static JClass stringClass;
+    static {
+        reset();
+    }
 
-            @Override
-            public JClass getJClass() {
-                // XXX: at least check that it is not required.
-                throw new UnsupportedOperationException();
-            }
+    /** Use the String class of the current class loader. */
+    public static void reset() {
+        valueField = new JMemberConstant(
+                new JClassConstant(JClassLoader.STRING_CLASS_NAME), "value", "[C");
+        stringClass = JClassLoader.getInstance()
+                .getClassByName(JClassLoader.STRING_CLASS_NAME);
+    }
 
-            @Override
-            public String toString() {
-                return "\"" + value + "\"";
-            }
-        };
+    public static ObjectRepr createString(final String value) {
+        ArrayRepr charArray = new JavaPrimitiveArrayRepr.Chars(value.toCharArray());
         ObjectRepr ret = ObjectFactory.newObject(stringClass);
         ret.putField(valueField, charArray);
         return ret;
     }
 
     public static String toString(ObjectRepr scst) {
-        // XXX: bad perf
-        JMemberConstant valueField = new JMemberConstant(
-                new JClassConstant(JClassLoader.STRING_CLASS_NAME), "value", "[C");
-
         ArrayRepr value = (ArrayRepr) scst.getField(valueField);
-        char [] ret = new char[value.length()];
-        for (int i = 0; i < value.length(); i++) {
-            ret[i] = (Character) value.get(i);
+        if (value instanceof JavaPrimitiveArrayRepr.Chars) {
+            return new String(((JavaPrimitiveArrayRepr.Chars) value).array);
+        }
+        char[] chars = new char[value.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) value.getInt(i);
         }
-        return new String(ret);
+        return new String(chars);
     }
 
     private static class JStringConstantStub implements JConstant {
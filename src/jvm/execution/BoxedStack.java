@@ -0,0 +1,148 @@
+package jvm.execution;
+
+import java.util.Arrays;
+
+/**
+ * Stack that stores every value boxed in an array of objects.
+ *
+ * Since Java does not allow to mix between primitive and Object values in an
+ * array, every arithmetic instruction allocates its result.
+ *
+ * @author ctalau
+ */
+public class BoxedStack extends Stack {
+    protected Object [] stack = new Object [INITIAL_SLOTS];
+
+    /*
+     *  Push methods
+     */
+    @Override
+    protected Stack push(Object o){
+        stack[top++] = o;
+        return this;
+    }
+
+    @Override
+    protected Stack pushi(int v){
+        return push(v);
+    }
+
+    @Override
+    protected Stack pushl(long v){
+        stack[top] = v;
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushf(float v){
+        return push(v);
+    }
+
+    @Override
+    protected Stack pushd(double v){
+        stack[top] = v;
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushValue(Object o, char type) {
+        stack[top] = o;
+        top += size(type);
+        return this;
+    }
+
+    /*
+     * Pop methods
+     */
+    @Override
+    protected Object pop(){
+        Object ret = stack[--top];
+        stack[top] = null;    // throw the object to the garbage collector
+        return ret;
+    }
+
+    private Object pop2(){
+        top -= 2;
+        Object ret = stack[top];
+        stack[top] = null;
+        return ret;
+    }
+
+    @Override
+    protected int popi(){
+        return (Integer) pop();
+    }
+
+    @Override
+    protected float popf(){
+        return (Float) pop();
+    }
+
+    @Override
+    protected long popl(){
+        return (Long) pop2();
+    }
+
+    @Override
+    protected double popd(){
+        return (Double) pop2();
+    }
+
+    @Override
+    protected Object popValue(char type) {
+        return size(type) == 2 ? pop2() : pop();
+    }
+
+    /*
+     * Slot methods
+     */
+    @Override
+    protected void copy(int from, int to) {
+        stack[to] = stack[from];
+    }
+
+    @Override
+    protected void clear(int from, int to) {
+        Arrays.fill(stack, from, to, null);
+    }
+
+    @Override
+    protected Object peek(int off){
+        return stack[top - off];
+    }
+
+    @Override
+    protected void iinc(int off, int delta) {
+        stack[locals + off] = (Integer) stack[locals + off] + delta;
+    }
+
+    @Override
+    protected int loadi(int off) {
+        return (Integer) stack[locals + off];
+    }
+
+    @Override
+    protected Object loado(int off) {
+        return stack[locals + off];
+    }
+
+    @Override
+    protected Stack newStack() {
+        return new BoxedStack();
+    }
+
+    @Override
+    protected void grow(int size) {
+        Object [] stackNew = new Object [size];
+        System.arraycopy(stack, 0, stackNew, 0, top);
+        stack = stackNew;
+        capacity = size;
+    }
+
+    @Override
+    protected String slotToString(int i) {
+        return String.valueOf(stack[i]);
+    }
+}
@@ -0,0 +1,579 @@
+package jvm.execution;
+
+import jvm.classparser.JAttribute.CodeAttribute;
+import jvm.classparser.JAttribute.CodeAttribute.ExceptionDescriptor;
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.jconstants.JClassConstant;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.execution.ast.AstMethod;
+import jvm.execution.ir.RegisterCode;
+import jvm.execution.jit.CompiledMethod;
+import jvm.execution.wasm.WasmMethod;
+import jvm.util.DataInputStream;
+
+
+/**
+ * Pre-decoded form of the bytecode of a method.
+ *
+ * The bytecode is decoded once, when the method is first invoked, into
+ * parallel arrays indexed by instruction number: the opcode, up to two
+ * integer operands and a reference operand. Branch targets are converted
+ * from bytecode offsets to instruction numbers and constant pool indices
+ * are replaced by the constants they point to.
+ *
+ * When an instruction resolves its reference operand for the first time,
+ * the execution engine rewrites it into a "quick" variant that keeps the
+ * resolved value in the reference operand, so it is never resolved again.
+ *
+ * Some frequent sequences of instructions are fused into superinstructions,
+ * chosen from the pairs of opcodes counted by [ExecutionStats] on the
+ * sample programs: the first opcode of the sequence is replaced and the
+ * other instructions stay in place, so they can still be branch targets.
+ * The translators to other tiers see the original opcode ([getOpcode]).
+ *
+ * @author ctalau
+ */
+public class DecodedCode {
+    private static boolean superinstructions = true;
+
+    /** Opcode of each instruction - it may be rewritten to a quick variant */
+    public final byte[] ops;
+    /** Immediate value, local variable index or branch target */
+    public final int[] args;
+    /**
+     * Second operand: increment for iinc, dimensions for multianewarray, size
+     * of the arguments for virtual calls
+     */
+    public final int[] args2;
+    /** Constant pool entry referenced by the instruction, or its resolved value */
+    public final Object[] refs;
+
+    // bytecode offset of each instruction and the reverse mapping
+    private final int[] pcs;
+    private final int[] index;
+
+    /** The exception handlers, or null if the method has none */
+    public final HandlerTable handlers;
+
+    /**
+     * Invocations and backward branches, counted while the JIT, the
+     * WebAssembly compiler, the register code or the tree interpreter are on
+     */
+    public int hotness;
+    /** The code compiled by the JIT, or null */
+    public CompiledMethod compiled;
+    /** The code compiled to WebAssembly, or null */
+    public WasmMethod wasm;
+    /** The register code of the method, or null */
+    public RegisterCode registers;
+    /** True once the translation to register code was tried */
+    public boolean translated;
+    /** The tree of the method, or null */
+    public AstMethod tree;
+    /** True once the translation to a tree was tried */
+    public boolean treeBuilt;
+
+    public DecodedCode(JBytecodeMethod m) {
+        this(m.getCode(), m.getJClass());
+    }
+
+    public DecodedCode(CodeAttribute attr, JClass cls) {
+        byte[] bc = attr.bytecode;
+
+        // First pass: find the instruction boundaries
+        index = new int[bc.length + 1];
+        int cnt = 0;
+        for (int pc = 0; pc < bc.length; pc += length(bc, pc)) {
+            index[pc] = cnt++;
+        }
+        index[bc.length] = cnt;
+
+        ops = new byte[cnt];
+        args = new int[cnt];
+        args2 = new int[cnt];
+        refs = new Object[cnt];
+        pcs = new int[cnt];
+
+        // Second pass: decode the operands
+        int pc = 0;
+        for (int i = 0; i < cnt; i++) {
+            pcs[i] = pc;
+            decode(bc, pc, i, cls);
+            pc += length(bc, pc);
+        }
+
+        handlers = attr.exns.isEmpty() ? null : new HandlerTable(attr, index);
+        if (superinstructions) {
+            fuse();
+        }
+    }
+
+    /** Fuse the code decoded from now on into superinstructions. */
+    public static void setSuperinstructions(boolean enabled) {
+        superinstructions = enabled;
+    }
+
+    /**
+     * Returns the opcode of the given instruction, the first opcode of the
+     * sequence for superinstructions.
+     */
+    public byte getOpcode(int i) {
+        switch (ops[i]) {
+        case OPCodes.OP_iinc_goto:
+            return OPCodes.OP_iinc;
+        case OPCodes.OP_iload_iload_if_icmp:
+            return OPCodes.OP_iload;
+        case OPCodes.OP_aload_getfield:
+        case OPCodes.OP_aload_arraylength:
+            return OPCodes.OP_aload;
+        default:
+            return ops[i];
+        }
+    }
+
+    private void fuse() {
+        // The operands of the short forms of the loads are decoded already.
+        for (int i = 0; i + 1 < ops.length; i++) {
+            byte next = ops[i + 1];
+            if (ops[i] == OPCodes.OP_iinc
+                    && (next == OPCodes.OP_goto || next == OPCodes.OP_goto_w)) {
+                ops[i] = OPCodes.OP_iinc_goto;
+            } else if (isLoad(ops[i], OPCodes.OP_iload, OPCodes.OP_iload_0)
+                    && isLoad(next, OPCodes.OP_iload, OPCodes.OP_iload_0)
+                    && i + 2 < ops.length && isIfIcmp(ops[i + 2])) {
+                ops[i] = OPCodes.OP_iload_iload_if_icmp;
+            } else if (isLoad(ops[i], OPCodes.OP_aload, OPCodes.OP_aload_0)
+                    && next == OPCodes.OP_getfield) {
+                ops[i] = OPCodes.OP_aload_getfield;
+            } else if (isLoad(ops[i], OPCodes.OP_aload, OPCodes.OP_aload_0)
+                    && next == OPCodes.OP_arraylength) {
+                ops[i] = OPCodes.OP_aload_arraylength;
+            }
+        }
+    }
+
+    private static boolean isLoad(byte op, byte load, byte load0) {
+        return op == load || (op >= load0 && op <= load0 + 3);
+    }
+
+    private static boolean isIfIcmp(byte op) {
+        return op >= OPCodes.OP_if_icmpeq && op <= OPCodes.OP_if_icmple;
+    }
+
+    /** Returns the number of decoded instructions. */
+    public int size() {
+        return ops.length;
+    }
+
+    /** Returns the bytecode offset of the given instruction. */
+    public int getBytecodeOffset(int i) {
+        return i < pcs.length ? pcs[i] : -1;
+    }
+
+    /** Returns the instruction that starts at the given bytecode offset. */
+    public int getInstructionIndex(int pc) {
+        return index[pc];
+    }
+
+    /**
+     * Rewrites an instruction whose operand was resolved into its quick form.
+     */
+    public void quicken(int i, byte op, Object resolved) {
+        refs[i] = resolved;
+        ops[i] = op;
+    }
+
+    private void decode(byte[] bc, int pc, int i, JClass cls) {
+        byte op = bc[pc];
+        ops[i] = op;
+
+        switch (op) {
+        case OPCodes.OP_iconst_m1:
+        case OPCodes.OP_iconst_0:
+        case OPCodes.OP_iconst_1:
+        case OPCodes.OP_iconst_2:
+        case OPCodes.OP_iconst_3:
+        case OPCodes.OP_iconst_4:
+        case OPCodes.OP_iconst_5:
+            args[i] = op - OPCodes.OP_iconst_0;
+            break;
+        case OPCodes.OP_lconst_0:
+        case OPCodes.OP_lconst_1:
+            args[i] = op - OPCodes.OP_lconst_0;
+            break;
+        case OPCodes.OP_fconst_0:
+        case OPCodes.OP_fconst_1:
+        case OPCodes.OP_fconst_2:
+            args[i] = op - OPCodes.OP_fconst_0;
+            break;
+        case OPCodes.OP_dconst_0:
+        case OPCodes.OP_dconst_1:
+            args[i] = op - OPCodes.OP_dconst_0;
+            break;
+        case OPCodes.OP_bipush:
+            args[i] = bc[pc + 1];
+            break;
+        case OPCodes.OP_sipush:
+            args[i] = DataInputStream.readShort(bc, pc + 1);
+            break;
+
+        case OPCodes.OP_ldc:
+            args[i] = bc[pc + 1] & 0xFF;
+            refs[i] = cls.getConstant(args[i]);
+            break;
+
+        case OPCodes.OP_iload:
+        case OPCodes.OP_lload:
+        case OPCodes.OP_fload:
+        case OPCodes.OP_dload:
+        case OPCodes.OP_aload:
+        case OPCodes.OP_istore:
+        case OPCodes.OP_lstore:
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_astore:
+        case OPCodes.OP_ret:
+        case OPCodes.OP_newarray:
+            args[i] = bc[pc + 1] & 0xFF;
+            break;
+
+        case OPCodes.OP_iload_0:
+        case OPCodes.OP_iload_1:
+        case OPCodes.OP_iload_2:
+        case OPCodes.OP_iload_3:
+        case OPCodes.OP_lload_0:
+        case OPCodes.OP_lload_1:
+        case OPCodes.OP_lload_2:
+        case OPCodes.OP_lload_3:
+        case OPCodes.OP_fload_0:
+        case OPCodes.OP_fload_1:
+        case OPCodes.OP_fload_2:
+        case OPCodes.OP_fload_3:
+        case OPCodes.OP_dload_0:
+        case OPCodes.OP_dload_1:
+        case OPCodes.OP_dload_2:
+        case OPCodes.OP_dload_3:
+        case OPCodes.OP_aload_0:
+        case OPCodes.OP_aload_1:
+        case OPCodes.OP_aload_2:
+        case OPCodes.OP_aload_3:
+            args[i] = (op - OPCodes.OP_iload_0) % 4;
+            break;
+
+        case OPCodes.OP_istore_0:
+        case OPCodes.OP_istore_1:
+        case OPCodes.OP_istore_2:
+        case OPCodes.OP_istore_3:
+        case OPCodes.OP_lstore_0:
+        case OPCodes.OP_lstore_1:
+        case OPCodes.OP_lstore_2:
+        case OPCodes.OP_lstore_3:
+        case OPCodes.OP_fstore_0:
+        case OPCodes.OP_fstore_1:
+        case OPCodes.OP_fstore_2:
+        case OPCodes.OP_fstore_3:
+        case OPCodes.OP_dstore_0:
+        case OPCodes.OP_dstore_1:
+        case OPCodes.OP_dstore_2:
+        case OPCodes.OP_dstore_3:
+        case OPCodes.OP_astore_0:
+        case OPCodes.OP_astore_1:
+        case OPCodes.OP_astore_2:
+        case OPCodes.OP_astore_3:
+            args[i] = (op - OPCodes.OP_istore_0) % 4;
+            break;
+
+        case OPCodes.OP_iinc:
+            args[i] = bc[pc + 1] & 0xFF;
+            args2[i] = bc[pc + 2];
+            break;
+
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_if_acmpeq:
+        case OPCodes.OP_if_acmpne:
+        case OPCodes.OP_goto:
+        case OPCodes.OP_jsr:
+        case OPCodes.OP_ifnull:
+        case OPCodes.OP_ifnonnull:
+            args[i] = index[pc + DataInputStream.readShort(bc, pc + 1)];
+            break;
+        case OPCodes.OP_goto_w:
+        case OPCodes.OP_jsr_w:
+            args[i] = index[pc + DataInputStream.readUInt(bc, pc + 1)];
+            break;
+
+        case OPCodes.OP_tableswitch: {
+            int pos = (pc + 4) & ~3;
+            int def = DataInputStream.readUInt(bc, pos);
+            int low = DataInputStream.readUInt(bc, pos + 4);
+            int high = DataInputStream.readUInt(bc, pos + 8);
+            int[] targets = new int[high - low + 1];
+            for (int k = 0; k < targets.length; k++) {
+                targets[k] = index[pc + DataInputStream.readUInt(bc, pos + 12 + 4 * k)];
+            }
+            refs[i] = new SwitchTable(index[pc + def], low, null, targets);
+            break;
+        }
+        case OPCodes.OP_lookupswitch: {
+            int pos = (pc + 4) & ~3;
+            int def = DataInputStream.readUInt(bc, pos);
+            int npairs = DataInputStream.readUInt(bc, pos + 4);
+            int[] keys = new int[npairs];
+            int[] targets = new int[npairs];
+            for (int k = 0; k < npairs; k++) {
+                keys[k] = DataInputStream.readUInt(bc, pos + 8 + 8 * k);
+                targets[k] = index[pc + DataInputStream.readUInt(bc, pos + 12 + 8 * k)];
+            }
+            refs[i] = new SwitchTable(index[pc + def], 0, keys, targets);
+            break;
+        }
+
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc2_w:
+        case OPCodes.OP_getstatic:
+        case OPCodes.OP_putstatic:
+        case OPCodes.OP_getfield:
+        case OPCodes.OP_putfield:
+        case OPCodes.OP_invokespecial:
+        case OPCodes.OP_invokestatic:
+        case OPCodes.OP_new:
+        case OPCodes.OP_anewarray:
+        case OPCodes.OP_checkcast:
+        case OPCodes.OP_instanceof:
+            args[i] = DataInputStream.readUShort(bc, pc + 1);
+            refs[i] = cls.getConstant(args[i]);
+            break;
+        case OPCodes.OP_invokevirtual:
+        case OPCodes.OP_invokeinterface:
+            args[i] = DataInputStream.readUShort(bc, pc + 1);
+            refs[i] = cls.getConstant(args[i]);
+            args2[i] = ((JMemberConstant) refs[i]).getArgsSize();
+            break;
+        case OPCodes.OP_multianewarray:
+            args[i] = DataInputStream.readUShort(bc, pc + 1);
+            args2[i] = bc[pc + 3] & 0xFF;
+            refs[i] = cls.getConstant(args[i]);
+            break;
+
+        case OPCodes.OP_wide:
+            // The wide prefix disappears: only the index gets larger.
+            ops[i] = bc[pc + 1];
+            args[i] = DataInputStream.readUShort(bc, pc + 2);
+            if (ops[i] == OPCodes.OP_iinc) {
+                args2[i] = DataInputStream.readShort(bc, pc + 4);
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the instruction found at [pc].
+     */
+    private static int length(byte[] bc, int pc) {
+        switch (bc[pc]) {
+        case OPCodes.OP_bipush:
+        case OPCodes.OP_ldc:
+        case OPCodes.OP_iload:
+        case OPCodes.OP_lload:
+        case OPCodes.OP_fload:
+        case OPCodes.OP_dload:
+        case OPCodes.OP_aload:
+        case OPCodes.OP_istore:
+        case OPCodes.OP_lstore:
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_astore:
+        case OPCodes.OP_ret:
+        case OPCodes.OP_newarray:
+            return 2;
+
+        case OPCodes.OP_sipush:
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc2_w:
+        case OPCodes.OP_iinc:
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_if_acmpeq:
+        case OPCodes.OP_if_acmpne:
+        case OPCodes.OP_goto:
+        case OPCodes.OP_jsr:
+        case OPCodes.OP_ifnull:
+        case OPCodes.OP_ifnonnull:
+        case OPCodes.OP_getstatic:
+        case OPCodes.OP_putstatic:
+        case OPCodes.OP_getfield:
+        case OPCodes.OP_putfield:
+        case OPCodes.OP_invokevirtual:
+        case OPCodes.OP_invokespecial:
+        case OPCodes.OP_invokestatic:
+        case OPCodes.OP_new:
+        case OPCodes.OP_anewarray:
+        case OPCodes.OP_checkcast:
+        case OPCodes.OP_instanceof:
+            return 3;
+
+        case OPCodes.OP_multianewarray:
+            return 4;
+
+        case OPCodes.OP_invokeinterface:
+        case OPCodes.OP_goto_w:
+        case OPCodes.OP_jsr_w:
+            return 5;
+
+        case OPCodes.OP_wide:
+            return bc[pc + 1] == OPCodes.OP_iinc ? 6 : 4;
+
+        case OPCodes.OP_tableswitch: {
+            int pos = (pc + 4) & ~3;
+            int low = DataInputStream.readUInt(bc, pos + 4);
+            int high = DataInputStream.readUInt(bc, pos + 8);
+            return pos + 12 + 4 * (high - low + 1) - pc;
+        }
+        case OPCodes.OP_lookupswitch: {
+            int pos = (pc + 4) & ~3;
+            int npairs = DataInputStream.readUInt(bc, pos + 4);
+            return pos + 8 + 8 * npairs - pc;
+        }
+
+        default:
+            return 1;
+        }
+    }
+
+    /**
+     * Exception table of a method, with the ranges and the handlers given as
+     * instruction numbers. The handlers are kept in the order of the
+     * exception table, because the first one that matches is chosen, and the
+     * catch types are resolved to classes on first use.
+     */
+    public static class HandlerTable {
+        private final int[] starts, ends, targets;
+        private final JClassConstant[] types;
+        private final JClass[] classes;
+
+        // The range of instructions covered by at least one handler
+        private int low = Integer.MAX_VALUE, high = 0;
+
+        HandlerTable(CodeAttribute attr, int[] index) {
+            int n = attr.exns.size();
+            starts = new int[n];
+            ends = new int[n];
+            targets = new int[n];
+            types = new JClassConstant[n];
+            classes = new JClass[n];
+            for (int i = 0; i < n; i++) {
+                ExceptionDescriptor d = attr.exns.get(i);
+                starts[i] = index[d.start_pc];
+                ends[i] = index[d.end_pc];
+                targets[i] = index[d.handler_pc];
+                types[i] = d.type;
+                low = Math.min(low, starts[i]);
+                high = Math.max(high, ends[i]);
+            }
+        }
+
+        /**
+         * Returns the handler of an exception of the given class, thrown by
+         * the given instruction, or -1 if there is none.
+         */
+        public int find(int i, JClass exn) {
+            if (i < low || i >= high) {
+                return -1;
+            }
+            for (int k = 0; k < starts.length; k++) {
+                if (starts[k] <= i && i < ends[k]) {
+                    if (types[k] == JClassConstant.ANY) {
+                        return targets[k];
+                    }
+                    if (classes[k] == null) {
+                        classes[k] = types[k].getJClass();
+                    }
+                    if (exn.isSubtypeOf(classes[k])) {
+                        return targets[k];
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Jump table of a tableswitch or lookupswitch instruction.
+     */
+    public static class SwitchTable {
+        private final int def, low;
+        private final int[] keys; // null for tableswitch
+        private final int[] targets;
+
+        public SwitchTable(int def, int low, int[] keys, int[] targets) {
+            this.def = def;
+            this.low = low;
+            this.keys = keys;
+            this.targets = targets;
+        }
+
+        public int getDefault() {
+            return def;
+        }
+
+        public int getLow() {
+            return low;
+        }
+
+        /** The keys of a lookupswitch, or null for a tableswitch. */
+        public int[] getKeys() {
+            return keys;
+        }
+
+        public int[] getTargets() {
+            return targets;
+        }
+
+        /** Returns the instruction to jump to for the given key. */
+        public int target(int key) {
+            if (keys == null) {
+                int off = key - low;
+                return (off < 0 || off >= targets.length) ? def : targets[off];
+            }
+
+            // lookupswitch keys are sorted
+            int lo = 0, hi = keys.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) {
+                    lo = mid + 1;
+                } else if (keys[mid] > key) {
+                    hi = mid - 1;
+                } else {
+                    return targets[mid];
+                }
+            }
+            return def;
+        }
+    }
+}
@@ -3,12 +3,7 @@ package jvm.execution;
 import gwtjava.lang.System;
 import gwtjava.statics.SException;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 
-import jvm.classparser.JAttribute.CodeAttribute.ExceptionDescriptor;
 import jvm.classparser.JClass;
 import jvm.classparser.JClass.Status;
 import jvm.classparser.JMember.JBytecodeMethod;
@@ -19,12 +14,19 @@ import jvm.classparser.jconstants.JClassConstant;
 import jvm.classparser.jconstants.JDataConstant;
 import jvm.classparser.jconstants.JMemberConstant;
 import jvm.classparser.jconstants.JStringConstant;
-import jvm.execution.JClassLoader.JClassNotInitializedException;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.ast.AstMethod;
+import jvm.execution.ast.Frame;
+import jvm.execution.ir.RegisterCode;
+import jvm.execution.jit.Bailout;
+import jvm.execution.jit.CompiledMethod;
+import jvm.execution.jit.Jit;
 import jvm.execution.objrepr.ArrayRepr;
 import jvm.execution.objrepr.ObjectFactory;
 import jvm.execution.objrepr.ObjectRepr;
 import jvm.execution.objrepr.StaticMembers;
-import jvm.util.DataInputStream;
+import jvm.execution.wasm.Wasm;
+import jvm.execution.wasm.WasmMethod;
 
 
 /**
@@ -35,36 +37,288 @@ import jvm.util.DataInputStream;
  * operating systems. When the program wants to use a page, it generates a
  * SEGFAULT, the page is loaded and the program resumed.
  *
- * In our case, we generate a ClassNotLoadedException, and we resume executing
- * the program in the exception handler.
+ * In our case, an instruction that uses a class that is not initialized
+ * pushes the frames of the class initializers and is executed again when
+ * they return, as if the program had called them.
  *
  */
-public class ExecutionEngine extends Stack {
+public class ExecutionEngine {
     public static String BOOT_METHOD_DESCRIPTOR = "main([Ljava/lang/String;)V";
 
-    // Next instruction to be executed
+    /** The number of instructions executed by [bootstrap] between checks. */
+    private static final int SLICE = 100000;
+
+    /** The number of instructions a thread runs before the next one is picked. */
+    private static final int QUANTUM = 10000;
+
+    /**
+     * The invocations and backward branches of a method before it is
+     * translated to register code or to a tree, so that its calls are
+     * resolved.
+     */
+    private static final int TRANSLATE_THRESHOLD = 50;
+
+    /**
+     * The state of the program after a call to [execute].
+     */
+    public enum State {
+        // The instruction budget ran out, the program can be resumed.
+        RUNNING,
+        // The program waits for an event and can be resumed later.
+        BLOCKED,
+        // The program exited.
+        FINISHED
+    }
+
+    // The stack of the main thread; the other threads get stacks of the
+    // same kind.
+    private final Stack mainStack;
+
+    // The registers of the current thread
+    private Stack stack;
     private int pc = -1;
     private JBytecodeMethod m = null;
+    private DecodedCode code = null;
     private JClass crtClass = null;
 
-    private void execute() {
-        int skip, index, addr, ppc = 0;
-        Integer i;
-        Long l;
-        Float f;
-        Double d;
+    private ThreadScheduler threads = null;
+    private boolean finished = false;
+
+    // Execution counters, or null.
+    private ExecutionStats stats = null;
+    // Sampling profiler, or null.
+    private Profiler profiler = null;
+    // JIT compiler, or null.
+    private Jit jit = null;
+    // WebAssembly compiler, or null.
+    private Wasm wasm = null;
+    // Run the methods that can be translated to register code in it.
+    private boolean registerCode = false;
+    // Run the methods without side effects in the tree interpreter.
+    private boolean astInterpreter = false;
+
+    public ExecutionEngine() {
+        this(new UnboxedStack());
+    }
+
+    public ExecutionEngine(Stack stack) {
+        this.mainStack = this.stack = stack;
+    }
+
+    /** Set the maximum number of nested calls of the executed program. */
+    public void setMaxStackDepth(int maxDepth) {
+        mainStack.setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Execute at most [maxInstructions] instructions of the program. All the
+     * state of the program is kept in fields, so the execution can be resumed
+     * by calling this method again, e.g. from the browser event loop.
+     *
+     * The threads of the program run in turns of [QUANTUM] instructions.
+     */
+    public State execute(int maxInstructions) {
+        int budget = maxInstructions;
+        while (!finished && budget > 0) {
+            VMThread t = threads.pick();
+            if (t == null) {
+                if (threads.getWakeTime() != 0) {
+                    return State.BLOCKED;
+                }
+                System.err.println("Deadlock: all the threads are waiting");
+                finished = true;
+                break;
+            }
+            int quantum = Math.min(budget, QUANTUM);
+            switchTo(t);
+            if (stats != null) {
+                runCounting(quantum);
+            } else if (profiler != null) {
+                runSampling(quantum);
+            } else {
+                run(quantum);
+            }
+            t.pc = pc;
+            t.m = m;
+            budget -= quantum;
+        }
+        return finished ? State.FINISHED : State.RUNNING;
+    }
+
+    /**
+     * Run the current thread one instruction at a time, recording each of
+     * them in the statistics. This keeps the counting out of the
+     * interpreter loop.
+     */
+    private void runCounting(int budget) {
+        for (int k = 0; k < budget; k++) {
+            JBytecodeMethod caller = m;
+            int depth = stack.depth;
+            int ppc = pc;
+            byte opcode = code.ops[ppc];
+            stats.countInstruction(opcode, caller, ppc);
+            boolean running = run(1);
+
+            if (stack.depth > depth) {
+                // The frames pushed by the instruction: a call, or the class
+                // initializers that it triggered, in the order they run.
+                stats.countInvocation(m);
+                for (int d = stack.depth - 1; d > depth; d--) {
+                    stats.countInvocation(stack.frameMethods[d]);
+                }
+            } else if (m == caller && pc == ppc + 1 && isAllocation(opcode)) {
+                stats.countAllocation(((ObjectRepr) stack.peek(1)).getJClass());
+            }
+            if (!running) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Run the current thread in chunks that end at the next sample of the
+     * profiler, so that the interpreter loop is not slowed down.
+     */
+    private void runSampling(int budget) {
+        while (budget > 0) {
+            int n = Math.min(budget, profiler.untilSample());
+            boolean running = run(n);
+            budget -= n;
+            if (profiler.advance(n) && running) {
+                profiler.sample(stack, m, pc);
+            }
+            if (!running) {
+                break;
+            }
+        }
+    }
+
+    private static boolean isAllocation(byte opcode) {
+        switch (opcode) {
+        case OPCodes.OP_new:
+        case OPCodes.OP_new_quick:
+        case OPCodes.OP_newarray:
+        case OPCodes.OP_anewarray:
+        case OPCodes.OP_anewarray_quick:
+        case OPCodes.OP_multianewarray:
+        case OPCodes.OP_multianewarray_quick:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Count the executed instructions, calls and allocations of the program.
+     * The counting is slow, so it is off by default.
+     */
+    public void setStats(ExecutionStats stats) {
+        this.stats = stats;
+    }
+
+    public ExecutionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sample the stack of the program with the given profiler. It is not
+     * used while the statistics are counted.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Compile the hot methods with the given JIT compiler. The methods are
+     * counted only when it is set.
+     */
+    public void setJit(Jit jit) {
+        this.jit = jit;
+    }
+
+    public Jit getJit() {
+        return jit;
+    }
+
+    /**
+     * Compile the hot numeric methods to WebAssembly with the given
+     * compiler. The code compiled by the JIT is preferred.
+     */
+    public void setWasm(Wasm wasm) {
+        this.wasm = wasm;
+    }
+
+    public Wasm getWasm() {
+        return wasm;
+    }
+
+    /**
+     * Translate the numeric methods to register code once they ran a few
+     * times, and run them in it.
+     */
+    public void setRegisterCode(boolean enabled) {
+        this.registerCode = enabled;
+    }
+
+    /**
+     * Translate the methods without side effects to trees once they ran a
+     * few times, and run them in the tree interpreter. The register code is
+     * preferred for the methods that have both.
+     */
+    public void setAstInterpreter(boolean enabled) {
+        this.astInterpreter = enabled;
+    }
+
+    /**
+     * The time when a sleeping thread wakes up, after [execute] returned
+     * BLOCKED.
+     */
+    public long getWakeTime() {
+        return threads.getWakeTime();
+    }
+
+    private void switchTo(VMThread t) {
+        stack = t.stack;
+        pc = t.pc;
+        m = t.m;
+        code = m.getDecodedCode();
+        crtClass = m.getJClass();
+        if (t.pendingException != null) {
+            // Thrown by the invoke that blocked the thread.
+            String exn = t.pendingException;
+            t.pendingException = null;
+            pc--;
+            throwVMException(exn);
+        }
+    }
+
+    /**
+     * Run the current thread for at most [budget] instructions, or until it
+     * blocks or exits. Returns true if the thread can run further.
+     */
+    private boolean run(int budget) {
+        final Stack stack = this.stack;
+        int skip, ppc = pc;
+        int i;
+        long l;
+        float f;
+        double d;
         try {
-            while (true) {
+            while (budget-- > 0) {
                 try {
-                    ppc = pc;
+                    ppc = pc++;
                     skip = 0;
-                    byte opcode = (byte) nextByte();
+                    byte opcode = code.ops[ppc];
 
                     switch (opcode) {
                     case OPCodes.OP_nop:
                         break;
                     case OPCodes.OP_aconst_null:
-                        push(null);
+                        stack.push(null);
                         break;
                     case OPCodes.OP_iconst_m1:
                     case OPCodes.OP_iconst_0:
@@ -73,52 +327,43 @@ public class ExecutionEngine extends Stack {
                     case OPCodes.OP_iconst_3:
                     case OPCodes.OP_iconst_4:
                     case OPCodes.OP_iconst_5:
-                        pushi(opcode - OPCodes.OP_iconst_m1 - 1);
+                    case OPCodes.OP_bipush:
+                    case OPCodes.OP_sipush:
+                        stack.pushi(code.args[ppc]);
                         break;
                     case OPCodes.OP_lconst_0:
                     case OPCodes.OP_lconst_1:
-                        pushl((long) (opcode - OPCodes.OP_lconst_0));
+                        stack.pushl((long) code.args[ppc]);
                         break;
                     case OPCodes.OP_fconst_0:
                     case OPCodes.OP_fconst_1:
                     case OPCodes.OP_fconst_2:
-                        pushf((float) (opcode - OPCodes.OP_fconst_0));
+                        stack.pushf((float) code.args[ppc]);
                         break;
                     case OPCodes.OP_dconst_0:
                     case OPCodes.OP_dconst_1:
-                        pushd((double) (opcode - OPCodes.OP_dconst_0));
-                        break;
-                    case OPCodes.OP_bipush:
-                        pushi((int) (byte) (int) nextByte());
-                        break;
-                    case OPCodes.OP_sipush:
-                        pushi((int) (short) (int) nextShort());
+                        stack.pushd((double) code.args[ppc]);
                         break;
 
+                    case OPCodes.OP_ldc:
                     case OPCodes.OP_ldc_w:
-                    case OPCodes.OP_ldc2_w:
-                    case OPCodes.OP_ldc: {
-                        index = nextByte();
-                        if (opcode != OPCodes.OP_ldc)
-                            index = (index << 8) + nextByte();
-                        JDataConstant cst = crtClass.getDataConstant(index);
-
-                        Object constant = cst.getRepr();
-                        int size = opcode == OPCodes.OP_ldc2_w ? 1 : 0;
-                        push(constant, size);
+                    case OPCodes.OP_ldc2_w: {
+                        Object constant = ((JDataConstant) code.refs[ppc]).getRepr();
+                        code.args2[ppc] = Stack.typeOf(constant);
+                        code.quicken(ppc, opcode == OPCodes.OP_ldc2_w
+                                ? OPCodes.OP_ldc2_w_quick : OPCodes.OP_ldc_quick,
+                                constant);
+                        stack.pushValue(constant, (char) code.args2[ppc]);
                         break;
                     }
+                    case OPCodes.OP_ldc_quick:
+                    case OPCodes.OP_ldc2_w_quick:
+                        stack.pushValue(code.refs[ppc], (char) code.args2[ppc]);
+                        break;
 
                     // load / store
                     case OPCodes.OP_lload:
                     case OPCodes.OP_dload:
-                        skip = 1;
-                    case OPCodes.OP_iload:
-                    case OPCodes.OP_fload:
-                    case OPCodes.OP_aload:
-                        push(loadLocal(nextByte()), skip);
-                        break;
-
                     case OPCodes.OP_lload_0:
                     case OPCodes.OP_lload_1:
                     case OPCodes.OP_lload_2:
@@ -128,6 +373,9 @@ public class ExecutionEngine extends Stack {
                     case OPCodes.OP_dload_2:
                     case OPCodes.OP_dload_3:
                         skip = 1;
+                    case OPCodes.OP_iload:
+                    case OPCodes.OP_fload:
+                    case OPCodes.OP_aload:
                     case OPCodes.OP_iload_0:
                     case OPCodes.OP_iload_1:
                     case OPCodes.OP_iload_2:
@@ -140,45 +388,40 @@ public class ExecutionEngine extends Stack {
                     case OPCodes.OP_aload_1:
                     case OPCodes.OP_aload_2:
                     case OPCodes.OP_aload_3:
-                        index = (opcode - 2) % 4;
-                        push(loadLocal(index), skip);
+                        stack.load(code.args[ppc], skip + 1);
                         break;
 
-                    case OPCodes.OP_laload:
-                    case OPCodes.OP_daload:
-                        skip = 1;
                     case OPCodes.OP_iaload:
-                    case OPCodes.OP_faload:
-                    case OPCodes.OP_aaload:
+                    case OPCodes.OP_baload:
                     case OPCodes.OP_caload:
-                    case OPCodes.OP_saload:
-                    case OPCodes.OP_baload: {
-                        int idx = popi();
-                        ArrayRepr arrayRef = (ArrayRepr) pop();
-                        Object val = arrayRef.get(idx);
-                        // All the values should be loaded as integer
-                        if (opcode == OPCodes.OP_caload) {
-                            val = (int) ((Character) val).charValue();
-                        } else if (opcode == OPCodes.OP_saload) {
-                            val = ((Short) val).intValue();
-                        } else if (opcode == OPCodes.OP_baload) {
-                            val = ((Byte) val).intValue();
-                        }
-
-                        push(val, skip);
+                    case OPCodes.OP_saload: {
+                        int idx = stack.popi();
+                        stack.pushi(((ArrayRepr) stack.pop()).getInt(idx));
                         break;
                     }
-
-                    case OPCodes.OP_istore:
-                    case OPCodes.OP_lstore:
-                    case OPCodes.OP_fstore:
-                    case OPCodes.OP_dstore:
-                    case OPCodes.OP_astore: {
-                        index = nextByte();
-                        storeLocal(index, pop());
+                    case OPCodes.OP_laload: {
+                        int idx = stack.popi();
+                        stack.pushl(((ArrayRepr) stack.pop()).getLong(idx));
+                        break;
+                    }
+                    case OPCodes.OP_faload: {
+                        int idx = stack.popi();
+                        stack.pushf(((ArrayRepr) stack.pop()).getFloat(idx));
+                        break;
+                    }
+                    case OPCodes.OP_daload: {
+                        int idx = stack.popi();
+                        stack.pushd(((ArrayRepr) stack.pop()).getDouble(idx));
+                        break;
+                    }
+                    case OPCodes.OP_aaload: {
+                        int idx = stack.popi();
+                        stack.push(((ArrayRepr) stack.pop()).get(idx));
                         break;
                     }
 
+                    case OPCodes.OP_lstore:
+                    case OPCodes.OP_dstore:
                     case OPCodes.OP_lstore_0:
                     case OPCodes.OP_lstore_1:
                     case OPCodes.OP_lstore_2:
@@ -188,6 +431,9 @@ public class ExecutionEngine extends Stack {
                     case OPCodes.OP_dstore_2:
                     case OPCodes.OP_dstore_3:
                         skip = 1;
+                    case OPCodes.OP_istore:
+                    case OPCodes.OP_fstore:
+                    case OPCodes.OP_astore:
                     case OPCodes.OP_istore_0:
                     case OPCodes.OP_istore_1:
                     case OPCodes.OP_istore_2:
@@ -200,503 +446,475 @@ public class ExecutionEngine extends Stack {
                     case OPCodes.OP_astore_1:
                     case OPCodes.OP_astore_2:
                     case OPCodes.OP_astore_3: {
-                        index = (opcode - 3) % 4;
-                        storeLocal(index, pop(skip));
+                        stack.store(code.args[ppc], skip + 1);
                         break;
                     }
 
-                    case OPCodes.OP_lastore:
-                    case OPCodes.OP_dastore:
-                        skip = 1;
                     case OPCodes.OP_iastore:
-                    case OPCodes.OP_fastore:
-                    case OPCodes.OP_aastore: {
-                        Object val = pop(skip);
-                        int idx = popi();
-                        ArrayRepr arrayRef = (ArrayRepr) pop();
-                        arrayRef.set(idx, val);
-                        break;
-                    }
-
+                    case OPCodes.OP_bastore:
                     case OPCodes.OP_castore:
-                    case OPCodes.OP_sastore:
-                    case OPCodes.OP_bastore: {
-
-                        int val = (Integer) pop(skip);
-                        int idx = popi();
-                        ArrayRepr arrayRef = (ArrayRepr) pop();
-
-                        // All the values should be loaded as integer
-                        Object elem;
-                        if (opcode == OPCodes.OP_castore) {
-                            elem = (char) (val & 0xFFFF);
-                        } else if (opcode == OPCodes.OP_sastore) {
-                            elem = (short) (val & 0xFFFF);
-                        } else if (opcode == OPCodes.OP_bastore) {
-                            elem = (byte) (val & 0xFF);
-                        } else {
-                            throw new AssertionError();
-                        }
-
-                        arrayRef.set(idx, elem);
+                    case OPCodes.OP_sastore: {
+                        int val = stack.popi();
+                        int idx = stack.popi();
+                        ((ArrayRepr) stack.pop()).setInt(idx, val);
                         break;
                     }
-
-                    // Stack management
-                    case OPCodes.OP_pop2:
-                        pop();
-                    case OPCodes.OP_pop:
-                        pop();
-                        break;
-                    case OPCodes.OP_dup: {
-                        Object v = pop();
-                        push(v).push(v);
+                    case OPCodes.OP_lastore: {
+                        long val = stack.popl();
+                        int idx = stack.popi();
+                        ((ArrayRepr) stack.pop()).setLong(idx, val);
                         break;
                     }
-                    case OPCodes.OP_dup_x1: {
-                        Object v1 = pop(), v2 = pop();
-                        push(v1).push(v2).push(v1);
+                    case OPCodes.OP_fastore: {
+                        float val = stack.popf();
+                        int idx = stack.popi();
+                        ((ArrayRepr) stack.pop()).setFloat(idx, val);
                         break;
                     }
-                    case OPCodes.OP_dup_x2: {
-                        Object v1 = pop(), v2 = pop(), v3 = pop();
-                        push(v1).push(v3).push(v2).push(v1);
+                    case OPCodes.OP_dastore: {
+                        double val = stack.popd();
+                        int idx = stack.popi();
+                        ((ArrayRepr) stack.pop()).setDouble(idx, val);
                         break;
                     }
-                    case OPCodes.OP_dup2: {
-                        Object v1 = pop(), v2 = pop();
-                        push(v2).push(v1).push(v2).push(v1);
+                    case OPCodes.OP_aastore: {
+                        Object val = stack.pop();
+                        int idx = stack.popi();
+                        ((ArrayRepr) stack.pop()).set(idx, val);
                         break;
                     }
 
-                    case OPCodes.OP_dup2_x1: {
-                        Object v1 = pop(), v2 = pop(), v3 = pop();
-                        push(v2).push(v1).push(v3).push(v2).push(v1);
+                    // Stack management
+                    case OPCodes.OP_pop:
+                        stack.discard(1);
                         break;
-                    }
-                    case OPCodes.OP_dup2_x2: {
-                        Object v1 = pop(), v2 = pop(), v3 = pop(), v4 = pop();
-                        push(v2).push(v1).push(v4).push(v3).push(v2).push(v1);
+                    case OPCodes.OP_pop2:
+                        stack.discard(2);
                         break;
-                    }
-                    case OPCodes.OP_swap: {
-                        Object v1 = pop(), v2 = pop();
-                        push(v2).push(v1);
+                    case OPCodes.OP_dup:
+                        stack.dup();
+                        break;
+                    case OPCodes.OP_dup_x1:
+                        stack.dupX1();
+                        break;
+                    case OPCodes.OP_dup_x2:
+                        stack.dupX2();
+                        break;
+                    case OPCodes.OP_dup2:
+                        stack.dup2();
+                        break;
+                    case OPCodes.OP_dup2_x1:
+                        stack.dup2X1();
+                        break;
+                    case OPCodes.OP_dup2_x2:
+                        stack.dup2X2();
+                        break;
+                    case OPCodes.OP_swap:
+                        stack.swap();
                         break;
-                    }
 
                     // Arithmetic
                     case OPCodes.OP_iadd:
-                        pushi(popi() + popi());
+                        stack.pushi(stack.popi() + stack.popi());
                         break;
                     case OPCodes.OP_ladd:
-                        pushl(popl() + popl());
+                        stack.pushl(stack.popl() + stack.popl());
                         break;
                     case OPCodes.OP_fadd:
-                        pushf(popf() + popf());
+                        stack.pushf(stack.popf() + stack.popf());
                         break;
                     case OPCodes.OP_dadd:
-                        pushd(popd() + popd());
+                        stack.pushd(stack.popd() + stack.popd());
                         break;
 
                     case OPCodes.OP_isub:
-                        i = popi();
-                        pushi(popi() - i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() - i);
                         break;
                     case OPCodes.OP_lsub:
-                        l = popl();
-                        pushl(popl() - l);
+                        l = stack.popl();
+                        stack.pushl(stack.popl() - l);
                         break;
                     case OPCodes.OP_fsub:
-                        f = popf();
-                        pushf(popf() - f);
+                        f = stack.popf();
+                        stack.pushf(stack.popf() - f);
                         break;
                     case OPCodes.OP_dsub:
-                        d = popd();
-                        pushd(popd() - d);
+                        d = stack.popd();
+                        stack.pushd(stack.popd() - d);
                         break;
 
                     case OPCodes.OP_imul:
-                        pushi(popi() * popi());
+                        stack.pushi(stack.popi() * stack.popi());
                         break;
                     case OPCodes.OP_lmul:
-                        pushl(popl() * popl());
+                        stack.pushl(stack.popl() * stack.popl());
                         break;
                     case OPCodes.OP_fmul:
-                        pushf(popf() * popf());
+                        stack.pushf(stack.popf() * stack.popf());
                         break;
                     case OPCodes.OP_dmul:
-                        pushd(popd() * popd());
+                        stack.pushd(stack.popd() * stack.popd());
                         break;
 
                     // XXX Division by zero exception
                     case OPCodes.OP_idiv:
-                        i = popi();
-                        pushi(popi() / i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() / i);
                         break;
 
                     case OPCodes.OP_ldiv:
-                        l = popl();
-                        pushl(popl() / l);
+                        l = stack.popl();
+                        stack.pushl(stack.popl() / l);
                         break;
                     case OPCodes.OP_fdiv:
-                        f = popf();
-                        pushf(popf() / f);
+                        f = stack.popf();
+                        stack.pushf(stack.popf() / f);
                         break;
                     case OPCodes.OP_ddiv:
-                        d = popd();
-                        pushd(popd() / d);
+                        d = stack.popd();
+                        stack.pushd(stack.popd() / d);
                         break;
 
                     case OPCodes.OP_irem:
-                        i = popi();
-                        pushi(popi() % i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() % i);
                         break;
                     case OPCodes.OP_lrem:
-                        l = popl();
-                        pushl(popl() % l);
+                        l = stack.popl();
+                        stack.pushl(stack.popl() % l);
                         break;
                     case OPCodes.OP_frem:
-                        f = popf();
-                        pushf(popf() % f);
+                        f = stack.popf();
+                        stack.pushf(stack.popf() % f);
                         break;
                     case OPCodes.OP_drem:
-                        d = popd();
-                        pushd(popd() % d);
+                        d = stack.popd();
+                        stack.pushd(stack.popd() % d);
                         break;
 
                     case OPCodes.OP_ineg:
-                        pushi(-popi());
+                        stack.pushi(-stack.popi());
                         break;
                     case OPCodes.OP_lneg:
-                        pushl(-popl());
+                        stack.pushl(-stack.popl());
                         break;
                     case OPCodes.OP_fneg:
-                        pushf(-popf());
+                        stack.pushf(-stack.popf());
                         break;
                     case OPCodes.OP_dneg:
-                        pushd(-popd());
+                        stack.pushd(-stack.popd());
                         break;
 
                     case OPCodes.OP_ishl:
-                        i = popi();
-                        pushi(popi() << i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() << i);
                         break;
                     case OPCodes.OP_lshl:
-                        i = popi();
-                        pushl(popl() << i);
+                        i = stack.popi();
+                        stack.pushl(stack.popl() << i);
                         break;
                     case OPCodes.OP_ishr:
-                        i = popi();
-                        pushi(popi() >> i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() >> i);
                         break;
                     case OPCodes.OP_lshr:
-                        i = popi();
-                        pushl(popl() >> i);
+                        i = stack.popi();
+                        stack.pushl(stack.popl() >> i);
                         break;
 
                     case OPCodes.OP_iushr:
-                        i = popi();
-                        pushi(popi() >>> i);
+                        i = stack.popi();
+                        stack.pushi(stack.popi() >>> i);
                         break;
                     case OPCodes.OP_lushr:
-                        i = popi();
-                        pushl(popl() >>> i);
+                        i = stack.popi();
+                        stack.pushl(stack.popl() >>> i);
                         break;
 
                     case OPCodes.OP_iand:
-                        pushi(popi() & popi());
+                        stack.pushi(stack.popi() & stack.popi());
                         break;
                     case OPCodes.OP_land:
-                        pushl(popl() & popl());
+                        stack.pushl(stack.popl() & stack.popl());
                         break;
 
                     case OPCodes.OP_ior:
-                        pushi(popi() | popi());
+                        stack.pushi(stack.popi() | stack.popi());
                         break;
                     case OPCodes.OP_lor:
-                        pushl(popl() | popl());
+                        stack.pushl(stack.popl() | stack.popl());
                         break;
 
                     case OPCodes.OP_ixor:
-                        pushi(popi() ^ popi());
+                        stack.pushi(stack.popi() ^ stack.popi());
                         break;
                     case OPCodes.OP_lxor:
-                        pushl(popl() ^ popl());
+                        stack.pushl(stack.popl() ^ stack.popl());
                         break;
 
                     case OPCodes.OP_iinc:
-                        index = nextByte();
-                        storeLocal(index, (Integer) loadLocal(index)
-                                + (int) (byte) nextByte());
+                        stack.iinc(code.args[ppc], code.args2[ppc]);
                         break;
 
                     case OPCodes.OP_i2l:
-                        pushl(popi().longValue());
+                        stack.pushl(stack.popi());
                         break;
                     case OPCodes.OP_i2f:
-                        pushf(popi().floatValue());
+                        stack.pushf(stack.popi());
                         break;
                     case OPCodes.OP_i2d:
-                        pushd(popi().doubleValue());
+                        stack.pushd(stack.popi());
                         break;
                     case OPCodes.OP_l2i:
-                        pushi(popl().intValue());
+                        stack.pushi((int) stack.popl());
                         break;
                     case OPCodes.OP_l2f:
-                        pushf(popl().floatValue());
+                        stack.pushf(stack.popl());
                         break;
                     case OPCodes.OP_l2d:
-                        pushd(popl().doubleValue());
+                        stack.pushd(stack.popl());
                         break;
                     case OPCodes.OP_f2i:
-                        pushi(popf().intValue());
+                        stack.pushi((int) stack.popf());
                         break;
                     case OPCodes.OP_f2l:
-                        pushl(popf().longValue());
+                        stack.pushl((long) stack.popf());
                         break;
                     case OPCodes.OP_f2d:
-                        pushd(popf().doubleValue());
+                        stack.pushd(stack.popf());
                         break;
                     case OPCodes.OP_d2i:
-                        pushi(popd().intValue());
+                        stack.pushi((int) stack.popd());
                         break;
                     case OPCodes.OP_d2l:
-                        pushl(popd().longValue());
+                        stack.pushl((long) stack.popd());
                         break;
                     case OPCodes.OP_d2f:
-                        pushf(popd().floatValue());
+                        stack.pushf((float) stack.popd());
                         break;
                     case OPCodes.OP_i2b:
-                        pushi((int) (byte) (int) popi());
+                        stack.pushi((byte) stack.popi());
                         break;
                     case OPCodes.OP_i2c:
-                        pushi(popi() & 0xFFFF);
+                        stack.pushi(stack.popi() & 0xFFFF);
                         break;
                     case OPCodes.OP_i2s:
-                        pushi((int) (short) (int) popi());
+                        stack.pushi((short) stack.popi());
                         break;
 
                     // Comparison
-                    case OPCodes.OP_lcmp:
-                        l = popl();
-                        pushi(popl().compareTo(l));
+                    case OPCodes.OP_lcmp: {
+                        l = stack.popl();
+                        long l1 = stack.popl();
+                        stack.pushi(l1 > l ? 1 : l1 == l ? 0 : -1);
                         break;
+                    }
+                    // NaN compares as -1 for the "l" variants and 1 for "g"
                     case OPCodes.OP_fcmpl:
-                    case OPCodes.OP_fcmpg:
-                        f = popf();
-                        pushi(popf().compareTo(f));
+                    case OPCodes.OP_fcmpg: {
+                        f = stack.popf();
+                        float f1 = stack.popf();
+                        stack.pushi(f1 > f ? 1 : f1 == f ? 0 : f1 < f ? -1
+                                : opcode == OPCodes.OP_fcmpl ? -1 : 1);
                         break;
+                    }
                     case OPCodes.OP_dcmpl:
-                    case OPCodes.OP_dcmpg:
-                        d = popd();
-                        pushi(popd().compareTo(d));
+                    case OPCodes.OP_dcmpg: {
+                        d = stack.popd();
+                        double d1 = stack.popd();
+                        stack.pushi(d1 > d ? 1 : d1 == d ? 0 : d1 < d ? -1
+                                : opcode == OPCodes.OP_dcmpl ? -1 : 1);
                         break;
+                    }
 
                     // Control flow
                     case OPCodes.OP_ifeq:
-                        addr = nextShort();
-                        if (popi() == 0)
-                            pc = ppc + addr;
+                        if (stack.popi() == 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ifne:
-                        addr = nextShort();
-                        if (popi() != 0)
-                            pc = ppc + addr;
+                        if (stack.popi() != 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_iflt:
-                        addr = nextShort();
-                        if (popi() < 0)
-                            pc = ppc + addr;
+                        if (stack.popi() < 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ifge:
-                        addr = nextShort();
-                        if (popi() >= 0)
-                            pc = ppc + addr;
+                        if (stack.popi() >= 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ifgt:
-                        addr = nextShort();
-                        if (popi() > 0)
-                            pc = ppc + addr;
+                        if (stack.popi() > 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ifle:
-                        addr = nextShort();
-                        if (popi() <= 0)
-                            pc = ppc + addr;
+                        if (stack.popi() <= 0)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmpeq:
-                        addr = nextShort();
-                        if (popi() == popi())
-                            pc = ppc + addr;
+                        if (stack.popi() == stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmpne:
-                        addr = nextShort();
-                        if (popi() != popi())
-                            pc = ppc + addr;
+                        if (stack.popi() != stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmplt:
-                        addr = nextShort();
-                        if (popi() > popi())
-                            pc = ppc + addr;
+                        if (stack.popi() > stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmpge:
-                        addr = nextShort();
-                        if (popi() <= popi())
-                            pc = ppc + addr;
+                        if (stack.popi() <= stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmpgt:
-                        addr = nextShort();
-                        if (popi() < popi())
-                            pc = ppc + addr;
+                        if (stack.popi() < stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_icmple:
-                        addr = nextShort();
-                        if (popi() >= popi())
-                            pc = ppc + addr;
+                        if (stack.popi() >= stack.popi())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_acmpeq:
-                        addr = nextShort();
-                        if (pop() == pop())
-                            pc = ppc + addr;
+                        if (stack.pop() == stack.pop())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_if_acmpne:
-                        addr = nextShort();
-                        if (pop() != pop())
-                            pc = ppc + addr;
+                        if (stack.pop() != stack.pop())
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_goto:
-                        pc = ppc + nextShort();
+                    case OPCodes.OP_goto_w:
+                        pc = code.args[ppc];
                         break;
 
                     case OPCodes.OP_ifnull:
-                        addr = nextShort();
-                        if (pop() == null)
-                            pc = ppc + addr;
+                        if (stack.pop() == null)
+                            pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ifnonnull:
-                        addr = nextShort();
-                        if (pop() != null)
-                            pc = ppc + addr;
-                        break;
-                    case OPCodes.OP_goto_w:
-                        pc = ppc + nextInt();
+                        if (stack.pop() != null)
+                            pc = code.args[ppc];
                         break;
 
                     // subroutine call
                     case OPCodes.OP_jsr:
-                        push(pc + 2);
-                        pc = ppc + nextShort();
-                        break;
                     case OPCodes.OP_jsr_w:
-                        push(pc + 4);
-                        pc = ppc + nextInt();
+                        stack.pushi(pc);
+                        pc = code.args[ppc];
                         break;
                     case OPCodes.OP_ret:
-                        pc = (Integer) loadLocal(nextByte());
+                        stack.load(code.args[ppc], 1);
+                        pc = stack.popi();
                         break;
 
                     // switch
-                    case OPCodes.OP_tableswitch: {
-                        // skip padding and read the three integers
-                        pc = ((pc + 3) >> 2) << 2;
-                        int def = nextInt(), low = nextInt(), high = nextInt();
-                        int tpc = pc;
-                        index = popi();
-
-                        // default branch
-                        if (index < low || index > high)
-                            pc = def;
-
-                        // extract the address from the table and jump
-                        pc = tpc + index - low;
-                        pc = ppc + nextByte();
+                    case OPCodes.OP_tableswitch:
+                    case OPCodes.OP_lookupswitch:
+                        pc = ((SwitchTable) code.refs[ppc]).target(stack.popi());
                         break;
-                    }
-
-                    case OPCodes.OP_lookupswitch: {
-                        pc = ((pc + 3) >> 2) << 2;
-                        int def = ppc + nextInt(), npairs = nextInt();
-                        int key = popi(), found = 0;
-
-                        for (i = 0; i < npairs; i++) {
-                            if (key == nextInt()) {
-                                pc = ppc + nextInt();
-                                found = 1;
-                                break;
-                            }
-                            pc += 4; // skip the offset offset
-                        }
-
-                        if (found == 0)
-                            pc = def;
-                        break;
-                    }
 
                     case OPCodes.OP_anewarray: {
-                        JClassConstant cst = crtClass
-                                .getClassConstant(nextShort());
-                        JClass jc = cst.getJClass();
-                        push(ObjectFactory.newArray(jc.getName(), popi()));
+                        JClass jc = ((JClassConstant) code.refs[ppc]).getJClass();
+                        String type = JType.isArray(jc.getName()) ? jc.getName()
+                                : "L" + jc.getName() + ";";
+                        code.quicken(ppc, OPCodes.OP_anewarray_quick, type);
+                        stack.push(ObjectFactory.newArray(type, stack.popi()));
                         break;
                     }
+                    case OPCodes.OP_anewarray_quick:
+                        stack.push(ObjectFactory.newArray((String) code.refs[ppc], stack.popi()));
+                        break;
 
                     case OPCodes.OP_newarray: {
-                        int code = nextByte();
-                        String type = JType.getArrayElementType(code);
-                        push(ObjectFactory.newArray(type, popi()));
+                        String type = JType.getArrayElementType(code.args[ppc]);
+                        stack.push(ObjectFactory.newArray(type, stack.popi()));
                         break;
                     }
 
-                    case OPCodes.OP_multianewarray: {
-                        String arrayClassName = crtClass
-                                .getClassName(nextShort());
-
-                        int[] dims = new int[nextByte()];
-                        for (i = dims.length - 1; i >= 0; i--)
-                            dims[i] = popi();
-                        push(ObjectFactory.newMultiArray(arrayClassName, dims));
+                    case OPCodes.OP_multianewarray:
+                        code.quicken(ppc, OPCodes.OP_multianewarray_quick,
+                                ((JClassConstant) code.refs[ppc]).getName());
+                    case OPCodes.OP_multianewarray_quick: {
+                        int[] dims = new int[code.args2[ppc]];
+                        for (int k = dims.length - 1; k >= 0; k--)
+                            dims[k] = stack.popi();
+                        stack.push(ObjectFactory.newMultiArray((String) code.refs[ppc], dims));
                         break;
                     }
 
                     case OPCodes.OP_arraylength:
-                        pushi(((ArrayRepr) pop()).length());
+                        stack.pushi(((ArrayRepr) stack.pop()).length());
                         break;
 
                     // new object
                     case OPCodes.OP_new: { // index of the classname
-                        JClassConstant cst = crtClass
-                                .getClassConstant(nextShort());
-                        JClass jc = cst.getJClass();
-                        jc.ensureInitialized();
-                        push(ObjectFactory.newObject(jc));
+                        JClass jc = ((JClassConstant) code.refs[ppc]).getJClass();
+                        if (initClass(jc, ppc)) {
+                            break;
+                        }
+                        if (jc.isInitialized()) {
+                            code.quicken(ppc, OPCodes.OP_new_quick, jc);
+                        }
+                        stack.push(ObjectFactory.newObject(jc));
                         break;
                     }
+                    case OPCodes.OP_new_quick:
+                        stack.push(ObjectFactory.newObject((JClass) code.refs[ppc]));
+                        break;
 
                     // field access
                     case OPCodes.OP_getstatic: {
-                        JMemberConstant fld = crtClass.getMember(nextShort());
-                        Object val = StaticMembers.getStaticField(fld);
-                        push(val, fld.getSize() - 1);
+                        JMemberConstant fld = (JMemberConstant) code.refs[ppc];
+                        Object[] values = StaticMembers.getStaticValues(fld);
+                        if (initClass(fld.getHolder(), ppc)) {
+                            break;
+                        }
+                        if (fld.getHolder().isInitialized()) {
+                            code.args[ppc] = fld.getSlot();
+                            code.args2[ppc] = fld.getTypeTag();
+                            code.quicken(ppc, OPCodes.OP_getstatic_quick, values);
+                        }
+                        stack.pushValue(values[fld.getSlot()], fld.getTypeTag());
                         break;
                     }
                     case OPCodes.OP_putstatic: {
-                        JMemberConstant fld = crtClass.getMember(nextShort());
-                        Object val = peek(fld.getSize());
-                        StaticMembers.putStaticField(fld, val);
-                        pop(fld.getSize() - 1);
+                        JMemberConstant fld = (JMemberConstant) code.refs[ppc];
+                        Object[] values = StaticMembers.getStaticValues(fld);
+                        if (initClass(fld.getHolder(), ppc)) {
+                            break;
+                        }
+                        if (fld.getHolder().isInitialized()) {
+                            code.args[ppc] = fld.getSlot();
+                            code.args2[ppc] = fld.getTypeTag();
+                            code.quicken(ppc, OPCodes.OP_putstatic_quick, values);
+                        }
+                        values[fld.getSlot()] = stack.popValue(fld.getTypeTag());
+                        break;
+                    }
+                    case OPCodes.OP_getstatic_quick: {
+                        Object[] values = (Object[]) code.refs[ppc];
+                        stack.pushValue(values[code.args[ppc]], (char) code.args2[ppc]);
+                        break;
+                    }
+                    case OPCodes.OP_putstatic_quick: {
+                        Object[] values = (Object[]) code.refs[ppc];
+                        values[code.args[ppc]] = stack.popValue((char) code.args2[ppc]);
                         break;
                     }
 
                     case OPCodes.OP_getfield: {
-                        JMemberConstant fld = crtClass.getMember(nextShort());
-                        Object value = popo().getField(fld);
-                        push(value, fld.getSize() - 1);
+                        JMemberConstant fld = (JMemberConstant) code.refs[ppc];
+                        Object value = stack.popo().getField(fld);
+                        stack.pushValue(value, fld.getTypeTag());
                         break;
                     }
                     case OPCodes.OP_putfield: {
-                        JMemberConstant fld = crtClass.getMember(nextShort());
-                        Object val = pop(fld.getSize() - 1);
-                        ObjectRepr obj = popo();
+                        JMemberConstant fld = (JMemberConstant) code.refs[ppc];
+                        Object val = stack.popValue(fld.getTypeTag());
+                        ObjectRepr obj = stack.popo();
                         obj.putField(fld, val);
                         break;
                     }
@@ -705,66 +923,54 @@ public class ExecutionEngine extends Stack {
                      * Method invocation
                      */
                     case OPCodes.OP_invokestatic: {
-                        JMemberConstant m = crtClass.getMember(nextShort());
+                        JMemberConstant m = (JMemberConstant) code.refs[ppc];
                         JMethod cm = StaticMembers.dispatchMethod(m);
+                        if (initClass(cm.getJClass(), ppc)) {
+                            break;
+                        }
+                        if (cm.getJClass().isInitialized()) {
+                            code.quicken(ppc, OPCodes.OP_invokestatic_quick, cm);
+                        }
                         call(cm);
                         break;
                     }
+                    case OPCodes.OP_invokestatic_quick:
+                    case OPCodes.OP_invokenonvirtual_quick:
+                        call((JMethod) code.refs[ppc]);
+                        break;
 
                     case OPCodes.OP_invokevirtual:
                     case OPCodes.OP_invokeinterface: {
-                        JMemberConstant m = crtClass.getMember(nextShort());
-                        ObjectRepr obj = (ObjectRepr) peek(m.getArgsSize());
-                        pc += (opcode == OPCodes.OP_invokeinterface) ? 2 : 0;
-
-                        if (m.getFullName().equals(
-                                "java/lang/Class/desiredAssertionStatus()Z")) {
-                            popo();
-                            pushi(0);
-                        } else if (m
-                                .getFullName()
-                                .equals("java/lang/Class/getClassLoader()Ljava/lang/ClassLoader;")) {
-                            popo();
-                            push(null);
-                        } else if (m.getFullName().equals(
-                                "java/lang/Class/getName()Ljava/lang/String;")) {
-                            String name = ((JClass) obj).getName();
-                            ObjectRepr nameRepr = JStringConstant
-                                    .createString(name);
-                            push(nameRepr);
-                        } else if (m.getFullName().equals("java/lang/Class/getDeclaredField(Ljava/lang/String;)Ljava/lang/reflect/Field;")) {
-                            pop();
-                            pop();
-                            push(null);
-                        } else if (m.getFullName().equals("java/lang/Class/newInstance()Ljava/lang/Object;")){
-                            JClass cls = (JClass) pop();
-                            ObjectRepr inst = ObjectFactory.newObject(cls);
-                            push(inst);
-                            push(inst);
-                            for (JMethod jm : cls.getMethods()) {
-                                if (jm.getMemberName().equals("<init>()V")) {
-                                    call(jm);
-                                    break;
-                                }
-                            }
+                        JMemberConstant m = (JMemberConstant) code.refs[ppc];
+                        int intrinsic = getIntrinsic(m);
+                        if (intrinsic >= 0) {
+                            code.quicken(ppc, OPCodes.OP_invokeintrinsic_quick, intrinsic);
                         } else {
-                            JMethod dm = obj.dispatchMethod(m);
-                            call(dm);
+                            code.quicken(ppc, OPCodes.OP_invokevirtual_quick, new InlineCache(m));
                         }
+                        pc = ppc;
+                        break;
+                    }
+                    case OPCodes.OP_invokevirtual_quick: {
+                        InlineCache ic = (InlineCache) code.refs[ppc];
+                        ObjectRepr obj = (ObjectRepr) stack.peek(code.args2[ppc]);
+                        call(ic.lookup(obj));
                         break;
                     }
+                    case OPCodes.OP_invokeintrinsic_quick:
+                        invokeIntrinsic((Integer) code.refs[ppc]);
+                        break;
 
                     case OPCodes.OP_invokespecial: {
-                        JMemberConstant m = crtClass.getMember(nextShort());
-                        ObjectRepr obj = (ObjectRepr) peek(m.getArgsSize());
-                        JMethod dm;
-                        if (isSuperclass(m.getClassName(), crtClass) == 1
-                                && !m.getClassName().equals(crtClass.getName())
-                                && !m.getMemberName().startsWith("<")) {
-                            dm = obj.dispatchSuperMethod(m);
-                        } else {
-                            dm = obj.dispatchNonVirtualMethod(m);
+                        JMemberConstant m = (JMemberConstant) code.refs[ppc];
+                        int intrinsic = getIntrinsic(m);
+                        if (intrinsic >= 0) {
+                            code.quicken(ppc, OPCodes.OP_invokeintrinsic_quick, intrinsic);
+                            pc = ppc;
+                            break;
                         }
+                        JMethod dm = resolveSpecial(m);
+                        code.quicken(ppc, OPCodes.OP_invokenonvirtual_quick, dm);
                         call(dm);
                         break;
                     }
@@ -774,21 +980,18 @@ public class ExecutionEngine extends Stack {
                         skip = 1;
                     case OPCodes.OP_ireturn:
                     case OPCodes.OP_freturn:
-                    case OPCodes.OP_areturn: {
-                        Object retVal = pop(skip);
-                        ret();
-                        push(retVal, skip);
+                    case OPCodes.OP_areturn:
+                        ret(skip + 1);
                         break;
-                    }
                     case OPCodes.OP_return:
-                        ret();
+                        ret(0);
                         break;
 
                     case OPCodes.OP_instanceof: {
-                        String refName = crtClass.getClassName(nextShort());
-                        ObjectRepr obj = popo();
-                        pushi(obj == null ? 0 : isSuperclass(refName,
-                                obj.getJClass()));
+                        JClass jc = ((JClassConstant) code.refs[ppc]).getJClass();
+                        ObjectRepr obj = stack.popo();
+                        stack.pushi(obj != null && obj.getJClass().isSubtypeOf(jc)
+                                ? 1 : 0);
                         break;
                     }
 
@@ -799,24 +1002,61 @@ public class ExecutionEngine extends Stack {
                         break;
 
                     case OPCodes.OP_impdep1:
-                        /* Exit the interpreter */
-                        return;
-
-                    case OPCodes.OP_wide: // XXX maybe it is not even used
-                        throw new UnsupportedOperationException("WIDE");
+                        /* Exit the thread */
+                        threads.exitCurrent();
+                        finished = threads.isFinished();
+                        return false;
 
                     case OPCodes.OP_checkcast: {
-                        nextShort();
+                        JClass jc = ((JClassConstant) code.refs[ppc]).getJClass();
+                        ObjectRepr obj = (ObjectRepr) stack.peek(1);
+                        if (obj != null && !obj.getJClass().isSubtypeOf(jc)) {
+                            throw new VMThrowable("java/lang/ClassCastException");
+                        }
                         break;
                     }
                     case OPCodes.OP_monitorenter: {
-                        popo();
+                        ObjectRepr obj = stack.popo();
+                        if (obj == null) {
+                            throw new VMThrowable("java/lang/NullPointerException");
+                        }
+                        if (!threads.enter(obj)) {
+                            // Resumes after the instruction once it owns the monitor.
+                            return false;
+                        }
                         break;
                     }
                     case OPCodes.OP_monitorexit: {
-                        popo();
+                        ObjectRepr obj = stack.popo();
+                        if (obj == null) {
+                            throw new VMThrowable("java/lang/NullPointerException");
+                        }
+                        threads.exit(obj);
+                        break;
+                    }
+
+                    // Superinstructions: the operands of the instructions
+                    // after the first one are read in place.
+                    case OPCodes.OP_iinc_goto:
+                        stack.iinc(code.args[ppc], code.args2[ppc]);
+                        pc = code.args[ppc + 1];
+                        break;
+                    case OPCodes.OP_iload_iload_if_icmp:
+                        i = stack.loadi(code.args[ppc]);
+                        pc = compare(code.ops[ppc + 2], i, stack.loadi(code.args[ppc + 1]))
+                                ? code.args[ppc + 2] : ppc + 3;
+                        break;
+                    case OPCodes.OP_aload_getfield: {
+                        JMemberConstant fld = (JMemberConstant) code.refs[ppc + 1];
+                        Object value = ((ObjectRepr) stack.loado(code.args[ppc])).getField(fld);
+                        stack.pushValue(value, fld.getTypeTag());
+                        pc = ppc + 2;
                         break;
                     }
+                    case OPCodes.OP_aload_arraylength:
+                        stack.pushi(((ArrayRepr) stack.loado(code.args[ppc])).length());
+                        pc = ppc + 2;
+                        break;
 
                     case OPCodes.OP_breakpoint:
                     case OPCodes.OP_xxxunusedxxx1:
@@ -825,49 +1065,123 @@ public class ExecutionEngine extends Stack {
                         throw new UnsupportedOperationException("Opcode: "
                                 + opcode);
                     }
-                } catch (JClassNotInitializedException e) {
+                    if (pc <= ppc && tiered() && isBranch(opcode)) {
+                        backEdge();
+                    }
+                } catch (ThreadScheduler.Switch e) {
+                    return false;
+                } catch (VMThrowable e) {
                     this.pc = ppc;
-                    e.jClass.setStatus(Status.INITIALIZED);
-                    this.callInitClass(e.jClass);
+                    this.throwVMException(e.className);
                 }
             }
         } catch (Throwable e) {
             pc = ppc;
             printVMStackTrace(e);
             SException.printStackTrace(e, System.out);
+            finished = true;
+            return false;
         }
+        return true;
     }
 
     /**
      * Bootstraps the JVM inside some harcoded method that invokes "main"
-     *
-     * @throws JClassNotLoadedException
      */
     public void bootstrap(final String bootClassName) {
-        StaticMembers.reset();
-        ObjectFactory.reset();
+        boot(bootClassName);
+        // Busy waits while all the threads sleep.
+        while (execute(SLICE) != State.FINISHED) {
+        }
+    }
+
+    /**
+     * Prepare the execution of the program, that is then run by [execute].
+     */
+    public void boot(final String bootClassName) {
+        JClassLoader.getInstance().setStats(stats);
+        JStringConstant.reset();
+        backtraceField = null;
+        noBacktraceField = false;
         this.crtClass = JClass.createBootClass(bootClassName);
-        this.m = JMethod.getBootMehtod();
+        this.m = (JBytecodeMethod) crtClass.getMethods().get(0);
+        this.code = m.getDecodedCode();
         this.pc = 0;
+        this.finished = false;
 
-        this.locals = 0;
-        this.top = 1;
+        stack = mainStack;
+        stack.locals = 0;
+        stack.top = 1;
+        stack.depth = 0;
+
+        JBytecodeMethod threadBoot = (JBytecodeMethod) crtClass.getMethods().get(1);
+        threads = new ThreadScheduler(new VMThread(stack, null, m), threadBoot,
+                stack.maxDepth);
+        ThreadScheduler.setInstance(threads);
 
         JClassLoader.getInstance().loadSystemClasses();
-        this.execute();
     }
 
-    /** Initialize a class object. */
-    private void callInitClass(JClass cls) {
-        if (cls.getClinit() != null) {
-            call(cls.getClinit());
+    /**
+     * Start the initialization of a class and of its superclasses, if they
+     * are not initialized yet, by pushing the frames of their class
+     * initializers. The superclass initializers are pushed last, so they
+     * run first, and a class is initialized when its initializer returns.
+     * Returns true if frames were pushed: the instruction at [ppc] is
+     * executed again when they return.
+     *
+     * If another thread runs one of the initializers, the current thread
+     * blocks until it returns and then executes the instruction again. The
+     * thread that runs it uses the class meanwhile, as the JVMS requires.
+     */
+    private boolean initClass(JClass jc, int ppc) {
+        if (jc.isInitialized()) {
+            return false;
+        }
+        VMThread current = threads.getCurrent();
+        for (JClass c = jc; c != null; c = c.getSuperClass()) {
+            if (c.getStatus() == Status.INITIALIZING && c.getInitializer() != current) {
+                this.pc = ppc;
+                threads.waitForInitialization(c);
+            }
         }
+        boolean called = false;
+        for (JClass c = jc; c != null; c = c.getSuperClass()) {
+            if (c.getStatus() == Status.PREPARED) {
+                if (c.getClinit() == null) {
+                    c.setStatus(Status.INITIALIZED);
+                    continue;
+                }
+                c.startInitialization(current);
+                if (!called) {
+                    this.pc = ppc;
+                }
+                try {
+                    call(c.getClinit());
+                } catch (VMThrowable e) {
+                    c.setStatus(Status.INITIALIZED);
+                    if (!called) {
+                        throw e;
+                    }
+                    // Thrown by the initializer that was pushed last.
+                    throwVMException(e.className);
+                    return true;
+                }
+                if (this.m != c.getClinit()) {
+                    // Run by a compiled tier, it has already returned.
+                    c.setStatus(Status.INITIALIZED);
+                }
+                called = true;
+            }
+        }
+        return called;
     }
 
     /**
      * Function call (after dispatch was done) Frame layout: obj <--- locals
-     * arg1 ... argn .... (maxLocals entries) locals index pc method crtclass
-     * <--- top
+     * arg1 ... argn .... (maxLocals entries) operands <--- top
+     *
+     * The registers of the caller are saved on the frame stack.
      */
     private void call(JMethod jm) {
         if (jm instanceof JNativeMethod) {
@@ -875,46 +1189,500 @@ public class ExecutionEngine extends Stack {
             return;
         } else {
             JBytecodeMethod m = (JBytecodeMethod) jm;
-            int newlocals = top - m.getArgsSize();
-            top = newlocals + m.getCode().maxLocals;
+            if (tiered() && callCompiled(m)) {
+                return;
+            }
+            int newlocals = stack.top - m.getArgsSize();
+            stack.ensureFrame(newlocals + m.getCode().maxLocals
+                    + m.getCode().maxStack);
+            Object lock = null;
+            if (m.isSynchronized()) {
+                lock = m.isStatic() ? m.getJClass() : stack.peek(m.getArgsSize());
+            }
+            stack.top = newlocals + m.getCode().maxLocals;
 
-            pushi(this.locals);
-            pushi(this.pc);
-            push(this.m);
-            push(this.crtClass);
-            this.locals = newlocals;
+            stack.pushFrame(this.pc, this.m);
+            stack.locals = newlocals;
 
             this.pc = 0;
             this.m = m;
+            this.code = m.getDecodedCode();
             this.crtClass = m.getJClass();
+
+            if (lock != null) {
+                // The thread may block with the frame pushed.
+                threads.enterMethod(lock);
+            }
+        }
+    }
+
+    /** True if the methods are counted, to be compiled or translated. */
+    private boolean tiered() {
+        return jit != null || wasm != null || registerCode || astInterpreter;
+    }
+
+    /**
+     * Count the invocation or the backward branch of the method, and compile
+     * or translate it when it gets hot.
+     */
+    private void countHotness(JBytecodeMethod m, DecodedCode dc) {
+        int hotness = ++dc.hotness;
+        if (jit != null && hotness == jit.getThreshold()) {
+            jit.compile(m);
+        }
+        if (wasm != null && hotness == wasm.getThreshold()) {
+            wasm.compile(m);
+        }
+        if (registerCode && hotness == TRANSLATE_THRESHOLD) {
+            RegisterCode.translate(m);
+        }
+        if (astInterpreter && hotness == TRANSLATE_THRESHOLD) {
+            AstMethod.translate(m);
         }
     }
 
     /**
-     * Function return
+     * Count the invocation of the method and call its compiled code or its
+     * register code, if it has any. Returns false if the method has to be
+     * interpreted, with its arguments left on the stack.
      */
-    private boolean ret() {
-        if (m.getMemberName().equals(JMethod.CLINIT_METHOD_NAME)) {
-            crtClass.setStatus(Status.INITIALIZED); // XXX: or initialized by
-                                                    // error if it is called in
-                                                    // athrow
+    private boolean callCompiled(JBytecodeMethod m) {
+        DecodedCode dc = m.getDecodedCode();
+        if (dc.compiled == null) {
+            countHotness(m, dc);
+        }
+        CompiledMethod cm = jit != null ? dc.compiled : null;
+        if (cm == null) {
+            return callWasm(m, dc);
+        }
+
+        String types = m.getArgsTypes();
+        double[] locals = new double[cm.getMaxLocals()];
+        int slot = m.getArgsSize();
+        for (int k = types.length() - 1; k >= 0; k--) {
+            switch (types.charAt(k)) {
+            case 'D':
+                slot -= 2;
+                locals[slot] = stack.popd();
+                break;
+            case 'F':
+                locals[--slot] = stack.popf();
+                break;
+            default:
+                locals[--slot] = stack.popi();
+            }
         }
-        if (m.equals(JMethod.getBootMehtod())) {
+        try {
+            pushResult(m, cm.run(stack.maxDepth - stack.depth, 0, locals));
+            return true;
+        } catch (Bailout e) {
+            // The method is interpreted from now on.
+            dc.compiled = null;
+        }
+
+        for (int k = 0; k < types.length(); k++) {
+            switch (types.charAt(k)) {
+            case 'D':
+                stack.pushd(locals[slot]);
+                slot += 2;
+                break;
+            case 'F':
+                stack.pushf((float) locals[slot++]);
+                break;
+            default:
+                stack.pushi((int) locals[slot++]);
+            }
+        }
+        return false;
+    }
+
+    /** Run the code compiled to WebAssembly, as [callCompiled]. */
+    private boolean callWasm(JBytecodeMethod m, DecodedCode dc) {
+        WasmMethod wm = wasm != null ? dc.wasm : null;
+        if (wm == null || !wm.isWorthCalling()) {
+            return callRegisters(m, dc);
+        }
+
+        String types = m.getArgsTypes();
+        Object[] locals = new Object[wm.getMaxLocals()];
+        int slot = m.getArgsSize();
+        for (int k = types.length() - 1; k >= 0; k--) {
+            slot -= Stack.size(types.charAt(k));
+            locals[slot] = stack.popValue(types.charAt(k));
+        }
+        try {
+            pushResult(m, wm.run(stack.maxDepth - stack.depth, 0, locals));
+            return true;
+        } catch (Bailout e) {
+            dc.wasm = null;
+        }
+
+        for (int k = 0; k < types.length(); k++) {
+            stack.pushValue(locals[slot], types.charAt(k));
+            slot += Stack.size(types.charAt(k));
+        }
+        return false;
+    }
+
+    /** Run the register code of the method, as [callCompiled]. */
+    private boolean callRegisters(JBytecodeMethod m, DecodedCode dc) {
+        RegisterCode rc = registerCode ? dc.registers : null;
+        if (rc == null) {
+            return callTree(m, dc);
+        }
+
+        String types = rc.getArgTypes();
+        int[] ri = rc.newInts();
+        double[] rd = rc.newDoubles();
+        int slot = m.getArgsSize();
+        for (int k = types.length() - 1; k >= 0; k--) {
+            switch (types.charAt(k)) {
+            case 'D':
+                slot -= 2;
+                rd[slot] = stack.popd();
+                break;
+            case 'F':
+                rd[--slot] = stack.popf();
+                break;
+            default:
+                ri[--slot] = stack.popi();
+            }
+        }
+        try {
+            pushResult(m, rc.run(0, ri, rd, registerDepth()));
+            return true;
+        } catch (Bailout e) {
+            dc.registers = null;
+        }
+
+        for (int k = 0; k < types.length(); k++) {
+            switch (types.charAt(k)) {
+            case 'D':
+                stack.pushd(rd[slot]);
+                slot += 2;
+                break;
+            case 'F':
+                stack.pushf((float) rd[slot++]);
+                break;
+            default:
+                stack.pushi(ri[slot++]);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the backward branch to [pc] and, if the method is compiled or
+     * has register code that can be entered there, run the rest of it in
+     * that code.
+     */
+    private void backEdge() {
+        DecodedCode dc = code;
+        if (dc.compiled == null) {
+            countHotness(m, dc);
+        }
+        CompiledMethod cm = jit != null ? dc.compiled : null;
+        if (cm == null || !cm.isEntry(pc)) {
+            backEdgeWasm(dc);
+            return;
+        }
+
+        // The locals that are not assigned yet are not used either.
+        double[] locals = new double[cm.getMaxLocals()];
+        for (int k = 0; k < locals.length; k++) {
+            char type = cm.getLocalType(k);
+            if (type != 0) {
+                stack.load(k, Stack.size(type));
+                Object value = stack.popValue(type);
+                locals[k] = value instanceof Number ? ((Number) value).doubleValue() : 0;
+            }
+        }
+        try {
+            pushResult(m, cm.run(stack.maxDepth - stack.depth, pc, locals));
+        } catch (Bailout e) {
+            dc.compiled = null;
+            return;
+        }
+        ret(m.getRetSize());
+    }
+
+    private void backEdgeWasm(DecodedCode dc) {
+        WasmMethod wm = wasm != null ? dc.wasm : null;
+        if (wm == null || !wm.isEntry(pc)) {
+            backEdgeRegisters(dc);
+            return;
+        }
+
+        Object[] locals = new Object[wm.getMaxLocals()];
+        for (int k = 0; k < locals.length; k++) {
+            char type = wm.getLocalType(k);
+            if (type != 0) {
+                char stackType = WasmMethod.isArray(type) ? '[' : type;
+                stack.load(k, Stack.size(stackType));
+                locals[k] = stack.popValue(stackType);
+            }
+        }
+        try {
+            pushResult(m, wm.run(stack.maxDepth - stack.depth, pc, locals));
+        } catch (Bailout e) {
+            dc.wasm = null;
+            return;
+        }
+        ret(m.getRetSize());
+    }
+
+    private void backEdgeRegisters(DecodedCode dc) {
+        RegisterCode rc = registerCode ? dc.registers : null;
+        if (rc == null) {
+            backEdgeTree(dc);
+            return;
+        } else if (rc.getEntry(pc) < 0) {
+            return;
+        }
+
+        int[] ri = rc.newInts();
+        double[] rd = rc.newDoubles();
+        for (int k = 0; k < rc.getMaxLocals(); k++) {
+            char type = rc.getLocalType(k);
+            if (type != 0) {
+                stack.load(k, Stack.size(type));
+                Object value = stack.popValue(type);
+                if (!(value instanceof Number)) {
+                    continue;
+                } else if (type == 'I') {
+                    ri[k] = ((Number) value).intValue();
+                } else {
+                    rd[k] = ((Number) value).doubleValue();
+                }
+            }
+        }
+        try {
+            pushResult(m, rc.run(rc.getEntry(pc), ri, rd, registerDepth()));
+        } catch (Bailout e) {
+            dc.registers = null;
+            return;
+        }
+        ret(m.getRetSize());
+    }
+
+    /** Run the tree of the method, as [callCompiled]. */
+    private boolean callTree(JBytecodeMethod m, DecodedCode dc) {
+        AstMethod tree = astInterpreter ? dc.tree : null;
+        if (tree == null) {
             return false;
         }
 
-        int oldpos = locals;
-        int crtpos = top;
+        String types = tree.getArgTypes();
+        Frame f = tree.newFrame(treeDepth());
+        int slot = m.getArgsSize();
+        for (int k = types.length() - 1; k >= 0; k--) {
+            switch (types.charAt(k)) {
+            case 'J':
+                slot -= 2;
+                f.setLong(slot, stack.popl());
+                break;
+            case 'D':
+                slot -= 2;
+                f.setDouble(slot, stack.popd());
+                break;
+            case 'F':
+                f.setDouble(--slot, stack.popf());
+                break;
+            case 'A':
+                f.setRef(--slot, stack.pop());
+                break;
+            default:
+                f.setInt(--slot, stack.popi());
+            }
+        }
+        try {
+            tree.run(f, 0);
+            pushResult(m, f);
+            return true;
+        } catch (Bailout e) {
+            dc.tree = null;
+        }
 
-        top = locals + this.m.getCode().maxLocals + 4;
+        for (int k = 0; k < types.length(); k++) {
+            switch (types.charAt(k)) {
+            case 'J':
+                stack.pushl(f.getLong(slot));
+                slot += 2;
+                break;
+            case 'D':
+                stack.pushd(f.getDouble(slot));
+                slot += 2;
+                break;
+            case 'F':
+                stack.pushf((float) f.getDouble(slot++));
+                break;
+            case 'A':
+                stack.push(f.getRef(slot++));
+                break;
+            default:
+                stack.pushi(f.getInt(slot++));
+            }
+        }
+        return false;
+    }
 
-        this.crtClass = (JClass) pop();
-        this.m = (JBytecodeMethod) pop();
-        this.pc = popi();
-        this.locals = popi();
+    private void backEdgeTree(DecodedCode dc) {
+        AstMethod tree = astInterpreter ? dc.tree : null;
+        if (tree == null || tree.getEntry(pc) < 0) {
+            return;
+        }
+
+        Frame f = tree.newFrame(treeDepth());
+        for (int k = 0; k < tree.getMaxLocals(); k++) {
+            char type = tree.getLocalType(k);
+            if (type == 0) {
+                continue;
+            }
+            char stackType = type == 'A' ? 'L' : type;
+            stack.load(k, Stack.size(stackType));
+            Object value = stack.popValue(stackType);
+            if (type == 'A') {
+                f.setRef(k, value);
+            } else if (!(value instanceof Number)) {
+                continue;
+            } else if (type == 'I') {
+                f.setInt(k, ((Number) value).intValue());
+            } else if (type == 'J') {
+                f.setLong(k, ((Number) value).longValue());
+            } else {
+                f.setDouble(k, ((Number) value).doubleValue());
+            }
+        }
+        try {
+            tree.run(f, tree.getEntry(pc));
+        } catch (Bailout e) {
+            dc.tree = null;
+            return;
+        }
+        pushResult(m, f);
+        ret(m.getRetSize());
+    }
+
+    private int treeDepth() {
+        return Math.min(stack.maxDepth - stack.depth, AstMethod.MAX_DEPTH);
+    }
+
+    private void pushResult(JBytecodeMethod m, Frame f) {
+        switch (m.getRetType()) {
+        case 'V':
+            break;
+        case 'J':
+            stack.pushl(f.getReturnLong());
+            break;
+        case 'D':
+            stack.pushd(f.getReturnDouble());
+            break;
+        case 'F':
+            stack.pushf((float) f.getReturnDouble());
+            break;
+        case 'L':
+        case '[':
+            stack.push(f.getReturnRef());
+            break;
+        default:
+            stack.pushi(f.getReturnInt());
+        }
+    }
+
+    private int registerDepth() {
+        return Math.min(stack.maxDepth - stack.depth, RegisterCode.MAX_DEPTH);
+    }
+
+    private void pushResult(JBytecodeMethod m, double result) {
+        switch (m.getRetType()) {
+        case 'V':
+            break;
+        case 'D':
+            stack.pushd(result);
+            break;
+        case 'F':
+            stack.pushf((float) result);
+            break;
+        default:
+            stack.pushi((int) result);
+        }
+    }
+
+    private static boolean isBranch(byte opcode) {
+        switch (opcode) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch:
+        case OPCodes.OP_iinc_goto:
+        case OPCodes.OP_iload_iload_if_icmp:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** The condition of an if_icmp instruction. */
+    private static boolean compare(byte opcode, int a, int b) {
+        switch (opcode) {
+        case OPCodes.OP_if_icmpeq:
+            return a == b;
+        case OPCodes.OP_if_icmpne:
+            return a != b;
+        case OPCodes.OP_if_icmplt:
+            return a < b;
+        case OPCodes.OP_if_icmpge:
+            return a >= b;
+        case OPCodes.OP_if_icmpgt:
+            return a > b;
+        default:
+            return a <= b;
+        }
+    }
+
+    /**
+     * Function return, the return value taking [retSize] slots on top of the
+     * stack.
+     */
+    private boolean ret(int retSize) {
+        // The bottom frame of a thread.
+        if (stack.depth == 0) {
+            return false;
+        }
+        if (m.isSynchronized()) {
+            threads.exitMethod();
+        }
+        if (m == crtClass.getClinit()) {
+            crtClass.setStatus(Status.INITIALIZED);
+        }
+
+        int oldpos = stack.locals;
+        int crtpos = stack.top;
 
-        top = oldpos;
-        Arrays.fill(stack, oldpos, crtpos, null);
+        this.m = stack.popFrame();
+        this.pc = stack.framePc();
+        this.crtClass = m.getJClass();
+        this.code = m.getDecodedCode();
+
+        // The return value replaces the arguments of the method.
+        for (int i = 0; i < retSize; i++) {
+            stack.copy(crtpos - retSize + i, oldpos + i);
+        }
+
+        stack.top = oldpos + retSize;
+        stack.clear(stack.top, crtpos);
         return true;
     }
 
@@ -923,47 +1691,152 @@ public class ExecutionEngine extends Stack {
      * is found.
      */
     private void athrow() {
-        ObjectRepr exn = (ObjectRepr) pop();
-        boolean handled = false;
-        ArrayList<String> stackTrace = new ArrayList<String>();
+        ObjectRepr exn = (ObjectRepr) stack.pop();
+        JClass exnClass = exn.getJClass();
+        // The frames that were unwound, recorded only if there is no handler
+        // in the frame that throws.
+        StackTrace unwound = null;
+        // The instruction that threw or that invoked the callee.
+        int ipc = pc;
 
         while (true) {
-            for (ExceptionDescriptor d : this.m.getCode().exns) {
-                if (d.start_pc <= pc && pc <= d.end_pc) {
-                    if (d.type == JClassConstant.ANY ||
-                            isSuperclass(d.type.getName(), exn.getJClass()) == 1) {
-                        pc = d.handler_pc;
-                        handled = true;
-                    }
-                }
-            }
-            if (handled)
+            int handler = code.handlers == null ? -1 : code.handlers.find(ipc, exnClass);
+            if (handler >= 0) {
+                pc = handler;
+                // The operand stack of the handler contains only the exception.
+                int base = stack.locals + m.getCode().maxLocals;
+                stack.clear(base, stack.top);
+                stack.top = base;
                 break;
-            stackTrace.add(getStackFrame());
+            }
+            if (unwound == null) {
+                unwound = new StackTrace();
+            }
+            unwound.add(m, ipc);
+            // A class initializer returns to the instruction that needed it.
+            boolean clinit = m == crtClass.getClinit();
 
             // The stack is empty.
-            if (!this.ret()) {
-                Object message = exn.getField(new JMemberConstant(
-                        new JClassConstant("java/lang/Throwable"),
-                        "detailMessage", "Ljava/lang/String;"));
-                System.err.println(exn.getJClass().getName() + ": "
-                        + JStringConstant.toString((ObjectRepr) message));
-                for (String stackTraceElement : stackTrace) {
-                    System.err.println(stackTraceElement);
-                }
+            if (!this.ret(0)) {
+                printUncaught(exn, unwound);
                 return;
             }
+            ipc = clinit ? pc : pc - 1;
+        }
+        stack.push(exn);
+    }
+
+    private void printUncaught(ObjectRepr exn, StackTrace unwound) {
+        Object message = exn.getField(new JMemberConstant(
+                new JClassConstant("java/lang/Throwable"),
+                "detailMessage", "Ljava/lang/String;"));
+        System.err.println(exn.getJClass().getName() + (message == null
+                ? "" : ": " + JStringConstant.toString((ObjectRepr) message)));
+        // Prefer the frames recorded when the exception was created.
+        StackTrace trace = getBacktrace(exn);
+        if (trace == null) {
+            trace = unwound;
+        }
+        for (int i = 0; i < trace.size(); i++) {
+            System.err.println(trace.getFrame(i));
+        }
+    }
+
+    /**
+     * Throw an exception raised by the VM in the executed program. The
+     * exception object is not constructed, so it has no message.
+     */
+    private void throwVMException(String className) {
+        JClass jc;
+        try {
+            jc = JClassLoader.getInstance().getClassByName(className);
+        } catch (AssertionError e) {
+            // The class library does not have the exception class.
+            System.err.println(className);
+            do {
+                System.err.println(getStackFrame());
+            } while (ret(0));
+            return;
+        }
+        int base = stack.locals + m.getCode().maxLocals;
+        stack.clear(base, stack.top);
+        stack.top = base;
+        ObjectRepr exn = ObjectFactory.newObject(jc);
+        fillInStackTrace(exn, pc);
+        stack.push(exn);
+        athrow();
+    }
+
+    /*
+     * Throwables keep the frames of the stack at the moment they are created
+     * in their backtrace field, as a StackTrace. If the class library has no
+     * such field, no frames are kept.
+     */
+    private JMemberConstant backtraceField;
+    private boolean noBacktraceField;
+
+    private JMemberConstant getBacktraceField() {
+        if (backtraceField == null && !noBacktraceField) {
+            JMemberConstant field = new JMemberConstant(
+                    new JClassConstant("java/lang/Throwable"),
+                    "backtrace", "Ljava/lang/Object;");
+            try {
+                JClass.getFieldOffset(field);
+                backtraceField = field;
+            } catch (AssertionError e) {
+                noBacktraceField = true;
+            }
+        }
+        return backtraceField;
+    }
+
+    private StackTrace getBacktrace(ObjectRepr exn) {
+        JMemberConstant field = getBacktraceField();
+        if (field == null) {
+            return null;
         }
-        push(exn);
+        Object trace = exn.getField(field);
+        return trace instanceof StackTrace ? (StackTrace) trace : null;
+    }
+
+    /**
+     * Record the frames of the stack in a throwable, the current one being at
+     * instruction [ipc]. The frames of the methods of the throwable that
+     * create it (its constructors and fillInStackTrace) are left out, and so
+     * is the boot frame.
+     */
+    private void fillInStackTrace(ObjectRepr exn, int ipc) {
+        JMemberConstant field = getBacktraceField();
+        if (field == null) {
+            return;
+        }
+        StackTrace trace = new StackTrace();
+        JBytecodeMethod frame = m;
+        boolean creating = true;
+        for (int d = stack.depth; d > 0; d--) {
+            creating = creating && isCreating(frame, exn);
+            if (!creating) {
+                trace.add(frame, ipc);
+            }
+            // The caller is at the invoke, unless the frame is a class
+            // initializer that returns to the instruction that needed it.
+            ipc = stack.framePcs[d - 1];
+            if (frame != frame.getJClass().getClinit()) {
+                ipc--;
+            }
+            frame = stack.frameMethods[d - 1];
+        }
+        exn.putField(field, trace);
+    }
+
+    private static boolean isCreating(JBytecodeMethod frame, ObjectRepr exn) {
+        String name = frame.getMemberName();
+        return (name.startsWith("<init>") || name.startsWith("fillInStackTrace"))
+                && exn.getJClass().isSubtypeOf(frame.getJClass());
     }
 
     private String getStackFrame() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\t at ").append(
-                crtClass == null ? "(null)" : crtClass.getName());
-        sb.append(": ").append(m == null ? "(null)" : m.getMemberName());
-        sb.append(" ").append(pc);
-        return sb.toString();
+        return StackTrace.format(m, pc);
     }
 
     private void printVMStackTrace(Throwable e) {
@@ -973,93 +1846,177 @@ public class ExecutionEngine extends Stack {
         }
         do {
             System.err.println(getStackFrame());
-            if (this.top < 2) {
-                break;
-            }
-        } while (ret());
+        } while (ret(0));
     }
 
     /**
-     * Determine if a class is the ancestor of the other.
-     *
-     * TODO: Can be spedup by some pre-computation.
+     * Methods of java/lang/Class and java/lang/Throwable that are implemented
+     * by the VM.
      */
-    private int isSuperclass(String namep, JClass child) {
-        if (JType.isArray(child.getName())) {
-            if (namep.equals("Cloneable")
-                    || namep.equals("java/io/Serializable")
-                    || namep.equals(JClassLoader.OBJECT_CLASS_NAME)) {
-                return 1;
-            }
-            if (JType.isArray(namep)) {
-                if (JType.isPrimitive(namep) && namep.equals(child))
-                    // same primitive type
-                    return 1;
-
-                JClass childElemClass = JClassLoader.getInstance()
-                        .getClassByName(JType.elemType(child.getName()));
-                if (isSuperclass(JType.elemType(namep), childElemClass) == 1)
-                    return 1;
-            }
-        } else { // child is class or interface type
-            if (namep.equals(child))
-                return 1;
-
-            if (child.getSuperClass() == null) // Object
-                return 1;
-
-            if (isSuperclass(namep, child.getSuperClass()) == 1)
-                return 1;
-
-            for (JClassConstant ic : child.getInterfaces()) {
-                if (isSuperclass(namep, ic.getJClass()) == 1)
-                    return 1;
+    private static final String[] INTRINSICS = {
+        "java/lang/Class/desiredAssertionStatus()Z",
+        "java/lang/Class/getClassLoader()Ljava/lang/ClassLoader;",
+        "java/lang/Class/getName()Ljava/lang/String;",
+        "java/lang/Class/getDeclaredField(Ljava/lang/String;)Ljava/lang/reflect/Field;",
+        "java/lang/Class/newInstance()Ljava/lang/Object;",
+        "java/lang/Throwable/fillInStackTrace(I)Ljava/lang/Throwable;",
+        "java/lang/Throwable/getStackTraceDepth()I",
+        "java/lang/Throwable/getStackTraceElement(I)Ljava/lang/StackTraceElement;",
+    };
+
+    private static int getIntrinsic(JMemberConstant m) {
+        for (int i = 0; i < INTRINSICS.length; i++) {
+            if (INTRINSICS[i].equals(m.getFullName())) {
+                return i;
             }
         }
-
-        return 0;
+        return -1;
     }
 
-    /*
-     * Read next value from code
-     */
-    private int nextShort() {
-        int ret = DataInputStream.readShort(m.getCode().bytecode, pc);
-        pc += 2;
-        return ret;
+    private void invokeIntrinsic(int intrinsic) {
+        switch (intrinsic) {
+        case 0: // desiredAssertionStatus
+            stack.popo();
+            stack.pushi(0);
+            break;
+        case 1: // getClassLoader
+            stack.popo();
+            stack.push(null);
+            break;
+        case 2: // getName
+            stack.push(JStringConstant.createString(((JClass) stack.pop()).getName()));
+            break;
+        case 3: // getDeclaredField
+            stack.pop();
+            stack.pop();
+            stack.push(null);
+            break;
+        case 4: { // newInstance
+            JClass cls = (JClass) stack.pop();
+            ObjectRepr inst = ObjectFactory.newObject(cls);
+            stack.push(inst);
+            stack.push(inst);
+            JMethod init = cls.getDeclaredMethod("<init>()V");
+            if (init != null) {
+                call(init);
+            }
+            break;
+        }
+        case 5: { // fillInStackTrace
+            stack.popi();
+            ObjectRepr exn = stack.popo();
+            fillInStackTrace(exn, pc - 1);
+            stack.push(exn);
+            break;
+        }
+        case 6: { // getStackTraceDepth
+            StackTrace trace = getBacktrace(stack.popo());
+            stack.pushi(trace == null ? 0 : trace.size());
+            break;
+        }
+        case 7: { // getStackTraceElement
+            int i = stack.popi();
+            StackTrace trace = getBacktrace(stack.popo());
+            stack.push(newStackTraceElement(trace, i));
+            break;
+        }
+        default:
+            throw new AssertionError(intrinsic);
+        }
     }
 
-    private int nextInt() {
-        int ret = (int) DataInputStream.readUInt(m.getCode().bytecode, pc);
-        pc += 4;
-        return ret;
+    /** Create a java/lang/StackTraceElement for a frame of a stack trace. */
+    private static ObjectRepr newStackTraceElement(StackTrace trace, int i) {
+        JClassConstant steClass = new JClassConstant("java/lang/StackTraceElement");
+        JClass declaring = trace.getMethod(i).getJClass();
+        String methodName = trace.getMethod(i).getMemberName();
+        String sourceFile = declaring.getSourceFile();
+
+        ObjectRepr ste = ObjectFactory.newObject(steClass.getJClass());
+        ste.putField(new JMemberConstant(steClass, "declaringClass", "Ljava/lang/String;"),
+                JStringConstant.createString(declaring.getName().replace('/', '.')));
+        ste.putField(new JMemberConstant(steClass, "methodName", "Ljava/lang/String;"),
+                JStringConstant.createString(methodName.substring(0, methodName.indexOf('('))));
+        ste.putField(new JMemberConstant(steClass, "fileName", "Ljava/lang/String;"),
+                sourceFile == null ? null : JStringConstant.createString(sourceFile));
+        // Line numbers are not known.
+        ste.putField(new JMemberConstant(steClass, "lineNumber", "I"), -1);
+        return ste;
     }
 
-    private int nextByte() {
-        return (int) ((int) (m.getCode().bytecode[pc++]) & 0xFF);
+    /**
+     * Resolve the target of an invokespecial: a constructor or private method
+     * of the named class, or a superclass method invoked through "super".
+     */
+    private JMethod resolveSpecial(JMemberConstant m) {
+        JClass jc = m.getClassConstant().getJClass();
+        if (jc != crtClass && !m.getMemberName().startsWith("<")) {
+            return crtClass.getSuperClass().lookupMethod(m.getMemberName());
+        }
+        return jc.getDeclaredMethod(m.getMemberName());
     }
 
     /**
      * Harcoded native methods - ugly hack
      */
     public void callNative(JNativeMethod m) {
-        List<Object> args = new ArrayList<Object>();
-        for (int size : m.getArgsSizes()) {
-            args.add(pop(size-1));
-        }
-        Collections.reverse(args);
+        String argsTypes = m.getArgsTypes();
 
-        // The actual call
+        // The actual call, through the entry point of its arity. The
+        // arguments are popped in reverse order.
         Object ret = null;
         try {
-             ret = m.call(args.toArray());
+            switch (argsTypes.length()) {
+            case 0:
+                ret = m.call0();
+                break;
+            case 1:
+                ret = m.call1(stack.popValue(argsTypes.charAt(0)));
+                break;
+            case 2: {
+                Object arg2 = stack.popValue(argsTypes.charAt(1));
+                Object arg1 = stack.popValue(argsTypes.charAt(0));
+                ret = m.call2(arg1, arg2);
+                break;
+            }
+            case 3: {
+                Object arg3 = stack.popValue(argsTypes.charAt(2));
+                Object arg2 = stack.popValue(argsTypes.charAt(1));
+                Object arg1 = stack.popValue(argsTypes.charAt(0));
+                ret = m.call3(arg1, arg2, arg3);
+                break;
+            }
+            case 4: {
+                Object arg4 = stack.popValue(argsTypes.charAt(3));
+                Object arg3 = stack.popValue(argsTypes.charAt(2));
+                Object arg2 = stack.popValue(argsTypes.charAt(1));
+                Object arg1 = stack.popValue(argsTypes.charAt(0));
+                ret = m.call4(arg1, arg2, arg3, arg4);
+                break;
+            }
+            case 5: {
+                Object arg5 = stack.popValue(argsTypes.charAt(4));
+                Object arg4 = stack.popValue(argsTypes.charAt(3));
+                Object arg3 = stack.popValue(argsTypes.charAt(2));
+                Object arg2 = stack.popValue(argsTypes.charAt(1));
+                Object arg1 = stack.popValue(argsTypes.charAt(0));
+                ret = m.call5(arg1, arg2, arg3, arg4, arg5);
+                break;
+            }
+            default: {
+                Object[] args = new Object[argsTypes.length()];
+                for (int i = args.length - 1; i >= 0; i--) {
+                    args[i] = stack.popValue(argsTypes.charAt(i));
+                }
+                ret = m.call(args);
+            }
+            }
         } catch (UnsupportedOperationException e) {
             return;
         }
 
-        int retSize = m.getRetSize();
-        if (retSize > 0) {
-            push(ret, retSize - 1);
+        if (m.getRetSize() > 0) {
+            stack.pushValue(ret, m.getRetType());
         }
     }
 }
@@ -0,0 +1,224 @@
+package jvm.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JMethod;
+
+
+/**
+ * Counters of the execution of a program: the executed opcodes and pairs of
+ * consecutive opcodes, the invocations and instructions of each bytecode
+ * method, the allocations of each class, the loaded classes and the class
+ * initializers that ran.
+ *
+ * @author ctalau
+ */
+public class ExecutionStats {
+    private static class Counter {
+        final String name;
+        long count;
+        long invocations;
+
+        Counter(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Comparator<Counter> BY_COUNT = new Comparator<Counter>() {
+        @Override
+        public int compare(Counter c1, Counter c2) {
+            if (c1.count != c2.count) {
+                return c1.count > c2.count ? -1 : 1;
+            }
+            return c1.name.compareTo(c2.name);
+        }
+    };
+
+    private final long[] opcodes = new long[256];
+    private long instructions;
+    // Opcodes that run right after another one of the same method, indexed
+    // by the two opcodes. Superinstructions are chosen from these.
+    private final long[] pairs = new long[256 * 256];
+    private JMethod prevMethod;
+    private int prevPc = -1;
+    private int prevOpcode;
+
+    private final HashMap<JMethod, Counter> methods = new HashMap<JMethod, Counter>();
+    // the counter of the last method, that usually runs several instructions
+    private JMethod lastMethod;
+    private Counter lastCounter;
+
+    private final HashMap<JClass, Counter> allocations = new HashMap<JClass, Counter>();
+    private final List<String> loadedClasses = new ArrayList<String>();
+    private final List<String> initializedClasses = new ArrayList<String>();
+
+    void countInstruction(byte opcode, JMethod m, int pc) {
+        opcodes[opcode & 0xFF]++;
+        instructions++;
+        getMethodCounter(m).count++;
+        if (m == prevMethod && pc == prevPc + 1) {
+            pairs[prevOpcode << 8 | (opcode & 0xFF)]++;
+        }
+        prevMethod = m;
+        prevPc = pc;
+        prevOpcode = opcode & 0xFF;
+    }
+
+    void countInvocation(JMethod m) {
+        getMethodCounter(m).invocations++;
+        if (m == m.getJClass().getClinit()) {
+            initializedClasses.add(m.getJClass().getName());
+        }
+    }
+
+    void countAllocation(JClass jc) {
+        Counter c = allocations.get(jc);
+        if (c == null) {
+            c = new Counter(jc.getName());
+            allocations.put(jc, c);
+        }
+        c.count++;
+    }
+
+    void countClassLoad(String name) {
+        loadedClasses.add(name);
+    }
+
+    private Counter getMethodCounter(JMethod m) {
+        if (m != lastMethod) {
+            lastCounter = methods.get(m);
+            if (lastCounter == null) {
+                lastCounter = new Counter(m.getFullName());
+                methods.put(m, lastCounter);
+            }
+            lastMethod = m;
+        }
+        return lastCounter;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getOpcodeCount(byte opcode) {
+        return opcodes[opcode & 0xFF];
+    }
+
+    /** The times [second] ran right after [first], in the same method. */
+    public long getPairCount(byte first, byte second) {
+        return pairs[(first & 0xFF) << 8 | (second & 0xFF)];
+    }
+
+    /** The instructions executed by the methods with the given full name. */
+    public long getInstructions(String methodName) {
+        long count = 0;
+        for (Counter c : methods.values()) {
+            if (c.name.equals(methodName)) {
+                count += c.count;
+            }
+        }
+        return count;
+    }
+
+    public long getInvocations(String methodName) {
+        long count = 0;
+        for (Counter c : methods.values()) {
+            if (c.name.equals(methodName)) {
+                count += c.invocations;
+            }
+        }
+        return count;
+    }
+
+    public long getAllocations(String className) {
+        long count = 0;
+        for (Counter c : allocations.values()) {
+            if (c.name.equals(className)) {
+                count += c.count;
+            }
+        }
+        return count;
+    }
+
+    public List<String> getLoadedClasses() {
+        return loadedClasses;
+    }
+
+    public List<String> getInitializedClasses() {
+        return initializedClasses;
+    }
+
+    /**
+     * A report of the counters, sorted by decreasing counts. At most [limit]
+     * lines are printed for the methods and allocations.
+     */
+    public String report(int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Instructions: ").append(instructions).append('\n');
+
+        List<Counter> ops = new ArrayList<Counter>();
+        for (int i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] > 0) {
+                Counter c = new Counter(OPCodes.getName((byte) i));
+                c.count = opcodes[i];
+                ops.add(c);
+            }
+        }
+        sb.append("Opcodes:\n");
+        for (Counter c : sorted(ops, ops.size())) {
+            sb.append("  ").append(c.count).append(' ')
+              .append(percent(c.count, instructions)).append("% ")
+              .append(c.name).append('\n');
+        }
+
+        List<Counter> seqs = new ArrayList<Counter>();
+        for (int i = 0; i < pairs.length; i++) {
+            if (pairs[i] > 0) {
+                Counter c = new Counter(OPCodes.getName((byte) (i >> 8)) + " "
+                        + OPCodes.getName((byte) i));
+                c.count = pairs[i];
+                seqs.add(c);
+            }
+        }
+        sb.append("Pairs:\n");
+        for (Counter c : sorted(seqs, limit)) {
+            sb.append("  ").append(c.count).append(' ').append(c.name).append('\n');
+        }
+
+        sb.append("Methods (instructions, invocations):\n");
+        for (Counter c : sorted(methods.values(), limit)) {
+            sb.append("  ").append(c.count).append(' ').append(c.invocations)
+              .append(' ').append(c.name).append('\n');
+        }
+
+        sb.append("Allocations:\n");
+        for (Counter c : sorted(allocations.values(), limit)) {
+            sb.append("  ").append(c.count).append(' ').append(c.name).append('\n');
+        }
+
+        sb.append("Classes loaded: ").append(loadedClasses.size()).append('\n');
+        sb.append("Classes initialized: ").append(initializedClasses.size()).append('\n');
+        for (String name : initializedClasses) {
+            sb.append("  ").append(name).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static List<Counter> sorted(Iterable<Counter> counters, int limit) {
+        List<Counter> list = new ArrayList<Counter>();
+        for (Counter c : counters) {
+            list.add(c);
+        }
+        Collections.sort(list, BY_COUNT);
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    private static long percent(long count, long total) {
+        return total == 0 ? 0 : 100 * count / total;
+    }
+}
@@ -0,0 +1,93 @@
+package jvm.execution;
+
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JMethod;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.execution.objrepr.ObjectRepr;
+
+
+/**
+ * Inline cache of an invokevirtual or invokeinterface call site.
+ *
+ * It remembers the methods that were dispatched for the last few receiver
+ * classes seen at the call site. Most sites only ever see one class, so the
+ * first entry is kept in separate fields and checked before the others.
+ * When more than [MAX_ENTRIES] classes are seen, the site is megamorphic and
+ * every call goes through the dispatch table of the receiver.
+ *
+ * @author ctalau
+ */
+public class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final JMemberConstant method;
+
+    // monomorphic entry
+    private JClass cls0;
+    private JMethod target0;
+
+    // polymorphic entries
+    private JClass[] classes;
+    private JMethod[] targets;
+    private int size;
+
+    private boolean megamorphic;
+
+    public InlineCache(JMemberConstant method) {
+        this.method = method;
+    }
+
+    /**
+     * Return the method to be invoked on the given receiver.
+     */
+    public JMethod lookup(ObjectRepr receiver) {
+        if (megamorphic) {
+            return receiver.dispatchMethod(method);
+        }
+
+        JClass jc = receiver.getJClass();
+        if (jc == cls0) {
+            return target0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (classes[i] == jc) {
+                return targets[i];
+            }
+        }
+
+        JMethod target = receiver.dispatchMethod(method);
+        add(jc, target);
+        return target;
+    }
+
+    private void add(JClass jc, JMethod target) {
+        if (cls0 == null) {
+            cls0 = jc;
+            target0 = target;
+        } else if (size < MAX_ENTRIES - 1) {
+            if (classes == null) {
+                classes = new JClass[MAX_ENTRIES - 1];
+                targets = new JMethod[MAX_ENTRIES - 1];
+            }
+            classes[size] = jc;
+            targets[size] = target;
+            size++;
+        } else {
+            megamorphic = true;
+            cls0 = null;
+            target0 = null;
+            classes = null;
+            targets = null;
+            size = 0;
+        }
+    }
+
+    /** The method that is invoked. */
+    public JMemberConstant getMethod() {
+        return method;
+    }
+
+    public boolean isMegamorphic() {
+        return megamorphic;
+    }
+}
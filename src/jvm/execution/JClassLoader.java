@@ -15,6 +15,8 @@ import jvm.classparser.JType;
 public abstract class JClassLoader {
     // global cache for loaded classes
     protected HashMap<String, JClass> classes = new HashMap<String, JClass>();
+    // records the loaded classes, or null
+    private ExecutionStats stats;
 
     /**
      * Return a loaded class or load it.
@@ -29,6 +31,9 @@ public abstract class JClassLoader {
             } else {
                 ret = loadClass(name);
                 classes.put(name, ret);
+                if (stats != null) {
+                    stats.countClassLoad(name);
+                }
             }
 
         }
@@ -37,6 +42,10 @@ public abstract class JClassLoader {
 
     protected abstract JClass loadClass(String name);
 
+    void setStats(ExecutionStats stats) {
+        this.stats = stats;
+    }
+
     /**
      * Methods to deal with system classes.
      *
@@ -65,15 +74,6 @@ public abstract class JClassLoader {
         }
     }
 
-    @SuppressWarnings("serial")
-    public static class JClassNotInitializedException extends Exception {
-        public JClass jClass;
-
-        public JClassNotInitializedException(JClass jClass) {
-            this.jClass = jClass;
-        }
-    }
-
     /**
      * Singleton instance of the class loader
      */
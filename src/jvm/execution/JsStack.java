@@ -0,0 +1,236 @@
+package jvm.execution;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Stack for the JavaScript generated by GWT, that the execution engine can
+ * use in the browser instead of the [UnboxedStack]. The primitive values
+ * are raw numbers in a Float64Array and the references are in a plain
+ * JavaScript array, accessed with JSNI. It is only used if enabled with
+ * JVM.setJsValues, since no test runs it yet.
+ *
+ * As in the [UnboxedStack], a long is split in two ints: the high half in
+ * the first slot and the low half in the second one. The engine computes
+ * with Java longs, so the long arithmetic still runs the long emulation of
+ * GWT.
+ *
+ * @author ctalau
+ */
+public class JsStack extends Stack {
+    private JavaScriptObject prims = newPrims(INITIAL_SLOTS);
+    private JavaScriptObject refs = newRefs(INITIAL_SLOTS);
+
+    /*
+     *  Push methods
+     */
+    @Override
+    protected Stack push(Object o) {
+        setRef(refs, top++, o);
+        return this;
+    }
+
+    @Override
+    protected Stack pushi(int v) {
+        setPrim(prims, top++, v);
+        return this;
+    }
+
+    @Override
+    protected Stack pushl(long v) {
+        setPrim(prims, top, (int) (v >> 32));
+        setPrim(prims, top + 1, (int) v);
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushf(float v) {
+        setPrim(prims, top++, v);
+        return this;
+    }
+
+    @Override
+    protected Stack pushd(double v) {
+        setPrim(prims, top, v);
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushValue(Object o, char type) {
+        switch (type) {
+        case 'L':
+        case '[':
+            return push(o);
+        case 'J':
+            return pushl((Long) o);
+        case 'D':
+            return pushd((Double) o);
+        case 'F':
+            return pushf((Float) o);
+        default:
+            return pushi((Integer) o);
+        }
+    }
+
+    /*
+     * Pop methods
+     */
+    @Override
+    protected Object pop() {
+        Object ret = getRef(refs, --top);
+        setRef(refs, top, null);    // throw the object to the garbage collector
+        return ret;
+    }
+
+    @Override
+    protected int popi() {
+        return getInt(prims, --top);
+    }
+
+    @Override
+    protected float popf() {
+        return (float) getPrim(prims, --top);
+    }
+
+    @Override
+    protected long popl() {
+        top -= 2;
+        return ((long) getInt(prims, top) << 32) | ((long) getInt(prims, top + 1) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    protected double popd() {
+        top -= 2;
+        return getPrim(prims, top);
+    }
+
+    @Override
+    protected Object popValue(char type) {
+        switch (type) {
+        case 'L':
+        case '[':
+            return pop();
+        case 'J':
+            return popl();
+        case 'D':
+            return popd();
+        case 'F':
+            return popf();
+        default:
+            return popi();
+        }
+    }
+
+    /*
+     * Slot methods
+     */
+    @Override
+    protected void copy(int from, int to) {
+        copy(prims, refs, from, to);
+    }
+
+    @Override
+    protected void clear(int from, int to) {
+        clear(refs, from, to);
+    }
+
+    @Override
+    protected Object peek(int off) {
+        return getRef(refs, top - off);
+    }
+
+    @Override
+    protected void iinc(int off, int delta) {
+        setPrim(prims, locals + off, getInt(prims, locals + off) + delta);
+    }
+
+    @Override
+    protected int loadi(int off) {
+        return getInt(prims, locals + off);
+    }
+
+    @Override
+    protected Object loado(int off) {
+        return getRef(refs, locals + off);
+    }
+
+    @Override
+    protected Stack newStack() {
+        return new JsStack();
+    }
+
+    @Override
+    protected void grow(int size) {
+        prims = growPrims(prims, size);
+        growRefs(refs, size);
+        capacity = size;
+    }
+
+    @Override
+    protected String slotToString(int i) {
+        return slotToString(prims, refs, i);
+    }
+
+    private static native JavaScriptObject newPrims(int size) /*-{
+        return new Float64Array(size);
+    }-*/;
+
+    // Filled with nulls, so that the array has no holes.
+    private static native JavaScriptObject newRefs(int size) /*-{
+        var refs = [];
+        for (var i = 0; i < size; i++) {
+            refs.push(null);
+        }
+        return refs;
+    }-*/;
+
+    private static native JavaScriptObject growPrims(JavaScriptObject prims, int size) /*-{
+        var larger = new Float64Array(size);
+        larger.set(prims);
+        return larger;
+    }-*/;
+
+    private static native void growRefs(JavaScriptObject refs, int size) /*-{
+        while (refs.length < size) {
+            refs.push(null);
+        }
+    }-*/;
+
+    private static native double getPrim(JavaScriptObject prims, int i) /*-{
+        return prims[i];
+    }-*/;
+
+    private static native int getInt(JavaScriptObject prims, int i) /*-{
+        return prims[i] | 0;
+    }-*/;
+
+    private static native void setPrim(JavaScriptObject prims, int i, double v) /*-{
+        prims[i] = v;
+    }-*/;
+
+    private static native Object getRef(JavaScriptObject refs, int i) /*-{
+        return refs[i];
+    }-*/;
+
+    private static native void setRef(JavaScriptObject refs, int i, Object o) /*-{
+        refs[i] = o;
+    }-*/;
+
+    private static native void copy(JavaScriptObject prims, JavaScriptObject refs,
+            int from, int to) /*-{
+        prims[to] = prims[from];
+        refs[to] = refs[from];
+    }-*/;
+
+    private static native void clear(JavaScriptObject refs, int from, int to) /*-{
+        for (var i = from; i < to; i++) {
+            refs[i] = null;
+        }
+    }-*/;
+
+    private static native String slotToString(JavaScriptObject prims,
+            JavaScriptObject refs, int i) /*-{
+        return refs[i] != null ? String(refs[i]) : String(prims[i]);
+    }-*/;
+}
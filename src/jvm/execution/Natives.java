@@ -10,11 +10,11 @@ import jvm.classparser.JMember.JNativeMethod0;
 import jvm.classparser.JMember.JNativeMethod1;
 import jvm.classparser.JMember.JNativeMethod2;
 import jvm.classparser.JMember.JNativeMethod3;
+import jvm.classparser.JMember.JNativeMethod4;
 import jvm.classparser.JMember.JNativeMethod5;
 import jvm.classparser.jconstants.JClassConstant;
 import jvm.classparser.jconstants.JMemberConstant;
 import jvm.classparser.jconstants.JStringConstant;
-import jvm.execution.JClassLoader.JClassNotInitializedException;
 import jvm.execution.objrepr.ArrayRepr;
 import jvm.execution.objrepr.ObjectFactory;
 import jvm.execution.objrepr.ObjectRepr;
@@ -23,17 +23,124 @@ import jvm.execution.objrepr.StaticMembers;
 
 public class Natives {
 
+    private static final String NULL_POINTER = "java/lang/NullPointerException";
+    private static final String OUT_OF_BOUNDS = "java/lang/ArrayIndexOutOfBoundsException";
+    private static final String ARRAY_STORE = "java/lang/ArrayStoreException";
+    private static final String ILLEGAL_ARGUMENT = "java/lang/IllegalArgumentException";
+    private static final String NEGATIVE_SIZE = "java/lang/NegativeArraySizeException";
+    private static final String CLONE_NOT_SUPPORTED = "java/lang/CloneNotSupportedException";
+    private static final String CLONEABLE = "java/lang/Cloneable";
+
+    /**
+     * Copies the elements in bulk; the checks are the ones of the JRE.
+     */
     private static class NativeArrayCopy extends JNativeMethod5<Void, ArrayRepr, Integer, ArrayRepr, Integer, Integer> {
         @Override
         public Void call(ArrayRepr src, Integer srcPos, ArrayRepr dest, Integer destPos,
                 Integer length) {
-            for (int i = 0; i < length; i++) {
-                dest.set(destPos + i, src.get(srcPos + i));
+            if (src == null || dest == null) {
+                throw new VMThrowable(NULL_POINTER);
             }
+            String srcType = src.getJClass().getName();
+            String destType = dest.getJClass().getName();
+            if (!srcType.equals(destType)
+                    && (srcType.length() == 2 || destType.length() == 2)) {
+                throw new VMThrowable(ARRAY_STORE);
+            }
+            if (srcPos < 0 || destPos < 0 || length < 0
+                    || srcPos > src.length() - length
+                    || destPos > dest.length() - length) {
+                throw new VMThrowable(OUT_OF_BOUNDS);
+            }
+            src.copyTo(srcPos, dest, destPos, length);
+            return null;
+        }
+    }
+
+    private static void checkRange(ArrayRepr a, int from, int to) {
+        if (from > to) {
+            throw new VMThrowable(ILLEGAL_ARGUMENT);
+        }
+        if (from < 0 || to > a.length()) {
+            throw new VMThrowable(OUT_OF_BOUNDS);
+        }
+    }
+
+    /*
+     * Intrinsics for the loops of java.util.Arrays, that are used when
+     * strings and collections grow.
+     */
+    private static class IntrinsicFill extends JNativeMethod2<Void, ArrayRepr, Object> {
+        @Override
+        public Void call(ArrayRepr a, Object val) {
+            if (a == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            a.fill(0, a.length(), val);
+            return null;
+        }
+    }
+
+    private static class IntrinsicFillRange extends JNativeMethod4<Void, ArrayRepr, Integer, Integer, Object> {
+        @Override
+        public Void call(ArrayRepr a, Integer from, Integer to, Object val) {
+            if (a == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            checkRange(a, from, to);
+            a.fill(from, to, val);
             return null;
         }
     }
 
+    private static ArrayRepr copyOfRange(ArrayRepr a, ArrayRepr copy, int from, int to) {
+        a.copyTo(from, copy, 0, Math.min(a.length() - from, to - from));
+        return copy;
+    }
+
+    private static class IntrinsicCopyOf extends JNativeMethod2<ArrayRepr, ArrayRepr, Integer> {
+        @Override
+        public ArrayRepr call(ArrayRepr a, Integer length) {
+            if (a == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            if (length < 0) {
+                throw new VMThrowable(NEGATIVE_SIZE);
+            }
+            return copyOfRange(a, a.newInstance(length), 0, length);
+        }
+    }
+
+    private static class IntrinsicCopyOfType extends JNativeMethod3<ArrayRepr, ArrayRepr, Integer, JClass> {
+        @Override
+        public ArrayRepr call(ArrayRepr a, Integer length, JClass type) {
+            if (a == null || type == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            if (length < 0) {
+                throw new VMThrowable(NEGATIVE_SIZE);
+            }
+            ArrayRepr copy = ObjectFactory.newArray(type.getName().substring(1), length);
+            return copyOfRange(a, copy, 0, length);
+        }
+    }
+
+    private static class IntrinsicCopyOfRange extends JNativeMethod3<ArrayRepr, ArrayRepr, Integer, Integer> {
+        @Override
+        public ArrayRepr call(ArrayRepr a, Integer from, Integer to) {
+            if (a == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            if (from > to) {
+                throw new VMThrowable(ILLEGAL_ARGUMENT);
+            }
+            if (from < 0 || from > a.length()) {
+                throw new VMThrowable(OUT_OF_BOUNDS);
+            }
+            return copyOfRange(a, a.newInstance(to - from), from, to);
+        }
+    }
+
     private static class NativeGetPrimitiveClass extends JNativeMethod1<ObjectRepr, ObjectRepr> {
         @Override
         public ObjectRepr call(ObjectRepr name) {
@@ -59,14 +166,14 @@ public class Natives {
     private static class NativeNanoTime extends JNativeMethod0<Long> {
         @Override
         protected Long call() {
-            return 0L;
+            return java.lang.System.currentTimeMillis() * 1000000L;
         }
     }
 
     private static class NativeCurrentTime extends JNativeMethod0<Long> {
         @Override
         protected Long call() {
-            return 0L;
+            return java.lang.System.currentTimeMillis();
         }
     }
 
@@ -77,11 +184,119 @@ public class Natives {
         }
     }
 
+    // A shallow copy of the fields or of the elements.
+    private static class NativeClone extends JNativeMethod1<ObjectRepr, ObjectRepr> {
+        @Override
+        public ObjectRepr call(ObjectRepr arg1) {
+            JClass cloneable = JClassLoader.getInstance().getClassByName(CLONEABLE);
+            if (!arg1.getJClass().isSubtypeOf(cloneable)) {
+                throw new VMThrowable(CLONE_NOT_SUPPORTED);
+            }
+            return ObjectFactory.copy(arg1);
+        }
+    }
+
+    /*
+     * Threads and monitors, implemented by the thread scheduler.
+     */
     private static class NativeCurrentThread extends JNativeMethod0<ObjectRepr> {
         @Override
         public ObjectRepr call() {
-            JClassLoader jcl = JClassLoader.getInstance();
-            return ObjectFactory.newObject(jcl.getClassByName("java/lang/Thread"));
+            return ThreadScheduler.getInstance().currentThread();
+        }
+    }
+
+    private static class NativeYield extends JNativeMethod0<Void> {
+        @Override
+        public Void call() {
+            ThreadScheduler.getInstance().yield();
+            return null;
+        }
+    }
+
+    private static class NativeSleep extends JNativeMethod1<Void, Long> {
+        @Override
+        public Void call(Long millis) {
+            ThreadScheduler.getInstance().sleep(millis);
+            return null;
+        }
+    }
+
+    private static class NativeIsAlive extends JNativeMethod1<Integer, ObjectRepr> {
+        @Override
+        public Integer call(ObjectRepr thread) {
+            return ThreadScheduler.getInstance().isAlive(thread) ? 1 : 0;
+        }
+    }
+
+    private static class NativeInterrupt extends JNativeMethod1<Void, ObjectRepr> {
+        @Override
+        public Void call(ObjectRepr thread) {
+            ThreadScheduler.getInstance().interrupt(thread);
+            return null;
+        }
+    }
+
+    private static class NativeIsInterrupted extends JNativeMethod2<Integer, ObjectRepr, Integer> {
+        @Override
+        public Integer call(ObjectRepr thread, Integer clear) {
+            return ThreadScheduler.getInstance().isInterrupted(thread, clear != 0) ? 1 : 0;
+        }
+    }
+
+    private static class NativeHoldsLock extends JNativeMethod1<Integer, ObjectRepr> {
+        @Override
+        public Integer call(ObjectRepr obj) {
+            if (obj == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            return ThreadScheduler.getInstance().holdsLock(obj) ? 1 : 0;
+        }
+    }
+
+    private static class NativeWait extends JNativeMethod2<Void, ObjectRepr, Long> {
+        @Override
+        public Void call(ObjectRepr obj, Long millis) {
+            ThreadScheduler.getInstance().wait(obj, millis);
+            return null;
+        }
+    }
+
+    private static class NativeNotify extends JNativeMethod1<Void, ObjectRepr> {
+        private final boolean all;
+
+        NativeNotify(boolean all) {
+            this.all = all;
+        }
+
+        @Override
+        public Void call(ObjectRepr obj) {
+            ThreadScheduler.getInstance().notify(obj, all);
+            return null;
+        }
+    }
+
+    /*
+     * Thread.start and the initialization of Thread objects do not use
+     * thread groups, access control contexts or thread locals.
+     */
+    private static class IntrinsicStart extends JNativeMethod1<Void, ObjectRepr> {
+        @Override
+        public Void call(ObjectRepr thread) {
+            ThreadScheduler.getInstance().start(thread);
+            return null;
+        }
+    }
+
+    private static class IntrinsicThreadInit extends JNativeMethod5<Void, ObjectRepr, ObjectRepr, ObjectRepr, ObjectRepr, Long> {
+        @Override
+        public Void call(ObjectRepr thread, ObjectRepr group, ObjectRepr target,
+                ObjectRepr name, Long stackSize) {
+            if (name == null) {
+                throw new VMThrowable(NULL_POINTER);
+            }
+            ThreadScheduler.getInstance().initThread(thread, target, name);
+            return null;
         }
     }
 
@@ -178,14 +393,9 @@ public class Natives {
     private static class NativeSetOut extends JNativeMethod1<Void, ObjectRepr> {
         @Override
         public Void call(ObjectRepr ps) {
-            try {
-                StaticMembers.putStaticField(new JMemberConstant(
-                        new JClassConstant("java/lang/System"),
-                        "out", "Ljava/io/PrintStream;"), ps);
-            } catch (JClassNotInitializedException e) {
-                throw new AssertionError(e.jClass.getStatus());
-
-            }
+            StaticMembers.putStaticField(new JMemberConstant(
+                    new JClassConstant("java/lang/System"),
+                    "out", "Ljava/io/PrintStream;"), ps);
             return null;
         }
     }
@@ -232,10 +442,21 @@ public class Natives {
                 new NativeArrayCopy());
         methods.put("java/lang/System/identityHashCode(Ljava/lang/Object;)I",
                 new NativeIdentityHashCode());
+        methods.put("java/lang/Object/hashCode()I", new NativeIdentityHashCode());
+        methods.put("java/lang/Object/clone()Ljava/lang/Object;", new NativeClone());
         methods.put("java/security/AccessController/doPrivileged(Ljava/security/PrivilegedAction;)Ljava/lang/Object;",
                 new NativeDoPrivileged());
         methods.put("java/lang/Thread/currentThread()Ljava/lang/Thread;",
                 new NativeCurrentThread());
+        methods.put("java/lang/Thread/yield()V", new NativeYield());
+        methods.put("java/lang/Thread/sleep(J)V", new NativeSleep());
+        methods.put("java/lang/Thread/isAlive()Z", new NativeIsAlive());
+        methods.put("java/lang/Thread/interrupt0()V", new NativeInterrupt());
+        methods.put("java/lang/Thread/isInterrupted(Z)Z", new NativeIsInterrupted());
+        methods.put("java/lang/Thread/holdsLock(Ljava/lang/Object;)Z", new NativeHoldsLock());
+        methods.put("java/lang/Object/wait(J)V", new NativeWait());
+        methods.put("java/lang/Object/notify()V", new NativeNotify(false));
+        methods.put("java/lang/Object/notifyAll()V", new NativeNotify(true));
         methods.put("java/lang/Runtime/freeMemory()J",
                 new NativeFreeMemory());
         methods.put("java/lang/Class/forName0(Ljava/lang/String;ZLjava/lang/ClassLoader;)Ljava/lang/Class;",
@@ -255,6 +476,38 @@ public class Natives {
         methods.put("java/lang/System/currentTimeMillis()J", new NativeCurrentTime());
     }
 
+    /*
+     * Methods that have bytecode in the JRE, but that are executed natively.
+     */
+    private static HashMap<String, JNativeMethod> intrinsics = new HashMap<String, JNativeMethod>();
+
+    static {
+        String[] types = {"I", "J", "S", "C", "B", "Z", "F", "D", "Ljava/lang/Object;"};
+        for (String t : types) {
+            String array = "[" + t;
+            intrinsics.put("java/util/Arrays/fill(" + array + t + ")V",
+                    new IntrinsicFill());
+            intrinsics.put("java/util/Arrays/fill(" + array + "II" + t + ")V",
+                    new IntrinsicFillRange());
+            intrinsics.put("java/util/Arrays/copyOf(" + array + "I)" + array,
+                    new IntrinsicCopyOf());
+            intrinsics.put("java/util/Arrays/copyOfRange(" + array + "II)" + array,
+                    new IntrinsicCopyOfRange());
+        }
+        intrinsics.put("java/util/Arrays/copyOf([Ljava/lang/Object;ILjava/lang/Class;)[Ljava/lang/Object;",
+                new IntrinsicCopyOfType());
+        intrinsics.put("java/lang/Thread/start()V", new IntrinsicStart());
+        intrinsics.put("java/lang/Thread/init(Ljava/lang/ThreadGroup;Ljava/lang/Runnable;Ljava/lang/String;J)V",
+                new IntrinsicThreadInit());
+    }
+
+    /**
+     * The native replacement of a method with bytecode, or null.
+     */
+    public static JNativeMethod getIntrinsic(String name) {
+        return intrinsics.get(name);
+    }
+
     public static JNativeMethod getNativeMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
@@ -207,7 +207,35 @@ public class OPCodes {
     public static final byte OP_impdep1 = (byte) (0xfe);
     public static final byte OP_impdep2 = (byte) (0xff);
 
-    private static final String[] names = { "nop", "aconst_null", "iconst_m1",
+    /*
+     * Quick variants of the instructions that resolve a constant pool entry.
+     * They only appear in the decoded code, after the first execution of the
+     * original instruction (see DecodedCode).
+     */
+    public static final byte OP_ldc_quick = (byte) (0xcb);
+    public static final byte OP_ldc2_w_quick = (byte) (0xcd);
+    public static final byte OP_getstatic_quick = (byte) (0xd2);
+    public static final byte OP_putstatic_quick = (byte) (0xd3);
+    public static final byte OP_invokevirtual_quick = (byte) (0xd6);
+    public static final byte OP_invokenonvirtual_quick = (byte) (0xd7);
+    public static final byte OP_invokestatic_quick = (byte) (0xd9);
+    public static final byte OP_invokeintrinsic_quick = (byte) (0xdc);
+    public static final byte OP_new_quick = (byte) (0xdd);
+    public static final byte OP_anewarray_quick = (byte) (0xde);
+    public static final byte OP_multianewarray_quick = (byte) (0xdf);
+
+    /*
+     * Superinstructions: frequent sequences of instructions that run in a
+     * single dispatch. The opcode replaces the one of the first instruction
+     * of the sequence, and the others stay in place (see DecodedCode).
+     */
+    public static final byte OP_iinc_goto = (byte) (0xe0);
+    public static final byte OP_iload_iload_if_icmp = (byte) (0xe1);
+    public static final byte OP_aload_getfield = (byte) (0xe2);
+    public static final byte OP_aload_arraylength = (byte) (0xe3);
+
+    // The names of the opcodes of the JVM specification, up to breakpoint.
+    private static final String[] specNames = { "nop", "aconst_null", "iconst_m1",
             "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4",
             "iconst_5", "lconst_0", "lconst_1", "fconst_0", "fconst_1",
             "fconst_2", "dconst_0", "dconst_1", "bipush", "sipush", "ldc",
@@ -240,7 +268,33 @@ public class OPCodes {
             "xxxunusedxxx1", "new", "newarray", "anewarray", "arraylength",
             "athrow", "checkcast", "instanceof", "monitorenter", "monitorexit",
             "wide", "multianewarray", "ifnull", "ifnonnull", "goto_w", "jsr_w",
-            "breakpoint", "impdep1", "impdep2" };
+            "breakpoint" };
+
+    private static final String[] names = new String[256];
+
+    static {
+        for (int i = 0; i < names.length; i++) {
+            names[i] = i < specNames.length ? specNames[i] : "unused_" + Integer.toHexString(i);
+        }
+        names[OP_ldc_quick & 0xFF] = "ldc_quick";
+        names[OP_ldc2_w_quick & 0xFF] = "ldc2_w_quick";
+        names[OP_getstatic_quick & 0xFF] = "getstatic_quick";
+        names[OP_putstatic_quick & 0xFF] = "putstatic_quick";
+        names[OP_invokevirtual_quick & 0xFF] = "invokevirtual_quick";
+        names[OP_invokenonvirtual_quick & 0xFF] = "invokenonvirtual_quick";
+        names[OP_invokestatic_quick & 0xFF] = "invokestatic_quick";
+        names[OP_invokeintrinsic_quick & 0xFF] = "invokeintrinsic_quick";
+        names[OP_new_quick & 0xFF] = "new_quick";
+        names[OP_anewarray_quick & 0xFF] = "anewarray_quick";
+        names[OP_multianewarray_quick & 0xFF] = "multianewarray_quick";
+        names[OP_iinc_goto & 0xFF] = "iinc_goto";
+        names[OP_iload_iload_if_icmp & 0xFF] = "iload_iload_if_icmp";
+        names[OP_aload_getfield & 0xFF] = "aload_getfield";
+        names[OP_aload_arraylength & 0xFF] = "aload_arraylength";
+        names[OP_impdep1 & 0xFF] = "impdep1";
+        names[OP_impdep2 & 0xFF] = "impdep2";
+    }
+
     public static String getName(byte opcode){
         return names[opcode & 0xFF];
     }
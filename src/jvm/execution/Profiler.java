@@ -0,0 +1,179 @@
+package jvm.execution;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jvm.classparser.JAttribute.LineNumberTable;
+import jvm.classparser.JMember.JBytecodeMethod;
+
+
+/**
+ * Sampling profiler of the executed program. Every [interval] instructions
+ * the execution engine hands it the stack of the running thread, whose frames
+ * are walked and added to a tree of the sampled call paths. The frames are
+ * kept as (method, instruction) pairs and only resolved to source lines when
+ * the profile is printed.
+ *
+ * The profile is printed in the "collapsed stacks" format read by the
+ * flame graph tools: one line per call path, with the frames from the
+ * outermost one separated by ';', followed by the number of samples.
+ *
+ * @author ctalau
+ */
+public class Profiler {
+    public static final int DEFAULT_INTERVAL = 10000;
+    // Deeper stacks are cut, keeping the innermost frames.
+    private static final int MAX_FRAMES = 256;
+    private static final String TRUNCATED = "[truncated]";
+
+    private static class Node {
+        final JBytecodeMethod m;
+        final int pc;
+        long samples;
+        ArrayList<Node> children;
+
+        Node(JBytecodeMethod m, int pc) {
+            this.m = m;
+            this.pc = pc;
+        }
+
+        Node getChild(JBytecodeMethod m, int pc) {
+            if (children == null) {
+                children = new ArrayList<Node>(2);
+            }
+            for (int i = 0; i < children.size(); i++) {
+                Node child = children.get(i);
+                if (child.m == m && child.pc == pc) {
+                    return child;
+                }
+            }
+            Node child = new Node(m, pc);
+            children.add(child);
+            return child;
+        }
+    }
+
+    private final int interval;
+    // instructions left until the next sample
+    private int countdown;
+    private long samples;
+    private final Node root = new Node(null, 0);
+    private final Node truncated = new Node(null, 0);
+
+    // the frames of the current sample, innermost first
+    private final JBytecodeMethod[] methods = new JBytecodeMethod[MAX_FRAMES];
+    private final int[] pcs = new int[MAX_FRAMES];
+
+    public Profiler() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public Profiler(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Sampling interval: " + interval);
+        }
+        this.interval = interval;
+        this.countdown = interval;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /** The number of instructions to run before the next sample. */
+    int untilSample() {
+        return countdown;
+    }
+
+    /** Record that [n] instructions ran; returns true if a sample is due. */
+    boolean advance(int n) {
+        countdown -= n;
+        if (countdown > 0) {
+            return false;
+        }
+        countdown = interval;
+        return true;
+    }
+
+    /**
+     * Record the stack of a thread that is at instruction [pc] of [m].
+     * The bottom frame is the boot code of the thread, which is left out.
+     */
+    void sample(Stack stack, JBytecodeMethod m, int pc) {
+        int n = 0;
+        for (int d = stack.depth; d > 0 && n < MAX_FRAMES; d--) {
+            methods[n] = m;
+            pcs[n] = pc;
+            n++;
+            // The callers are at the invoke, unless the frame is a class
+            // initializer that returns to the instruction that needed it.
+            pc = stack.framePcs[d - 1];
+            if (m != m.getJClass().getClinit()) {
+                pc--;
+            }
+            m = stack.frameMethods[d - 1];
+        }
+        if (n == 0) {
+            return;
+        }
+
+        Node node = stack.depth > MAX_FRAMES ? truncated : root;
+        for (int i = n - 1; i >= 0; i--) {
+            node = node.getChild(methods[i], pcs[i]);
+            methods[i] = null;
+        }
+        node.samples++;
+        samples++;
+    }
+
+    /**
+     * The samples in the collapsed stacks format, sorted by call path. The
+     * frames are named "class.method:line".
+     */
+    public String getCollapsedStacks() {
+        TreeMap<String, Long> stacks = new TreeMap<String, Long>();
+        collapse(root, "", stacks);
+        collapse(truncated, TRUNCATED, stacks);
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : stacks.entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void collapse(Node node, String path, TreeMap<String, Long> stacks) {
+        if (node.samples > 0) {
+            Long count = stacks.get(path);
+            stacks.put(path, (count == null ? 0 : count) + node.samples);
+        }
+        if (node.children == null) {
+            return;
+        }
+        for (Node child : node.children) {
+            String frame = frameName(child.m, child.pc);
+            collapse(child, path.length() == 0 ? frame : path + ";" + frame, stacks);
+        }
+    }
+
+    static String frameName(JBytecodeMethod m, int pc) {
+        String name = m.getMemberName();
+        int paren = name.indexOf('(');
+        StringBuilder sb = new StringBuilder();
+        sb.append(m.getJClass().getName()).append('.')
+          .append(paren < 0 ? name : name.substring(0, paren));
+        LineNumberTable lines = m.getCode().getLineNumberTable();
+        if (lines != null) {
+            int line = lines.getLineNumber(m.getDecodedCode().getBytecodeOffset(pc));
+            if (line >= 0) {
+                sb.append(':').append(line);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,108 +1,267 @@
 package jvm.execution;
 
+import jvm.classparser.JMember.JBytecodeMethod;
 import jvm.execution.objrepr.ObjectRepr;
 
 /**
- * JVM Stack: it stores every numeric value boxed, for every Category 2    value
- * it skips an entry. Otherwise, because of dup operations, we should keep track
- * of the types at runtime.
+ * JVM Stack: it holds the frames of the invoked methods, each made of the
+ * local variables and the operand stack. The registers of the callers are
+ * saved in separate arrays, so calls and returns do not allocate.
  *
- * Since Java does not allow to mix between primitive and Object values in an array
- * we don't have a better option.
+ * Every Category 2 value takes two slots, the value being stored in the
+ * first one. The value types are known by the instructions that push and
+ * pop them, but not by the ones that only move slots around (dup, swap,
+ * load and store), which are implemented with [copy].
+ *
+ * Values that cross the boundary to the object model (fields, constants,
+ * native methods) are boxed and their type is given by a descriptor.
  *
  * @author ctalau
  */
-public class Stack {
-    private static final int KB = 1024;
-    private static final int MB = 1024 * KB;
+public abstract class Stack {
+    public static final String STACK_OVERFLOW = "java/lang/StackOverflowError";
+    public static final int DEFAULT_MAX_DEPTH = 4096;
+
+    // The arrays start small and double when they are full.
+    protected static final int INITIAL_SLOTS = 256;
+    private static final int INITIAL_FRAMES = 32;
+
+    // Average number of slots allowed per frame, to bound the slot arrays.
+    private static final int SLOTS_PER_FRAME = 256;
 
-    protected Object [] stack = new Object [1 * MB / 1000]; // XXX: for testing
     protected int top = 0;
     protected int locals = 0;
 
+    // The number of slots that fit in the arrays of the implementation.
+    protected int capacity = INITIAL_SLOTS;
+
+    // The frame stack: the saved registers of the callers.
+    protected int depth = 0;
+    protected int maxDepth = DEFAULT_MAX_DEPTH;
+    protected int[] framePcs = new int[INITIAL_FRAMES];
+    protected int[] frameLocals = new int[INITIAL_FRAMES];
+    protected JBytecodeMethod[] frameMethods = new JBytecodeMethod[INITIAL_FRAMES];
+
+    /**
+     * Set the maximum number of nested calls. Deeper calls throw a
+     * StackOverflowError in the program.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
     /*
      *  Push methods
      */
-    protected Stack push(Object o){
-        return push(o, 0);
+    protected abstract Stack push(Object o);
+
+    protected abstract Stack pushi(int v);
+
+    protected abstract Stack pushl(long v);
+
+    protected abstract Stack pushf(float v);
+
+    protected abstract Stack pushd(double v);
+
+    /** Push a boxed value with the type given by the descriptor. */
+    protected abstract Stack pushValue(Object o, char type);
+
+    /*
+     * Pop methods
+     */
+    protected abstract Object pop();
+
+    protected abstract int popi();
+
+    protected abstract long popl();
+
+    protected abstract float popf();
+
+    protected abstract double popd();
+
+    /** Pop a value of the type given by the descriptor and box it. */
+    protected abstract Object popValue(char type);
+
+    protected ObjectRepr popo(){
+        return (ObjectRepr) pop();
     }
 
-    protected Stack push(Object o, int skip){
-        stack[top++] = o;
-        top += skip;
-        return this;
+    /** Remove the topmost [n] slots. */
+    protected void discard(int n) {
+        top -= n;
+        clear(top, top + n);
     }
 
-    protected Stack pushi(Integer o){
-        return push(o);
+    /*
+     * Slot methods
+     */
+    protected abstract void copy(int from, int to);
+
+    /** Release the references between the given slots. */
+    protected abstract void clear(int from, int to);
+
+    // look at a reference into the stack without changing it
+    protected abstract Object peek(int off);
+
+    /*
+     * Local variables methods
+     */
+    protected void load(int off, int size) {
+        for (int i = 0; i < size; i++) {
+            copy(locals + off + i, top++);
+        }
     }
 
-    protected Stack pushl(Long o){
-        return push(o, 1);
+    protected void store(int off, int size) {
+        top -= size;
+        for (int i = 0; i < size; i++) {
+            copy(top + i, locals + off + i);
+        }
+        clear(top, top + size);
     }
 
-    protected Stack pushf(Float o){
-        return push(o);
+    protected abstract void iinc(int off, int delta);
+
+    /** Read an int local variable without pushing it. */
+    protected abstract int loadi(int off);
+
+    /** Read a reference local variable without pushing it. */
+    protected abstract Object loado(int off);
+
+    /*
+     * Frame methods
+     */
+
+    /**
+     * Make room for a new frame whose slots end at [end]. The stack is left
+     * unchanged if the maximum depth is exceeded.
+     */
+    protected void ensureFrame(int end) {
+        if (depth >= maxDepth || end > maxDepth * SLOTS_PER_FRAME) {
+            throw new VMThrowable(STACK_OVERFLOW);
+        }
+        if (depth == frameMethods.length) {
+            int size = Math.min(2 * depth, maxDepth);
+            int[] pcs = new int[size];
+            int[] bases = new int[size];
+            JBytecodeMethod[] methods = new JBytecodeMethod[size];
+            System.arraycopy(framePcs, 0, pcs, 0, depth);
+            System.arraycopy(frameLocals, 0, bases, 0, depth);
+            System.arraycopy(frameMethods, 0, methods, 0, depth);
+            framePcs = pcs;
+            frameLocals = bases;
+            frameMethods = methods;
+        }
+        if (end > capacity) {
+            grow(Math.max(2 * capacity, end));
+        }
     }
 
-    protected Stack pushd(Double o){
-        return push(o, 1);
+    /** Create an empty stack of the same kind, for a new thread. */
+    protected abstract Stack newStack();
+
+    /** Resize the slot arrays to [size] slots. */
+    protected abstract void grow(int size);
+
+    protected void pushFrame(int pc, JBytecodeMethod m) {
+        framePcs[depth] = pc;
+        frameLocals[depth] = locals;
+        frameMethods[depth] = m;
+        depth++;
     }
 
-    /*
-     * Pop methods
+    /**
+     * Restore the locals of the caller and return its method. Its pc is
+     * returned afterwards by [framePc].
      */
-    protected Object pop(){
-        Object ret = stack[--top];
-        stack[top] = null;    // throw the object to the garbage collector
-        return ret;
+    protected JBytecodeMethod popFrame() {
+        depth--;
+        locals = frameLocals[depth];
+        JBytecodeMethod m = frameMethods[depth];
+        frameMethods[depth] = null;
+        return m;
     }
 
-    // skip should be 0 and 1
-    protected Object pop(int skip){
-        Object ret = stack[top - 1 - skip];
-        stack[top - 1] = null;
-        stack[top - 1 - skip] = null;
-        top = top - 1 - skip;
-        return ret;
+    protected int framePc() {
+        return framePcs[depth];
     }
 
-    protected Integer popi(){
-        return (Integer) pop();
+    /*
+     * Operand stack manipulation
+     */
+    protected void dup() {
+        copy(top - 1, top);
+        top++;
     }
 
-    protected Float popf(){
-        return (Float) pop();
+    protected void dupX1() {
+        copy(top - 1, top);
+        copy(top - 2, top - 1);
+        copy(top, top - 2);
+        top++;
     }
 
-    protected Long popl(){
-        return (Long) pop(1);
+    protected void dupX2() {
+        copy(top - 1, top);
+        copy(top - 2, top - 1);
+        copy(top - 3, top - 2);
+        copy(top, top - 3);
+        top++;
     }
 
-    protected Double popd(){
-        return (Double) pop(1);
+    protected void dup2() {
+        copy(top - 2, top);
+        copy(top - 1, top + 1);
+        top += 2;
     }
 
-    protected ObjectRepr popo(){
-        return (ObjectRepr) pop();
+    protected void dup2X1() {
+        copy(top - 1, top + 1);
+        copy(top - 2, top);
+        copy(top - 3, top - 1);
+        copy(top, top - 3);
+        copy(top + 1, top - 2);
+        top += 2;
     }
 
-    /*
-     * Local variables methods
-     */
-    protected void storeLocal(int off, Object o){
-        stack[locals + off] = o;
+    protected void dup2X2() {
+        copy(top - 1, top + 1);
+        copy(top - 2, top);
+        copy(top - 3, top - 1);
+        copy(top - 4, top - 2);
+        copy(top, top - 4);
+        copy(top + 1, top - 3);
+        top += 2;
     }
 
-    protected Object loadLocal(int off){
-        return stack[locals + off];
+    protected void swap() {
+        copy(top - 1, top);
+        copy(top - 2, top - 1);
+        copy(top, top - 2);
+        clear(top, top + 1);
     }
 
-    // look into the stack without changing it
-    protected Object peek(int off){
-        return stack[top - off];
+    /** The descriptor of the type of a boxed constant. */
+    protected static char typeOf(Object constant) {
+        if (constant instanceof Integer) {
+            return 'I';
+        } else if (constant instanceof Float) {
+            return 'F';
+        } else if (constant instanceof Long) {
+            return 'J';
+        } else if (constant instanceof Double) {
+            return 'D';
+        }
+        return 'L';
+    }
+
+    /** The number of slots taken by a value of the given type. */
+    protected static int size(char type) {
+        return type == 'J' || type == 'D' ? 2 : 1;
     }
 
+    protected abstract String slotToString(int i);
+
     @Override
     public String toString() {
         StringBuffer sbf = new StringBuffer();
@@ -113,15 +272,10 @@ public class Stack {
         for (int i = 0; i < top; ++i) {
             sbf.append(i);
             sbf.append(": ");
-            sbf.append(stack[i]);
+            sbf.append(slotToString(i));
             sbf.append('\n');
         }
         return sbf.toString();
     }
 }
 
-
-/**
- * Performance improvement:
- *     -> Try to use javascript value representation with 64-bit tagged values
- */
@@ -0,0 +1,57 @@
+package jvm.execution;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+
+
+/**
+ * Stack trace made of (method, instruction) pairs. The frames are only
+ * formatted when they are printed.
+ *
+ * @author ctalau
+ */
+public class StackTrace {
+    private JBytecodeMethod[] methods = new JBytecodeMethod[8];
+    private int[] pcs = new int[8];
+    private int size;
+
+    public void add(JBytecodeMethod m, int pc) {
+        if (size == methods.length) {
+            JBytecodeMethod[] newMethods = new JBytecodeMethod[2 * size];
+            int[] newPcs = new int[2 * size];
+            System.arraycopy(methods, 0, newMethods, 0, size);
+            System.arraycopy(pcs, 0, newPcs, 0, size);
+            methods = newMethods;
+            pcs = newPcs;
+        }
+        methods[size] = m;
+        pcs[size] = pc;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public JBytecodeMethod getMethod(int i) {
+        return methods[i];
+    }
+
+    /** The bytecode offset of the instruction of the given frame. */
+    public int getBytecodeOffset(int i) {
+        return methods[i].getDecodedCode().getBytecodeOffset(pcs[i]);
+    }
+
+    /** Returns the text of the given frame. */
+    public String getFrame(int i) {
+        return format(methods[i], pcs[i]);
+    }
+
+    static String format(JBytecodeMethod m, int pc) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\t at ").append(
+                m == null ? "(null)" : m.getJClass().getName());
+        sb.append(": ").append(m == null ? "(null)" : m.getMemberName());
+        sb.append(" ").append(m == null ? pc : m.getDecodedCode().getBytecodeOffset(pc));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,437 @@
+package jvm.execution;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import jvm.classparser.JClass;
+import jvm.classparser.JClass.Status;
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.jconstants.JClassConstant;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.classparser.jconstants.JStringConstant;
+import jvm.execution.objrepr.ArrayRepr;
+import jvm.execution.objrepr.ObjectFactory;
+import jvm.execution.objrepr.ObjectRepr;
+
+
+/**
+ * Green threads: the threads of the program are run one at a time by the
+ * execution engine, which asks the scheduler for the next thread to run at
+ * the end of every time slice. The threads are picked round-robin, skipping
+ * the ones that sleep, wait, are blocked on a monitor or wait for a class
+ * to be initialized, which cost nothing until they can run again.
+ *
+ * The monitors are kept in a map from the objects that are locked; an
+ * object has an entry only while its monitor is owned or waited on.
+ *
+ * The java/lang/Thread objects are handled with the field layout of the
+ * Thread class of the class library.
+ *
+ * @author ctalau
+ */
+public class ThreadScheduler {
+    public static final String THREAD_CLASS = "java/lang/Thread";
+    private static final String ILLEGAL_MONITOR_STATE = "java/lang/IllegalMonitorStateException";
+    private static final String ILLEGAL_ARGUMENT = "java/lang/IllegalArgumentException";
+    private static final String ILLEGAL_THREAD_STATE = "java/lang/IllegalThreadStateException";
+    private static final String INTERRUPTED = "java/lang/InterruptedException";
+
+    // Bits of Thread.threadStatus, as in JVMTI.
+    private static final int STATUS_ALIVE = 0x1;
+    private static final int STATUS_TERMINATED = 0x2;
+    private static final int STATUS_RUNNABLE = 0x4;
+    private static final int NORM_PRIORITY = 5;
+
+    /**
+     * Thrown to end the time slice of the current thread when it blocks or
+     * yields. The registers of the thread are already set to resume it.
+     */
+    static class Switch extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static final Switch SWITCH = new Switch();
+
+    private static class Monitor {
+        VMThread owner;
+        int count;
+        ArrayList<VMThread> waiters = new ArrayList<VMThread>();
+    }
+
+    private static ThreadScheduler instance;
+
+    private final ArrayList<VMThread> threads = new ArrayList<VMThread>();
+    private final IdentityHashMap<Object, Monitor> monitors =
+            new IdentityHashMap<Object, Monitor>();
+    // the bottom frame of the started threads, that invokes run()
+    private final JBytecodeMethod threadBootMethod;
+    private final int maxDepth;
+    private VMThread current;
+    private int next;
+
+    ThreadScheduler(VMThread main, JBytecodeMethod threadBootMethod, int maxDepth) {
+        this.threadBootMethod = threadBootMethod;
+        this.maxDepth = maxDepth;
+        threads.add(main);
+        current = main;
+    }
+
+    public static ThreadScheduler getInstance() {
+        return instance;
+    }
+
+    static void setInstance(ThreadScheduler scheduler) {
+        instance = scheduler;
+    }
+
+    VMThread getCurrent() {
+        return current;
+    }
+
+    /**
+     * Pick the next thread that can run, or return null if all the threads
+     * are waiting.
+     */
+    VMThread pick() {
+        int n = threads.size();
+        for (int i = 0; i < n; i++) {
+            VMThread t = threads.get((next + i) % n);
+            if (canRun(t)) {
+                next = (next + i + 1) % n;
+                current = t;
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private boolean canRun(VMThread t) {
+        switch (t.state) {
+        case VMThread.RUNNABLE:
+            return true;
+        case VMThread.SLEEPING:
+            if (System.currentTimeMillis() < t.wakeTime) {
+                return false;
+            }
+            t.state = VMThread.RUNNABLE;
+            return true;
+        case VMThread.WAITING:
+            if (t.wakeTime == 0 || System.currentTimeMillis() < t.wakeTime) {
+                return false;
+            }
+            // The timed wait is over: reacquire the monitor.
+            stopWaiting(t);
+            return tryAcquire(t);
+        case VMThread.BLOCKED:
+            return tryAcquire(t);
+        case VMThread.INITIALIZING:
+            if (((JClass) t.lock).getStatus() == Status.INITIALIZING) {
+                return false;
+            }
+            t.lock = null;
+            t.state = VMThread.RUNNABLE;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Give the blocked thread the monitor in its [lock] field, with the
+     * entry count it had, if no thread owns it.
+     */
+    private boolean tryAcquire(VMThread t) {
+        Monitor mon = getMonitor(t.lock);
+        if (mon.owner != null) {
+            return false;
+        }
+        mon.owner = t;
+        mon.count = t.lockCount;
+        t.lock = null;
+        t.state = VMThread.RUNNABLE;
+        return true;
+    }
+
+    /** True if only daemon threads are left. */
+    boolean isFinished() {
+        for (VMThread t : threads) {
+            if (!t.daemon) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The earliest time when a sleeping or waiting thread wakes up, or 0 if
+     * all the threads wait for other threads.
+     */
+    long getWakeTime() {
+        long time = 0;
+        for (VMThread t : threads) {
+            if (t.wakeTime != 0 && (time == 0 || t.wakeTime < time)) {
+                time = t.wakeTime;
+            }
+        }
+        return time;
+    }
+
+    /*
+     * Monitors
+     */
+    private Monitor getMonitor(Object obj) {
+        Monitor mon = monitors.get(obj);
+        if (mon == null) {
+            mon = new Monitor();
+            monitors.put(obj, mon);
+        }
+        return mon;
+    }
+
+    private Monitor getOwnedMonitor(Object obj) {
+        Monitor mon = monitors.get(obj);
+        if (mon == null || mon.owner != current) {
+            throw new VMThrowable(ILLEGAL_MONITOR_STATE);
+        }
+        return mon;
+    }
+
+    /**
+     * Enter the monitor of the object. If it is owned by another thread, the
+     * current thread is blocked and false is returned; it runs again once it
+     * owns the monitor.
+     */
+    boolean enter(Object obj) {
+        Monitor mon = getMonitor(obj);
+        if (mon.owner == current) {
+            mon.count++;
+            return true;
+        }
+        if (mon.owner == null) {
+            mon.owner = current;
+            mon.count = 1;
+            return true;
+        }
+        current.state = VMThread.BLOCKED;
+        current.lock = obj;
+        current.lockCount = 1;
+        return false;
+    }
+
+    void exit(Object obj) {
+        Monitor mon = getOwnedMonitor(obj);
+        if (--mon.count == 0) {
+            mon.owner = null;
+            if (mon.waiters.isEmpty()) {
+                monitors.remove(obj);
+            }
+        }
+    }
+
+    /** Enter the monitor of a synchronized method. */
+    void enterMethod(Object obj) {
+        current.pushMethodLock(obj);
+        if (!enter(obj)) {
+            throw SWITCH;
+        }
+    }
+
+    void exitMethod() {
+        exit(current.popMethodLock());
+    }
+
+    public boolean holdsLock(Object obj) {
+        Monitor mon = monitors.get(obj);
+        return mon != null && mon.owner == current;
+    }
+
+    public void wait(Object obj, long millis) {
+        Monitor mon = getOwnedMonitor(obj);
+        if (millis < 0) {
+            throw new VMThrowable(ILLEGAL_ARGUMENT);
+        }
+        checkInterrupted();
+        current.lock = obj;
+        current.lockCount = mon.count;
+        mon.owner = null;
+        mon.count = 0;
+        mon.waiters.add(current);
+        current.waitingOn = obj;
+        current.state = VMThread.WAITING;
+        current.wakeTime = millis == 0 ? 0 : System.currentTimeMillis() + millis;
+        throw SWITCH;
+    }
+
+    public void notify(Object obj, boolean all) {
+        Monitor mon = getOwnedMonitor(obj);
+        wakeWaiters(mon, all);
+    }
+
+    private static void wakeWaiters(Monitor mon, boolean all) {
+        while (!mon.waiters.isEmpty()) {
+            VMThread t = mon.waiters.remove(0);
+            t.waitingOn = null;
+            t.wakeTime = 0;
+            t.state = VMThread.BLOCKED;
+            if (!all) {
+                break;
+            }
+        }
+    }
+
+    private void stopWaiting(VMThread t) {
+        getMonitor(t.waitingOn).waiters.remove(t);
+        t.waitingOn = null;
+        t.wakeTime = 0;
+        t.state = VMThread.BLOCKED;
+    }
+
+    /**
+     * Block the current thread until another thread finishes the
+     * initialization of the class. The registers of the current thread are
+     * already set to run the instruction that needs the class again.
+     */
+    void waitForInitialization(JClass jc) {
+        current.state = VMThread.INITIALIZING;
+        current.lock = jc;
+        throw SWITCH;
+    }
+
+    /*
+     * Threads
+     */
+    public void sleep(long millis) {
+        if (millis < 0) {
+            throw new VMThrowable(ILLEGAL_ARGUMENT);
+        }
+        checkInterrupted();
+        if (millis > 0) {
+            current.state = VMThread.SLEEPING;
+            current.wakeTime = System.currentTimeMillis() + millis;
+        }
+        throw SWITCH;
+    }
+
+    public void yield() {
+        throw SWITCH;
+    }
+
+    private void checkInterrupted() {
+        if (current.interrupted) {
+            current.interrupted = false;
+            throw new VMThrowable(INTERRUPTED);
+        }
+    }
+
+    public void interrupt(ObjectRepr thread) {
+        VMThread t = findThread(thread);
+        if (t == null) {
+            return;
+        }
+        if (t.state == VMThread.SLEEPING || t.state == VMThread.WAITING) {
+            if (t.state == VMThread.WAITING) {
+                stopWaiting(t);
+            } else {
+                t.wakeTime = 0;
+                t.state = VMThread.RUNNABLE;
+            }
+            t.pendingException = INTERRUPTED;
+        } else {
+            t.interrupted = true;
+        }
+    }
+
+    public boolean isInterrupted(ObjectRepr thread, boolean clear) {
+        VMThread t = findThread(thread);
+        if (t == null || !t.interrupted) {
+            return false;
+        }
+        if (clear) {
+            t.interrupted = false;
+        }
+        return true;
+    }
+
+    private VMThread findThread(ObjectRepr thread) {
+        for (VMThread t : threads) {
+            if (t.thread == thread) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /** The java/lang/Thread object of the current thread. */
+    public ObjectRepr currentThread() {
+        if (current.thread == null) {
+            ObjectRepr thread = ObjectFactory.newObject(
+                    new JClassConstant(THREAD_CLASS).getJClass());
+            initThread(thread, null, JStringConstant.createString("main"));
+            thread.putField(threadField("blockerLock", "Ljava/lang/Object;"),
+                    ObjectFactory.newObject(new JClassConstant("java/lang/Object").getJClass()));
+            thread.putField(threadField("threadStatus", "I"), STATUS_ALIVE | STATUS_RUNNABLE);
+            current.thread = thread;
+        }
+        return current.thread;
+    }
+
+    /**
+     * Initialize a new Thread object; the thread inherits the priority and
+     * the daemon status of the current thread.
+     */
+    public void initThread(ObjectRepr thread, ObjectRepr target, ObjectRepr name) {
+        String str = JStringConstant.toString(name);
+        ArrayRepr chars = ObjectFactory.newArray("C", str.length());
+        for (int i = 0; i < str.length(); i++) {
+            chars.setInt(i, str.charAt(i));
+        }
+        thread.putField(threadField("name", "[C"), chars);
+        thread.putField(threadField("target", "Ljava/lang/Runnable;"), target);
+        thread.putField(threadField("priority", "I"), NORM_PRIORITY);
+        thread.putField(threadField("daemon", "Z"), current.daemon ? 1 : 0);
+    }
+
+    /** Start a thread that runs the run() method of the Thread object. */
+    public void start(ObjectRepr thread) {
+        JMemberConstant status = threadField("threadStatus", "I");
+        if ((Integer) thread.getField(status) != 0) {
+            throw new VMThrowable(ILLEGAL_THREAD_STATE);
+        }
+        thread.putField(status, STATUS_ALIVE | STATUS_RUNNABLE);
+
+        Stack stack = current.stack.newStack();
+        stack.setMaxDepth(maxDepth);
+        stack.push(thread);
+        VMThread t = new VMThread(stack, thread, threadBootMethod);
+        t.daemon = (Integer) thread.getField(threadField("daemon", "Z")) != 0;
+        threads.add(t);
+    }
+
+    public boolean isAlive(ObjectRepr thread) {
+        int status = (Integer) thread.getField(threadField("threadStatus", "I"));
+        return (status & STATUS_ALIVE) != 0;
+    }
+
+    /**
+     * Terminate the current thread and wake up the threads that join it.
+     */
+    void exitCurrent() {
+        int i = threads.indexOf(current);
+        threads.remove(i);
+        if (next > i) {
+            next--;
+        }
+        current.state = VMThread.TERMINATED;
+        if (current.thread != null) {
+            current.thread.putField(threadField("threadStatus", "I"), STATUS_TERMINATED);
+            Monitor mon = monitors.get(current.thread);
+            if (mon != null) {
+                wakeWaiters(mon, true);
+            }
+        }
+    }
+
+    private static JMemberConstant threadField(String name, String type) {
+        return new JMemberConstant(new JClassConstant(THREAD_CLASS), name, type);
+    }
+}
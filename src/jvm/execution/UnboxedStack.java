@@ -0,0 +1,177 @@
+package jvm.execution;
+
+import java.util.Arrays;
+
+/**
+ * Stack that keeps the primitive values unboxed in an array of doubles,
+ * next to the array of references. Each slot lives in both arrays, so the
+ * instructions that do not know the type of a slot copy both.
+ *
+ * Doubles, and therefore also ints and floats, are represented exactly. A
+ * long is split in two ints: the high half is stored in the first slot and
+ * the low half in the second one. Unlike a long[] array, a double[] array
+ * is a native array in the JavaScript generated by GWT.
+ *
+ * @author ctalau
+ */
+public class UnboxedStack extends Stack {
+    protected double [] prims = new double [INITIAL_SLOTS];
+    protected Object [] refs = new Object [INITIAL_SLOTS];
+
+    /*
+     *  Push methods
+     */
+    @Override
+    protected Stack push(Object o){
+        refs[top++] = o;
+        return this;
+    }
+
+    @Override
+    protected Stack pushi(int v){
+        prims[top++] = v;
+        return this;
+    }
+
+    @Override
+    protected Stack pushl(long v){
+        prims[top] = (int) (v >> 32);
+        prims[top + 1] = (int) v;
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushf(float v){
+        prims[top++] = v;
+        return this;
+    }
+
+    @Override
+    protected Stack pushd(double v){
+        prims[top] = v;
+        top += 2;
+        return this;
+    }
+
+    @Override
+    protected Stack pushValue(Object o, char type) {
+        switch (type) {
+        case 'L':
+        case '[':
+            return push(o);
+        case 'J':
+            return pushl((Long) o);
+        case 'D':
+            return pushd((Double) o);
+        case 'F':
+            return pushf((Float) o);
+        default:
+            return pushi((Integer) o);
+        }
+    }
+
+    /*
+     * Pop methods
+     */
+    @Override
+    protected Object pop(){
+        Object ret = refs[--top];
+        refs[top] = null;    // throw the object to the garbage collector
+        return ret;
+    }
+
+    @Override
+    protected int popi(){
+        return (int) prims[--top];
+    }
+
+    @Override
+    protected float popf(){
+        return (float) prims[--top];
+    }
+
+    @Override
+    protected long popl(){
+        top -= 2;
+        return ((long) prims[top] << 32) | ((long) (int) prims[top + 1] & 0xFFFFFFFFL);
+    }
+
+    @Override
+    protected double popd(){
+        top -= 2;
+        return prims[top];
+    }
+
+    @Override
+    protected Object popValue(char type) {
+        switch (type) {
+        case 'L':
+        case '[':
+            return pop();
+        case 'J':
+            return popl();
+        case 'D':
+            return popd();
+        case 'F':
+            return popf();
+        default:
+            return popi();
+        }
+    }
+
+    /*
+     * Slot methods
+     */
+    @Override
+    protected void copy(int from, int to) {
+        prims[to] = prims[from];
+        refs[to] = refs[from];
+    }
+
+    @Override
+    protected void clear(int from, int to) {
+        Arrays.fill(refs, from, to, null);
+    }
+
+    @Override
+    protected Object peek(int off){
+        return refs[top - off];
+    }
+
+    @Override
+    protected void iinc(int off, int delta) {
+        prims[locals + off] = (int) prims[locals + off] + delta;
+    }
+
+    @Override
+    protected int loadi(int off) {
+        return (int) prims[locals + off];
+    }
+
+    @Override
+    protected Object loado(int off) {
+        return refs[locals + off];
+    }
+
+    @Override
+    protected Stack newStack() {
+        return new UnboxedStack();
+    }
+
+    @Override
+    protected void grow(int size) {
+        double [] primsNew = new double [size];
+        System.arraycopy(prims, 0, primsNew, 0, top);
+        prims = primsNew;
+        Object [] refsNew = new Object [size];
+        System.arraycopy(refs, 0, refsNew, 0, top);
+        refs = refsNew;
+        capacity = size;
+    }
+
+    @Override
+    protected String slotToString(int i) {
+        return refs[i] != null ? String.valueOf(refs[i]) : String.valueOf(prims[i]);
+    }
+}
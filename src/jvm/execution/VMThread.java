@@ -0,0 +1,72 @@
+package jvm.execution;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.execution.objrepr.ObjectRepr;
+
+
+/**
+ * A thread of the executed program. It has its own stack, and the registers
+ * of the interpreter are saved here while other threads run.
+ *
+ * @author ctalau
+ */
+public class VMThread {
+    public static final int RUNNABLE = 0;
+    // waits for a time to pass
+    public static final int SLEEPING = 1;
+    // in the wait set of an object, maybe with a timeout
+    public static final int WAITING = 2;
+    // waits to acquire the monitor in [lock]
+    public static final int BLOCKED = 3;
+    public static final int TERMINATED = 4;
+    // waits for another thread to initialize the class in [lock]
+    public static final int INITIALIZING = 5;
+
+    final Stack stack;
+    // the java/lang/Thread object, created lazily for the main thread
+    ObjectRepr thread;
+    boolean daemon;
+
+    // saved registers
+    int pc;
+    JBytecodeMethod m;
+
+    int state = RUNNABLE;
+    // the time when a sleep or a timed wait ends, or 0
+    long wakeTime;
+    // the monitor to acquire before running again and its entry count, or
+    // the class that is initialized
+    Object lock;
+    int lockCount;
+    // the object in whose wait set the thread is
+    Object waitingOn;
+
+    boolean interrupted;
+    // an exception to throw when the thread runs again
+    String pendingException;
+
+    // the monitors of the synchronized methods on the stack
+    private Object[] methodLocks = new Object[4];
+    private int methodLockCount;
+
+    VMThread(Stack stack, ObjectRepr thread, JBytecodeMethod m) {
+        this.stack = stack;
+        this.thread = thread;
+        this.m = m;
+    }
+
+    void pushMethodLock(Object lock) {
+        if (methodLockCount == methodLocks.length) {
+            Object[] locks = new Object[2 * methodLockCount];
+            System.arraycopy(methodLocks, 0, locks, 0, methodLockCount);
+            methodLocks = locks;
+        }
+        methodLocks[methodLockCount++] = lock;
+    }
+
+    Object popMethodLock() {
+        Object lock = methodLocks[--methodLockCount];
+        methodLocks[methodLockCount] = null;
+        return lock;
+    }
+}
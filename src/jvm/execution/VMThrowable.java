@@ -0,0 +1,18 @@
+package jvm.execution;
+
+/**
+ * Raised by the VM to throw an exception in the executed program, when the
+ * exception is detected outside of an athrow instruction.
+ *
+ * @author ctalau
+ */
+public class VMThrowable extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final String className;
+
+    public VMThrowable(String className) {
+        super(className);
+        this.className = className;
+    }
+}
@@ -0,0 +1,133 @@
+package jvm.execution.ast;
+
+import java.util.HashSet;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.execution.DecodedCode;
+
+
+/**
+ * A method translated to a tree of nodes, that is run by calling the
+ * [execute] methods of its nodes instead of decoding its instructions.
+ *
+ * Each basic block of the method is a list of statements and a node that
+ * chooses the next block. The expressions that the bytecode computes on the
+ * operand stack become the children of the nodes that use them. The nodes
+ * of the calls and of the type checks specialize on the classes they see,
+ * and go back to the generic version when another class comes.
+ *
+ * Only methods without side effects are translated, as for the register
+ * code: when a node cannot continue, e.g. an exception has to be thrown,
+ * it throws [Bailout] and the interpreter runs the method again.
+ *
+ * @author ctalau
+ */
+public class AstMethod {
+    /** The calls nested in the trees, that run on the Java stack */
+    public static final int MAX_DEPTH = 256;
+
+    private final Block[] blocks;
+    // the slots of the frame, and the kinds of values used by the method
+    private final int size;
+    private final String kinds;
+    private final char[] localTypes;
+    private final String argTypes;
+    private final char retType;
+    private final int[] entries;
+
+    AstMethod(Block[] blocks, int size, String kinds, char[] localTypes,
+            String argTypes, char retType, int[] entries) {
+        this.blocks = blocks;
+        this.size = size;
+        this.kinds = kinds;
+        this.localTypes = localTypes;
+        this.argTypes = argTypes;
+        this.retType = retType;
+        this.entries = entries;
+    }
+
+    /**
+     * The tree of the method, or null if it cannot be translated. The
+     * translation is tried once.
+     */
+    public static AstMethod translate(JBytecodeMethod m) {
+        return translate(m, new HashSet<JBytecodeMethod>());
+    }
+
+    /** The methods in [pending] are being translated by the callers. */
+    static AstMethod translate(JBytecodeMethod m, HashSet<JBytecodeMethod> pending) {
+        DecodedCode dc = m.getDecodedCode();
+        if (!dc.treeBuilt) {
+            dc.treeBuilt = true;
+            pending.add(m);
+            dc.tree = new TreeBuilder(m, pending).build();
+            pending.remove(m);
+        }
+        return dc.tree;
+    }
+
+    /** A frame for the method, which can nest [depth] calls. */
+    public Frame newFrame(int depth) {
+        return new Frame(kinds.indexOf('I') >= 0 ? new int[size] : null,
+                kinds.indexOf('J') >= 0 ? new long[size] : null,
+                kinds.indexOf('D') >= 0 ? new double[size] : null,
+                kinds.indexOf('A') >= 0 ? new Object[size] : null, depth);
+    }
+
+    /**
+     * Run the method from the given block, with the frame filled in; the
+     * result is left in the frame. Throws [Bailout] if it gives up.
+     */
+    public void run(Frame f, int block) {
+        Block[] blocks = this.blocks;
+        while (block >= 0) {
+            Block b = blocks[block];
+            Node[] body = b.body;
+            for (int i = 0; i < body.length; i++) {
+                body[i].executeVoid(f);
+            }
+            block = b.next.executeInt(f);
+        }
+    }
+
+    /**
+     * The block that starts at the given instruction, if the tree can be
+     * entered there from a running loop, or -1.
+     */
+    public int getEntry(int pc) {
+        return pc < entries.length ? entries[pc] : -1;
+    }
+
+    public int getMaxLocals() {
+        return localTypes.length;
+    }
+
+    /** 'I', 'J', 'F', 'D', 'A' or 0 for the slots that are not used. */
+    public char getLocalType(int slot) {
+        return localTypes[slot];
+    }
+
+    /** The kinds of the arguments, including the receiver. */
+    public String getArgTypes() {
+        return argTypes;
+    }
+
+    /** The kind of the result, or 'V'. */
+    public char getRetType() {
+        return retType;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    static final class Block {
+        final Node[] body;
+        final Node next;
+
+        Block(Node[] body, Node next) {
+            this.body = body;
+            this.next = next;
+        }
+    }
+}
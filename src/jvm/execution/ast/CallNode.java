@@ -0,0 +1,192 @@
+package jvm.execution.ast;
+
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.JMember.JMethod;
+import jvm.execution.InlineCache;
+import jvm.execution.jit.Bailout;
+import jvm.execution.objrepr.ObjectRepr;
+
+
+/**
+ * A call to a method that is run by the tree interpreter too. The method
+ * is found by a child node: a static or a non-virtual call always calls the
+ * same method, and a virtual call specializes on the classes of the first
+ * receivers it sees, like an inline cache, until there are too many.
+ *
+ * @author ctalau
+ */
+final class CallNode extends Node {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Node[] args;
+    // the kinds of the arguments
+    private final String kinds;
+    private final boolean hasReceiver;
+    Dispatch dispatch;
+
+    CallNode(Node[] args, String kinds, boolean hasReceiver, Dispatch dispatch) {
+        this.args = args;
+        this.kinds = kinds;
+        this.hasReceiver = hasReceiver;
+        this.dispatch = dispatch;
+    }
+
+    private Frame call(Frame f) {
+        if (f.depth <= 1) {
+            // The interpreter throws the StackOverflowError.
+            throw Bailout.INSTANCE;
+        }
+        ObjectRepr receiver = null;
+        if (hasReceiver) {
+            receiver = (ObjectRepr) args[0].executeObject(f);
+            if (receiver == null) {
+                throw Bailout.INSTANCE;
+            }
+        }
+        AstMethod target = dispatch.target(this, receiver);
+        Frame callee = target.newFrame(f.depth - 1);
+        int slot = 0;
+        for (int k = 0; k < args.length; k++) {
+            switch (kinds.charAt(k)) {
+            case 'I':
+                callee.ints[slot++] = args[k].executeInt(f);
+                break;
+            case 'J':
+                callee.longs[slot] = args[k].executeLong(f);
+                slot += 2;
+                break;
+            case 'F':
+                callee.doubles[slot++] = args[k].executeDouble(f);
+                break;
+            case 'D':
+                callee.doubles[slot] = args[k].executeDouble(f);
+                slot += 2;
+                break;
+            default:
+                callee.refs[slot++] = k == 0 && hasReceiver ? receiver
+                        : args[k].executeObject(f);
+            }
+        }
+        target.run(callee, 0);
+        return callee;
+    }
+
+    @Override
+    int executeInt(Frame f) {
+        return call(f).retInt;
+    }
+
+    @Override
+    long executeLong(Frame f) {
+        return call(f).retLong;
+    }
+
+    @Override
+    double executeDouble(Frame f) {
+        return call(f).retDouble;
+    }
+
+    @Override
+    Object executeObject(Frame f) {
+        return call(f).retRef;
+    }
+
+    @Override
+    void executeVoid(Frame f) {
+        call(f);
+    }
+
+    /** The tree of a method, or a [Bailout] if it has none. */
+    private static AstMethod tree(JMethod m) {
+        if (!(m instanceof JBytecodeMethod)) {
+            throw Bailout.INSTANCE;
+        }
+        AstMethod tree = AstMethod.translate((JBytecodeMethod) m);
+        if (tree == null) {
+            throw Bailout.INSTANCE;
+        }
+        return tree;
+    }
+
+    abstract static class Dispatch {
+        abstract AstMethod target(CallNode call, ObjectRepr receiver);
+    }
+
+    /**
+     * A static or non-virtual call. The tree of the method is looked up on
+     * each call, because it is dropped when the method bails out.
+     */
+    static final class Direct extends Dispatch {
+        private final JBytecodeMethod method;
+
+        Direct(JBytecodeMethod method) {
+            this.method = method;
+        }
+
+        @Override
+        AstMethod target(CallNode call, ObjectRepr receiver) {
+            AstMethod tree = method.getDecodedCode().tree;
+            if (tree == null) {
+                throw Bailout.INSTANCE;
+            }
+            return tree;
+        }
+    }
+
+    /** The end of the chain of the classes seen by a virtual call. */
+    static final class Uninitialized extends Dispatch {
+        private final InlineCache cache;
+        private int entries;
+
+        Uninitialized(InlineCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        AstMethod target(CallNode call, ObjectRepr receiver) {
+            AstMethod tree = tree(cache.lookup(receiver));
+            if (entries == MAX_ENTRIES) {
+                call.dispatch = new Generic(cache);
+            } else {
+                entries++;
+                call.dispatch = new Cached(receiver.getJClass(), tree, call.dispatch);
+            }
+            return tree;
+        }
+    }
+
+    static final class Cached extends Dispatch {
+        private final JClass cls;
+        private final AstMethod tree;
+        private final Dispatch next;
+
+        Cached(JClass cls, AstMethod tree, Dispatch next) {
+            this.cls = cls;
+            this.tree = tree;
+            this.next = next;
+        }
+
+        @Override
+        AstMethod target(CallNode call, ObjectRepr receiver) {
+            if (receiver.getJClass() == cls) {
+                return tree;
+            }
+            return next.target(call, receiver);
+        }
+    }
+
+    /** A megamorphic call, that looks the method up each time. */
+    static final class Generic extends Dispatch {
+        private final InlineCache cache;
+
+        Generic(InlineCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        AstMethod target(CallNode call, ObjectRepr receiver) {
+            return tree(cache.lookup(receiver));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package jvm.execution.ast;
+
+
+/**
+ * The local variables and the operand stack slots of a method run by the
+ * tree interpreter, in one array per kind of value. Floats are kept in the
+ * array of doubles and the values of type byte, char, short and boolean in
+ * the array of ints.
+ *
+ * @author ctalau
+ */
+public class Frame {
+    final int[] ints;
+    final long[] longs;
+    final double[] doubles;
+    final Object[] refs;
+    // the number of nested calls that are still allowed
+    final int depth;
+
+    // the result of the method
+    int retInt;
+    long retLong;
+    double retDouble;
+    Object retRef;
+
+    // the arrays for the kinds of values that the method does not use are null
+    Frame(int[] ints, long[] longs, double[] doubles, Object[] refs, int depth) {
+        this.ints = ints;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.refs = refs;
+        this.depth = depth;
+    }
+
+    public int getInt(int slot) {
+        return ints[slot];
+    }
+
+    public void setInt(int slot, int value) {
+        ints[slot] = value;
+    }
+
+    public long getLong(int slot) {
+        return longs[slot];
+    }
+
+    public void setLong(int slot, long value) {
+        longs[slot] = value;
+    }
+
+    public double getDouble(int slot) {
+        return doubles[slot];
+    }
+
+    public void setDouble(int slot, double value) {
+        doubles[slot] = value;
+    }
+
+    public Object getRef(int slot) {
+        return refs[slot];
+    }
+
+    public void setRef(int slot, Object value) {
+        refs[slot] = value;
+    }
+
+    public int getReturnInt() {
+        return retInt;
+    }
+
+    public long getReturnLong() {
+        return retLong;
+    }
+
+    public double getReturnDouble() {
+        return retDouble;
+    }
+
+    public Object getReturnRef() {
+        return retRef;
+    }
+}
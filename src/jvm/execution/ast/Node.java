@@ -0,0 +1,63 @@
+package jvm.execution.ast;
+
+
+/**
+ * A node of the tree of a method. The nodes that compute a value are
+ * executed with the method that matches its type ('I', 'J', 'F', 'D' or 'A'
+ * for references); floats are computed as doubles and rounded, and the
+ * conditions of the branches as booleans.
+ *
+ * @author ctalau
+ */
+abstract class Node {
+    int executeInt(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    long executeLong(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    double executeDouble(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    Object executeObject(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    boolean executeBoolean(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    /** Run a statement: a store, a call without result or a discarded value. */
+    void executeVoid(Frame f) {
+        throw new AssertionError(getClass().getName());
+    }
+
+    /** Evaluate the node for its exceptions only. */
+    void execute(Frame f, char kind) {
+        switch (kind) {
+        case 'V':
+            executeVoid(f);
+            break;
+        case 'I':
+            executeInt(f);
+            break;
+        case 'J':
+            executeLong(f);
+            break;
+        case 'F':
+        case 'D':
+            executeDouble(f);
+            break;
+        default:
+            executeObject(f);
+        }
+    }
+
+    /** True for the nodes that cannot throw and are cheap to evaluate twice. */
+    boolean isLeaf() {
+        return false;
+    }
+}
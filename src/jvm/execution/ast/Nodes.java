@@ -0,0 +1,918 @@
+package jvm.execution.ast;
+
+import jvm.classparser.JClass;
+import jvm.classparser.jconstants.JClassConstant;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.OPCodes;
+import jvm.execution.jit.Bailout;
+import jvm.execution.objrepr.ArrayRepr;
+import jvm.execution.objrepr.ObjectRepr;
+
+
+/**
+ * The nodes of the trees, except the calls.
+ *
+ * The exceptions that the program would see (a null reference, an index out
+ * of bounds, a division by zero, a failed cast) are not thrown by the nodes:
+ * they throw [Bailout] and the interpreter runs the method again, and throws
+ * the exception itself.
+ *
+ * @author ctalau
+ */
+class Nodes {
+    private Nodes() {
+    }
+
+    /*
+     * Constants
+     */
+
+    static final class IntConst extends Node {
+        private final int value;
+
+        IntConst(int value) {
+            this.value = value;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return value;
+        }
+
+        @Override
+        boolean isLeaf() {
+            return true;
+        }
+    }
+
+    static final class LongConst extends Node {
+        private final long value;
+
+        LongConst(long value) {
+            this.value = value;
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            return value;
+        }
+
+        @Override
+        boolean isLeaf() {
+            return true;
+        }
+    }
+
+    static final class DoubleConst extends Node {
+        private final double value;
+
+        DoubleConst(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            return value;
+        }
+
+        @Override
+        boolean isLeaf() {
+            return true;
+        }
+    }
+
+    static final class RefConst extends Node {
+        private final Object value;
+
+        RefConst(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            return value;
+        }
+
+        @Override
+        boolean isLeaf() {
+            return true;
+        }
+    }
+
+    /** An instruction that was never run, so it was not resolved either. */
+    static final class Deopt extends Node {
+        @Override
+        int executeInt(Frame f) {
+            throw Bailout.INSTANCE;
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            throw Bailout.INSTANCE;
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            throw Bailout.INSTANCE;
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            throw Bailout.INSTANCE;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            throw Bailout.INSTANCE;
+        }
+    }
+
+    /*
+     * Local variables and the slots of the operand stack
+     */
+
+    abstract static class Read extends Node {
+        final int slot;
+
+        Read(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        boolean isLeaf() {
+            return true;
+        }
+    }
+
+    static final class ReadInt extends Read {
+        ReadInt(int slot) {
+            super(slot);
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return f.ints[slot];
+        }
+    }
+
+    static final class ReadLong extends Read {
+        ReadLong(int slot) {
+            super(slot);
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            return f.longs[slot];
+        }
+    }
+
+    static final class ReadDouble extends Read {
+        ReadDouble(int slot) {
+            super(slot);
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            return f.doubles[slot];
+        }
+    }
+
+    static final class ReadRef extends Read {
+        ReadRef(int slot) {
+            super(slot);
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            return f.refs[slot];
+        }
+    }
+
+    static final class StoreInt extends Node {
+        private final int slot;
+        private final Node value;
+
+        StoreInt(int slot, Node value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            f.ints[slot] = value.executeInt(f);
+        }
+    }
+
+    static final class StoreLong extends Node {
+        private final int slot;
+        private final Node value;
+
+        StoreLong(int slot, Node value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            f.longs[slot] = value.executeLong(f);
+        }
+    }
+
+    static final class StoreDouble extends Node {
+        private final int slot;
+        private final Node value;
+
+        StoreDouble(int slot, Node value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            f.doubles[slot] = value.executeDouble(f);
+        }
+    }
+
+    static final class StoreRef extends Node {
+        private final int slot;
+        private final Node value;
+
+        StoreRef(int slot, Node value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            f.refs[slot] = value.executeObject(f);
+        }
+    }
+
+    static final class IncLocal extends Node {
+        private final int slot;
+        private final int delta;
+
+        IncLocal(int slot, int delta) {
+            this.slot = slot;
+            this.delta = delta;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            f.ints[slot] += delta;
+        }
+    }
+
+    /** A value that is popped: it is computed for its exceptions. */
+    static final class Discard extends Node {
+        private final char kind;
+        private final Node value;
+
+        Discard(char kind, Node value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        @Override
+        void executeVoid(Frame f) {
+            value.execute(f, kind);
+        }
+    }
+
+    /*
+     * Arithmetic
+     */
+
+    static final class IntOp extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        IntOp(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            int a = left.executeInt(f);
+            int b = right.executeInt(f);
+            switch (op) {
+            case OPCodes.OP_iadd:
+                return a + b;
+            case OPCodes.OP_isub:
+                return a - b;
+            case OPCodes.OP_imul:
+                return a * b;
+            case OPCodes.OP_idiv:
+                if (b == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                return a / b;
+            case OPCodes.OP_irem:
+                if (b == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                return a % b;
+            case OPCodes.OP_ishl:
+                return a << b;
+            case OPCodes.OP_ishr:
+                return a >> b;
+            case OPCodes.OP_iushr:
+                return a >>> b;
+            case OPCodes.OP_iand:
+                return a & b;
+            case OPCodes.OP_ior:
+                return a | b;
+            case OPCodes.OP_ixor:
+                return a ^ b;
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    /** The shifts take an int on the right. */
+    static final class LongOp extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        LongOp(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            long a = left.executeLong(f);
+            switch (op) {
+            case OPCodes.OP_ladd:
+                return a + right.executeLong(f);
+            case OPCodes.OP_lsub:
+                return a - right.executeLong(f);
+            case OPCodes.OP_lmul:
+                return a * right.executeLong(f);
+            case OPCodes.OP_ldiv: {
+                long b = right.executeLong(f);
+                if (b == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                return a / b;
+            }
+            case OPCodes.OP_lrem: {
+                long b = right.executeLong(f);
+                if (b == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                return a % b;
+            }
+            case OPCodes.OP_land:
+                return a & right.executeLong(f);
+            case OPCodes.OP_lor:
+                return a | right.executeLong(f);
+            case OPCodes.OP_lxor:
+                return a ^ right.executeLong(f);
+            case OPCodes.OP_lshl:
+                return a << right.executeInt(f);
+            case OPCodes.OP_lshr:
+                return a >> right.executeInt(f);
+            case OPCodes.OP_lushr:
+                return a >>> right.executeInt(f);
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    /**
+     * Floats are computed as doubles: the result of an operation on two
+     * floats, rounded to float, is the same.
+     */
+    static final class FloatOp extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        FloatOp(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            double a = left.executeDouble(f);
+            double b = right.executeDouble(f);
+            switch (op) {
+            case OPCodes.OP_fadd:
+                return (float) (a + b);
+            case OPCodes.OP_fsub:
+                return (float) (a - b);
+            case OPCodes.OP_fmul:
+                return (float) (a * b);
+            case OPCodes.OP_fdiv:
+                return (float) (a / b);
+            case OPCodes.OP_frem:
+                return (float) (a % b);
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    static final class DoubleOp extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        DoubleOp(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            double a = left.executeDouble(f);
+            double b = right.executeDouble(f);
+            switch (op) {
+            case OPCodes.OP_dadd:
+                return a + b;
+            case OPCodes.OP_dsub:
+                return a - b;
+            case OPCodes.OP_dmul:
+                return a * b;
+            case OPCodes.OP_ddiv:
+                return a / b;
+            case OPCodes.OP_drem:
+                return a % b;
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    /** The negations and the conversions. */
+    static final class Convert extends Node {
+        private final byte op;
+        private final Node value;
+
+        Convert(byte op, Node value) {
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            switch (op) {
+            case OPCodes.OP_ineg:
+                return -value.executeInt(f);
+            case OPCodes.OP_i2b:
+                return (byte) value.executeInt(f);
+            case OPCodes.OP_i2c:
+                return (char) value.executeInt(f);
+            case OPCodes.OP_i2s:
+                return (short) value.executeInt(f);
+            case OPCodes.OP_l2i:
+                return (int) value.executeLong(f);
+            case OPCodes.OP_f2i:
+            case OPCodes.OP_d2i:
+                return (int) value.executeDouble(f);
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            switch (op) {
+            case OPCodes.OP_lneg:
+                return -value.executeLong(f);
+            case OPCodes.OP_i2l:
+                return value.executeInt(f);
+            case OPCodes.OP_f2l:
+            case OPCodes.OP_d2l:
+                return (long) value.executeDouble(f);
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            switch (op) {
+            case OPCodes.OP_fneg:
+            case OPCodes.OP_dneg:
+                return -value.executeDouble(f);
+            case OPCodes.OP_i2f:
+                return (float) value.executeInt(f);
+            case OPCodes.OP_i2d:
+                return value.executeInt(f);
+            case OPCodes.OP_l2f:
+                return (float) value.executeLong(f);
+            case OPCodes.OP_l2d:
+                return value.executeLong(f);
+            case OPCodes.OP_f2d:
+                return value.executeDouble(f);
+            case OPCodes.OP_d2f:
+                return (float) value.executeDouble(f);
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    /** NaN compares as -1 for the "l" variants and 1 for "g". */
+    static final class Compare extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        Compare(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            if (op == OPCodes.OP_lcmp) {
+                long a = left.executeLong(f);
+                long b = right.executeLong(f);
+                return a > b ? 1 : a == b ? 0 : -1;
+            }
+            double a = left.executeDouble(f);
+            double b = right.executeDouble(f);
+            return a > b ? 1 : a == b ? 0 : a < b ? -1
+                    : op == OPCodes.OP_fcmpl || op == OPCodes.OP_dcmpl ? -1 : 1;
+        }
+    }
+
+    /** The condition of an if or if_icmp instruction; ifs compare with 0. */
+    static final class IntCondition extends Node {
+        private final byte op;
+        private final Node left, right;
+
+        IntCondition(byte op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean executeBoolean(Frame f) {
+            int a = left.executeInt(f);
+            int b = right.executeInt(f);
+            switch (op) {
+            case OPCodes.OP_ifeq:
+            case OPCodes.OP_if_icmpeq:
+                return a == b;
+            case OPCodes.OP_ifne:
+            case OPCodes.OP_if_icmpne:
+                return a != b;
+            case OPCodes.OP_iflt:
+            case OPCodes.OP_if_icmplt:
+                return a < b;
+            case OPCodes.OP_ifge:
+            case OPCodes.OP_if_icmpge:
+                return a >= b;
+            case OPCodes.OP_ifgt:
+            case OPCodes.OP_if_icmpgt:
+                return a > b;
+            case OPCodes.OP_ifle:
+            case OPCodes.OP_if_icmple:
+                return a <= b;
+            default:
+                throw new AssertionError(OPCodes.getName(op));
+            }
+        }
+    }
+
+    /** The condition of an if_acmp instruction, or ifnull compared to null. */
+    static final class RefCondition extends Node {
+        private final boolean equal;
+        private final Node left, right;
+
+        RefCondition(byte op, Node left, Node right) {
+            this.equal = op == OPCodes.OP_if_acmpeq || op == OPCodes.OP_ifnull;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean executeBoolean(Frame f) {
+            return (left.executeObject(f) == right.executeObject(f)) == equal;
+        }
+    }
+
+    /*
+     * Fields and arrays
+     */
+
+    static final class GetField extends Node {
+        private final JMemberConstant field;
+        private final Node object;
+
+        GetField(JMemberConstant field, Node object) {
+            this.field = field;
+            this.object = object;
+        }
+
+        private Object get(Frame f) {
+            ObjectRepr obj = (ObjectRepr) object.executeObject(f);
+            if (obj == null) {
+                throw Bailout.INSTANCE;
+            }
+            return obj.getField(field);
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return (Integer) get(f);
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            return (Long) get(f);
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            return ((Number) get(f)).doubleValue();
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            return get(f);
+        }
+    }
+
+    /** A static field of a class that is already initialized. */
+    static final class GetStatic extends Node {
+        private final Object[] values;
+        private final int slot;
+
+        GetStatic(Object[] values, int slot) {
+            this.values = values;
+            this.slot = slot;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return (Integer) values[slot];
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            return (Long) values[slot];
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            return ((Number) values[slot]).doubleValue();
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            return values[slot];
+        }
+    }
+
+    static final class ArrayLoad extends Node {
+        private final byte op;
+        private final Node array, index;
+
+        ArrayLoad(byte op, Node array, Node index) {
+            this.op = op;
+            this.array = array;
+            this.index = index;
+        }
+
+        private ArrayRepr array(Frame f) {
+            ArrayRepr arr = (ArrayRepr) array.executeObject(f);
+            if (arr == null) {
+                throw Bailout.INSTANCE;
+            }
+            return arr;
+        }
+
+        private static int check(ArrayRepr arr, int i) {
+            if (i < 0 || i >= arr.length()) {
+                throw Bailout.INSTANCE;
+            }
+            return i;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            ArrayRepr arr = array(f);
+            return arr.getInt(check(arr, index.executeInt(f)));
+        }
+
+        @Override
+        long executeLong(Frame f) {
+            ArrayRepr arr = array(f);
+            return arr.getLong(check(arr, index.executeInt(f)));
+        }
+
+        @Override
+        double executeDouble(Frame f) {
+            ArrayRepr arr = array(f);
+            int i = check(arr, index.executeInt(f));
+            return op == OPCodes.OP_faload ? arr.getFloat(i) : arr.getDouble(i);
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            ArrayRepr arr = array(f);
+            return arr.get(check(arr, index.executeInt(f)));
+        }
+    }
+
+    static final class ArrayLength extends Node {
+        private final Node array;
+
+        ArrayLength(Node array) {
+            this.array = array;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            ArrayRepr arr = (ArrayRepr) array.executeObject(f);
+            if (arr == null) {
+                throw Bailout.INSTANCE;
+            }
+            return arr.length();
+        }
+    }
+
+    /*
+     * Type checks
+     */
+
+    /**
+     * An instanceof or a checkcast instruction. The class of the objects is
+     * checked by a child node that specializes on the first class it sees,
+     * and gives up on it if another one comes.
+     */
+    static final class TypeCheck extends Node {
+        private final boolean cast;
+        private final Node object;
+        ClassCheck check;
+
+        TypeCheck(boolean cast, JClassConstant type, Node object) {
+            this.cast = cast;
+            this.object = object;
+            this.check = new UninitializedCheck(type);
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            ObjectRepr obj = (ObjectRepr) object.executeObject(f);
+            return obj != null && check.isInstance(this, obj.getJClass()) ? 1 : 0;
+        }
+
+        @Override
+        Object executeObject(Frame f) {
+            ObjectRepr obj = (ObjectRepr) object.executeObject(f);
+            if (obj != null && !check.isInstance(this, obj.getJClass())) {
+                throw Bailout.INSTANCE;
+            }
+            return obj;
+        }
+    }
+
+    abstract static class ClassCheck {
+        abstract boolean isInstance(TypeCheck node, JClass cls);
+    }
+
+    static final class UninitializedCheck extends ClassCheck {
+        private final JClassConstant type;
+
+        UninitializedCheck(JClassConstant type) {
+            this.type = type;
+        }
+
+        @Override
+        boolean isInstance(TypeCheck node, JClass cls) {
+            JClass target = type.getJClass();
+            boolean result = cls.isSubtypeOf(target);
+            node.check = new CachedCheck(target, cls, result);
+            return result;
+        }
+    }
+
+    static final class CachedCheck extends ClassCheck {
+        private final JClass target;
+        private final JClass cls;
+        private final boolean result;
+
+        CachedCheck(JClass target, JClass cls, boolean result) {
+            this.target = target;
+            this.cls = cls;
+            this.result = result;
+        }
+
+        @Override
+        boolean isInstance(TypeCheck node, JClass cls) {
+            if (cls == this.cls) {
+                return result;
+            }
+            node.check = new GenericCheck(target);
+            return cls.isSubtypeOf(target);
+        }
+    }
+
+    static final class GenericCheck extends ClassCheck {
+        private final JClass target;
+
+        GenericCheck(JClass target) {
+            this.target = target;
+        }
+
+        @Override
+        boolean isInstance(TypeCheck node, JClass cls) {
+            return cls.isSubtypeOf(target);
+        }
+    }
+
+    /*
+     * The ends of the blocks, that return the next block to run, or -1 when
+     * the method returns.
+     */
+
+    static final class Goto extends Node {
+        private final int block;
+
+        Goto(int block) {
+            this.block = block;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return block;
+        }
+    }
+
+    static final class Branch extends Node {
+        private final Node condition;
+        private final int taken, next;
+
+        Branch(Node condition, int taken, int next) {
+            this.condition = condition;
+            this.taken = taken;
+            this.next = next;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return condition.executeBoolean(f) ? taken : next;
+        }
+    }
+
+    /** A switch whose table gives block numbers. */
+    static final class Switch extends Node {
+        private final Node key;
+        private final SwitchTable table;
+
+        Switch(Node key, SwitchTable table) {
+            this.key = key;
+            this.table = table;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            return table.target(key.executeInt(f));
+        }
+    }
+
+    static final class Return extends Node {
+        private final char kind;
+        private final Node value;
+
+        Return(char kind, Node value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        @Override
+        int executeInt(Frame f) {
+            switch (kind) {
+            case 'V':
+                break;
+            case 'I':
+                f.retInt = value.executeInt(f);
+                break;
+            case 'J':
+                f.retLong = value.executeLong(f);
+                break;
+            case 'F':
+            case 'D':
+                f.retDouble = value.executeDouble(f);
+                break;
+            default:
+                f.retRef = value.executeObject(f);
+            }
+            return -1;
+        }
+    }
+}
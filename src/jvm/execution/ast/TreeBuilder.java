@@ -0,0 +1,1034 @@
+package jvm.execution.ast;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.JType;
+import jvm.classparser.jconstants.JBaseConstant;
+import jvm.classparser.jconstants.JClassConstant;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.execution.DecodedCode;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.InlineCache;
+import jvm.execution.OPCodes;
+import jvm.execution.ast.AstMethod.Block;
+import jvm.execution.ast.CallNode.Direct;
+import jvm.execution.ast.CallNode.Uninitialized;
+import jvm.execution.ast.Nodes.ArrayLength;
+import jvm.execution.ast.Nodes.ArrayLoad;
+import jvm.execution.ast.Nodes.Branch;
+import jvm.execution.ast.Nodes.Compare;
+import jvm.execution.ast.Nodes.Convert;
+import jvm.execution.ast.Nodes.Deopt;
+import jvm.execution.ast.Nodes.Discard;
+import jvm.execution.ast.Nodes.DoubleConst;
+import jvm.execution.ast.Nodes.DoubleOp;
+import jvm.execution.ast.Nodes.FloatOp;
+import jvm.execution.ast.Nodes.GetField;
+import jvm.execution.ast.Nodes.GetStatic;
+import jvm.execution.ast.Nodes.Goto;
+import jvm.execution.ast.Nodes.IncLocal;
+import jvm.execution.ast.Nodes.IntCondition;
+import jvm.execution.ast.Nodes.IntConst;
+import jvm.execution.ast.Nodes.IntOp;
+import jvm.execution.ast.Nodes.LongConst;
+import jvm.execution.ast.Nodes.LongOp;
+import jvm.execution.ast.Nodes.Read;
+import jvm.execution.ast.Nodes.ReadDouble;
+import jvm.execution.ast.Nodes.ReadInt;
+import jvm.execution.ast.Nodes.ReadLong;
+import jvm.execution.ast.Nodes.ReadRef;
+import jvm.execution.ast.Nodes.RefCondition;
+import jvm.execution.ast.Nodes.RefConst;
+import jvm.execution.ast.Nodes.Return;
+import jvm.execution.ast.Nodes.StoreDouble;
+import jvm.execution.ast.Nodes.StoreInt;
+import jvm.execution.ast.Nodes.StoreLong;
+import jvm.execution.ast.Nodes.StoreRef;
+import jvm.execution.ast.Nodes.Switch;
+import jvm.execution.ast.Nodes.TypeCheck;
+
+
+/**
+ * Translates the decoded code of a method into a tree.
+ *
+ * A first pass finds the types of the operand stack before each instruction
+ * and checks that the method has no side effects: it may read fields and
+ * arrays, but not write them or create objects. The second pass runs the
+ * instructions of each basic block on a symbolic operand stack that holds
+ * the nodes computing the values, so an instruction takes the nodes of its
+ * operands as children. At the end of a block, the values left on the stack
+ * are stored in the slots of the frame where the next block reads them.
+ *
+ * A node left on the symbolic stack may read a local variable that changes
+ * before the node is used, so the node is computed into a temporary slot
+ * first. The values that are duplicated are computed once in the same way.
+ *
+ * @author ctalau
+ */
+class TreeBuilder {
+    private final JBytecodeMethod m;
+    private final HashSet<JBytecodeMethod> pending;
+    private final DecodedCode code;
+    private final int size;
+
+    // The types of the operand stack before each instruction ('I', 'J',
+    // 'F', 'D' or 'A' for each value), null for the instructions that are
+    // not reached.
+    private final String[] stacks;
+    private final boolean[] targets;
+    private final char[] localTypes;
+    private String argTypes;
+    private char retType;
+
+    // The slots of the frame: the local variables, the values left on the
+    // stack at the end of a block, their copies read by the next block and
+    // the temporaries.
+    private final int sBase;
+    private final int tBase;
+    private int slots;
+    // the kinds of the slots that are used; floats are kept with the doubles
+    private String kinds = "";
+
+    // the symbolic operand stack
+    private final Node[] sym;
+
+    // the blocks
+    private int[] blockOf;
+    private final ArrayList<Block> blocks = new ArrayList<Block>();
+    private ArrayList<Node> body;
+
+    TreeBuilder(JBytecodeMethod m, HashSet<JBytecodeMethod> pending) {
+        this.m = m;
+        this.pending = pending;
+        this.code = m.getDecodedCode();
+        this.size = code.size();
+        this.stacks = new String[size];
+        this.targets = new boolean[size];
+        this.localTypes = new char[m.getCode().maxLocals];
+        this.sBase = localTypes.length;
+        this.tBase = sBase + m.getCode().maxStack;
+        this.slots = tBase + m.getCode().maxStack;
+        this.sym = new Node[m.getCode().maxStack];
+    }
+
+    /** The tree, or null if the method is not supported. */
+    AstMethod build() {
+        if (m.isSynchronized() || code.handlers != null || !analyze()) {
+            return null;
+        }
+
+        boolean[] leaders = new boolean[size + 1];
+        leaders[0] = true;
+        for (int i = 0; i < size; i++) {
+            if (stacks[i] != null) {
+                leaders[i] |= targets[i];
+                leaders[i + 1] |= endsBlock(code.getOpcode(i));
+            }
+        }
+        blockOf = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            blockOf[i] = stacks[i] != null && leaders[i] ? count++ : -1;
+        }
+
+        boolean open = false;
+        for (int i = 0; i < size; i++) {
+            String in = stacks[i];
+            if (in == null) {
+                continue;
+            }
+            if (blockOf[i] >= 0) {
+                if (open) {
+                    flush(in, in.length());
+                    close(new Goto(blockOf[i]));
+                }
+                body = new ArrayList<Node>();
+                for (int k = 0; k < in.length(); k++) {
+                    char kind = in.charAt(k);
+                    use(kind);
+                    body.add(store(kind, tBase + k, read(kind, sBase + k)));
+                    sym[k] = read(kind, tBase + k);
+                }
+            }
+            if (instruction(i, in, true) == null) {
+                return null;
+            }
+            open = !endsBlock(code.getOpcode(i));
+        }
+        if (open) {
+            return null;
+        }
+
+        int[] entries = new int[size];
+        for (int i = 0; i < size; i++) {
+            boolean entry = blockOf[i] >= 0 && (i == 0 || targets[i])
+                    && stacks[i].length() == 0;
+            entries[i] = entry ? blockOf[i] : -1;
+        }
+        return new AstMethod(blocks.toArray(new Block[blocks.size()]), slots,
+                kinds, localTypes, argTypes, retType, entries);
+    }
+
+    /**
+     * Find the types of the operand stack before each instruction.
+     */
+    private boolean analyze() {
+        retType = kind(m.getRetType());
+        argTypes = kinds(m.getArgsTypes());
+        if (retType == 0 || argTypes == null) {
+            return false;
+        }
+        int slot = 0;
+        for (int k = 0; k < argTypes.length(); k++) {
+            char type = argTypes.charAt(k);
+            localTypes[slot] = type;
+            use(type);
+            slot += cat2(type) ? 2 : 1;
+        }
+
+        ArrayList<Integer> work = new ArrayList<Integer>();
+        stacks[0] = "";
+        work.add(0);
+        while (!work.isEmpty()) {
+            int i = work.remove(work.size() - 1);
+            String out = instruction(i, stacks[i], false);
+            if (out == null) {
+                return false;
+            }
+            for (int next : successors(i)) {
+                if (next < 0 || next >= size) {
+                    return false;
+                }
+                if (stacks[next] == null) {
+                    stacks[next] = out;
+                    work.add(next);
+                } else if (!stacks[next].equals(out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int[] successors(int i) {
+        int target = code.args[i];
+        switch (code.getOpcode(i)) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_if_acmpeq:
+        case OPCodes.OP_if_acmpne:
+        case OPCodes.OP_ifnull:
+        case OPCodes.OP_ifnonnull:
+            targets[target] = true;
+            return new int[] { i + 1, target };
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            targets[target] = true;
+            return new int[] { target };
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            SwitchTable table = (SwitchTable) code.refs[i];
+            int[] next = new int[table.getTargets().length + 1];
+            System.arraycopy(table.getTargets(), 0, next, 0, next.length - 1);
+            next[next.length - 1] = table.getDefault();
+            for (int t : next) {
+                targets[t] = true;
+            }
+            return next;
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_lreturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn:
+        case OPCodes.OP_areturn:
+        case OPCodes.OP_return:
+            return new int[0];
+        default:
+            return new int[] { i + 1 };
+        }
+    }
+
+    private static boolean endsBlock(byte op) {
+        switch (op) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_if_acmpeq:
+        case OPCodes.OP_if_acmpne:
+        case OPCodes.OP_ifnull:
+        case OPCodes.OP_ifnonnull:
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch:
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_lreturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn:
+        case OPCodes.OP_areturn:
+        case OPCodes.OP_return:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Translate the instruction [i], given the types of the operand stack
+     * before it. Returns the types of the operand stack after it, or null
+     * if it is not supported. The nodes are added to the block if [emit] is
+     * set.
+     */
+    private String instruction(int i, String in, boolean emit) {
+        int d = in.length();
+        byte op = code.getOpcode(i);
+        switch (op) {
+        case OPCodes.OP_nop:
+            return in;
+
+        // Constants
+        case OPCodes.OP_aconst_null:
+            return push(in, 'A', new RefConst(null));
+        case OPCodes.OP_iconst_m1:
+        case OPCodes.OP_iconst_0:
+        case OPCodes.OP_iconst_1:
+        case OPCodes.OP_iconst_2:
+        case OPCodes.OP_iconst_3:
+        case OPCodes.OP_iconst_4:
+        case OPCodes.OP_iconst_5:
+        case OPCodes.OP_bipush:
+        case OPCodes.OP_sipush:
+            return push(in, 'I', new IntConst(code.args[i]));
+        case OPCodes.OP_lconst_0:
+        case OPCodes.OP_lconst_1:
+            return push(in, 'J', new LongConst(code.args[i]));
+        case OPCodes.OP_fconst_0:
+        case OPCodes.OP_fconst_1:
+        case OPCodes.OP_fconst_2:
+            return push(in, 'F', new DoubleConst(code.args[i]));
+        case OPCodes.OP_dconst_0:
+        case OPCodes.OP_dconst_1:
+            return push(in, 'D', new DoubleConst(code.args[i]));
+        case OPCodes.OP_ldc:
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc2_w:
+            if (code.refs[i] instanceof JBaseConstant) {
+                Object value = ((JBaseConstant) code.refs[i]).getRepr();
+                return constant(in, value, typeOf(value));
+            }
+            // A string or a class, created when the instruction runs.
+            return push(in, 'A', new Deopt());
+        case OPCodes.OP_ldc_quick:
+        case OPCodes.OP_ldc2_w_quick:
+            return constant(in, code.refs[i], (char) code.args2[i]);
+
+        // Local variables
+        case OPCodes.OP_iload:
+        case OPCodes.OP_iload_0:
+        case OPCodes.OP_iload_1:
+        case OPCodes.OP_iload_2:
+        case OPCodes.OP_iload_3:
+            return load(in, 'I', code.args[i]);
+        case OPCodes.OP_lload:
+        case OPCodes.OP_lload_0:
+        case OPCodes.OP_lload_1:
+        case OPCodes.OP_lload_2:
+        case OPCodes.OP_lload_3:
+            return load(in, 'J', code.args[i]);
+        case OPCodes.OP_fload:
+        case OPCodes.OP_fload_0:
+        case OPCodes.OP_fload_1:
+        case OPCodes.OP_fload_2:
+        case OPCodes.OP_fload_3:
+            return load(in, 'F', code.args[i]);
+        case OPCodes.OP_dload:
+        case OPCodes.OP_dload_0:
+        case OPCodes.OP_dload_1:
+        case OPCodes.OP_dload_2:
+        case OPCodes.OP_dload_3:
+            return load(in, 'D', code.args[i]);
+        case OPCodes.OP_aload:
+        case OPCodes.OP_aload_0:
+        case OPCodes.OP_aload_1:
+        case OPCodes.OP_aload_2:
+        case OPCodes.OP_aload_3:
+            return load(in, 'A', code.args[i]);
+        case OPCodes.OP_istore:
+        case OPCodes.OP_istore_0:
+        case OPCodes.OP_istore_1:
+        case OPCodes.OP_istore_2:
+        case OPCodes.OP_istore_3:
+            return store(in, 'I', code.args[i], emit);
+        case OPCodes.OP_lstore:
+        case OPCodes.OP_lstore_0:
+        case OPCodes.OP_lstore_1:
+        case OPCodes.OP_lstore_2:
+        case OPCodes.OP_lstore_3:
+            return store(in, 'J', code.args[i], emit);
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_fstore_0:
+        case OPCodes.OP_fstore_1:
+        case OPCodes.OP_fstore_2:
+        case OPCodes.OP_fstore_3:
+            return store(in, 'F', code.args[i], emit);
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_dstore_0:
+        case OPCodes.OP_dstore_1:
+        case OPCodes.OP_dstore_2:
+        case OPCodes.OP_dstore_3:
+            return store(in, 'D', code.args[i], emit);
+        case OPCodes.OP_astore:
+        case OPCodes.OP_astore_0:
+        case OPCodes.OP_astore_1:
+        case OPCodes.OP_astore_2:
+        case OPCodes.OP_astore_3:
+            return store(in, 'A', code.args[i], emit);
+        case OPCodes.OP_iinc: {
+            int k = code.args[i];
+            if (!local(k, 'I')) {
+                return null;
+            }
+            if (emit) {
+                spill(in, d, k);
+                body.add(new IncLocal(k, code.args2[i]));
+            }
+            return in;
+        }
+
+        // Arrays
+        case OPCodes.OP_iaload:
+        case OPCodes.OP_baload:
+        case OPCodes.OP_caload:
+        case OPCodes.OP_saload:
+            return arrayLoad(in, op, 'I');
+        case OPCodes.OP_laload:
+            return arrayLoad(in, op, 'J');
+        case OPCodes.OP_faload:
+            return arrayLoad(in, op, 'F');
+        case OPCodes.OP_daload:
+            return arrayLoad(in, op, 'D');
+        case OPCodes.OP_aaload:
+            return arrayLoad(in, op, 'A');
+        case OPCodes.OP_arraylength:
+            if (!in.endsWith("A")) {
+                return null;
+            }
+            return push(in.substring(0, d - 1), 'I', new ArrayLength(sym[d - 1]));
+
+        // Operand stack
+        case OPCodes.OP_pop:
+            if (!cat1(in, 1)) {
+                return null;
+            }
+            if (emit) {
+                discard(in, d - 1);
+            }
+            return in.substring(0, d - 1);
+        case OPCodes.OP_pop2:
+            if (d > 0 && cat2(in.charAt(d - 1))) {
+                if (emit) {
+                    discard(in, d - 1);
+                }
+                return in.substring(0, d - 1);
+            }
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            if (emit) {
+                discard(in, d - 2);
+                discard(in, d - 1);
+            }
+            return in.substring(0, d - 2);
+        case OPCodes.OP_dup:
+            if (!cat1(in, 1)) {
+                return null;
+            }
+            if (emit) {
+                share(in, d - 1);
+            }
+            return push(in, in.charAt(d - 1), sym[d - 1]);
+        case OPCodes.OP_dup_x1: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            if (emit) {
+                share(in, d - 1);
+                Node top = sym[d - 1];
+                sym[d - 1] = sym[d - 2];
+                sym[d - 2] = top;
+                sym[d] = top;
+            }
+            return in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2)
+                    + in.charAt(d - 1);
+        }
+        case OPCodes.OP_dup2:
+            if (d > 0 && cat2(in.charAt(d - 1))) {
+                if (emit) {
+                    share(in, d - 1);
+                }
+                return push(in, in.charAt(d - 1), sym[d - 1]);
+            }
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            if (emit) {
+                share(in, d - 2);
+                share(in, d - 1);
+                sym[d] = sym[d - 2];
+                sym[d + 1] = sym[d - 1];
+            }
+            return in + in.substring(d - 2);
+        case OPCodes.OP_swap: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            if (emit) {
+                // The values have no side effects, so their order does not matter.
+                Node top = sym[d - 1];
+                sym[d - 1] = sym[d - 2];
+                sym[d - 2] = top;
+            }
+            return in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2);
+        }
+
+        // Arithmetic
+        case OPCodes.OP_iadd:
+        case OPCodes.OP_isub:
+        case OPCodes.OP_imul:
+        case OPCodes.OP_idiv:
+        case OPCodes.OP_irem:
+        case OPCodes.OP_ishl:
+        case OPCodes.OP_ishr:
+        case OPCodes.OP_iushr:
+        case OPCodes.OP_iand:
+        case OPCodes.OP_ior:
+        case OPCodes.OP_ixor:
+            if (!in.endsWith("II")) {
+                return null;
+            }
+            return push(in.substring(0, d - 2), 'I', new IntOp(op, sym[d - 2], sym[d - 1]));
+        case OPCodes.OP_ladd:
+        case OPCodes.OP_lsub:
+        case OPCodes.OP_lmul:
+        case OPCodes.OP_ldiv:
+        case OPCodes.OP_lrem:
+        case OPCodes.OP_land:
+        case OPCodes.OP_lor:
+        case OPCodes.OP_lxor:
+            if (!in.endsWith("JJ")) {
+                return null;
+            }
+            return push(in.substring(0, d - 2), 'J', new LongOp(op, sym[d - 2], sym[d - 1]));
+        case OPCodes.OP_lshl:
+        case OPCodes.OP_lshr:
+        case OPCodes.OP_lushr:
+            if (!in.endsWith("JI")) {
+                return null;
+            }
+            return push(in.substring(0, d - 2), 'J', new LongOp(op, sym[d - 2], sym[d - 1]));
+        case OPCodes.OP_fadd:
+        case OPCodes.OP_fsub:
+        case OPCodes.OP_fmul:
+        case OPCodes.OP_fdiv:
+        case OPCodes.OP_frem:
+            if (!in.endsWith("FF")) {
+                return null;
+            }
+            return push(in.substring(0, d - 2), 'F', new FloatOp(op, sym[d - 2], sym[d - 1]));
+        case OPCodes.OP_dadd:
+        case OPCodes.OP_dsub:
+        case OPCodes.OP_dmul:
+        case OPCodes.OP_ddiv:
+        case OPCodes.OP_drem:
+            if (!in.endsWith("DD")) {
+                return null;
+            }
+            return push(in.substring(0, d - 2), 'D', new DoubleOp(op, sym[d - 2], sym[d - 1]));
+
+        // Negations and conversions
+        case OPCodes.OP_ineg:
+        case OPCodes.OP_i2b:
+        case OPCodes.OP_i2c:
+        case OPCodes.OP_i2s:
+            return convert(in, op, 'I', 'I');
+        case OPCodes.OP_lneg:
+            return convert(in, op, 'J', 'J');
+        case OPCodes.OP_fneg:
+            return convert(in, op, 'F', 'F');
+        case OPCodes.OP_dneg:
+            return convert(in, op, 'D', 'D');
+        case OPCodes.OP_i2l:
+            return convert(in, op, 'I', 'J');
+        case OPCodes.OP_i2f:
+            return convert(in, op, 'I', 'F');
+        case OPCodes.OP_i2d:
+            return convert(in, op, 'I', 'D');
+        case OPCodes.OP_l2i:
+            return convert(in, op, 'J', 'I');
+        case OPCodes.OP_l2f:
+            return convert(in, op, 'J', 'F');
+        case OPCodes.OP_l2d:
+            return convert(in, op, 'J', 'D');
+        case OPCodes.OP_f2i:
+            return convert(in, op, 'F', 'I');
+        case OPCodes.OP_f2l:
+            return convert(in, op, 'F', 'J');
+        case OPCodes.OP_f2d:
+            // Floats are kept as doubles already.
+            return in.endsWith("F") ? in.substring(0, d - 1) + 'D' : null;
+        case OPCodes.OP_d2i:
+            return convert(in, op, 'D', 'I');
+        case OPCodes.OP_d2l:
+            return convert(in, op, 'D', 'J');
+        case OPCodes.OP_d2f:
+            return convert(in, op, 'D', 'F');
+
+        // Comparisons
+        case OPCodes.OP_lcmp:
+            return compare(in, op, "JJ");
+        case OPCodes.OP_fcmpl:
+        case OPCodes.OP_fcmpg:
+            return compare(in, op, "FF");
+        case OPCodes.OP_dcmpl:
+        case OPCodes.OP_dcmpg:
+            return compare(in, op, "DD");
+
+        // Control flow
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            return branch(in, 1, i, new IntCondition(op, sym[d - 1], new IntConst(0)), emit);
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+            if (!in.endsWith("II")) {
+                return null;
+            }
+            return branch(in, 2, i, new IntCondition(op, sym[d - 2], sym[d - 1]), emit);
+        case OPCodes.OP_if_acmpeq:
+        case OPCodes.OP_if_acmpne:
+            if (!in.endsWith("AA")) {
+                return null;
+            }
+            return branch(in, 2, i, new RefCondition(op, sym[d - 2], sym[d - 1]), emit);
+        case OPCodes.OP_ifnull:
+        case OPCodes.OP_ifnonnull:
+            if (!in.endsWith("A")) {
+                return null;
+            }
+            return branch(in, 1, i, new RefCondition(op, sym[d - 1], new RefConst(null)), emit);
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            if (emit) {
+                flush(in, d);
+                close(new Goto(blockOf[code.args[i]]));
+            }
+            return in;
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch:
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            if (emit) {
+                SwitchTable table = (SwitchTable) code.refs[i];
+                int[] jumps = new int[table.getTargets().length];
+                for (int k = 0; k < jumps.length; k++) {
+                    jumps[k] = blockOf[table.getTargets()[k]];
+                }
+                Node key = sym[d - 1];
+                flush(in, d - 1);
+                close(new Switch(key, new SwitchTable(blockOf[table.getDefault()],
+                        table.getLow(), table.getKeys(), jumps)));
+            }
+            return in.substring(0, d - 1);
+        case OPCodes.OP_ireturn:
+            return ret(in, 'I', emit);
+        case OPCodes.OP_lreturn:
+            return ret(in, 'J', emit);
+        case OPCodes.OP_freturn:
+            return ret(in, 'F', emit);
+        case OPCodes.OP_dreturn:
+            return ret(in, 'D', emit);
+        case OPCodes.OP_areturn:
+            return ret(in, 'A', emit);
+        case OPCodes.OP_return:
+            return ret(in, 'V', emit);
+
+        // Fields and types
+        case OPCodes.OP_getfield: {
+            JMemberConstant field = (JMemberConstant) code.refs[i];
+            char kind = kind(field.getTypeTag());
+            if (!in.endsWith("A") || kind == 0) {
+                return null;
+            }
+            return push(in.substring(0, d - 1), kind, new GetField(field, sym[d - 1]));
+        }
+        case OPCodes.OP_getstatic_quick: {
+            char kind = kind((char) code.args2[i]);
+            if (kind == 0) {
+                return null;
+            }
+            return push(in, kind, new GetStatic((Object[]) code.refs[i], code.args[i]));
+        }
+        case OPCodes.OP_getstatic: {
+            // The class may not be initialized yet.
+            char kind = kind(((JMemberConstant) code.refs[i]).getTypeTag());
+            return kind == 0 ? null : push(in, kind, new Deopt());
+        }
+        case OPCodes.OP_checkcast:
+            if (!in.endsWith("A")) {
+                return null;
+            }
+            return push(in.substring(0, d - 1), 'A',
+                    new TypeCheck(true, (JClassConstant) code.refs[i], sym[d - 1]));
+        case OPCodes.OP_instanceof:
+            if (!in.endsWith("A")) {
+                return null;
+            }
+            return push(in.substring(0, d - 1), 'I',
+                    new TypeCheck(false, (JClassConstant) code.refs[i], sym[d - 1]));
+
+        // Calls to the methods that can be translated
+        case OPCodes.OP_invokestatic_quick:
+        case OPCodes.OP_invokenonvirtual_quick: {
+            if (!(code.refs[i] instanceof JBytecodeMethod)) {
+                return null;
+            }
+            JBytecodeMethod callee = (JBytecodeMethod) code.refs[i];
+            if (!pending.contains(callee) && AstMethod.translate(callee, pending) == null) {
+                return null;
+            }
+            return call(in, kinds(callee.getArgsTypes()), kind(callee.getRetType()),
+                    !callee.isStatic(), new Direct(callee), emit);
+        }
+        case OPCodes.OP_invokevirtual_quick: {
+            InlineCache cache = (InlineCache) code.refs[i];
+            String type = cache.getMethod().getType();
+            String args = kinds(JType.argsTypes(type));
+            return call(in, args == null ? null : "A" + args, kind(JType.retType(type)),
+                    true, new Uninitialized(cache), emit);
+        }
+        case OPCodes.OP_invokestatic:
+        case OPCodes.OP_invokespecial:
+        case OPCodes.OP_invokevirtual:
+        case OPCodes.OP_invokeinterface: {
+            // Not resolved yet: the call gives up if it is reached.
+            String type = ((JMemberConstant) code.refs[i]).getType();
+            String args = kinds(JType.argsTypes(type));
+            if (args != null && op != OPCodes.OP_invokestatic) {
+                args = "A" + args;
+            }
+            return call(in, args, kind(JType.retType(type)), false, null, emit);
+        }
+
+        default:
+            return null;
+        }
+    }
+
+    private String push(String in, char kind, Node node) {
+        sym[in.length()] = node;
+        return in + kind;
+    }
+
+    private String constant(String in, Object value, char type) {
+        switch (type) {
+        case 'I':
+            return push(in, 'I', new IntConst((Integer) value));
+        case 'J':
+            return push(in, 'J', new LongConst((Long) value));
+        case 'F':
+        case 'D':
+            return push(in, type, new DoubleConst(((Number) value).doubleValue()));
+        default:
+            return push(in, 'A', new RefConst(value));
+        }
+    }
+
+    private String load(String in, char kind, int k) {
+        if (!local(k, kind)) {
+            return null;
+        }
+        return push(in, kind, read(kind, k));
+    }
+
+    private String store(String in, char kind, int k, boolean emit) {
+        if (!in.endsWith(String.valueOf(kind)) || !local(k, kind)) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            Node value = sym[d - 1];
+            spill(in, d - 1, k);
+            body.add(store(kind, k, value));
+        }
+        return in.substring(0, d - 1);
+    }
+
+    private String arrayLoad(String in, byte op, char kind) {
+        if (!in.endsWith("AI")) {
+            return null;
+        }
+        int d = in.length();
+        return push(in.substring(0, d - 2), kind, new ArrayLoad(op, sym[d - 2], sym[d - 1]));
+    }
+
+    private String convert(String in, byte op, char arg, char res) {
+        if (!in.endsWith(String.valueOf(arg))) {
+            return null;
+        }
+        int d = in.length();
+        return push(in.substring(0, d - 1), res, new Convert(op, sym[d - 1]));
+    }
+
+    private String compare(String in, byte op, String args) {
+        if (!in.endsWith(args)) {
+            return null;
+        }
+        int d = in.length();
+        return push(in.substring(0, d - 2), 'I', new Compare(op, sym[d - 2], sym[d - 1]));
+    }
+
+    private String branch(String in, int argc, int i, Node condition, boolean emit) {
+        int d = in.length();
+        if (emit) {
+            flush(in, d - argc);
+            close(new Branch(condition, blockOf[code.args[i]], blockOf[i + 1]));
+        }
+        return in.substring(0, d - argc);
+    }
+
+    private String ret(String in, char kind, boolean emit) {
+        int argc = kind == 'V' ? 0 : 1;
+        if (kind != retType || !in.endsWith(kind == 'V' ? "" : String.valueOf(kind))) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            for (int s = 0; s < d - argc; s++) {
+                discard(in, s);
+            }
+            close(new Return(kind, argc == 0 ? null : sym[d - 1]));
+        }
+        return in.substring(0, d - argc);
+    }
+
+    /**
+     * A call with the given kinds of arguments and result. Without a
+     * dispatch node, the call gives up when it is reached.
+     */
+    private String call(String in, String args, char ret, boolean hasReceiver,
+            CallNode.Dispatch dispatch, boolean emit) {
+        if (args == null || ret == 0 || !in.endsWith(args)) {
+            return null;
+        }
+        int d = in.length();
+        int argc = args.length();
+        String out = in.substring(0, d - argc);
+        Node call = new Deopt();
+        if (dispatch != null) {
+            Node[] nodes = new Node[argc];
+            System.arraycopy(sym, d - argc, nodes, 0, argc);
+            call = new CallNode(nodes, args, hasReceiver, dispatch);
+        }
+        if (ret == 'V') {
+            if (emit) {
+                body.add(call);
+            }
+            return out;
+        }
+        return push(out, ret, call);
+    }
+
+    /**
+     * Compute the values of the first [n] slots of the operand stack that
+     * may read the local variable [k] into temporaries, before it changes.
+     */
+    private void spill(String in, int n, int k) {
+        for (int s = 0; s < n; s++) {
+            Node node = sym[s];
+            boolean safe = node instanceof Read ? ((Read) node).slot != k : node.isLeaf();
+            if (!safe) {
+                temp(in.charAt(s), s);
+            }
+        }
+    }
+
+    /** Compute the value of a slot that is used twice into a temporary. */
+    private void share(String in, int s) {
+        if (!sym[s].isLeaf()) {
+            temp(in.charAt(s), s);
+        }
+    }
+
+    private void temp(char kind, int s) {
+        int slot = slots++;
+        use(kind);
+        body.add(store(kind, slot, sym[s]));
+        sym[s] = read(kind, slot);
+    }
+
+    private void discard(String in, int s) {
+        if (!sym[s].isLeaf()) {
+            body.add(new Discard(in.charAt(s), sym[s]));
+        }
+    }
+
+    /**
+     * Store the first [n] values of the operand stack in the slots where the
+     * next block reads them. The nodes read the copies of these slots, so
+     * they can be stored in any order.
+     */
+    private void flush(String in, int n) {
+        for (int s = 0; s < n; s++) {
+            char kind = in.charAt(s);
+            use(kind);
+            body.add(store(kind, sBase + s, sym[s]));
+        }
+    }
+
+    private void close(Node next) {
+        blocks.add(new Block(body.toArray(new Node[body.size()]), next));
+        body = null;
+    }
+
+    /** Check that every local variable is used with a single type. */
+    private boolean local(int k, char type) {
+        if (k < 0 || k >= localTypes.length) {
+            return false;
+        }
+        if (localTypes[k] == 0) {
+            localTypes[k] = type;
+            use(type);
+        }
+        return localTypes[k] == type;
+    }
+
+    private void use(char kind) {
+        char k = kind == 'F' ? 'D' : kind;
+        if (kinds.indexOf(k) < 0) {
+            kinds += k;
+        }
+    }
+
+    private static Node read(char kind, int slot) {
+        switch (kind) {
+        case 'I':
+            return new ReadInt(slot);
+        case 'J':
+            return new ReadLong(slot);
+        case 'F':
+        case 'D':
+            return new ReadDouble(slot);
+        default:
+            return new ReadRef(slot);
+        }
+    }
+
+    private static Node store(char kind, int slot, Node value) {
+        switch (kind) {
+        case 'I':
+            return new StoreInt(slot, value);
+        case 'J':
+            return new StoreLong(slot, value);
+        case 'F':
+        case 'D':
+            return new StoreDouble(slot, value);
+        default:
+            return new StoreRef(slot, value);
+        }
+    }
+
+    private static char typeOf(Object value) {
+        if (value instanceof Integer) {
+            return 'I';
+        } else if (value instanceof Float) {
+            return 'F';
+        } else if (value instanceof Long) {
+            return 'J';
+        }
+        return 'D';
+    }
+
+    /** True if the top [n] values of the stack take one slot each. */
+    private static boolean cat1(String in, int n) {
+        if (in.length() < n) {
+            return false;
+        }
+        for (int k = in.length() - n; k < in.length(); k++) {
+            if (cat2(in.charAt(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean cat2(char kind) {
+        return kind == 'J' || kind == 'D';
+    }
+
+    /** The kinds of the types in a list, or null if one is not supported. */
+    private static String kinds(String types) {
+        StringBuilder ret = new StringBuilder();
+        for (int k = 0; k < types.length(); k++) {
+            char kind = kind(types.charAt(k));
+            if (kind == 0 || kind == 'V') {
+                return null;
+            }
+            ret.append(kind);
+        }
+        return ret.toString();
+    }
+
+    /** The kind of a value of the given type, or 0 if not supported. */
+    private static char kind(char type) {
+        switch (type) {
+        case 'I':
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+            return 'I';
+        case 'J':
+        case 'F':
+        case 'D':
+        case 'V':
+            return type;
+        case 'L':
+        case '[':
+            return 'A';
+        default:
+            return 0;
+        }
+    }
+}
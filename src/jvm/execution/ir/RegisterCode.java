@@ -0,0 +1,395 @@
+package jvm.execution.ir;
+
+import java.util.HashSet;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.execution.DecodedCode;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.OPCodes;
+import jvm.execution.jit.Bailout;
+
+
+/**
+ * Register-based form of the code of a method, and its interpreter.
+ *
+ * The values live in two register files, one of ints and one of doubles
+ * that also holds the floats. The registers of a frame are numbered: first
+ * the local variables, then the slots of the operand stack, then the
+ * constants. The instructions use the opcodes of the bytecode that they come
+ * from, with register operands: [a] is the destination, [b] and [c] the
+ * sources. A branch reads its operands from [a] and [b] and jumps to [c].
+ * The moves between registers are "istore" and "dstore", and a call is
+ * "invokestatic_quick", whose arguments start at register [b].
+ *
+ * As for the JIT, only static methods that compute on int, float and double
+ * values are translated. The interpreter throws [Bailout] when the code
+ * would throw an exception or the calls get too deep, and the method is
+ * then run again on the stack.
+ *
+ * @author ctalau
+ */
+public class RegisterCode {
+    /**
+     * The nested calls run on the stack of the host, which is smaller than
+     * the one of the guest: deeper calls bail out.
+     */
+    public static final int MAX_DEPTH = 512;
+
+    final byte[] ops;
+    final int[] a, b, c;
+    final Object[] refs;
+
+    // the initial values of the registers, with the constants
+    private final int[] ints;
+    private final double[] doubles;
+    // the types of the local variables, 'I', 'F', 'D' or 0 if not used
+    private final char[] localTypes;
+    // the types of the arguments, one char per argument
+    private final String argTypes;
+    private final char retType;
+    // the instruction where each decoded instruction can be entered, or -1
+    private final int[] entries;
+
+    RegisterCode(byte[] ops, int[] a, int[] b, int[] c, Object[] refs,
+            int[] ints, double[] doubles, char[] localTypes, String argTypes,
+            char retType, int[] entries) {
+        this.ops = ops;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.refs = refs;
+        this.ints = ints;
+        this.doubles = doubles;
+        this.localTypes = localTypes;
+        this.argTypes = argTypes;
+        this.retType = retType;
+        this.entries = entries;
+    }
+
+    /**
+     * The register code of the method, or null if it cannot be translated.
+     * The methods are translated once, along with the methods they call.
+     */
+    public static RegisterCode translate(JBytecodeMethod m) {
+        return translate(m, new HashSet<JBytecodeMethod>());
+    }
+
+    static RegisterCode translate(JBytecodeMethod m, HashSet<JBytecodeMethod> pending) {
+        DecodedCode dc = m.getDecodedCode();
+        if (!dc.translated) {
+            dc.translated = true;
+            pending.add(m);
+            dc.registers = new RegisterTranslator(m, pending).translate();
+            pending.remove(m);
+        }
+        return dc.registers;
+    }
+
+    /** Returns the number of instructions. */
+    public int size() {
+        return ops.length;
+    }
+
+    public char getLocalType(int slot) {
+        return localTypes[slot];
+    }
+
+    public int getMaxLocals() {
+        return localTypes.length;
+    }
+
+    public String getArgTypes() {
+        return argTypes;
+    }
+
+    public char getRetType() {
+        return retType;
+    }
+
+    /**
+     * The instruction where the decoded instruction [pc] can be entered from
+     * a running loop, or -1: only the branch targets with an empty operand
+     * stack are entries.
+     */
+    public int getEntry(int pc) {
+        return entries[pc];
+    }
+
+    /** A new int register file, with the constants. */
+    public int[] newInts() {
+        int[] ret = new int[ints.length];
+        System.arraycopy(ints, 0, ret, 0, ints.length);
+        return ret;
+    }
+
+    /** A new double register file, with the constants. */
+    public double[] newDoubles() {
+        double[] ret = new double[doubles.length];
+        System.arraycopy(doubles, 0, ret, 0, doubles.length);
+        return ret;
+    }
+
+    /**
+     * Run from instruction [pc] with the given registers, allowing at most
+     * [depth] nested calls. Returns the result of the method, or throws
+     * [Bailout] if it cannot go on.
+     */
+    public double run(int pc, int[] ri, double[] rd, int depth) {
+        if (depth <= 0) {
+            throw Bailout.INSTANCE;
+        }
+        final byte[] ops = this.ops;
+        final int[] a = this.a, b = this.b, c = this.c;
+        for (;;) {
+            int i = pc++;
+            switch (ops[i]) {
+            case OPCodes.OP_istore:
+                ri[a[i]] = ri[b[i]];
+                break;
+            case OPCodes.OP_dstore:
+                rd[a[i]] = rd[b[i]];
+                break;
+            case OPCodes.OP_iinc:
+                ri[a[i]] += b[i];
+                break;
+
+            case OPCodes.OP_iadd:
+                ri[a[i]] = ri[b[i]] + ri[c[i]];
+                break;
+            case OPCodes.OP_isub:
+                ri[a[i]] = ri[b[i]] - ri[c[i]];
+                break;
+            case OPCodes.OP_imul:
+                ri[a[i]] = ri[b[i]] * ri[c[i]];
+                break;
+            case OPCodes.OP_idiv:
+                if (ri[c[i]] == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                ri[a[i]] = ri[b[i]] / ri[c[i]];
+                break;
+            case OPCodes.OP_irem:
+                if (ri[c[i]] == 0) {
+                    throw Bailout.INSTANCE;
+                }
+                ri[a[i]] = ri[b[i]] % ri[c[i]];
+                break;
+            case OPCodes.OP_ineg:
+                ri[a[i]] = -ri[b[i]];
+                break;
+            case OPCodes.OP_ishl:
+                ri[a[i]] = ri[b[i]] << ri[c[i]];
+                break;
+            case OPCodes.OP_ishr:
+                ri[a[i]] = ri[b[i]] >> ri[c[i]];
+                break;
+            case OPCodes.OP_iushr:
+                ri[a[i]] = ri[b[i]] >>> ri[c[i]];
+                break;
+            case OPCodes.OP_iand:
+                ri[a[i]] = ri[b[i]] & ri[c[i]];
+                break;
+            case OPCodes.OP_ior:
+                ri[a[i]] = ri[b[i]] | ri[c[i]];
+                break;
+            case OPCodes.OP_ixor:
+                ri[a[i]] = ri[b[i]] ^ ri[c[i]];
+                break;
+
+            // The operations on floats are done on doubles and rounded, which
+            // gives the same results.
+            case OPCodes.OP_fadd:
+                rd[a[i]] = (float) (rd[b[i]] + rd[c[i]]);
+                break;
+            case OPCodes.OP_fsub:
+                rd[a[i]] = (float) (rd[b[i]] - rd[c[i]]);
+                break;
+            case OPCodes.OP_fmul:
+                rd[a[i]] = (float) (rd[b[i]] * rd[c[i]]);
+                break;
+            case OPCodes.OP_fdiv:
+                rd[a[i]] = (float) (rd[b[i]] / rd[c[i]]);
+                break;
+            case OPCodes.OP_frem:
+                rd[a[i]] = (float) (rd[b[i]] % rd[c[i]]);
+                break;
+            case OPCodes.OP_fneg:
+            case OPCodes.OP_dneg:
+                rd[a[i]] = -rd[b[i]];
+                break;
+            case OPCodes.OP_dadd:
+                rd[a[i]] = rd[b[i]] + rd[c[i]];
+                break;
+            case OPCodes.OP_dsub:
+                rd[a[i]] = rd[b[i]] - rd[c[i]];
+                break;
+            case OPCodes.OP_dmul:
+                rd[a[i]] = rd[b[i]] * rd[c[i]];
+                break;
+            case OPCodes.OP_ddiv:
+                rd[a[i]] = rd[b[i]] / rd[c[i]];
+                break;
+            case OPCodes.OP_drem:
+                rd[a[i]] = rd[b[i]] % rd[c[i]];
+                break;
+
+            case OPCodes.OP_i2f:
+                rd[a[i]] = (float) ri[b[i]];
+                break;
+            case OPCodes.OP_i2d:
+                rd[a[i]] = ri[b[i]];
+                break;
+            case OPCodes.OP_d2f:
+                rd[a[i]] = (float) rd[b[i]];
+                break;
+            case OPCodes.OP_f2i:
+            case OPCodes.OP_d2i:
+                ri[a[i]] = (int) rd[b[i]];
+                break;
+            case OPCodes.OP_i2b:
+                ri[a[i]] = (byte) ri[b[i]];
+                break;
+            case OPCodes.OP_i2c:
+                ri[a[i]] = (char) ri[b[i]];
+                break;
+            case OPCodes.OP_i2s:
+                ri[a[i]] = (short) ri[b[i]];
+                break;
+
+            case OPCodes.OP_fcmpl:
+            case OPCodes.OP_dcmpl:
+                ri[a[i]] = compare(rd[b[i]], rd[c[i]], -1);
+                break;
+            case OPCodes.OP_fcmpg:
+            case OPCodes.OP_dcmpg:
+                ri[a[i]] = compare(rd[b[i]], rd[c[i]], 1);
+                break;
+
+            case OPCodes.OP_ifeq:
+                if (ri[a[i]] == 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_ifne:
+                if (ri[a[i]] != 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_iflt:
+                if (ri[a[i]] < 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_ifge:
+                if (ri[a[i]] >= 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_ifgt:
+                if (ri[a[i]] > 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_ifle:
+                if (ri[a[i]] <= 0) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmpeq:
+                if (ri[a[i]] == ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmpne:
+                if (ri[a[i]] != ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmplt:
+                if (ri[a[i]] < ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmpge:
+                if (ri[a[i]] >= ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmpgt:
+                if (ri[a[i]] > ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_if_icmple:
+                if (ri[a[i]] <= ri[b[i]]) {
+                    pc = c[i];
+                }
+                break;
+            case OPCodes.OP_goto:
+                pc = c[i];
+                break;
+            case OPCodes.OP_tableswitch:
+            case OPCodes.OP_lookupswitch:
+                pc = ((SwitchTable) refs[i]).target(ri[a[i]]);
+                break;
+
+            case OPCodes.OP_ireturn:
+                return ri[a[i]];
+            case OPCodes.OP_freturn:
+            case OPCodes.OP_dreturn:
+                return rd[a[i]];
+
+            case OPCodes.OP_invokestatic_quick: {
+                JBytecodeMethod m = (JBytecodeMethod) refs[i];
+                RegisterCode callee = m.getDecodedCode().registers;
+                if (callee == null) {
+                    throw Bailout.INSTANCE;
+                }
+                int[] ci = callee.newInts();
+                double[] cd = callee.newDoubles();
+                String types = callee.argTypes;
+                int arg = b[i], slot = 0;
+                for (int k = 0; k < types.length(); k++) {
+                    switch (types.charAt(k)) {
+                    case 'I':
+                        ci[slot++] = ri[arg++];
+                        break;
+                    case 'F':
+                        cd[slot++] = rd[arg++];
+                        break;
+                    default:
+                        cd[slot] = rd[arg++];
+                        slot += 2;
+                    }
+                }
+                double ret = callee.run(0, ci, cd, depth - 1);
+                if (callee.retType == 'I') {
+                    ri[a[i]] = (int) ret;
+                } else {
+                    rd[a[i]] = ret;
+                }
+                break;
+            }
+
+            default:
+                throw new AssertionError("Register opcode: " + ops[i]);
+            }
+        }
+    }
+
+    private static int compare(double x, double y, int nan) {
+        return x > y ? 1 : x == y ? 0 : x < y ? -1 : nan;
+    }
+
+    /** The instructions, one per line, for debugging. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ops.length; i++) {
+            sb.append(i).append(": ").append(OPCodes.getName(ops[i]))
+              .append(' ').append(a[i]).append(' ').append(b[i])
+              .append(' ').append(c[i]).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,779 @@
+package jvm.execution.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.jconstants.JBaseConstant;
+import jvm.execution.DecodedCode;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.OPCodes;
+
+
+/**
+ * Translates the decoded code of a method into register code.
+ *
+ * A first pass finds the types of the operand stack before each instruction
+ * and checks that the method is supported, as in the JIT. The second pass
+ * runs the instructions on a symbolic operand stack that holds, for each
+ * slot, the register where its value is. The loads and the constants only
+ * push a register, so "iload a; iload b; iadd; istore c" becomes a single
+ * "iadd c a b". The values are copied to the registers of their slots at the
+ * end of the basic blocks, where the code of the next block expects them.
+ *
+ * A slot of the symbolic stack refers to a local variable, a constant or the
+ * register of a slot at or below it, so that a value is never overwritten
+ * while a slot still refers to it.
+ *
+ * @author ctalau
+ */
+class RegisterTranslator {
+    private final JBytecodeMethod m;
+    private final HashSet<JBytecodeMethod> pending;
+    private final DecodedCode code;
+    private final int size;
+
+    // The types of the operand stack before each instruction ('I', 'F' or
+    // 'D' for each value), null for the instructions that are not reached.
+    private final String[] stacks;
+    private final boolean[] targets;
+    private final char[] localTypes;
+    private char retType;
+
+    // registers: the local variables, the stack slots, a temporary and the
+    // constants
+    private final int base;
+    private final int temp;
+    private int registers;
+    private final HashMap<String, Integer> constants = new HashMap<String, Integer>();
+    private final ArrayList<Object> values = new ArrayList<Object>();
+
+    // the symbolic operand stack
+    private final int[] sym;
+    // the instruction that computed the top of the stack into its register,
+    // if it is the last one
+    private int produced = -1;
+
+    // the instructions
+    private int n;
+    private byte[] ops = new byte[16];
+    private int[] a = new int[16], b = new int[16], c = new int[16];
+    private Object[] refs = new Object[16];
+
+    RegisterTranslator(JBytecodeMethod m, HashSet<JBytecodeMethod> pending) {
+        this.m = m;
+        this.pending = pending;
+        this.code = m.getDecodedCode();
+        this.size = code.size();
+        this.stacks = new String[size];
+        this.targets = new boolean[size];
+        this.localTypes = new char[m.getCode().maxLocals];
+        this.base = localTypes.length;
+        this.temp = base + m.getCode().maxStack;
+        this.registers = temp + 1;
+        this.sym = new int[m.getCode().maxStack];
+    }
+
+    /** The register code, or null if the method is not supported. */
+    RegisterCode translate() {
+        if (!m.isStatic() || m.isSynchronized() || !analyze()) {
+            return null;
+        }
+
+        int[] labels = new int[size];
+        boolean fallsThrough = false;
+        for (int i = 0; i < size; i++) {
+            String in = stacks[i];
+            if (in == null) {
+                fallsThrough = false;
+                continue;
+            }
+            if (targets[i] || !fallsThrough) {
+                if (fallsThrough) {
+                    flush(in, 0);
+                }
+                for (int k = 0; k < in.length(); k++) {
+                    sym[k] = base + k;
+                }
+                produced = -1;
+            }
+            labels[i] = n;
+            if (instruction(i, in, true) == null) {
+                return null;
+            }
+            fallsThrough = successors(i).length > 0 && successors(i)[0] == i + 1;
+        }
+
+        // The jumps go to decoded instructions until now.
+        for (int i = 0; i < n; i++) {
+            if (refs[i] instanceof SwitchTable) {
+                SwitchTable table = (SwitchTable) refs[i];
+                int[] jumps = new int[table.getTargets().length];
+                for (int k = 0; k < jumps.length; k++) {
+                    jumps[k] = labels[table.getTargets()[k]];
+                }
+                refs[i] = new SwitchTable(labels[table.getDefault()], table.getLow(),
+                        table.getKeys(), jumps);
+            } else if (isJump(ops[i])) {
+                c[i] = labels[c[i]];
+            }
+        }
+        int[] entries = new int[size];
+        for (int i = 0; i < size; i++) {
+            boolean entry = i == 0 || (targets[i] && stacks[i] != null
+                    && stacks[i].length() == 0);
+            entries[i] = entry ? labels[i] : -1;
+        }
+
+        int[] ints = new int[registers];
+        double[] doubles = new double[registers];
+        for (int k = 0; k < values.size(); k++) {
+            Object value = values.get(k);
+            int reg = temp + 1 + k;
+            if (value instanceof Integer) {
+                ints[reg] = (Integer) value;
+            } else {
+                doubles[reg] = ((Number) value).doubleValue();
+            }
+        }
+
+        StringBuilder args = new StringBuilder();
+        String types = m.getArgsTypes();
+        for (int k = 0; k < types.length(); k++) {
+            args.append(kind(types.charAt(k)));
+        }
+        return new RegisterCode(copy(ops), copy(a), copy(b), copy(c), copy(refs),
+                ints, doubles, localTypes, args.toString(), retType, entries);
+    }
+
+    /**
+     * Find the types of the operand stack before each instruction.
+     */
+    private boolean analyze() {
+        retType = kind(m.getRetType());
+        if (retType == 0) {
+            return false;
+        }
+        String args = m.getArgsTypes();
+        int slot = 0;
+        for (int k = 0; k < args.length(); k++) {
+            char type = kind(args.charAt(k));
+            if (type == 0) {
+                return false;
+            }
+            localTypes[slot] = type;
+            slot += type == 'D' ? 2 : 1;
+        }
+
+        ArrayList<Integer> work = new ArrayList<Integer>();
+        stacks[0] = "";
+        work.add(0);
+        while (!work.isEmpty()) {
+            int i = work.remove(work.size() - 1);
+            String out = instruction(i, stacks[i], false);
+            if (out == null) {
+                return false;
+            }
+            for (int next : successors(i)) {
+                if (next < 0 || next >= size) {
+                    return false;
+                }
+                if (stacks[next] == null) {
+                    stacks[next] = out;
+                    work.add(next);
+                } else if (!stacks[next].equals(out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int[] successors(int i) {
+        int target = code.args[i];
+        switch (code.getOpcode(i)) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+            targets[target] = true;
+            return new int[] { i + 1, target };
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            targets[target] = true;
+            return new int[] { target };
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            SwitchTable table = (SwitchTable) code.refs[i];
+            int[] next = new int[table.getTargets().length + 1];
+            System.arraycopy(table.getTargets(), 0, next, 0, next.length - 1);
+            next[next.length - 1] = table.getDefault();
+            for (int t : next) {
+                targets[t] = true;
+            }
+            return next;
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn:
+            return new int[0];
+        default:
+            return new int[] { i + 1 };
+        }
+    }
+
+    /**
+     * Translate the instruction [i], given the types of the operand stack
+     * before it. Returns the types of the operand stack after it, or null
+     * if it is not supported. The register code is emitted if [emit] is set.
+     */
+    private String instruction(int i, String in, boolean emit) {
+        int d = in.length();
+        byte op = code.getOpcode(i);
+        switch (op) {
+        case OPCodes.OP_nop:
+            return in;
+
+        // Constants
+        case OPCodes.OP_iconst_m1:
+        case OPCodes.OP_iconst_0:
+        case OPCodes.OP_iconst_1:
+        case OPCodes.OP_iconst_2:
+        case OPCodes.OP_iconst_3:
+        case OPCodes.OP_iconst_4:
+        case OPCodes.OP_iconst_5:
+        case OPCodes.OP_bipush:
+        case OPCodes.OP_sipush:
+            return constant(in, 'I', Integer.valueOf(code.args[i]), emit);
+        case OPCodes.OP_fconst_0:
+        case OPCodes.OP_fconst_1:
+        case OPCodes.OP_fconst_2:
+            return constant(in, 'F', Float.valueOf(code.args[i]), emit);
+        case OPCodes.OP_dconst_0:
+        case OPCodes.OP_dconst_1:
+            return constant(in, 'D', Double.valueOf(code.args[i]), emit);
+        case OPCodes.OP_ldc:
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc_quick:
+        case OPCodes.OP_ldc2_w:
+        case OPCodes.OP_ldc2_w_quick: {
+            Object value = code.refs[i];
+            if (value instanceof JBaseConstant) {
+                value = ((JBaseConstant) value).getRepr();
+            }
+            if (value instanceof Integer) {
+                return constant(in, 'I', value, emit);
+            } else if (value instanceof Float) {
+                return constant(in, 'F', value, emit);
+            } else if (value instanceof Double) {
+                return constant(in, 'D', value, emit);
+            }
+            return null;
+        }
+
+        // Local variables
+        case OPCodes.OP_iload:
+        case OPCodes.OP_iload_0:
+        case OPCodes.OP_iload_1:
+        case OPCodes.OP_iload_2:
+        case OPCodes.OP_iload_3:
+            return load(in, 'I', code.args[i], emit);
+        case OPCodes.OP_fload:
+        case OPCodes.OP_fload_0:
+        case OPCodes.OP_fload_1:
+        case OPCodes.OP_fload_2:
+        case OPCodes.OP_fload_3:
+            return load(in, 'F', code.args[i], emit);
+        case OPCodes.OP_dload:
+        case OPCodes.OP_dload_0:
+        case OPCodes.OP_dload_1:
+        case OPCodes.OP_dload_2:
+        case OPCodes.OP_dload_3:
+            return load(in, 'D', code.args[i], emit);
+        case OPCodes.OP_istore:
+        case OPCodes.OP_istore_0:
+        case OPCodes.OP_istore_1:
+        case OPCodes.OP_istore_2:
+        case OPCodes.OP_istore_3:
+            return store(in, 'I', code.args[i], emit);
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_fstore_0:
+        case OPCodes.OP_fstore_1:
+        case OPCodes.OP_fstore_2:
+        case OPCodes.OP_fstore_3:
+            return store(in, 'F', code.args[i], emit);
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_dstore_0:
+        case OPCodes.OP_dstore_1:
+        case OPCodes.OP_dstore_2:
+        case OPCodes.OP_dstore_3:
+            return store(in, 'D', code.args[i], emit);
+        case OPCodes.OP_iinc: {
+            int k = code.args[i];
+            if (!local(k, 'I')) {
+                return null;
+            }
+            if (emit) {
+                spill(in, k);
+                emit(OPCodes.OP_iinc, k, code.args2[i], 0, null);
+            }
+            return in;
+        }
+
+        // Operand stack
+        case OPCodes.OP_pop:
+            return cat1(in, 1) ? in.substring(0, d - 1) : null;
+        case OPCodes.OP_pop2:
+            if (in.endsWith("D")) {
+                return in.substring(0, d - 1);
+            }
+            return cat1(in, 2) ? in.substring(0, d - 2) : null;
+        case OPCodes.OP_dup:
+            if (!cat1(in, 1)) {
+                return null;
+            }
+            if (emit) {
+                sym[d] = sym[d - 1];
+                produced = -1;
+            }
+            return in + in.charAt(d - 1);
+        case OPCodes.OP_dup_x1: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            String out = in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2)
+                    + in.charAt(d - 1);
+            if (emit) {
+                flush(in, 0);
+                move(in.charAt(d - 1), base + d, base + d - 1);
+                move(in.charAt(d - 2), base + d - 1, base + d - 2);
+                move(in.charAt(d - 1), base + d - 2, base + d);
+                canonical(out);
+            }
+            return out;
+        }
+        case OPCodes.OP_dup2:
+            if (in.endsWith("D")) {
+                if (emit) {
+                    sym[d] = sym[d - 1];
+                    produced = -1;
+                }
+                return in + 'D';
+            }
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            if (emit) {
+                sym[d] = sym[d - 2];
+                sym[d + 1] = sym[d - 1];
+                produced = -1;
+            }
+            return in + in.substring(d - 2);
+        case OPCodes.OP_swap: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            String out = in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2);
+            if (emit) {
+                flush(in, 0);
+                move(in.charAt(d - 1), temp, base + d - 1);
+                move(in.charAt(d - 2), base + d - 1, base + d - 2);
+                move(in.charAt(d - 1), base + d - 2, temp);
+                canonical(out);
+            }
+            return out;
+        }
+
+        // Arithmetic
+        case OPCodes.OP_iadd:
+        case OPCodes.OP_isub:
+        case OPCodes.OP_imul:
+        case OPCodes.OP_idiv:
+        case OPCodes.OP_irem:
+        case OPCodes.OP_ishl:
+        case OPCodes.OP_ishr:
+        case OPCodes.OP_iushr:
+        case OPCodes.OP_iand:
+        case OPCodes.OP_ior:
+        case OPCodes.OP_ixor:
+            return binary(in, op, "II", 'I', emit);
+        case OPCodes.OP_fadd:
+        case OPCodes.OP_fsub:
+        case OPCodes.OP_fmul:
+        case OPCodes.OP_fdiv:
+        case OPCodes.OP_frem:
+            return binary(in, op, "FF", 'F', emit);
+        case OPCodes.OP_dadd:
+        case OPCodes.OP_dsub:
+        case OPCodes.OP_dmul:
+        case OPCodes.OP_ddiv:
+        case OPCodes.OP_drem:
+            return binary(in, op, "DD", 'D', emit);
+        case OPCodes.OP_ineg:
+            return unary(in, op, 'I', 'I', emit);
+        case OPCodes.OP_fneg:
+            return unary(in, op, 'F', 'F', emit);
+        case OPCodes.OP_dneg:
+            return unary(in, op, 'D', 'D', emit);
+
+        // Conversions
+        case OPCodes.OP_i2f:
+            return unary(in, op, 'I', 'F', emit);
+        case OPCodes.OP_i2d:
+            return unary(in, op, 'I', 'D', emit);
+        case OPCodes.OP_f2d:
+            // Floats are kept as doubles already.
+            return in.endsWith("F") ? in.substring(0, d - 1) + 'D' : null;
+        case OPCodes.OP_d2f:
+            return unary(in, op, 'D', 'F', emit);
+        case OPCodes.OP_f2i:
+            return unary(in, op, 'F', 'I', emit);
+        case OPCodes.OP_d2i:
+            return unary(in, op, 'D', 'I', emit);
+        case OPCodes.OP_i2b:
+        case OPCodes.OP_i2c:
+        case OPCodes.OP_i2s:
+            return unary(in, op, 'I', 'I', emit);
+
+        // Comparisons
+        case OPCodes.OP_fcmpl:
+        case OPCodes.OP_fcmpg:
+            return binary(in, op, "FF", 'I', emit);
+        case OPCodes.OP_dcmpl:
+        case OPCodes.OP_dcmpg:
+            return binary(in, op, "DD", 'I', emit);
+
+        // Control flow
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+            return branch(in, op, "I", code.args[i], emit);
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+            return branch(in, op, "II", code.args[i], emit);
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            if (emit) {
+                flush(in, 0);
+                emit(OPCodes.OP_goto, 0, 0, code.args[i], null);
+            }
+            return in;
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch:
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            if (emit) {
+                flush(in, 1);
+                emit(op, sym[d - 1], 0, 0, code.refs[i]);
+            }
+            return in.substring(0, d - 1);
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn: {
+            char type = op == OPCodes.OP_ireturn ? 'I' : op == OPCodes.OP_freturn ? 'F' : 'D';
+            if (type != retType || !in.endsWith(String.valueOf(type))) {
+                return null;
+            }
+            if (emit) {
+                emit(op, sym[d - 1], 0, 0, null);
+            }
+            return in.substring(0, d - 1);
+        }
+
+        // Calls to the methods that can be translated, once resolved
+        case OPCodes.OP_invokestatic_quick: {
+            if (!(code.refs[i] instanceof JBytecodeMethod)) {
+                return null;
+            }
+            JBytecodeMethod callee = (JBytecodeMethod) code.refs[i];
+            String args = callee.getArgsTypes();
+            StringBuilder types = new StringBuilder();
+            for (int k = 0; k < args.length(); k++) {
+                types.append(kind(args.charAt(k)));
+            }
+            char ret = kind(callee.getRetType());
+            int argc = args.length();
+            if (ret == 0 || !in.endsWith(types.toString())) {
+                return null;
+            }
+            if (!pending.contains(callee)
+                    && RegisterCode.translate(callee, pending) == null) {
+                return null;
+            }
+            if (emit) {
+                for (int k = d - 1; k >= d - argc; k--) {
+                    move(in.charAt(k), base + k, sym[k]);
+                }
+                emit(op, base + d - argc, base + d - argc, 0, callee);
+                sym[d - argc] = base + d - argc;
+                produced = n - 1;
+            }
+            return in.substring(0, d - argc) + ret;
+        }
+
+        default:
+            return null;
+        }
+    }
+
+    private String constant(String in, char type, Object value, boolean emit) {
+        if (emit) {
+            String key = type + value.toString();
+            Integer reg = constants.get(key);
+            if (reg == null) {
+                reg = registers++;
+                constants.put(key, reg);
+                values.add(value);
+            }
+            sym[in.length()] = reg;
+            produced = -1;
+        }
+        return in + type;
+    }
+
+    private String load(String in, char type, int k, boolean emit) {
+        if (!local(k, type)) {
+            return null;
+        }
+        if (emit) {
+            sym[in.length()] = k;
+            produced = -1;
+        }
+        return in + type;
+    }
+
+    private String store(String in, char type, int k, boolean emit) {
+        if (!in.endsWith(String.valueOf(type)) || !local(k, type)) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            int top = sym[d - 1];
+            boolean spilled = spill(in.substring(0, d - 1), k);
+            if (top == base + d - 1 && produced == n - 1 && !spilled) {
+                // Compute the value right into the local variable.
+                a[n - 1] = k;
+            } else if (top != k) {
+                move(type, k, top);
+            }
+            produced = -1;
+        }
+        return in.substring(0, d - 1);
+    }
+
+    /**
+     * Copy the values of the slots that refer to the local variable [k] to
+     * their registers, before it changes. Returns true if there were any.
+     */
+    private boolean spill(String in, int k) {
+        boolean spilled = false;
+        for (int s = 0; s < in.length(); s++) {
+            if (sym[s] == k) {
+                move(in.charAt(s), base + s, k);
+                sym[s] = base + s;
+                spilled = true;
+            }
+        }
+        return spilled;
+    }
+
+    /**
+     * Copy the values of the operand stack, except the top [keep] ones, to
+     * the registers of their slots. The slots refer to registers at or
+     * below them, so the higher slots are copied first.
+     */
+    private void flush(String in, int keep) {
+        for (int s = in.length() - 1 - keep; s >= 0; s--) {
+            move(in.charAt(s), base + s, sym[s]);
+            sym[s] = base + s;
+        }
+    }
+
+    private void canonical(String out) {
+        for (int s = 0; s < out.length(); s++) {
+            sym[s] = base + s;
+        }
+        produced = -1;
+    }
+
+    private void move(char type, int to, int from) {
+        if (to != from) {
+            emit(type == 'I' ? OPCodes.OP_istore : OPCodes.OP_dstore, to, from, 0, null);
+            produced = -1;
+        }
+    }
+
+    /** Check that every local variable is used with a single type. */
+    private boolean local(int k, char type) {
+        if (k < 0 || k >= localTypes.length) {
+            return false;
+        }
+        if (localTypes[k] == 0) {
+            localTypes[k] = type;
+        }
+        return localTypes[k] == type;
+    }
+
+    private String unary(String in, byte op, char arg, char res, boolean emit) {
+        if (!in.endsWith(String.valueOf(arg))) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            emit(op, base + d - 1, sym[d - 1], 0, null);
+            sym[d - 1] = base + d - 1;
+            produced = n - 1;
+        }
+        return in.substring(0, d - 1) + res;
+    }
+
+    private String binary(String in, byte op, String args, char res, boolean emit) {
+        if (!in.endsWith(args)) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            emit(op, base + d - 2, sym[d - 2], sym[d - 1], null);
+            sym[d - 2] = base + d - 2;
+            produced = n - 1;
+        }
+        return in.substring(0, d - 2) + res;
+    }
+
+    private String branch(String in, byte op, String args, int target, boolean emit) {
+        if (!in.endsWith(args)) {
+            return null;
+        }
+        int d = in.length();
+        if (emit) {
+            flush(in, args.length());
+            if (args.length() == 1) {
+                emit(op, sym[d - 1], 0, target, null);
+            } else {
+                emit(op, sym[d - 2], sym[d - 1], target, null);
+            }
+        }
+        return in.substring(0, d - args.length());
+    }
+
+    private void emit(byte op, int x, int y, int z, Object ref) {
+        if (n == ops.length) {
+            ops = grow(ops);
+            a = grow(a);
+            b = grow(b);
+            c = grow(c);
+            refs = grow(refs);
+        }
+        ops[n] = op;
+        a[n] = x;
+        b[n] = y;
+        c[n] = z;
+        refs[n] = ref;
+        n++;
+        produced = -1;
+    }
+
+    private static boolean isJump(byte op) {
+        switch (op) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+        case OPCodes.OP_goto:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** True if the top [n] values of the stack take one slot each. */
+    private static boolean cat1(String in, int n) {
+        if (in.length() < n) {
+            return false;
+        }
+        for (int k = in.length() - n; k < in.length(); k++) {
+            if (in.charAt(k) == 'D') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The type of a value on the operand stack, or 0 if not supported. */
+    private static char kind(char type) {
+        switch (type) {
+        case 'I':
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+            return 'I';
+        case 'F':
+        case 'D':
+            return type;
+        default:
+            return 0;
+        }
+    }
+
+    private static byte[] grow(byte[] v) {
+        byte[] ret = new byte[v.length * 2];
+        System.arraycopy(v, 0, ret, 0, v.length);
+        return ret;
+    }
+
+    private static int[] grow(int[] v) {
+        int[] ret = new int[v.length * 2];
+        System.arraycopy(v, 0, ret, 0, v.length);
+        return ret;
+    }
+
+    private static Object[] grow(Object[] v) {
+        Object[] ret = new Object[v.length * 2];
+        System.arraycopy(v, 0, ret, 0, v.length);
+        return ret;
+    }
+
+    private byte[] copy(byte[] v) {
+        byte[] ret = new byte[n];
+        System.arraycopy(v, 0, ret, 0, n);
+        return ret;
+    }
+
+    private int[] copy(int[] v) {
+        int[] ret = new int[n];
+        System.arraycopy(v, 0, ret, 0, n);
+        return ret;
+    }
+
+    private Object[] copy(Object[] v) {
+        Object[] ret = new Object[n];
+        System.arraycopy(v, 0, ret, 0, n);
+        return ret;
+    }
+}
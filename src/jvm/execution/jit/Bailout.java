@@ -0,0 +1,19 @@
+package jvm.execution.jit;
+
+
+/**
+ * Thrown when the compiled code gives up: an exception has to be thrown in
+ * the program, or the calls are nested too deep. The compiled methods have
+ * no side effects, so the interpreter runs the method again from where the
+ * compiled code was entered.
+ *
+ * @author ctalau
+ */
+public class Bailout extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public static final Bailout INSTANCE = new Bailout();
+
+    private Bailout() {
+    }
+}
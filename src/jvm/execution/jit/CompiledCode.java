@@ -0,0 +1,16 @@
+package jvm.execution.jit;
+
+
+/**
+ * A method compiled by a [JitBackend].
+ *
+ * @author ctalau
+ */
+public interface CompiledCode {
+    /**
+     * Run the method from instruction [pc] with the given values of the local
+     * variables, allowing at most [depth] nested calls. Returns the result of
+     * the method, or throws [Bailout] if the compiled code cannot go on.
+     */
+    double run(int depth, int pc, double[] locals);
+}
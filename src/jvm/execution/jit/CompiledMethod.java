@@ -0,0 +1,52 @@
+package jvm.execution.jit;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+
+
+/**
+ * A method compiled by the JIT, with what the interpreter needs to enter it:
+ * the types of the local variables and the instructions where the compiled
+ * code can be entered from a running loop.
+ *
+ * @author ctalau
+ */
+public class CompiledMethod {
+    private final JBytecodeMethod method;
+    private final CompiledCode code;
+    // 'I', 'F', 'D' or 0 for the slots that are not used
+    private final char[] localTypes;
+    private final boolean[] entries;
+
+    CompiledMethod(JBytecodeMethod method, CompiledCode code, char[] localTypes,
+            boolean[] entries) {
+        this.method = method;
+        this.code = code;
+        this.localTypes = localTypes;
+        this.entries = entries;
+    }
+
+    public JBytecodeMethod getMethod() {
+        return method;
+    }
+
+    public int getMaxLocals() {
+        return localTypes.length;
+    }
+
+    public char getLocalType(int slot) {
+        return localTypes[slot];
+    }
+
+    /**
+     * True if the compiled code can be entered at the given instruction: a
+     * branch target with an empty operand stack.
+     */
+    public boolean isEntry(int pc) {
+        return entries[pc];
+    }
+
+    /** Run the compiled code; throws [Bailout] if it gives up. */
+    public double run(int depth, int pc, double[] locals) {
+        return code.run(depth, pc, locals);
+    }
+}
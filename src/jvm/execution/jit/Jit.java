@@ -0,0 +1,90 @@
+package jvm.execution.jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+
+
+/**
+ * Baseline JIT compiler. The execution engine counts the invocations and
+ * the backward branches of the methods, and asks for a method to be compiled
+ * when the count reaches the threshold.
+ *
+ * Only methods without side effects are compiled: static methods that
+ * compute on int, float and double values and call other such methods. This
+ * way, when the compiled code cannot handle something (an exception, a deep
+ * recursion), the interpreter can simply run the method again.
+ *
+ * @author ctalau
+ */
+public class Jit {
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private final JitBackend backend;
+    private final int threshold;
+
+    // the index of the methods in the function table of the backend
+    private final HashMap<JBytecodeMethod, Integer> ids =
+            new HashMap<JBytecodeMethod, Integer>();
+    // the result of the compilation, null for the methods that cannot be
+    // compiled; the methods being compiled are not here yet
+    private final HashMap<JBytecodeMethod, CompiledMethod> results =
+            new HashMap<JBytecodeMethod, CompiledMethod>();
+    private final List<String> compiled = new ArrayList<String>();
+
+    public Jit(JitBackend backend) {
+        this(backend, DEFAULT_THRESHOLD);
+    }
+
+    public Jit(JitBackend backend, int threshold) {
+        this.backend = backend;
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /** The full names of the compiled methods, in compilation order. */
+    public List<String> getCompiledMethods() {
+        return compiled;
+    }
+
+    /**
+     * Compile the method and the methods that it calls, or return null if it
+     * cannot be compiled. The result is kept, so a method is compiled once.
+     */
+    public CompiledMethod compile(JBytecodeMethod m) {
+        if (results.containsKey(m)) {
+            return results.get(m);
+        }
+        int id = ids.size();
+        ids.put(m, id);
+
+        JsTranslator translator = new JsTranslator(this, m);
+        String source = translator.translate();
+        CompiledMethod cm = null;
+        if (source != null) {
+            cm = new CompiledMethod(m, backend.compile(id, source),
+                    translator.getLocalTypes(), translator.getEntries());
+            m.getDecodedCode().compiled = cm;
+            compiled.add(m.getFullName());
+        }
+        results.put(m, cm);
+        return cm;
+    }
+
+    /**
+     * The index in the function table of a method called by compiled code,
+     * or -1 if it cannot be compiled. A method that is being compiled, as in
+     * a recursion, already has its index.
+     */
+    int getFunction(JBytecodeMethod m) {
+        if (ids.containsKey(m) && !results.containsKey(m)) {
+            return ids.get(m);
+        }
+        return compile(m) == null ? -1 : ids.get(m);
+    }
+}
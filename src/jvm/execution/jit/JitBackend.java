@@ -0,0 +1,17 @@
+package jvm.execution.jit;
+
+
+/**
+ * Turns the JavaScript source produced by the JIT into executable code. In
+ * the browser the source is compiled with "new Function".
+ *
+ * Every backend keeps its own table of compiled functions: the source of a
+ * method is the body of a function that takes the table as parameter "F"
+ * and returns the compiled function, which is then stored at index [id] of
+ * the table. The compiled functions call each other through the table.
+ *
+ * @author ctalau
+ */
+public interface JitBackend {
+    CompiledCode compile(int id, String source);
+}
@@ -0,0 +1,628 @@
+package jvm.execution.jit;
+
+import java.util.ArrayList;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.jconstants.JBaseConstant;
+import jvm.execution.DecodedCode;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.OPCodes;
+
+
+/**
+ * Translates the decoded code of a method into the source of a JavaScript
+ * function "function (d, pc, l0, l1, ...)". The local variables and the
+ * operand stack are mapped to JavaScript variables: local [k] to "lk" and the
+ * [k]-th value of the operand stack to "sk", whatever its size.
+ *
+ * The instructions run inside a switch on "pc" in an endless loop, with a
+ * case for each branch target; a jump sets "pc" and continues the loop. The
+ * method can thus be entered at any branch target where the operand stack
+ * is empty, with the current values of the local variables. "d" is the
+ * number of nested calls that are still allowed.
+ *
+ * The types of the operand stack are found by a first pass over the code,
+ * that also checks that the method only uses the supported instructions and
+ * gives a single type to each local variable. The code compiled for the
+ * instructions that throw exceptions bails out before throwing.
+ *
+ * @author ctalau
+ */
+class JsTranslator {
+    private static final String INDENT = "      ";
+
+    private final Jit jit;
+    private final JBytecodeMethod m;
+    private final DecodedCode code;
+    private final int size;
+
+    // The types of the operand stack before each instruction ('I', 'F' or
+    // 'D' for each value), null for the instructions that are not reached.
+    private final String[] stacks;
+    private final boolean[] targets;
+    private final char[] localTypes;
+    private char retType;
+
+    JsTranslator(Jit jit, JBytecodeMethod m) {
+        this.jit = jit;
+        this.m = m;
+        this.code = m.getDecodedCode();
+        this.size = code.size();
+        this.stacks = new String[size];
+        this.targets = new boolean[size];
+        this.localTypes = new char[m.getCode().maxLocals];
+    }
+
+    char[] getLocalTypes() {
+        return localTypes;
+    }
+
+    /** The instructions where the compiled code can be entered. */
+    boolean[] getEntries() {
+        boolean[] entries = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = targets[i] && stacks[i] != null && stacks[i].length() == 0;
+        }
+        return entries;
+    }
+
+    /** The source of the function, or null if the method is not supported. */
+    String translate() {
+        if (!m.isStatic() || m.isSynchronized() || !analyze()) {
+            return null;
+        }
+
+        StringBuilder js = new StringBuilder();
+        js.append("// ").append(m.getFullName()).append('\n');
+        js.append("var d2i = function (a) {\n");
+        js.append("  return a !== a ? 0 : a >= 2147483647 ? 2147483647")
+          .append(" : a <= -2147483648 ? -2147483648 : a | 0;\n");
+        js.append("};\n");
+        js.append("var cmp = function (a, b, nan) {\n");
+        js.append("  return a > b ? 1 : a === b ? 0 : a < b ? -1 : nan;\n");
+        js.append("};\n");
+        js.append("return function (d, pc");
+        for (int k = 0; k < localTypes.length; k++) {
+            js.append(", l").append(k);
+        }
+        js.append(") {\n");
+        js.append("  var t");
+        for (int k = 0; k <= m.getCode().maxStack; k++) {
+            js.append(", s").append(k);
+        }
+        js.append(";\n");
+        js.append("  if (d <= 0) throw 0;\n");
+        js.append("  for (;;) {\n");
+        js.append("    switch (pc) {\n");
+        for (int i = 0; i < size; i++) {
+            if (stacks[i] == null) {
+                continue;
+            }
+            if (i == 0 || targets[i]) {
+                js.append("    case ").append(i).append(":\n");
+            }
+            instruction(i, stacks[i], js);
+        }
+        js.append("    default:\n");
+        js.append("      throw 0;\n");
+        js.append("    }\n");
+        js.append("  }\n");
+        js.append("};\n");
+        return js.toString();
+    }
+
+    /**
+     * Find the types of the operand stack before each instruction.
+     */
+    private boolean analyze() {
+        retType = kind(m.getRetType());
+        if (retType == 0) {
+            return false;
+        }
+        String args = m.getArgsTypes();
+        int slot = 0;
+        for (int k = 0; k < args.length(); k++) {
+            char type = kind(args.charAt(k));
+            if (type == 0) {
+                return false;
+            }
+            localTypes[slot] = type;
+            slot += type == 'D' ? 2 : 1;
+        }
+
+        ArrayList<Integer> work = new ArrayList<Integer>();
+        stacks[0] = "";
+        work.add(0);
+        while (!work.isEmpty()) {
+            int i = work.remove(work.size() - 1);
+            String out = instruction(i, stacks[i], null);
+            if (out == null) {
+                return false;
+            }
+            for (int next : successors(i)) {
+                if (next < 0 || next >= size) {
+                    return false;
+                }
+                if (stacks[next] == null) {
+                    stacks[next] = out;
+                    work.add(next);
+                } else if (!stacks[next].equals(out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int[] successors(int i) {
+        int target = code.args[i];
+        switch (code.getOpcode(i)) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+            targets[target] = true;
+            return new int[] { i + 1, target };
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            targets[target] = true;
+            return new int[] { target };
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            SwitchTable table = (SwitchTable) code.refs[i];
+            int[] next = new int[table.getTargets().length + 1];
+            System.arraycopy(table.getTargets(), 0, next, 0, next.length - 1);
+            next[next.length - 1] = table.getDefault();
+            for (int t : next) {
+                targets[t] = true;
+            }
+            return next;
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn:
+            return new int[0];
+        default:
+            return new int[] { i + 1 };
+        }
+    }
+
+    /**
+     * Translate the instruction [i], given the types of the operand stack
+     * before it. Returns the types of the operand stack after it, or null
+     * if it is not supported. The code is appended to [js] if it is not null.
+     */
+    private String instruction(int i, String in, StringBuilder js) {
+        int d = in.length();
+        String a = s(d - 2), b = s(d - 1);
+        byte op = code.getOpcode(i);
+        switch (op) {
+        case OPCodes.OP_nop:
+            return in;
+
+        // Constants
+        case OPCodes.OP_iconst_m1:
+        case OPCodes.OP_iconst_0:
+        case OPCodes.OP_iconst_1:
+        case OPCodes.OP_iconst_2:
+        case OPCodes.OP_iconst_3:
+        case OPCodes.OP_iconst_4:
+        case OPCodes.OP_iconst_5:
+        case OPCodes.OP_bipush:
+        case OPCodes.OP_sipush:
+            return push(in, 'I', Integer.toString(code.args[i]), js);
+        case OPCodes.OP_fconst_0:
+        case OPCodes.OP_fconst_1:
+        case OPCodes.OP_fconst_2:
+            return push(in, 'F', Integer.toString(code.args[i]), js);
+        case OPCodes.OP_dconst_0:
+        case OPCodes.OP_dconst_1:
+            return push(in, 'D', Integer.toString(code.args[i]), js);
+        case OPCodes.OP_ldc:
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc_quick:
+        case OPCodes.OP_ldc2_w:
+        case OPCodes.OP_ldc2_w_quick: {
+            Object value = code.refs[i];
+            if (value instanceof JBaseConstant) {
+                value = ((JBaseConstant) value).getRepr();
+            }
+            if (value instanceof Integer) {
+                return push(in, 'I', value.toString(), js);
+            } else if (value instanceof Float) {
+                return push(in, 'F', literal((Float) value), js);
+            } else if (value instanceof Double) {
+                return push(in, 'D', literal((Double) value), js);
+            }
+            return null;
+        }
+
+        // Local variables
+        case OPCodes.OP_iload:
+        case OPCodes.OP_iload_0:
+        case OPCodes.OP_iload_1:
+        case OPCodes.OP_iload_2:
+        case OPCodes.OP_iload_3:
+            return load(in, 'I', code.args[i], js);
+        case OPCodes.OP_fload:
+        case OPCodes.OP_fload_0:
+        case OPCodes.OP_fload_1:
+        case OPCodes.OP_fload_2:
+        case OPCodes.OP_fload_3:
+            return load(in, 'F', code.args[i], js);
+        case OPCodes.OP_dload:
+        case OPCodes.OP_dload_0:
+        case OPCodes.OP_dload_1:
+        case OPCodes.OP_dload_2:
+        case OPCodes.OP_dload_3:
+            return load(in, 'D', code.args[i], js);
+        case OPCodes.OP_istore:
+        case OPCodes.OP_istore_0:
+        case OPCodes.OP_istore_1:
+        case OPCodes.OP_istore_2:
+        case OPCodes.OP_istore_3:
+            return store(in, 'I', code.args[i], js);
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_fstore_0:
+        case OPCodes.OP_fstore_1:
+        case OPCodes.OP_fstore_2:
+        case OPCodes.OP_fstore_3:
+            return store(in, 'F', code.args[i], js);
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_dstore_0:
+        case OPCodes.OP_dstore_1:
+        case OPCodes.OP_dstore_2:
+        case OPCodes.OP_dstore_3:
+            return store(in, 'D', code.args[i], js);
+        case OPCodes.OP_iinc: {
+            int k = code.args[i];
+            if (!local(k, 'I')) {
+                return null;
+            }
+            emit(js, "l" + k + " = (l" + k + " + " + code.args2[i] + ") | 0;");
+            return in;
+        }
+
+        // Operand stack
+        case OPCodes.OP_pop:
+            return cat1(in, 1) ? in.substring(0, d - 1) : null;
+        case OPCodes.OP_pop2:
+            if (in.endsWith("D")) {
+                return in.substring(0, d - 1);
+            }
+            return cat1(in, 2) ? in.substring(0, d - 2) : null;
+        case OPCodes.OP_dup:
+            if (!cat1(in, 1)) {
+                return null;
+            }
+            emit(js, s(d) + " = " + b + ";");
+            return in + in.charAt(d - 1);
+        case OPCodes.OP_dup_x1:
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            emit(js, s(d) + " = " + b + "; " + b + " = " + a + "; " + a + " = " + s(d) + ";");
+            return in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2) + in.charAt(d - 1);
+        case OPCodes.OP_dup2:
+            if (in.endsWith("D")) {
+                emit(js, s(d) + " = " + b + ";");
+                return in + 'D';
+            }
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            emit(js, s(d) + " = " + a + "; " + s(d + 1) + " = " + b + ";");
+            return in + in.substring(d - 2);
+        case OPCodes.OP_swap:
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            emit(js, "t = " + b + "; " + b + " = " + a + "; " + a + " = t;");
+            return in.substring(0, d - 2) + in.charAt(d - 1) + in.charAt(d - 2);
+
+        // Arithmetic
+        case OPCodes.OP_iadd:
+            return binary(in, "II", 'I', "(" + a + " + " + b + ") | 0", js);
+        case OPCodes.OP_isub:
+            return binary(in, "II", 'I', "(" + a + " - " + b + ") | 0", js);
+        case OPCodes.OP_imul:
+            return binary(in, "II", 'I', "Math.imul(" + a + ", " + b + ")", js);
+        case OPCodes.OP_idiv:
+        case OPCodes.OP_irem:
+            if (!in.endsWith("II")) {
+                return null;
+            }
+            // ArithmeticException
+            emit(js, "if (" + b + " === 0) throw 0;");
+            return binary(in, "II", 'I', "(" + a + (op == OPCodes.OP_idiv ? " / " : " % ")
+                    + b + ") | 0", js);
+        case OPCodes.OP_ineg:
+            return unary(in, 'I', 'I', "(-" + b + ") | 0", js);
+        case OPCodes.OP_ishl:
+            return binary(in, "II", 'I', a + " << " + b, js);
+        case OPCodes.OP_ishr:
+            return binary(in, "II", 'I', a + " >> " + b, js);
+        case OPCodes.OP_iushr:
+            return binary(in, "II", 'I', "(" + a + " >>> " + b + ") | 0", js);
+        case OPCodes.OP_iand:
+            return binary(in, "II", 'I', a + " & " + b, js);
+        case OPCodes.OP_ior:
+            return binary(in, "II", 'I', a + " | " + b, js);
+        case OPCodes.OP_ixor:
+            return binary(in, "II", 'I', a + " ^ " + b, js);
+
+        // The operations on floats are done on doubles and rounded, which
+        // gives the same results.
+        case OPCodes.OP_fadd:
+            return binary(in, "FF", 'F', "Math.fround(" + a + " + " + b + ")", js);
+        case OPCodes.OP_fsub:
+            return binary(in, "FF", 'F', "Math.fround(" + a + " - " + b + ")", js);
+        case OPCodes.OP_fmul:
+            return binary(in, "FF", 'F', "Math.fround(" + a + " * " + b + ")", js);
+        case OPCodes.OP_fdiv:
+            return binary(in, "FF", 'F', "Math.fround(" + a + " / " + b + ")", js);
+        case OPCodes.OP_frem:
+            return binary(in, "FF", 'F', "Math.fround(" + a + " % " + b + ")", js);
+        case OPCodes.OP_fneg:
+            return unary(in, 'F', 'F', "-" + b, js);
+
+        case OPCodes.OP_dadd:
+            return binary(in, "DD", 'D', a + " + " + b, js);
+        case OPCodes.OP_dsub:
+            return binary(in, "DD", 'D', a + " - " + b, js);
+        case OPCodes.OP_dmul:
+            return binary(in, "DD", 'D', a + " * " + b, js);
+        case OPCodes.OP_ddiv:
+            return binary(in, "DD", 'D', a + " / " + b, js);
+        case OPCodes.OP_drem:
+            return binary(in, "DD", 'D', a + " % " + b, js);
+        case OPCodes.OP_dneg:
+            return unary(in, 'D', 'D', "-" + b, js);
+
+        // Conversions
+        case OPCodes.OP_i2f:
+            return unary(in, 'I', 'F', "Math.fround(" + b + ")", js);
+        case OPCodes.OP_i2d:
+            return unary(in, 'I', 'D', b, js);
+        case OPCodes.OP_f2d:
+            return unary(in, 'F', 'D', b, js);
+        case OPCodes.OP_d2f:
+            return unary(in, 'D', 'F', "Math.fround(" + b + ")", js);
+        case OPCodes.OP_f2i:
+            return unary(in, 'F', 'I', "d2i(" + b + ")", js);
+        case OPCodes.OP_d2i:
+            return unary(in, 'D', 'I', "d2i(" + b + ")", js);
+        case OPCodes.OP_i2b:
+            return unary(in, 'I', 'I', "(" + b + " << 24) >> 24", js);
+        case OPCodes.OP_i2c:
+            return unary(in, 'I', 'I', b + " & 65535", js);
+        case OPCodes.OP_i2s:
+            return unary(in, 'I', 'I', "(" + b + " << 16) >> 16", js);
+
+        // Comparisons
+        case OPCodes.OP_fcmpl:
+            return binary(in, "FF", 'I', "cmp(" + a + ", " + b + ", -1)", js);
+        case OPCodes.OP_fcmpg:
+            return binary(in, "FF", 'I', "cmp(" + a + ", " + b + ", 1)", js);
+        case OPCodes.OP_dcmpl:
+            return binary(in, "DD", 'I', "cmp(" + a + ", " + b + ", -1)", js);
+        case OPCodes.OP_dcmpg:
+            return binary(in, "DD", 'I', "cmp(" + a + ", " + b + ", 1)", js);
+
+        // Control flow
+        case OPCodes.OP_ifeq:
+            return branch(in, "I", b + " === 0", code.args[i], js);
+        case OPCodes.OP_ifne:
+            return branch(in, "I", b + " !== 0", code.args[i], js);
+        case OPCodes.OP_iflt:
+            return branch(in, "I", b + " < 0", code.args[i], js);
+        case OPCodes.OP_ifge:
+            return branch(in, "I", b + " >= 0", code.args[i], js);
+        case OPCodes.OP_ifgt:
+            return branch(in, "I", b + " > 0", code.args[i], js);
+        case OPCodes.OP_ifle:
+            return branch(in, "I", b + " <= 0", code.args[i], js);
+        case OPCodes.OP_if_icmpeq:
+            return branch(in, "II", a + " === " + b, code.args[i], js);
+        case OPCodes.OP_if_icmpne:
+            return branch(in, "II", a + " !== " + b, code.args[i], js);
+        case OPCodes.OP_if_icmplt:
+            return branch(in, "II", a + " < " + b, code.args[i], js);
+        case OPCodes.OP_if_icmpge:
+            return branch(in, "II", a + " >= " + b, code.args[i], js);
+        case OPCodes.OP_if_icmpgt:
+            return branch(in, "II", a + " > " + b, code.args[i], js);
+        case OPCodes.OP_if_icmple:
+            return branch(in, "II", a + " <= " + b, code.args[i], js);
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            emit(js, jump(code.args[i]));
+            return in;
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            if (js != null) {
+                SwitchTable table = (SwitchTable) code.refs[i];
+                int[] keys = table.getKeys();
+                int[] jumps = table.getTargets();
+                emit(js, "switch (" + b + ") {");
+                for (int k = 0; k < jumps.length; k++) {
+                    int key = keys == null ? table.getLow() + k : keys[k];
+                    emit(js, "case " + key + ": " + jump(jumps[k]));
+                }
+                emit(js, "default: " + jump(table.getDefault()));
+                emit(js, "}");
+            }
+            return in.substring(0, d - 1);
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn: {
+            char type = op == OPCodes.OP_ireturn ? 'I' : op == OPCodes.OP_freturn ? 'F' : 'D';
+            if (type != retType || !in.endsWith(String.valueOf(type))) {
+                return null;
+            }
+            emit(js, "return " + b + ";");
+            return in.substring(0, d - 1);
+        }
+
+        // Calls to the methods that can be compiled, once resolved
+        case OPCodes.OP_invokestatic_quick: {
+            if (!(code.refs[i] instanceof JBytecodeMethod)) {
+                return null;
+            }
+            JBytecodeMethod callee = (JBytecodeMethod) code.refs[i];
+            String args = callee.getArgsTypes();
+            StringBuilder types = new StringBuilder();
+            for (int k = 0; k < args.length(); k++) {
+                types.append(kind(args.charAt(k)));
+            }
+            char ret = kind(callee.getRetType());
+            int n = args.length();
+            if (ret == 0 || !in.endsWith(types.toString())) {
+                return null;
+            }
+            int function = jit.getFunction(callee);
+            if (function < 0) {
+                return null;
+            }
+            if (js != null) {
+                StringBuilder call = new StringBuilder();
+                call.append(s(d - n)).append(" = F[").append(function).append("](d - 1, 0");
+                for (int k = d - n; k < d; k++) {
+                    call.append(", ").append(s(k));
+                }
+                call.append(");");
+                emit(js, call.toString());
+            }
+            return in.substring(0, d - n) + ret;
+        }
+
+        default:
+            return null;
+        }
+    }
+
+    private String push(String in, char type, String value, StringBuilder js) {
+        emit(js, s(in.length()) + " = " + value + ";");
+        return in + type;
+    }
+
+    private String load(String in, char type, int k, StringBuilder js) {
+        if (!local(k, type)) {
+            return null;
+        }
+        emit(js, s(in.length()) + " = l" + k + ";");
+        return in + type;
+    }
+
+    private String store(String in, char type, int k, StringBuilder js) {
+        if (!in.endsWith(String.valueOf(type)) || !local(k, type)) {
+            return null;
+        }
+        emit(js, "l" + k + " = " + s(in.length() - 1) + ";");
+        return in.substring(0, in.length() - 1);
+    }
+
+    /** Check that every local variable is used with a single type. */
+    private boolean local(int k, char type) {
+        if (k < 0 || k >= localTypes.length) {
+            return false;
+        }
+        if (localTypes[k] == 0) {
+            localTypes[k] = type;
+        }
+        return localTypes[k] == type;
+    }
+
+    private String unary(String in, char arg, char res, String expr, StringBuilder js) {
+        if (!in.endsWith(String.valueOf(arg))) {
+            return null;
+        }
+        int d = in.length();
+        emit(js, s(d - 1) + " = " + expr + ";");
+        return in.substring(0, d - 1) + res;
+    }
+
+    private String binary(String in, String args, char res, String expr, StringBuilder js) {
+        if (!in.endsWith(args)) {
+            return null;
+        }
+        int d = in.length();
+        emit(js, s(d - 2) + " = " + expr + ";");
+        return in.substring(0, d - 2) + res;
+    }
+
+    private String branch(String in, String args, String cond, int target, StringBuilder js) {
+        if (!in.endsWith(args)) {
+            return null;
+        }
+        emit(js, "if (" + cond + ") { " + jump(target) + " }");
+        return in.substring(0, in.length() - args.length());
+    }
+
+    private static String jump(int target) {
+        return "pc = " + target + "; continue;";
+    }
+
+    /** True if the top [n] values of the stack take one slot each. */
+    private static boolean cat1(String in, int n) {
+        if (in.length() < n) {
+            return false;
+        }
+        for (int k = in.length() - n; k < in.length(); k++) {
+            if (in.charAt(k) == 'D') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void emit(StringBuilder js, String line) {
+        if (js != null) {
+            js.append(INDENT).append(line).append('\n');
+        }
+    }
+
+    private static String s(int k) {
+        return "s" + k;
+    }
+
+    /** The type of a value on the operand stack, or 0 if not supported. */
+    private static char kind(char type) {
+        switch (type) {
+        case 'I':
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+            return 'I';
+        case 'F':
+        case 'D':
+            return type;
+        default:
+            return 0;
+        }
+    }
+
+    private static String literal(double value) {
+        if (value != value) {
+            return "NaN";
+        } else if (value == Double.POSITIVE_INFINITY) {
+            return "Infinity";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-Infinity";
+        }
+        return Double.toString(value);
+    }
+}
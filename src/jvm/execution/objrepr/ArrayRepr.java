@@ -6,8 +6,11 @@ import jvm.classparser.jconstants.JMemberConstant;
 
 public abstract class ArrayRepr implements ObjectRepr {
 
-    /** For clone, toString, etc. */
-    public abstract JMethod dispatchMethod(JMemberConstant cm);
+    /** For clone, toString, etc., that are inherited from java/lang/Object. */
+    @Override
+    public JMethod dispatchMethod(JMemberConstant cm) {
+        return getJClass().dispatchVirtual(cm);
+    }
 
     public abstract JClass getJClass();
 
@@ -17,25 +20,78 @@ public abstract class ArrayRepr implements ObjectRepr {
 
     public abstract int length();
 
+    /** Create an array of the same type, with the given length. */
+    public abstract ArrayRepr newInstance(int length);
 
-    @Override
-    public Object getField(JMemberConstant fld) {
-        throw new UnsupportedOperationException();
+    /**
+     * Copy [length] elements to an array of the same type, as
+     * System.arraycopy does: the ranges may overlap. The representations
+     * override it with a bulk copy when they can.
+     */
+    public void copyTo(int srcPos, ArrayRepr dest, int destPos, int length) {
+        if (dest == this && srcPos < destPos) {
+            for (int i = length - 1; i >= 0; i--) {
+                dest.set(destPos + i, get(srcPos + i));
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                dest.set(destPos + i, get(srcPos + i));
+            }
+        }
     }
 
-    @Override
-    public void putField(JMemberConstant fld, Object value) {
-        throw new UnsupportedOperationException();
+    /** Set the elements from [from] (inclusive) to [to] (exclusive). */
+    public void fill(int from, int to, Object val) {
+        for (int i = from; i < to; i++) {
+            set(i, val);
+        }
+    }
+
+    /*
+     * Typed accessors used by the array opcodes. Arrays of primitives
+     * override them to avoid boxing the elements. Elements of type byte,
+     * char, short and boolean are accessed as int.
+     */
+
+    public int getInt(int i) {
+        return (Integer) get(i);
+    }
+
+    public void setInt(int i, int val) {
+        set(i, val);
     }
 
+    public long getLong(int i) {
+        return (Long) get(i);
+    }
+
+    public void setLong(int i, long val) {
+        set(i, val);
+    }
+
+    public float getFloat(int i) {
+        return (Float) get(i);
+    }
+
+    public void setFloat(int i, float val) {
+        set(i, val);
+    }
+
+    public double getDouble(int i) {
+        return (Double) get(i);
+    }
+
+    public void setDouble(int i, double val) {
+        set(i, val);
+    }
 
     @Override
-    public JMethod dispatchSuperMethod(JMemberConstant cm) {
+    public Object getField(JMemberConstant fld) {
         throw new UnsupportedOperationException();
     }
 
     @Override
-    public JMethod dispatchNonVirtualMethod(JMemberConstant cm) {
+    public void putField(JMemberConstant fld, Object value) {
         throw new UnsupportedOperationException();
     }
 }
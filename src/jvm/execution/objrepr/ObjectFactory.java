@@ -1,19 +1,57 @@
 package jvm.execution.objrepr;
 
 import jvm.classparser.JClass;
+import jvm.classparser.JType;
 import jvm.execution.objrepr.java.JavaArrayRepr;
 import jvm.execution.objrepr.java.JavaObjectRepr;
+import jvm.execution.objrepr.java.JavaPrimitiveArrayRepr;
+import jvm.execution.objrepr.js.JsObjectRepr;
+import jvm.execution.objrepr.js.JsPrimitiveArrayRepr;
 
 public class ObjectFactory {
-    public static void reset() {
-        JavaObjectRepr.reset();
+    private static boolean jsRepresentation = false;
+
+    /**
+     * Represent the objects with JavaScript objects and back the arrays of
+     * primitives with typed arrays. They use JSNI, so only in the browser.
+     */
+    public static void setJsRepresentation(boolean enabled) {
+        jsRepresentation = enabled;
     }
 
     public static ObjectRepr newObject(JClass jc) {
+        if (jsRepresentation) {
+            return JsObjectRepr.newJsObjectRepr(jc);
+        }
         return JavaObjectRepr.newJavaObjectRepr(jc);
     }
 
+    /**
+     * A shallow copy of an object or an array, as made by Object.clone().
+     */
+    public static ObjectRepr copy(ObjectRepr o) {
+        if (o instanceof ArrayRepr) {
+            ArrayRepr src = (ArrayRepr) o;
+            ArrayRepr ret = src.newInstance(src.length());
+            src.copyTo(0, ret, 0, src.length());
+            return ret;
+        }
+        if (o instanceof JsObjectRepr) {
+            return ((JsObjectRepr) o).copy();
+        }
+        return ((JavaObjectRepr) o).copy();
+    }
+
+    /**
+     * Creation of an array given the descriptor of its elements.
+     */
     public static ArrayRepr newArray(String type, int size) {
+        if (jsRepresentation && JsPrimitiveArrayRepr.supports(type)) {
+            return new JsPrimitiveArrayRepr(type, size);
+        }
+        if (JType.isPrimitive(type)) {
+            return JavaPrimitiveArrayRepr.newJavaPrimitiveArrayRepr(type, size);
+        }
         return JavaArrayRepr.newJavaArrayRepr(type, size);
     }
 
@@ -23,18 +61,22 @@ public class ObjectFactory {
      * @param className
      */
     public static Object newMultiArray(String className, int dims[]) {
-        return newMultiArray(className, dims, 0);
+        String[] elemTypes = new String[dims.length];
+        for (int i = 0; i < dims.length; i++) {
+            elemTypes[i] = className.substring(i + 1);
+        }
+        return newMultiArray(elemTypes, dims, 0);
     }
 
-    private static Object newMultiArray(String className, int dims[], int off) {
-       ArrayRepr a = ObjectFactory.newArray(className, dims[off]);
+    private static ArrayRepr newMultiArray(String elemTypes[], int dims[], int off) {
+        ArrayRepr a = ObjectFactory.newArray(elemTypes[off], dims[off]);
 
-       if (off < dims.length - 1) {
-           for (int i = 0; i < dims[off]; i++)
-               a.set(i, newMultiArray(className.substring(1), dims, off + 1));
-       }
+        if (off < dims.length - 1) {
+            for (int i = 0; i < dims[off]; i++)
+                a.set(i, newMultiArray(elemTypes, dims, off + 1));
+        }
 
-       return a;
-   }
+        return a;
+    }
 
 }
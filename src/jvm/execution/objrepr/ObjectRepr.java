@@ -12,10 +12,6 @@ public interface ObjectRepr  {
 
     public abstract JMethod dispatchMethod(JMemberConstant cm);
 
-    public abstract JMethod dispatchSuperMethod(JMemberConstant cm);
-
-    public abstract JMethod dispatchNonVirtualMethod(JMemberConstant cm);
-
     public abstract JClass getJClass();
 
 }
@@ -1,62 +1,43 @@
 package jvm.execution.objrepr;
 
-import java.util.HashMap;
-
 import jvm.classparser.JClass;
-import jvm.classparser.JType;
 import jvm.classparser.JMember.JMethod;
-import jvm.classparser.jconstants.JClassConstant;
 import jvm.classparser.jconstants.JMemberConstant;
-import jvm.execution.JClassLoader.JClassNotInitializedException;
 
 
 /**
- * The way to access static members
- *
- * TODO: lookup members 'per class'
+ * The way to access static members. The static fields are stored per class
+ * and the references to static members are resolved only once.
  *
  * @author ctalau
  */
 public class StaticMembers {
-    private static HashMap<String, Object> global = new HashMap<String, Object>();
-    private static HashMap<String, JMethod> funct = new HashMap<String, JMethod>();
-
-    public static void reset() {
-        global.clear();
-        funct.clear();
+    /**
+     * Returns the static values of the class that declares the field, which
+     * is its holder. The offset of the field is the slot of [fld]. The class
+     * is not initialized here.
+     */
+    public static Object[] getStaticValues(JMemberConstant fld) {
+        JClass.getStaticFieldOffset(fld);
+        return fld.getHolder().getStaticValues();
     }
 
-    public static void putStaticField(JMemberConstant fld, Object value) throws JClassNotInitializedException {
-        ensureInitialized(fld.getClassConstant());
-        global.put(fld.getFullName(), value);
+    public static void putStaticField(JMemberConstant fld, Object value) {
+        getStaticValues(fld)[fld.getSlot()] = value;
     }
 
-    public static Object getStaticField(JMemberConstant fld) throws JClassNotInitializedException {
-        ensureInitialized(fld.getClassConstant());
-        if (!global.containsKey(fld.getFullName())) {
-            global.put(fld.getFullName(), JType.getDefaultValue(fld.getType()));
-        }
-        return global.get(fld.getFullName());
+    public static Object getStaticField(JMemberConstant fld) {
+        return getStaticValues(fld)[fld.getSlot()];
     }
 
-    public static JMethod dispatchMethod(JMemberConstant cm) throws JClassNotInitializedException {
-        ensureInitialized(cm.getClassConstant());
-        JMethod m = funct.get(cm.getFullName());
-
-        if (m == null) {
-            JClass jc = cm.getClassConstant().getJClass();
-            for (JMethod im : jc.getMethods()) {
-                if (im.isStatic()) {
-                    funct.put(im.getFullName(), im);
-                }
+    public static JMethod dispatchMethod(JMemberConstant cm) {
+        if (!cm.isResolved()) {
+            JMethod m = cm.getClassConstant().getJClass().lookupMethod(cm.getMemberName());
+            if (m == null) {
+                throw new AssertionError("Method not resolved: " + cm.getFullName());
             }
-            m = funct.get(cm.getFullName());
+            cm.resolve(m);
         }
-
-        return m;
-    }
-
-    private static void ensureInitialized(JClassConstant jcc) throws  JClassNotInitializedException {
-        jcc.getJClass().ensureInitialized();
+        return cm.getTarget();
     }
 }
@@ -6,12 +6,12 @@ package jvm.execution.objrepr.java;
 import java.util.Arrays;
 
 import jvm.classparser.JClass;
-import jvm.classparser.JType;
-import jvm.classparser.JMember.JMethod;
-import jvm.classparser.jconstants.JMemberConstant;
 import jvm.execution.objrepr.ArrayRepr;
 
 
+/**
+ * Arrays of references.
+ */
 public class JavaArrayRepr extends ArrayRepr {
     public Object[] array;
     private JClass jc;
@@ -37,8 +37,7 @@ public class JavaArrayRepr extends ArrayRepr {
 //        jo.putMembers(superClass); XXX: add it back
 
         JavaArrayRepr jo = new JavaArrayRepr(size);
-        Arrays.fill(jo.array, JType.getDefaultElemValue(type));
-        jo.jc = JClass.getArrayClass(type);
+        jo.jc = JClass.getArrayClass("[" + type);
 
         return jo;
     }
@@ -48,6 +47,27 @@ public class JavaArrayRepr extends ArrayRepr {
         return array.length;
     }
 
+    @Override
+    public ArrayRepr newInstance(int length) {
+        JavaArrayRepr jo = new JavaArrayRepr(length);
+        jo.jc = jc;
+        return jo;
+    }
+
+    @Override
+    public void copyTo(int srcPos, ArrayRepr dest, int destPos, int length) {
+        if (dest instanceof JavaArrayRepr) {
+            System.arraycopy(array, srcPos, ((JavaArrayRepr) dest).array, destPos, length);
+        } else {
+            super.copyTo(srcPos, dest, destPos, length);
+        }
+    }
+
+    @Override
+    public void fill(int from, int to, Object val) {
+        Arrays.fill(array, from, to, val);
+    }
+
     @Override
     public String toString() {
         String ret = "[";
@@ -58,12 +78,6 @@ public class JavaArrayRepr extends ArrayRepr {
         return ret;
     }
 
-    @Override
-    public JMethod dispatchMethod(JMemberConstant cm) {
-        // XXX: TO implement
-        throw new UnsupportedOperationException();
-    }
-
     @Override
     public JClass getJClass() {
         return jc;
@@ -0,0 +1,371 @@
+package jvm.execution.objrepr.java;
+
+import jvm.classparser.JClass;
+import jvm.execution.objrepr.ArrayRepr;
+
+/**
+ * Arrays of primitives, backed by arrays of the same Java type. Boolean
+ * arrays are stored as byte arrays, as the JVM does.
+ *
+ * @author ctalau
+ */
+public abstract class JavaPrimitiveArrayRepr extends ArrayRepr {
+    private JClass jc;
+    private final String type;
+
+    protected JavaPrimitiveArrayRepr(String type) {
+        this.type = type;
+        jc = JClass.getArrayClass("[" + type);
+    }
+
+    /** The Java array that holds the elements. */
+    protected abstract Object hostArray();
+
+    /**
+     * Create an array of primitives from the element type descriptor.
+     */
+    public static ArrayRepr newJavaPrimitiveArrayRepr(String type, int size) {
+        switch (type.charAt(0)) {
+        case 'I':
+            return new Ints(size);
+        case 'B':
+        case 'Z':
+            return new Bytes(size);
+        case 'C':
+            return new Chars(size);
+        case 'S':
+            return new Shorts(size);
+        case 'J':
+            return new Longs(size);
+        case 'F':
+            return new Floats(size);
+        case 'D':
+            return new Doubles(size);
+        default:
+            throw new AssertionError(type);
+        }
+    }
+
+    @Override
+    public ArrayRepr newInstance(int length) {
+        return newJavaPrimitiveArrayRepr(type, length);
+    }
+
+    @Override
+    public void copyTo(int srcPos, ArrayRepr dest, int destPos, int length) {
+        if (dest.getClass() == getClass()) {
+            System.arraycopy(hostArray(), srcPos,
+                    ((JavaPrimitiveArrayRepr) dest).hostArray(), destPos, length);
+        } else {
+            super.copyTo(srcPos, dest, destPos, length);
+        }
+    }
+
+    /**
+     * Set the first element and copy the filled prefix over the rest,
+     * doubling it at each step.
+     */
+    @Override
+    public void fill(int from, int to, Object val) {
+        if (from >= to) {
+            return;
+        }
+        set(from, val);
+        Object a = hostArray();
+        for (int n = 1; n < to - from; n *= 2) {
+            System.arraycopy(a, from, a, from + n, Math.min(n, to - from - n));
+        }
+    }
+
+    @Override
+    public JClass getJClass() {
+        return jc;
+    }
+
+    @Override
+    public String toString() {
+        String ret = "[";
+        for (int i = 0; i < length(); i++) {
+            ret += get(i) + ",";
+        }
+        ret += "]";
+        return ret;
+    }
+
+    public static class Ints extends JavaPrimitiveArrayRepr {
+        public final int[] array;
+
+        public Ints(int size) {
+            super("I");
+            array = new int[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setInt(i, (Integer) val);
+        }
+
+        @Override
+        public int getInt(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setInt(int i, int val) {
+            array[i] = val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Bytes extends JavaPrimitiveArrayRepr {
+        public final byte[] array;
+
+        public Bytes(int size) {
+            super("B");
+            array = new byte[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setInt(i, (Integer) val);
+        }
+
+        @Override
+        public int getInt(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setInt(int i, int val) {
+            array[i] = (byte) val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Chars extends JavaPrimitiveArrayRepr {
+        public final char[] array;
+
+        public Chars(int size) {
+            this(new char[size]);
+        }
+
+        public Chars(char[] array) {
+            super("C");
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setInt(i, (Integer) val);
+        }
+
+        @Override
+        public int getInt(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setInt(int i, int val) {
+            array[i] = (char) val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Shorts extends JavaPrimitiveArrayRepr {
+        public final short[] array;
+
+        public Shorts(int size) {
+            super("S");
+            array = new short[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getInt(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setInt(i, (Integer) val);
+        }
+
+        @Override
+        public int getInt(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setInt(int i, int val) {
+            array[i] = (short) val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Longs extends JavaPrimitiveArrayRepr {
+        public final long[] array;
+
+        public Longs(int size) {
+            super("J");
+            array = new long[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getLong(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setLong(i, (Long) val);
+        }
+
+        @Override
+        public long getLong(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setLong(int i, long val) {
+            array[i] = val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Floats extends JavaPrimitiveArrayRepr {
+        public final float[] array;
+
+        public Floats(int size) {
+            super("F");
+            array = new float[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getFloat(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setFloat(i, (Float) val);
+        }
+
+        @Override
+        public float getFloat(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setFloat(int i, float val) {
+            array[i] = val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+
+    public static class Doubles extends JavaPrimitiveArrayRepr {
+        public final double[] array;
+
+        public Doubles(int size) {
+            super("D");
+            array = new double[size];
+        }
+
+        @Override
+        public Object get(int i) {
+            return getDouble(i);
+        }
+
+        @Override
+        public void set(int i, Object val) {
+            setDouble(i, (Double) val);
+        }
+
+        @Override
+        public double getDouble(int i) {
+            return array[i];
+        }
+
+        @Override
+        public void setDouble(int i, double val) {
+            array[i] = val;
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        protected Object hostArray() {
+            return array;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package jvm.execution.objrepr.js;
+
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JField;
+import jvm.classparser.JMember.JMethod;
+import jvm.classparser.jconstants.JMemberConstant;
+import jvm.execution.objrepr.ObjectRepr;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * JavaScript-based runtime representation for objects. The instance fields
+ * are the properties of a plain JavaScript object, that is created by a
+ * constructor function generated for each class. The constructor assigns
+ * all the fields in the order of the field layout, so that the objects of a
+ * class share a hidden class and the field accesses are cached inline.
+ *
+ * The fields of primitive types, except longs, hold raw numbers, so the
+ * object can be passed to JavaScript code as it is. The long fields hold
+ * boxed Java longs, since a number cannot represent all of them, so they
+ * have to be converted before JavaScript code can use them.
+ *
+ * The layout of a class is cached on its JClass. Like the [JsStack], this
+ * representation is only used if enabled with JVM.setJsValues.
+ *
+ * @author ctalau
+ */
+public class JsObjectRepr implements ObjectRepr {
+    private final JavaScriptObject obj;
+    private final Layout layout;
+
+    private JsObjectRepr(Layout layout) {
+        this.obj = construct(layout.ctor);
+        this.layout = layout;
+    }
+
+    @Override
+    public Object getField(JMemberConstant fld) {
+        JavaScriptObject getter = accessor(fld).getter;
+        switch (fld.getTypeTag()) {
+        case 'L':
+        case '[':
+        case 'J':
+            return getObject(getter, obj);
+        case 'F':
+            return (float) getNumber(getter, obj);
+        case 'D':
+            return getNumber(getter, obj);
+        default:
+            return getInt(getter, obj);
+        }
+    }
+
+    @Override
+    public void putField(JMemberConstant fld, Object value) {
+        JavaScriptObject setter = accessor(fld).setter;
+        switch (fld.getTypeTag()) {
+        case 'L':
+        case '[':
+        case 'J':
+            setObject(setter, obj, value);
+            break;
+        default:
+            setNumber(setter, obj, ((Number) value).doubleValue());
+        }
+    }
+
+    /**
+     * The accessors of the field, cached on the constant. The offset of a
+     * field is the same in the subclasses, so they share its accessors.
+     */
+    private Accessor accessor(JMemberConstant fld) {
+        Accessor accessor = (Accessor) fld.getAccessor();
+        if (accessor == null) {
+            accessor = layout.accessors[JClass.getFieldOffset(fld)];
+            fld.setAccessor(accessor);
+        }
+        return accessor;
+    }
+
+    @Override
+    public JMethod dispatchMethod(JMemberConstant cm) {
+        return layout.jc.dispatchVirtual(cm);
+    }
+
+    @Override
+    public JClass getJClass() {
+        return layout.jc;
+    }
+
+    /** A new object of the same class, with the same field values. */
+    public JsObjectRepr copy() {
+        JsObjectRepr ret = new JsObjectRepr(layout);
+        copyFields(layout.copier, obj, ret.obj);
+        return ret;
+    }
+
+    /** The JavaScript object, whose properties are the fields. */
+    public JavaScriptObject getJsObject() {
+        return obj;
+    }
+
+    public static JsObjectRepr newJsObjectRepr(JClass jc) {
+        Layout layout = (Layout) jc.getObjectLayout();
+        if (layout == null) {
+            layout = new Layout(jc);
+            jc.setObjectLayout(layout);
+        }
+        return new JsObjectRepr(layout);
+    }
+
+    @Override
+    public String toString() {
+        JField[] fields = layout.jc.getInstanceFields();
+        String ret = layout.jc.getName() + "-{";
+        for (int i = 0; i < fields.length; i++) {
+            ret += fields[i].getFullName() + " : " + propertyToString(obj, layout.names[i]) + ",";
+        }
+        ret += "}";
+        return ret;
+    }
+
+    /**
+     * A getter and a setter generated for a field. Each one has its own
+     * property access, that only sees the objects with that field, so it
+     * is cached inline.
+     */
+    private static class Accessor {
+        private final JavaScriptObject getter;
+        private final JavaScriptObject setter;
+
+        Accessor(String name) {
+            this.getter = createFunction("o", "return o." + name + ";");
+            this.setter = createFunction("o", "v", "o." + name + " = v;");
+        }
+    }
+
+    /**
+     * The property names and accessors of the fields of a class, the
+     * constructor of its objects and the function that copies their fields.
+     * The offset is appended to the names of the fields, since a field can
+     * hide one with the same name in a superclass.
+     */
+    private static class Layout {
+        private final JClass jc;
+        private final String[] names;
+        private final Accessor[] accessors;
+        private final JavaScriptObject ctor;
+        private final JavaScriptObject copier;
+
+        Layout(JClass jc) {
+            JField[] fields = jc.getInstanceFields();
+            JavaScriptObject init = JavaScriptObject.createArray();
+            String body = "";
+            String copyBody = "";
+            this.jc = jc;
+            this.names = new String[fields.length];
+            this.accessors = new Accessor[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                String type = fields[i].getType();
+                String memberName = fields[i].getMemberName();
+                String name = memberName.substring(0, memberName.length() - type.length()) + "$" + i;
+                Object value = fields[i].getInitValue();
+                names[i] = name;
+                accessors[i] = new Accessor(name);
+                body += "this." + name + " = init[" + i + "];\n";
+                copyBody += "to." + name + " = from." + name + ";\n";
+                switch (type.charAt(0)) {
+                case 'L':
+                case '[':
+                case 'J':
+                    pushObject(init, value);
+                    break;
+                default:
+                    pushNumber(init, ((Number) value).doubleValue());
+                }
+            }
+            this.ctor = createConstructor(body, init);
+            this.copier = createFunction("from", "to", copyBody);
+        }
+    }
+
+    // The initial values are bound in a closure, so that the constructor
+    // only assigns the properties.
+    private static native JavaScriptObject createConstructor(String body,
+            JavaScriptObject init) /*-{
+        return new Function("init", "return function () {\n" + body + "};")(init);
+    }-*/;
+
+    private static native JavaScriptObject construct(JavaScriptObject ctor) /*-{
+        return new ctor();
+    }-*/;
+
+    private static native void pushObject(JavaScriptObject array, Object value) /*-{
+        array.push(value);
+    }-*/;
+
+    private static native void pushNumber(JavaScriptObject array, double value) /*-{
+        array.push(value);
+    }-*/;
+
+    private static native JavaScriptObject createFunction(String arg, String body) /*-{
+        return new Function(arg, body);
+    }-*/;
+
+    private static native JavaScriptObject createFunction(String arg1, String arg2,
+            String body) /*-{
+        return new Function(arg1, arg2, body);
+    }-*/;
+
+    private static native Object getObject(JavaScriptObject getter, JavaScriptObject obj) /*-{
+        return getter(obj);
+    }-*/;
+
+    private static native int getInt(JavaScriptObject getter, JavaScriptObject obj) /*-{
+        return getter(obj);
+    }-*/;
+
+    private static native double getNumber(JavaScriptObject getter, JavaScriptObject obj) /*-{
+        return getter(obj);
+    }-*/;
+
+    private static native void setObject(JavaScriptObject setter, JavaScriptObject obj,
+            Object value) /*-{
+        setter(obj, value);
+    }-*/;
+
+    private static native void setNumber(JavaScriptObject setter, JavaScriptObject obj,
+            double value) /*-{
+        setter(obj, value);
+    }-*/;
+
+    private static native void copyFields(JavaScriptObject copier, JavaScriptObject from,
+            JavaScriptObject to) /*-{
+        copier(from, to);
+    }-*/;
+
+    private static native String propertyToString(JavaScriptObject obj, String name) /*-{
+        return String(obj[name]);
+    }-*/;
+}
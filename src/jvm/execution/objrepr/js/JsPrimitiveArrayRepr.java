@@ -0,0 +1,163 @@
+package jvm.execution.objrepr.js;
+
+import jvm.classparser.JClass;
+import jvm.execution.objrepr.ArrayRepr;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Arrays of primitives for the JavaScript generated by GWT, backed by typed
+ * arrays: the stores convert the values to the type of the elements as the
+ * JVM does, and the copies are done natively. Boolean arrays are stored as
+ * byte arrays. The arrays of longs are not supported, GWT emulates them.
+ *
+ * @author ctalau
+ */
+public class JsPrimitiveArrayRepr extends ArrayRepr {
+    private final JavaScriptObject array;
+    private final String type;
+    private final JClass jc;
+
+    public JsPrimitiveArrayRepr(String type, int size) {
+        this.array = create(type, size);
+        this.type = type;
+        this.jc = JClass.getArrayClass("[" + type);
+    }
+
+    /** True if the arrays of the given element type are supported. */
+    public static boolean supports(String type) {
+        return type.length() == 1 && "ZBCSIFD".indexOf(type.charAt(0)) >= 0;
+    }
+
+    @Override
+    public Object get(int i) {
+        switch (type.charAt(0)) {
+        case 'F':
+            return getFloat(i);
+        case 'D':
+            return getDouble(i);
+        default:
+            return getInt(i);
+        }
+    }
+
+    @Override
+    public void set(int i, Object val) {
+        set(array, i, ((Number) val).doubleValue());
+    }
+
+    @Override
+    public int getInt(int i) {
+        return getInt(array, i);
+    }
+
+    @Override
+    public void setInt(int i, int val) {
+        set(array, i, val);
+    }
+
+    @Override
+    public float getFloat(int i) {
+        return (float) get(array, i);
+    }
+
+    @Override
+    public void setFloat(int i, float val) {
+        set(array, i, val);
+    }
+
+    @Override
+    public double getDouble(int i) {
+        return get(array, i);
+    }
+
+    @Override
+    public void setDouble(int i, double val) {
+        set(array, i, val);
+    }
+
+    @Override
+    public int length() {
+        return length(array);
+    }
+
+    @Override
+    public ArrayRepr newInstance(int length) {
+        return new JsPrimitiveArrayRepr(type, length);
+    }
+
+    @Override
+    public void copyTo(int srcPos, ArrayRepr dest, int destPos, int length) {
+        if (dest instanceof JsPrimitiveArrayRepr
+                && ((JsPrimitiveArrayRepr) dest).type.equals(type)) {
+            copy(array, srcPos, ((JsPrimitiveArrayRepr) dest).array, destPos, length);
+        } else {
+            super.copyTo(srcPos, dest, destPos, length);
+        }
+    }
+
+    @Override
+    public void fill(int from, int to, Object val) {
+        fill(array, from, to, ((Number) val).doubleValue());
+    }
+
+    @Override
+    public JClass getJClass() {
+        return jc;
+    }
+
+    @Override
+    public String toString() {
+        String ret = "[";
+        for (int i = 0; i < length(); i++) {
+            ret += get(i) + ",";
+        }
+        ret += "]";
+        return ret;
+    }
+
+    private static native JavaScriptObject create(String type, int size) /*-{
+        switch (type) {
+        case "I":
+            return new Int32Array(size);
+        case "B":
+        case "Z":
+            return new Int8Array(size);
+        case "C":
+            return new Uint16Array(size);
+        case "S":
+            return new Int16Array(size);
+        case "F":
+            return new Float32Array(size);
+        default:
+            return new Float64Array(size);
+        }
+    }-*/;
+
+    private static native double get(JavaScriptObject array, int i) /*-{
+        return array[i];
+    }-*/;
+
+    private static native int getInt(JavaScriptObject array, int i) /*-{
+        return array[i];
+    }-*/;
+
+    private static native void set(JavaScriptObject array, int i, double val) /*-{
+        array[i] = val;
+    }-*/;
+
+    private static native int length(JavaScriptObject array) /*-{
+        return array.length;
+    }-*/;
+
+    // TypedArray.set copies correctly between overlapping ranges.
+    private static native void copy(JavaScriptObject src, int srcPos,
+            JavaScriptObject dest, int destPos, int length) /*-{
+        dest.set(src.subarray(srcPos, srcPos + length), destPos);
+    }-*/;
+
+    private static native void fill(JavaScriptObject array, int from, int to,
+            double val) /*-{
+        array.fill(val, from, to);
+    }-*/;
+}
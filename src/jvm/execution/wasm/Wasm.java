@@ -0,0 +1,85 @@
+package jvm.execution.wasm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+
+
+/**
+ * Compiles the hot numeric methods to WebAssembly, as the [Jit] does to
+ * JavaScript. The execution engine asks for a method to be compiled when
+ * its invocations and backward branches reach the threshold.
+ *
+ * The methods that are compiled compute on int, float and double values and
+ * on arrays of primitives, and call other such static methods. The arrays
+ * are copied to the linear memory for the call and copied back only if the
+ * compiled code does not give up, so the interpreter can still run the
+ * method again when it does.
+ *
+ * This tier is an experiment that only runs in the tests. The arrays have
+ * no lasting home in the linear memory, so each call from the interpreter
+ * copies its array arguments, which costs as much as a pass over them. Jib
+ * does not enable it.
+ *
+ * @author ctalau
+ */
+public class Wasm {
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private final WasmBackend backend;
+    private final int threshold;
+
+    private int ids = 0;
+    // the result of the compilation, null for the methods that cannot be
+    // compiled or are being compiled
+    private final HashMap<JBytecodeMethod, WasmMethod> results =
+            new HashMap<JBytecodeMethod, WasmMethod>();
+    private final List<String> compiled = new ArrayList<String>();
+
+    public Wasm(WasmBackend backend) {
+        this(backend, DEFAULT_THRESHOLD);
+    }
+
+    public Wasm(WasmBackend backend, int threshold) {
+        this.backend = backend;
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /** The full names of the compiled methods, in compilation order. */
+    public List<String> getCompiledMethods() {
+        return compiled;
+    }
+
+    /**
+     * Compile the method and the methods that it calls, or return null if it
+     * cannot be compiled. The result is kept, so a method is compiled once.
+     *
+     * The type of a function has to be known by its callers, so a method
+     * can call itself but not another method that is being compiled.
+     */
+    public WasmMethod compile(JBytecodeMethod m) {
+        if (results.containsKey(m)) {
+            return results.get(m);
+        }
+        results.put(m, null);
+        int id = ids++;
+
+        WasmTranslator translator = new WasmTranslator(this, m, id);
+        byte[] module = translator.translate();
+        WasmMethod wm = null;
+        if (module != null && backend.instantiate(id, module)) {
+            wm = new WasmMethod(m, backend, id, translator.getLocalTypes(),
+                    translator.getEntries(), translator.repeats(), translator.stores());
+            m.getDecodedCode().wasm = wm;
+            compiled.add(m.getFullName());
+        }
+        results.put(m, wm);
+        return wm;
+    }
+}
@@ -0,0 +1,31 @@
+package jvm.execution.wasm;
+
+
+/**
+ * Instantiates the WebAssembly modules produced by the translator and runs
+ * their functions. In the browser it uses the WebAssembly API.
+ *
+ * Every backend keeps a linear memory and a table of functions shared by
+ * its modules. A module imports them as "m.memory" and "m.table", and the
+ * remainder of two doubles as the function "m.rem"; the function that it
+ * exports as "f" is stored at index [id] of the table. The functions call
+ * each other through the table.
+ *
+ * @author ctalau
+ */
+public interface WasmBackend {
+    /**
+     * Instantiate the module and store its function at index [id] of the
+     * table. Returns false if the module cannot be compiled, as in the
+     * browsers that limit the size of the modules compiled synchronously.
+     */
+    boolean instantiate(int id, byte[] module);
+
+    /**
+     * Copy [memory] to the start of the linear memory, call the function at
+     * index [id] of the table and copy the memory back. Returns the result,
+     * or throws [Bailout] if the function traps; the memory is not copied
+     * back then.
+     */
+    double call(int id, double[] args, byte[] memory);
+}
@@ -0,0 +1,248 @@
+package jvm.execution.wasm;
+
+import java.util.ArrayList;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.execution.objrepr.ArrayRepr;
+
+
+/**
+ * A method compiled to WebAssembly, with what the interpreter needs to call
+ * it or to enter it from a running loop.
+ *
+ * The function takes the number of nested calls that are still allowed, the
+ * instruction where to start and the values of the local variables that the
+ * method uses. The arrays are copied to the linear memory before the call
+ * and back after it, unless the method does not change them: the length at
+ * the address of the array and the elements 8 bytes further. Address 0 is
+ * null, an array of length 0.
+ *
+ * @author ctalau
+ */
+public class WasmMethod {
+    private final JBytecodeMethod method;
+    private final WasmBackend backend;
+    private final int id;
+    // 'I', 'F', 'D', the kind of array or 0 for the slots that are not used
+    private final char[] localTypes;
+    private final boolean[] entries;
+    // false if the method has neither loops nor calls
+    private final boolean repeats;
+    // false if the method and its callees do not store into arrays
+    private final boolean stores;
+
+    WasmMethod(JBytecodeMethod method, WasmBackend backend, int id,
+            char[] localTypes, boolean[] entries, boolean repeats, boolean stores) {
+        this.method = method;
+        this.backend = backend;
+        this.id = id;
+        this.localTypes = localTypes;
+        this.entries = entries;
+        this.repeats = repeats;
+        this.stores = stores;
+    }
+
+    public JBytecodeMethod getMethod() {
+        return method;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    public int getMaxLocals() {
+        return localTypes.length;
+    }
+
+    /**
+     * The type of the local variable: 'I', 'F', 'D', the type of the
+     * elements of an array of primitives in lower case, or 0 if it is not
+     * used.
+     */
+    public char getLocalType(int slot) {
+        return localTypes[slot];
+    }
+
+    /**
+     * True if the compiled code can be entered at the given instruction: a
+     * branch target with an empty operand stack.
+     */
+    public boolean isEntry(int pc) {
+        return entries[pc];
+    }
+
+    /**
+     * True if the interpreter should call the compiled code. A method that
+     * takes arrays but has neither loops nor calls, like an accessor, does
+     * less work than copying its arrays to the linear memory, so it is only
+     * called from other compiled methods, whose arrays are already there.
+     */
+    public boolean isWorthCalling() {
+        if (repeats) {
+            return true;
+        }
+        for (char type : localTypes) {
+            if (isArray(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the method from instruction [pc] with the given values of the
+     * local variables (boxed primitives and arrays), allowing at most
+     * [depth] nested calls. Throws [Bailout] if it gives up, without
+     * changing the arrays.
+     */
+    public double run(int depth, int pc, Object[] locals) {
+        ArrayList<ArrayRepr> arrays = new ArrayList<ArrayRepr>();
+        ArrayList<Integer> addresses = new ArrayList<Integer>();
+        ArrayList<Double> args = new ArrayList<Double>();
+        int end = 8;
+        for (int k = 0; k < localTypes.length; k++) {
+            char type = localTypes[k];
+            Object value = locals[k];
+            if (type == 0) {
+                continue;
+            } else if (isArray(type)) {
+                int index = indexOf(arrays, value);
+                if (index < 0 && elementSize(value) > 0) {
+                    index = arrays.size();
+                    arrays.add((ArrayRepr) value);
+                    addresses.add(end);
+                    end += 8 + (elementSize(value) * arrays.get(index).length() + 7) / 8 * 8;
+                }
+                args.add(index < 0 ? 0.0 : addresses.get(index));
+            } else {
+                args.add(value instanceof Number ? ((Number) value).doubleValue() : 0);
+            }
+        }
+
+        byte[] memory = new byte[end];
+        for (int a = 0; a < arrays.size(); a++) {
+            write(arrays.get(a), memory, addresses.get(a));
+        }
+        double[] values = new double[args.size() + 2];
+        values[0] = depth;
+        values[1] = pc;
+        for (int k = 0; k < args.size(); k++) {
+            values[k + 2] = args.get(k);
+        }
+        double result = backend.call(id, values, memory);
+        for (int a = 0; stores && a < arrays.size(); a++) {
+            read(arrays.get(a), memory, addresses.get(a));
+        }
+        return result;
+    }
+
+    public static boolean isArray(char type) {
+        return type >= 'a' && type <= 'z';
+    }
+
+    private static int indexOf(ArrayList<ArrayRepr> arrays, Object value) {
+        for (int a = 0; a < arrays.size(); a++) {
+            if (arrays.get(a) == value) {
+                return a;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The size of the elements of the array in the memory, or 0 if it is
+     * not an array of primitives that can be copied there.
+     */
+    private static int elementSize(Object value) {
+        if (!(value instanceof ArrayRepr)) {
+            return 0;
+        }
+        String name = ((ArrayRepr) value).getJClass().getName();
+        return name.length() == 2 ? elementSize(Character.toLowerCase(name.charAt(1))) : 0;
+    }
+
+    /** The size of the elements of the given kind of array, 0 for longs. */
+    static int elementSize(char type) {
+        switch (type) {
+        case 'z':
+        case 'b':
+            return 1;
+        case 'c':
+        case 's':
+            return 2;
+        case 'i':
+        case 'f':
+            return 4;
+        case 'd':
+            return 8;
+        default:
+            return 0;
+        }
+    }
+
+    private static void write(ArrayRepr array, byte[] memory, int address) {
+        char type = Character.toLowerCase(array.getJClass().getName().charAt(1));
+        int length = array.length();
+        putInt(memory, address, length, 4);
+        int p = address + 8;
+        for (int i = 0; i < length; i++) {
+            switch (type) {
+            case 'd': {
+                long bits = Double.doubleToLongBits(array.getDouble(i));
+                putInt(memory, p, (int) bits, 4);
+                putInt(memory, p + 4, (int) (bits >>> 32), 4);
+                break;
+            }
+            case 'f':
+                putInt(memory, p, Float.floatToIntBits(array.getFloat(i)), 4);
+                break;
+            default:
+                putInt(memory, p, array.getInt(i), elementSize(type));
+            }
+            p += elementSize(type);
+        }
+    }
+
+    private static void read(ArrayRepr array, byte[] memory, int address) {
+        char type = Character.toLowerCase(array.getJClass().getName().charAt(1));
+        int length = array.length();
+        int p = address + 8;
+        for (int i = 0; i < length; i++) {
+            switch (type) {
+            case 'd': {
+                long bits = (getInt(memory, p) & 0xFFFFFFFFL)
+                        | ((long) getInt(memory, p + 4) << 32);
+                array.setDouble(i, Double.longBitsToDouble(bits));
+                break;
+            }
+            case 'f':
+                array.setFloat(i, Float.intBitsToFloat(getInt(memory, p)));
+                break;
+            case 'z':
+            case 'b':
+                array.setInt(i, memory[p]);
+                break;
+            case 'c':
+                array.setInt(i, (memory[p] & 0xFF) | ((memory[p + 1] & 0xFF) << 8));
+                break;
+            case 's':
+                array.setInt(i, (short) ((memory[p] & 0xFF) | ((memory[p + 1] & 0xFF) << 8)));
+                break;
+            default:
+                array.setInt(i, getInt(memory, p));
+            }
+            p += elementSize(type);
+        }
+    }
+
+    private static void putInt(byte[] memory, int p, int v, int size) {
+        for (int k = 0; k < size; k++) {
+            memory[p + k] = (byte) (v >>> (8 * k));
+        }
+    }
+
+    private static int getInt(byte[] memory, int p) {
+        return (memory[p] & 0xFF) | ((memory[p + 1] & 0xFF) << 8)
+                | ((memory[p + 2] & 0xFF) << 16) | (memory[p + 3] << 24);
+    }
+}
@@ -0,0 +1,1139 @@
+package jvm.execution.wasm;
+
+import java.util.ArrayList;
+
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.classparser.jconstants.JBaseConstant;
+import jvm.execution.DecodedCode;
+import jvm.execution.DecodedCode.SwitchTable;
+import jvm.execution.OPCodes;
+
+
+/**
+ * Translates the decoded code of a method into a WebAssembly module with a
+ * single function "(d, pc, locals...)", where "d" is the number of nested
+ * calls that are still allowed and the locals are the local variables used
+ * by the method. The operand stack is mapped to WebAssembly locals: the
+ * [k]-th value of the stack to the [k]-th local of its type.
+ *
+ * As in the JavaScript translation, the instructions run in a loop that
+ * dispatches on "pc" to the branch targets, so that the method can be
+ * entered at any target where the operand stack is empty. The code of each
+ * target follows the end of a block, and the loop starts with a "br_table"
+ * that leaves the block of the target: the forward jumps leave the block
+ * directly, the backward jumps set "pc" and go through the loop.
+ *
+ * The types are found by a first pass over the code, as in [JsTranslator].
+ * An array is the address of its length in the linear memory, and its
+ * elements follow 8 bytes further. The code compiled for the instructions
+ * that throw exceptions traps, which makes the call bail out.
+ *
+ * @author ctalau
+ */
+class WasmTranslator {
+    private static final int I32 = 0x7F;
+    private static final int F32 = 0x7D;
+    private static final int F64 = 0x7C;
+    private static final int VOID = 0x40;
+
+    private static final int UNREACHABLE = 0x00;
+    private static final int BLOCK = 0x02;
+    private static final int LOOP = 0x03;
+    private static final int IF = 0x04;
+    private static final int ELSE = 0x05;
+    private static final int END = 0x0B;
+    private static final int BR = 0x0C;
+    private static final int BR_IF = 0x0D;
+    private static final int BR_TABLE = 0x0E;
+    private static final int RETURN = 0x0F;
+    private static final int CALL = 0x10;
+    private static final int CALL_INDIRECT = 0x11;
+    private static final int LOCAL_GET = 0x20;
+    private static final int LOCAL_SET = 0x21;
+    private static final int I32_LOAD = 0x28;
+    private static final int I32_CONST = 0x41;
+    private static final int F32_CONST = 0x43;
+    private static final int F64_CONST = 0x44;
+    private static final int I32_EQZ = 0x45;
+    private static final int I32_EQ = 0x46;
+    private static final int I32_NE = 0x47;
+    private static final int I32_LT_S = 0x48;
+    private static final int I32_GT_S = 0x4A;
+    private static final int I32_LE_S = 0x4C;
+    private static final int I32_GE_S = 0x4E;
+    private static final int I32_GE_U = 0x4F;
+    private static final int F32_LT = 0x5D;
+    private static final int F32_GT = 0x5E;
+    private static final int F32_LE = 0x5F;
+    private static final int F32_GE = 0x60;
+    private static final int F64_LT = 0x63;
+    private static final int F64_GT = 0x64;
+    private static final int F64_LE = 0x65;
+    private static final int F64_GE = 0x66;
+    private static final int I32_ADD = 0x6A;
+    private static final int I32_SUB = 0x6B;
+    private static final int I32_MUL = 0x6C;
+    private static final int I32_DIV_S = 0x6D;
+    private static final int I32_REM_S = 0x6F;
+    private static final int I32_AND = 0x71;
+    private static final int I32_OR = 0x72;
+    private static final int I32_XOR = 0x73;
+    private static final int I32_SHL = 0x74;
+    private static final int I32_SHR_S = 0x75;
+    private static final int I32_SHR_U = 0x76;
+    private static final int F32_NEG = 0x8C;
+    private static final int F32_ADD = 0x92;
+    private static final int F32_SUB = 0x93;
+    private static final int F32_MUL = 0x94;
+    private static final int F32_DIV = 0x95;
+    private static final int F64_NEG = 0x9A;
+    private static final int F64_ADD = 0xA0;
+    private static final int F64_SUB = 0xA1;
+    private static final int F64_MUL = 0xA2;
+    private static final int F64_DIV = 0xA3;
+    private static final int F32_CONVERT_I32_S = 0xB2;
+    private static final int F32_DEMOTE_F64 = 0xB6;
+    private static final int F64_CONVERT_I32_S = 0xB7;
+    private static final int F64_PROMOTE_F32 = 0xBB;
+    private static final int I32_EXTEND8_S = 0xC0;
+    private static final int I32_EXTEND16_S = 0xC1;
+    // prefixed by 0xFC: the conversions that saturate, as in Java
+    private static final int I32_TRUNC_SAT_F32_S = 0x00;
+    private static final int I32_TRUNC_SAT_F64_S = 0x02;
+
+    // the imported function "m.rem" and its type
+    private static final int REM = 0;
+    private static final String REM_TYPE = "DD)D";
+
+    private final Wasm wasm;
+    private final JBytecodeMethod m;
+    private final int id;
+    private final DecodedCode code;
+    private final int size;
+    private final int maxStack;
+
+    // The types of the operand stack before each instruction ('I', 'F', 'D'
+    // or the kind of array for each value), null for the instructions that
+    // are not reached.
+    private final String[] stacks;
+    private final boolean[] targets;
+    private final char[] localTypes;
+    private char retType;
+    // Whether the method has loops or calls, and whether it changes arrays
+    // or calls methods that may change them.
+    private boolean repeats;
+    private boolean stores;
+
+    // The state of the code generation: the index of the WebAssembly locals
+    // of the local variables, the index of the target of each instruction
+    // (or -1), the target whose code is generated, the blocks opened in the
+    // current instruction and the types of the functions.
+    private int[] locals;
+    private int stackBase;
+    private int[] cases;
+    private int caseCount;
+    private int region;
+    private int nesting;
+    private final ArrayList<String> types = new ArrayList<String>();
+
+    WasmTranslator(Wasm wasm, JBytecodeMethod m, int id) {
+        this.wasm = wasm;
+        this.m = m;
+        this.id = id;
+        this.code = m.getDecodedCode();
+        this.size = code.size();
+        this.maxStack = m.getCode().maxStack;
+        this.stacks = new String[size];
+        this.targets = new boolean[size];
+        this.localTypes = new char[m.getCode().maxLocals];
+    }
+
+    char[] getLocalTypes() {
+        return localTypes;
+    }
+
+    boolean repeats() {
+        return repeats;
+    }
+
+    boolean stores() {
+        return stores;
+    }
+
+    /** The instructions where the compiled code can be entered. */
+    boolean[] getEntries() {
+        boolean[] entries = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = targets[i] && stacks[i] != null && stacks[i].length() == 0;
+        }
+        return entries;
+    }
+
+    /** The bytes of the module, or null if the method is not supported. */
+    byte[] translate() {
+        if (!m.isStatic() || m.isSynchronized() || !analyze()) {
+            return null;
+        }
+
+        int params = 2;
+        locals = new int[localTypes.length];
+        for (int k = 0; k < localTypes.length; k++) {
+            locals[k] = localTypes[k] == 0 ? -1 : params++;
+        }
+        stackBase = params;
+        cases = new int[size];
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            cases[i] = -1;
+            if (stacks[i] != null && (i == 0 || targets[i])) {
+                cases[i] = starts.size();
+                starts.add(i);
+            }
+        }
+        caseCount = starts.size();
+        types.add(signature(localTypes, retType));
+        types.add(REM_TYPE);
+
+        WasmWriter body = new WasmWriter();
+        body.u32(3);
+        body.u32(maxStack + 1).u8(I32);
+        body.u32(maxStack + 1).u8(F32);
+        body.u32(maxStack + 1).u8(F64);
+        body.u8(LOCAL_GET).u32(0).u8(I32_CONST).s32(1).u8(I32_LT_S);
+        body.u8(IF).u8(VOID).u8(UNREACHABLE).u8(END);
+        body.u8(LOOP).u8(VOID).u8(BLOCK).u8(VOID);
+        for (int k = 0; k < caseCount; k++) {
+            body.u8(BLOCK).u8(VOID);
+        }
+        body.u8(LOCAL_GET).u32(1).u8(BR_TABLE).u32(size);
+        for (int i = 0; i < size; i++) {
+            body.u32(cases[i] < 0 ? caseCount : cases[i]);
+        }
+        body.u32(caseCount);
+        for (region = 0; region < caseCount; region++) {
+            body.u8(END);
+            int end = region + 1 < caseCount ? starts.get(region + 1) : size;
+            for (int i = starts.get(region); i < end; i++) {
+                if (stacks[i] != null) {
+                    instruction(i, stacks[i], body);
+                }
+            }
+        }
+        body.u8(END).u8(UNREACHABLE).u8(END).u8(UNREACHABLE).u8(END);
+
+        WasmWriter module = new WasmWriter();
+        module.u8(0).u8('a').u8('s').u8('m').u8(1).u8(0).u8(0).u8(0);
+        WasmWriter section = new WasmWriter().u32(types.size());
+        for (String type : types) {
+            int n = type.indexOf(')');
+            section.u8(0x60).u32(n);
+            for (int k = 0; k < n; k++) {
+                section.u8(valType(type.charAt(k)));
+            }
+            if (type.charAt(n + 1) == 'V') {
+                section.u32(0);
+            } else {
+                section.u32(1).u8(valType(type.charAt(n + 1)));
+            }
+        }
+        module.section(1, section);
+        section = new WasmWriter().u32(3);
+        section.name("m").name("memory").u8(0x02).u8(0x00).u32(1);
+        section.name("m").name("table").u8(0x01).u8(0x70).u8(0x00).u32(0);
+        section.name("m").name("rem").u8(0x00).u32(types.indexOf(REM_TYPE));
+        module.section(2, section);
+        module.section(3, new WasmWriter().u32(1).u32(0));
+        module.section(7, new WasmWriter().u32(1).name("f").u8(0x00).u32(1));
+        module.section(10, new WasmWriter().u32(1).sized(body));
+        return module.toByteArray();
+    }
+
+    /**
+     * Find the types of the operand stack before each instruction.
+     */
+    private boolean analyze() {
+        String desc = m.getMemberName();
+        String argTypes = argTypes(desc.substring(desc.indexOf('(')));
+        retType = kind(desc.charAt(desc.indexOf(')') + 1));
+        if (argTypes == null || retType == 0) {
+            return false;
+        }
+        int slot = 0;
+        for (int k = 0; k < argTypes.length(); k++) {
+            localTypes[slot] = argTypes.charAt(k);
+            slot += argTypes.charAt(k) == 'D' ? 2 : 1;
+        }
+
+        ArrayList<Integer> work = new ArrayList<Integer>();
+        stacks[0] = "";
+        work.add(0);
+        while (!work.isEmpty()) {
+            int i = work.remove(work.size() - 1);
+            String out = instruction(i, stacks[i], null);
+            if (out == null) {
+                return false;
+            }
+            switch (code.getOpcode(i)) {
+            case OPCodes.OP_invokestatic_quick:
+                repeats = true;
+                stores = true;
+                break;
+            case OPCodes.OP_iastore:
+            case OPCodes.OP_fastore:
+            case OPCodes.OP_dastore:
+            case OPCodes.OP_bastore:
+            case OPCodes.OP_castore:
+            case OPCodes.OP_sastore:
+                stores = true;
+                break;
+            default:
+                break;
+            }
+            for (int next : successors(i)) {
+                if (next < 0 || next >= size) {
+                    return false;
+                }
+                if (next <= i) {
+                    repeats = true;
+                }
+                if (stacks[next] == null) {
+                    stacks[next] = out;
+                    work.add(next);
+                } else if (!stacks[next].equals(out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int[] successors(int i) {
+        int target = code.args[i];
+        switch (code.getOpcode(i)) {
+        case OPCodes.OP_ifeq:
+        case OPCodes.OP_ifne:
+        case OPCodes.OP_iflt:
+        case OPCodes.OP_ifge:
+        case OPCodes.OP_ifgt:
+        case OPCodes.OP_ifle:
+        case OPCodes.OP_if_icmpeq:
+        case OPCodes.OP_if_icmpne:
+        case OPCodes.OP_if_icmplt:
+        case OPCodes.OP_if_icmpge:
+        case OPCodes.OP_if_icmpgt:
+        case OPCodes.OP_if_icmple:
+            targets[target] = true;
+            return new int[] { i + 1, target };
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            targets[target] = true;
+            return new int[] { target };
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            SwitchTable table = (SwitchTable) code.refs[i];
+            int[] next = new int[table.getTargets().length + 1];
+            System.arraycopy(table.getTargets(), 0, next, 0, next.length - 1);
+            next[next.length - 1] = table.getDefault();
+            for (int t : next) {
+                targets[t] = true;
+            }
+            return next;
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn:
+        case OPCodes.OP_return:
+            return new int[0];
+        default:
+            return new int[] { i + 1 };
+        }
+    }
+
+    /**
+     * Translate the instruction [i], given the types of the operand stack
+     * before it. Returns the types of the operand stack after it, or null
+     * if it is not supported. The code is appended to [w] if it is not null.
+     */
+    private String instruction(int i, String in, WasmWriter w) {
+        int d = in.length();
+        byte op = code.getOpcode(i);
+        switch (op) {
+        case OPCodes.OP_nop:
+            return in;
+
+        // Constants
+        case OPCodes.OP_iconst_m1:
+        case OPCodes.OP_iconst_0:
+        case OPCodes.OP_iconst_1:
+        case OPCodes.OP_iconst_2:
+        case OPCodes.OP_iconst_3:
+        case OPCodes.OP_iconst_4:
+        case OPCodes.OP_iconst_5:
+        case OPCodes.OP_bipush:
+        case OPCodes.OP_sipush:
+            return push(in, code.args[i], w);
+        case OPCodes.OP_fconst_0:
+        case OPCodes.OP_fconst_1:
+        case OPCodes.OP_fconst_2:
+            return push(in, (float) code.args[i], w);
+        case OPCodes.OP_dconst_0:
+        case OPCodes.OP_dconst_1:
+            return push(in, (double) code.args[i], w);
+        case OPCodes.OP_ldc:
+        case OPCodes.OP_ldc_w:
+        case OPCodes.OP_ldc_quick:
+        case OPCodes.OP_ldc2_w:
+        case OPCodes.OP_ldc2_w_quick: {
+            Object value = code.refs[i];
+            if (value instanceof JBaseConstant) {
+                value = ((JBaseConstant) value).getRepr();
+            }
+            if (value instanceof Integer) {
+                return push(in, (Integer) value, w);
+            } else if (value instanceof Float) {
+                return push(in, (Float) value, w);
+            } else if (value instanceof Double) {
+                return push(in, (Double) value, w);
+            }
+            return null;
+        }
+
+        // Local variables
+        case OPCodes.OP_iload:
+        case OPCodes.OP_iload_0:
+        case OPCodes.OP_iload_1:
+        case OPCodes.OP_iload_2:
+        case OPCodes.OP_iload_3:
+            return load(in, 'I', code.args[i], w);
+        case OPCodes.OP_fload:
+        case OPCodes.OP_fload_0:
+        case OPCodes.OP_fload_1:
+        case OPCodes.OP_fload_2:
+        case OPCodes.OP_fload_3:
+            return load(in, 'F', code.args[i], w);
+        case OPCodes.OP_dload:
+        case OPCodes.OP_dload_0:
+        case OPCodes.OP_dload_1:
+        case OPCodes.OP_dload_2:
+        case OPCodes.OP_dload_3:
+            return load(in, 'D', code.args[i], w);
+        case OPCodes.OP_aload:
+        case OPCodes.OP_aload_0:
+        case OPCodes.OP_aload_1:
+        case OPCodes.OP_aload_2:
+        case OPCodes.OP_aload_3: {
+            // The array was stored before, on all the paths.
+            int k = code.args[i];
+            if (k >= localTypes.length || !WasmMethod.isArray(localTypes[k])) {
+                return null;
+            }
+            return load(in, localTypes[k], k, w);
+        }
+        case OPCodes.OP_istore:
+        case OPCodes.OP_istore_0:
+        case OPCodes.OP_istore_1:
+        case OPCodes.OP_istore_2:
+        case OPCodes.OP_istore_3:
+            return store(in, 'I', code.args[i], w);
+        case OPCodes.OP_fstore:
+        case OPCodes.OP_fstore_0:
+        case OPCodes.OP_fstore_1:
+        case OPCodes.OP_fstore_2:
+        case OPCodes.OP_fstore_3:
+            return store(in, 'F', code.args[i], w);
+        case OPCodes.OP_dstore:
+        case OPCodes.OP_dstore_0:
+        case OPCodes.OP_dstore_1:
+        case OPCodes.OP_dstore_2:
+        case OPCodes.OP_dstore_3:
+            return store(in, 'D', code.args[i], w);
+        case OPCodes.OP_astore:
+        case OPCodes.OP_astore_0:
+        case OPCodes.OP_astore_1:
+        case OPCodes.OP_astore_2:
+        case OPCodes.OP_astore_3:
+            if (d == 0 || !WasmMethod.isArray(in.charAt(d - 1))) {
+                return null;
+            }
+            return store(in, in.charAt(d - 1), code.args[i], w);
+        case OPCodes.OP_iinc: {
+            int k = code.args[i];
+            if (!local(k, 'I')) {
+                return null;
+            }
+            if (w != null) {
+                w.u8(LOCAL_GET).u32(locals[k]).u8(I32_CONST).s32(code.args2[i]);
+                w.u8(I32_ADD).u8(LOCAL_SET).u32(locals[k]);
+            }
+            return in;
+        }
+
+        // Operand stack
+        case OPCodes.OP_pop:
+            return cat1(in, 1) ? in.substring(0, d - 1) : null;
+        case OPCodes.OP_pop2:
+            if (in.endsWith("D")) {
+                return in.substring(0, d - 1);
+            }
+            return cat1(in, 2) ? in.substring(0, d - 2) : null;
+        case OPCodes.OP_dup:
+            if (!cat1(in, 1)) {
+                return null;
+            }
+            copy(w, d - 1, d, in.charAt(d - 1));
+            return in + in.charAt(d - 1);
+        case OPCodes.OP_dup_x1: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            char a = in.charAt(d - 2), b = in.charAt(d - 1);
+            copy(w, d - 1, d, b);
+            copy(w, d - 2, d - 1, a);
+            copy(w, d, d - 2, b);
+            return in.substring(0, d - 2) + b + a + b;
+        }
+        case OPCodes.OP_dup2:
+            if (in.endsWith("D")) {
+                copy(w, d - 1, d, 'D');
+                return in + 'D';
+            }
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            copy(w, d - 2, d, in.charAt(d - 2));
+            copy(w, d - 1, d + 1, in.charAt(d - 1));
+            return in + in.substring(d - 2);
+        case OPCodes.OP_swap: {
+            if (!cat1(in, 2)) {
+                return null;
+            }
+            char a = in.charAt(d - 2), b = in.charAt(d - 1);
+            copy(w, d - 1, d, b);
+            copy(w, d - 2, d - 1, a);
+            copy(w, d, d - 2, b);
+            return in.substring(0, d - 2) + b + a;
+        }
+
+        // Arithmetic
+        case OPCodes.OP_iadd:
+            return binary(in, 'I', 'I', w, I32_ADD);
+        case OPCodes.OP_isub:
+            return binary(in, 'I', 'I', w, I32_SUB);
+        case OPCodes.OP_imul:
+            return binary(in, 'I', 'I', w, I32_MUL);
+        case OPCodes.OP_idiv:
+            // i32.div_s traps on MIN_VALUE / -1, which gives MIN_VALUE
+            if (!in.endsWith("II")) {
+                return null;
+            }
+            if (w != null) {
+                get(w, d - 1, 'I');
+                w.u8(I32_CONST).s32(-1).u8(I32_EQ).u8(IF).u8(I32);
+                w.u8(I32_CONST).s32(0);
+                get(w, d - 2, 'I');
+                w.u8(I32_SUB).u8(ELSE);
+                get(w, d - 2, 'I');
+                get(w, d - 1, 'I');
+                w.u8(I32_DIV_S).u8(END);
+                set(w, d - 2, 'I');
+            }
+            return in.substring(0, d - 1);
+        case OPCodes.OP_irem:
+            return binary(in, 'I', 'I', w, I32_REM_S);
+        case OPCodes.OP_ineg:
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            if (w != null) {
+                w.u8(I32_CONST).s32(0);
+                get(w, d - 1, 'I');
+                w.u8(I32_SUB);
+                set(w, d - 1, 'I');
+            }
+            return in;
+        case OPCodes.OP_ishl:
+            return binary(in, 'I', 'I', w, I32_SHL);
+        case OPCodes.OP_ishr:
+            return binary(in, 'I', 'I', w, I32_SHR_S);
+        case OPCodes.OP_iushr:
+            return binary(in, 'I', 'I', w, I32_SHR_U);
+        case OPCodes.OP_iand:
+            return binary(in, 'I', 'I', w, I32_AND);
+        case OPCodes.OP_ior:
+            return binary(in, 'I', 'I', w, I32_OR);
+        case OPCodes.OP_ixor:
+            return binary(in, 'I', 'I', w, I32_XOR);
+
+        case OPCodes.OP_fadd:
+            return binary(in, 'F', 'F', w, F32_ADD);
+        case OPCodes.OP_fsub:
+            return binary(in, 'F', 'F', w, F32_SUB);
+        case OPCodes.OP_fmul:
+            return binary(in, 'F', 'F', w, F32_MUL);
+        case OPCodes.OP_fdiv:
+            return binary(in, 'F', 'F', w, F32_DIV);
+        case OPCodes.OP_frem:
+            // The remainder of the floats is exact on doubles.
+            if (!in.endsWith("FF")) {
+                return null;
+            }
+            if (w != null) {
+                get(w, d - 2, 'F');
+                w.u8(F64_PROMOTE_F32);
+                get(w, d - 1, 'F');
+                w.u8(F64_PROMOTE_F32).u8(CALL).u32(REM).u8(F32_DEMOTE_F64);
+                set(w, d - 2, 'F');
+            }
+            return in.substring(0, d - 1);
+        case OPCodes.OP_fneg:
+            return unary(in, 'F', 'F', w, F32_NEG);
+
+        case OPCodes.OP_dadd:
+            return binary(in, 'D', 'D', w, F64_ADD);
+        case OPCodes.OP_dsub:
+            return binary(in, 'D', 'D', w, F64_SUB);
+        case OPCodes.OP_dmul:
+            return binary(in, 'D', 'D', w, F64_MUL);
+        case OPCodes.OP_ddiv:
+            return binary(in, 'D', 'D', w, F64_DIV);
+        case OPCodes.OP_drem:
+            return binary(in, 'D', 'D', w, CALL, REM);
+        case OPCodes.OP_dneg:
+            return unary(in, 'D', 'D', w, F64_NEG);
+
+        // Conversions
+        case OPCodes.OP_i2f:
+            return unary(in, 'I', 'F', w, F32_CONVERT_I32_S);
+        case OPCodes.OP_i2d:
+            return unary(in, 'I', 'D', w, F64_CONVERT_I32_S);
+        case OPCodes.OP_f2d:
+            return unary(in, 'F', 'D', w, F64_PROMOTE_F32);
+        case OPCodes.OP_d2f:
+            return unary(in, 'D', 'F', w, F32_DEMOTE_F64);
+        case OPCodes.OP_f2i:
+            return unary(in, 'F', 'I', w, 0xFC, I32_TRUNC_SAT_F32_S);
+        case OPCodes.OP_d2i:
+            return unary(in, 'D', 'I', w, 0xFC, I32_TRUNC_SAT_F64_S);
+        case OPCodes.OP_i2b:
+            return unary(in, 'I', 'I', w, I32_EXTEND8_S);
+        case OPCodes.OP_i2c:
+            // 65535 in signed LEB128
+            return unary(in, 'I', 'I', w, I32_CONST, 0xFF, 0xFF, 0x03, I32_AND);
+        case OPCodes.OP_i2s:
+            return unary(in, 'I', 'I', w, I32_EXTEND16_S);
+
+        // Comparisons: (a > b) - !(a >= b) is -1 for NaN, !(a <= b) - (a < b)
+        // is 1.
+        case OPCodes.OP_fcmpl:
+            return compare(in, 'F', w, F32_GT, F32_GE, I32_EQZ, I32_SUB);
+        case OPCodes.OP_fcmpg:
+            return compare(in, 'F', w, F32_LE, I32_EQZ, F32_LT, I32_SUB);
+        case OPCodes.OP_dcmpl:
+            return compare(in, 'D', w, F64_GT, F64_GE, I32_EQZ, I32_SUB);
+        case OPCodes.OP_dcmpg:
+            return compare(in, 'D', w, F64_LE, I32_EQZ, F64_LT, I32_SUB);
+
+        // Arrays
+        case OPCodes.OP_arraylength:
+            if (d == 0 || !WasmMethod.isArray(in.charAt(d - 1))) {
+                return null;
+            }
+            if (w != null) {
+                get(w, d - 1, 'I');
+                w.u8(I32_EQZ).u8(IF).u8(VOID).u8(UNREACHABLE).u8(END);
+                get(w, d - 1, 'I');
+                w.u8(I32_LOAD).u32(2).u32(0);
+                set(w, d - 1, 'I');
+            }
+            return in.substring(0, d - 1) + 'I';
+        case OPCodes.OP_iaload:
+            return arrayLoad(in, "i", 'I', w, 0x28);
+        case OPCodes.OP_faload:
+            return arrayLoad(in, "f", 'F', w, 0x2A);
+        case OPCodes.OP_daload:
+            return arrayLoad(in, "d", 'D', w, 0x2B);
+        case OPCodes.OP_baload:
+            return arrayLoad(in, "bz", 'I', w, 0x2C);
+        case OPCodes.OP_saload:
+            return arrayLoad(in, "s", 'I', w, 0x2E);
+        case OPCodes.OP_caload:
+            return arrayLoad(in, "c", 'I', w, 0x2F);
+        case OPCodes.OP_iastore:
+            return arrayStore(in, "i", 'I', w, 0x36);
+        case OPCodes.OP_fastore:
+            return arrayStore(in, "f", 'F', w, 0x38);
+        case OPCodes.OP_dastore:
+            return arrayStore(in, "d", 'D', w, 0x39);
+        case OPCodes.OP_bastore:
+            return arrayStore(in, "bz", 'I', w, 0x3A);
+        case OPCodes.OP_castore:
+        case OPCodes.OP_sastore:
+            return arrayStore(in, op == OPCodes.OP_castore ? "c" : "s", 'I', w, 0x3B);
+
+        // Control flow
+        case OPCodes.OP_ifeq:
+            return branch(in, 'I', code.args[i], w, I32_EQZ);
+        case OPCodes.OP_ifne:
+            return branch(in, 'I', code.args[i], w);
+        case OPCodes.OP_iflt:
+            return branch(in, 'I', code.args[i], w, I32_CONST, 0, I32_LT_S);
+        case OPCodes.OP_ifge:
+            return branch(in, 'I', code.args[i], w, I32_CONST, 0, I32_GE_S);
+        case OPCodes.OP_ifgt:
+            return branch(in, 'I', code.args[i], w, I32_CONST, 0, I32_GT_S);
+        case OPCodes.OP_ifle:
+            return branch(in, 'I', code.args[i], w, I32_CONST, 0, I32_LE_S);
+        case OPCodes.OP_if_icmpeq:
+            return branch2(in, code.args[i], w, I32_EQ);
+        case OPCodes.OP_if_icmpne:
+            return branch2(in, code.args[i], w, I32_NE);
+        case OPCodes.OP_if_icmplt:
+            return branch2(in, code.args[i], w, I32_LT_S);
+        case OPCodes.OP_if_icmpge:
+            return branch2(in, code.args[i], w, I32_GE_S);
+        case OPCodes.OP_if_icmpgt:
+            return branch2(in, code.args[i], w, I32_GT_S);
+        case OPCodes.OP_if_icmple:
+            return branch2(in, code.args[i], w, I32_LE_S);
+        case OPCodes.OP_goto:
+        case OPCodes.OP_goto_w:
+            jump(w, code.args[i]);
+            return in;
+        case OPCodes.OP_tableswitch:
+        case OPCodes.OP_lookupswitch: {
+            if (!in.endsWith("I")) {
+                return null;
+            }
+            if (w != null) {
+                SwitchTable table = (SwitchTable) code.refs[i];
+                int[] keys = table.getKeys();
+                int[] jumps = table.getTargets();
+                for (int k = 0; k < jumps.length; k++) {
+                    get(w, d - 1, 'I');
+                    w.u8(I32_CONST).s32(keys == null ? table.getLow() + k : keys[k]);
+                    w.u8(I32_EQ);
+                    jumpIf(w, jumps[k]);
+                }
+                jump(w, table.getDefault());
+            }
+            return in.substring(0, d - 1);
+        }
+        case OPCodes.OP_ireturn:
+        case OPCodes.OP_freturn:
+        case OPCodes.OP_dreturn: {
+            char type = op == OPCodes.OP_ireturn ? 'I' : op == OPCodes.OP_freturn ? 'F' : 'D';
+            if (type != retType || !in.endsWith(String.valueOf(type))) {
+                return null;
+            }
+            if (w != null) {
+                get(w, d - 1, type);
+                w.u8(RETURN);
+            }
+            return in.substring(0, d - 1);
+        }
+        case OPCodes.OP_return:
+            if (retType != 'V') {
+                return null;
+            }
+            if (w != null) {
+                w.u8(RETURN);
+            }
+            return in;
+
+        // Calls to the methods that can be compiled, once resolved
+        case OPCodes.OP_invokestatic_quick:
+            if (!(code.refs[i] instanceof JBytecodeMethod)) {
+                return null;
+            }
+            return call(in, (JBytecodeMethod) code.refs[i], w);
+
+        default:
+            return null;
+        }
+    }
+
+    private String call(String in, JBytecodeMethod callee, WasmWriter w) {
+        String desc = callee.getMemberName();
+        String args = argTypes(desc.substring(desc.indexOf('(')));
+        char ret = kind(desc.charAt(desc.indexOf(')') + 1));
+        if (args == null || ret == 0 || !in.endsWith(args)) {
+            return null;
+        }
+        WasmMethod wm = null;
+        if (callee != m) {
+            wm = wasm.compile(callee);
+            if (wm == null) {
+                return null;
+            }
+        }
+        int d = in.length() - args.length();
+        if (w != null) {
+            char[] calleeTypes = localTypes;
+            int calleeId = id;
+            if (wm != null) {
+                calleeTypes = new char[wm.getMaxLocals()];
+                for (int k = 0; k < calleeTypes.length; k++) {
+                    calleeTypes[k] = wm.getLocalType(k);
+                }
+                calleeId = wm.getId();
+            }
+            w.u8(LOCAL_GET).u32(0).u8(I32_CONST).s32(1).u8(I32_SUB);
+            w.u8(I32_CONST).s32(0);
+            // the arguments, then 0 for the other local variables
+            int slot = 0;
+            for (int k = 0; k < args.length(); k++) {
+                get(w, d + k, args.charAt(k));
+                slot += args.charAt(k) == 'D' ? 2 : 1;
+            }
+            for (int k = slot; k < calleeTypes.length; k++) {
+                switch (valType(calleeTypes[k])) {
+                case I32:
+                    w.u8(I32_CONST).s32(0);
+                    break;
+                case F32:
+                    w.u8(F32_CONST).f32(0);
+                    break;
+                case F64:
+                    w.u8(F64_CONST).f64(0);
+                    break;
+                }
+            }
+            w.u8(I32_CONST).s32(calleeId);
+            w.u8(CALL_INDIRECT).u32(typeIndex(signature(calleeTypes, ret))).u8(0x00);
+            if (ret != 'V') {
+                set(w, d, ret);
+            }
+        }
+        return ret == 'V' ? in.substring(0, d) : in.substring(0, d) + ret;
+    }
+
+    private String push(String in, int value, WasmWriter w) {
+        if (w != null) {
+            w.u8(I32_CONST).s32(value);
+            set(w, in.length(), 'I');
+        }
+        return in + 'I';
+    }
+
+    private String push(String in, float value, WasmWriter w) {
+        if (w != null) {
+            w.u8(F32_CONST).f32(value);
+            set(w, in.length(), 'F');
+        }
+        return in + 'F';
+    }
+
+    private String push(String in, double value, WasmWriter w) {
+        if (w != null) {
+            w.u8(F64_CONST).f64(value);
+            set(w, in.length(), 'D');
+        }
+        return in + 'D';
+    }
+
+    private String load(String in, char type, int k, WasmWriter w) {
+        if (!local(k, type)) {
+            return null;
+        }
+        if (w != null) {
+            w.u8(LOCAL_GET).u32(locals[k]);
+            set(w, in.length(), type);
+        }
+        return in + type;
+    }
+
+    private String store(String in, char type, int k, WasmWriter w) {
+        if (!in.endsWith(String.valueOf(type)) || !local(k, type)) {
+            return null;
+        }
+        if (w != null) {
+            get(w, in.length() - 1, type);
+            w.u8(LOCAL_SET).u32(locals[k]);
+        }
+        return in.substring(0, in.length() - 1);
+    }
+
+    /** Check that every local variable is used with a single type. */
+    private boolean local(int k, char type) {
+        if (k < 0 || k >= localTypes.length) {
+            return false;
+        }
+        if (localTypes[k] == 0) {
+            localTypes[k] = type;
+        }
+        return localTypes[k] == type;
+    }
+
+    private String unary(String in, char arg, char res, WasmWriter w, int... ops) {
+        if (!in.endsWith(String.valueOf(arg))) {
+            return null;
+        }
+        int d = in.length();
+        if (w != null) {
+            get(w, d - 1, arg);
+            for (int op : ops) {
+                w.u8(op);
+            }
+            set(w, d - 1, res);
+        }
+        return in.substring(0, d - 1) + res;
+    }
+
+    private String binary(String in, char arg, char res, WasmWriter w, int... ops) {
+        if (!in.endsWith("" + arg + arg)) {
+            return null;
+        }
+        int d = in.length();
+        if (w != null) {
+            get(w, d - 2, arg);
+            get(w, d - 1, arg);
+            for (int op : ops) {
+                w.u8(op);
+            }
+            set(w, d - 2, res);
+        }
+        return in.substring(0, d - 2) + res;
+    }
+
+    /**
+     * A comparison of floating point numbers, that compares the operands
+     * twice: the operands are loaded before the first two opcodes.
+     */
+    private String compare(String in, char arg, WasmWriter w, int... ops) {
+        if (!in.endsWith("" + arg + arg)) {
+            return null;
+        }
+        int d = in.length();
+        if (w != null) {
+            get(w, d - 2, arg);
+            get(w, d - 1, arg);
+            w.u8(ops[0]);
+            int k = 1;
+            while (ops[k] == I32_EQZ) {
+                w.u8(ops[k++]);
+            }
+            get(w, d - 2, arg);
+            get(w, d - 1, arg);
+            for (; k < ops.length; k++) {
+                w.u8(ops[k]);
+            }
+            set(w, d - 2, 'I');
+        }
+        return in.substring(0, d - 2) + 'I';
+    }
+
+    private String arrayLoad(String in, String kinds, char res, WasmWriter w, int load) {
+        int d = in.length();
+        if (d < 2 || kinds.indexOf(in.charAt(d - 2)) < 0 || in.charAt(d - 1) != 'I') {
+            return null;
+        }
+        if (w != null) {
+            char kind = in.charAt(d - 2);
+            element(w, d - 2, d - 1, kind);
+            w.u8(load).u32(align(kind)).u32(8);
+            set(w, d - 2, res);
+        }
+        return in.substring(0, d - 2) + res;
+    }
+
+    private String arrayStore(String in, String kinds, char value, WasmWriter w, int store) {
+        int d = in.length();
+        if (d < 3 || kinds.indexOf(in.charAt(d - 3)) < 0 || in.charAt(d - 2) != 'I'
+                || in.charAt(d - 1) != value) {
+            return null;
+        }
+        if (w != null) {
+            char kind = in.charAt(d - 3);
+            element(w, d - 3, d - 2, kind);
+            get(w, d - 1, value);
+            w.u8(store).u32(align(kind)).u32(8);
+        }
+        return in.substring(0, d - 3);
+    }
+
+    /**
+     * Check the index, which also checks for null since the length at
+     * address 0 is 0, and compute the address of the element minus 8.
+     */
+    private void element(WasmWriter w, int array, int index, char kind) {
+        get(w, index, 'I');
+        get(w, array, 'I');
+        w.u8(I32_LOAD).u32(2).u32(0);
+        w.u8(I32_GE_U).u8(IF).u8(VOID).u8(UNREACHABLE).u8(END);
+        get(w, array, 'I');
+        get(w, index, 'I');
+        int shift = align(kind);
+        if (shift > 0) {
+            w.u8(I32_CONST).s32(shift).u8(I32_SHL);
+        }
+        w.u8(I32_ADD);
+    }
+
+    private String branch(String in, char arg, int target, WasmWriter w, int... ops) {
+        if (!in.endsWith(String.valueOf(arg))) {
+            return null;
+        }
+        int d = in.length();
+        if (w != null) {
+            get(w, d - 1, arg);
+            for (int op : ops) {
+                w.u8(op);
+            }
+            jumpIf(w, target);
+        }
+        return in.substring(0, d - 1);
+    }
+
+    private String branch2(String in, int target, WasmWriter w, int op) {
+        if (!in.endsWith("II")) {
+            return null;
+        }
+        int d = in.length();
+        if (w != null) {
+            get(w, d - 2, 'I');
+            get(w, d - 1, 'I');
+            w.u8(op);
+            jumpIf(w, target);
+        }
+        return in.substring(0, d - 2);
+    }
+
+    /** Jump to the target if the value on the WebAssembly stack is not 0. */
+    private void jumpIf(WasmWriter w, int target) {
+        if (cases[target] > region) {
+            w.u8(BR_IF).u32(cases[target] - region - 1 + nesting);
+        } else {
+            w.u8(IF).u8(VOID);
+            nesting++;
+            jump(w, target);
+            nesting--;
+            w.u8(END);
+        }
+    }
+
+    private void jump(WasmWriter w, int target) {
+        if (w == null) {
+            return;
+        }
+        if (cases[target] > region) {
+            w.u8(BR).u32(cases[target] - region - 1 + nesting);
+        } else {
+            w.u8(I32_CONST).s32(target).u8(LOCAL_SET).u32(1);
+            w.u8(BR).u32(caseCount - region + nesting);
+        }
+    }
+
+    private void copy(WasmWriter w, int from, int to, char type) {
+        if (w != null) {
+            get(w, from, type);
+            set(w, to, type);
+        }
+    }
+
+    private void get(WasmWriter w, int k, char type) {
+        w.u8(LOCAL_GET).u32(stackLocal(k, type));
+    }
+
+    private void set(WasmWriter w, int k, char type) {
+        w.u8(LOCAL_SET).u32(stackLocal(k, type));
+    }
+
+    /** The WebAssembly local of the [k]-th value of the operand stack. */
+    private int stackLocal(int k, char type) {
+        int group = valType(type) == I32 ? 0 : valType(type) == F32 ? 1 : 2;
+        return stackBase + group * (maxStack + 1) + k;
+    }
+
+    private int typeIndex(String type) {
+        int index = types.indexOf(type);
+        if (index < 0) {
+            index = types.size();
+            types.add(type);
+        }
+        return index;
+    }
+
+    /** The type of the function of a method, as the key of [types]. */
+    private static String signature(char[] localTypes, char ret) {
+        StringBuilder sb = new StringBuilder("II");
+        for (char type : localTypes) {
+            if (type != 0) {
+                sb.append(type == 'F' || type == 'D' ? type : 'I');
+            }
+        }
+        return sb.append(')').append(ret).toString();
+    }
+
+    private static int valType(char type) {
+        return type == 'F' ? F32 : type == 'D' ? F64 : I32;
+    }
+
+    /** The log2 of the size of the elements of the kind of array. */
+    private static int align(char kind) {
+        switch (WasmMethod.elementSize(kind)) {
+        case 1:
+            return 0;
+        case 2:
+            return 1;
+        case 4:
+            return 2;
+        default:
+            return 3;
+        }
+    }
+
+    /** True if the top [n] values of the stack take one slot each. */
+    private static boolean cat1(String in, int n) {
+        if (in.length() < n) {
+            return false;
+        }
+        for (int k = in.length() - n; k < in.length(); k++) {
+            if (in.charAt(k) == 'D') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The types of the arguments in a method descriptor, or null if they
+     * are not supported.
+     */
+    private static String argTypes(String desc) {
+        StringBuilder sb = new StringBuilder();
+        for (int p = 1; desc.charAt(p) != ')'; p++) {
+            char type = desc.charAt(p);
+            if (type == '[') {
+                type = Character.toLowerCase(desc.charAt(++p));
+                if (WasmMethod.elementSize(type) == 0) {
+                    return null;
+                }
+            } else {
+                type = kind(type);
+                if (type == 0 || type == 'V') {
+                    return null;
+                }
+            }
+            sb.append(type);
+        }
+        return sb.toString();
+    }
+
+    /** The type of a value on the operand stack, or 0 if not supported. */
+    private static char kind(char type) {
+        switch (type) {
+        case 'I':
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+            return 'I';
+        case 'F':
+        case 'D':
+        case 'V':
+            return type;
+        default:
+            return 0;
+        }
+    }
+}
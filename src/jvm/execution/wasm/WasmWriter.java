@@ -0,0 +1,90 @@
+package jvm.execution.wasm;
+
+
+/**
+ * Writes the bytes of a WebAssembly module: the integers in LEB128 and the
+ * floating point numbers in little endian.
+ *
+ * @author ctalau
+ */
+class WasmWriter {
+    private byte[] bytes = new byte[64];
+    private int size = 0;
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, 0, result, 0, size);
+        return result;
+    }
+
+    WasmWriter u8(int b) {
+        if (size == bytes.length) {
+            byte[] larger = new byte[2 * size];
+            System.arraycopy(bytes, 0, larger, 0, size);
+            bytes = larger;
+        }
+        bytes[size++] = (byte) b;
+        return this;
+    }
+
+    WasmWriter u32(int v) {
+        while ((v & ~0x7F) != 0) {
+            u8((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        return u8(v);
+    }
+
+    WasmWriter s32(int v) {
+        for (;;) {
+            int b = v & 0x7F;
+            v >>= 7;
+            if ((v == 0 && (b & 0x40) == 0) || (v == -1 && (b & 0x40) != 0)) {
+                return u8(b);
+            }
+            u8(b | 0x80);
+        }
+    }
+
+    WasmWriter f32(float v) {
+        int bits = Float.floatToIntBits(v);
+        for (int k = 0; k < 4; k++) {
+            u8(bits >>> (8 * k));
+        }
+        return this;
+    }
+
+    WasmWriter f64(double v) {
+        long bits = Double.doubleToLongBits(v);
+        for (int k = 0; k < 8; k++) {
+            u8((int) (bits >>> (8 * k)));
+        }
+        return this;
+    }
+
+    /** A string, preceded by its length. */
+    WasmWriter name(String s) {
+        u32(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            u8(s.charAt(i));
+        }
+        return this;
+    }
+
+    /** The content of [w], preceded by its size, as for the sections. */
+    WasmWriter sized(WasmWriter w) {
+        u32(w.size);
+        for (int i = 0; i < w.size; i++) {
+            u8(w.bytes[i]);
+        }
+        return this;
+    }
+
+    WasmWriter section(int id, WasmWriter content) {
+        return u8(id).sized(content);
+    }
+}
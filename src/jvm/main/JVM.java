@@ -1,15 +1,227 @@
 package jvm.main;
 
 import jvm.execution.ExecutionEngine;
+import jvm.execution.ExecutionEngine.State;
+import jvm.execution.ExecutionStats;
 import jvm.execution.JClassLoader;
+import jvm.execution.Profiler;
+import jvm.execution.JsStack;
+import jvm.execution.Stack;
+import jvm.execution.UnboxedStack;
+import jvm.execution.jit.Jit;
+import jvm.execution.objrepr.ObjectFactory;
+import jvm.execution.wasm.Wasm;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 
 public class JVM {
+    // The number of instructions executed before yielding to the browser.
+    private static final int SLICE = 20000;
+
+    private static int maxStackDepth = Stack.DEFAULT_MAX_DEPTH;
+    private static boolean collectStats = false;
+    private static ExecutionStats stats = null;
+    private static int profileInterval = 0;
+    private static Profiler profiler = null;
+    private static boolean jitEnabled = false;
+    private static boolean registerCode = false;
+    private static boolean astInterpreter = false;
+    private static Jit jit = null;
+    private static boolean wasmEnabled = false;
+    private static Wasm wasm = null;
+    private static boolean jsValues = false;
+    // The program that is run in slices, until it exits or is stopped.
+    private static Slices running = null;
+
+    /**
+     * Set the class loader of the programs that are run. The program that
+     * is run in slices, if any, is stopped, since it shares the loaded
+     * classes.
+     */
     public static void setClassLoader(JClassLoader jcl) {
+        stop();
         JClassLoader.setInstance(jcl);
     }
 
+    /** Set the maximum number of nested calls of the programs that are run. */
+    public static void setMaxStackDepth(int depth) {
+        maxStackDepth = depth;
+    }
+
+    /**
+     * Count the executed opcodes, method calls and allocations of the
+     * programs that are run. This slows down the execution.
+     */
+    public static void setCollectStats(boolean collect) {
+        collectStats = collect;
+    }
+
+    /** The counters of the last program that was run, or null. */
+    public static ExecutionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sample the stack of the programs that are run every [interval]
+     * instructions, or stop profiling if [interval] is 0.
+     */
+    public static void setProfileInterval(int interval) {
+        profileInterval = interval;
+    }
+
+    /** The profiler of the last program that was run, or null. */
+    public static Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Compile the hot methods of the programs that are run to JavaScript.
+     * The compiled code runs with "new Function", so only in the browser.
+     */
+    public static void setJit(boolean enabled) {
+        jitEnabled = enabled;
+    }
+
+    /** The JIT compiler of the last program that was run, or null. */
+    public static Jit getJit() {
+        return jit;
+    }
+
+    /**
+     * Compile the hot numeric methods of the programs, including the ones
+     * on arrays of primitives, to WebAssembly if the browser supports it.
+     * An experiment, off by default: see [Wasm].
+     */
+    public static void setWasm(boolean enabled) {
+        wasmEnabled = enabled;
+    }
+
+    /** The WebAssembly compiler of the last program that was run, or null. */
+    public static Wasm getWasm() {
+        return wasm;
+    }
+
+    /**
+     * Run the numeric methods of the programs in register code, which is
+     * off by default. It is not used while the statistics are counted or
+     * the stack is sampled.
+     */
+    public static void setRegisterCode(boolean enabled) {
+        registerCode = enabled;
+    }
+
+    /**
+     * Run the methods without side effects in the tree interpreter, next to
+     * the register code. Like it, it is not used while the statistics are
+     * counted or the stack is sampled.
+     */
+    public static void setAstInterpreter(boolean enabled) {
+        astInterpreter = enabled;
+    }
+
+    /**
+     * Keep the stack, the objects and the arrays of primitives of the
+     * programs that are run in JavaScript arrays, objects and typed arrays,
+     * accessed with JSNI. Only in the browser, and off by default since no
+     * test runs them yet.
+     */
+    public static void setJsValues(boolean enabled) {
+        jsValues = enabled;
+    }
+
+    /** Run the program until it exits. */
     public static void run(String path) {
-        ExecutionEngine exec = new ExecutionEngine();
-        exec.bootstrap(path);
+        stop();
+        createEngine().bootstrap(path);
+    }
+
+    /**
+     * Run the program in slices scheduled by the given scheduler, so that
+     * the browser can handle events and show the output in between. The
+     * command is executed when the program exits.
+     */
+    public static void run(String path, Scheduler scheduler, Runnable onExit) {
+        stop();
+        ExecutionEngine exec = createEngine();
+        exec.boot(path);
+        running = new Slices(exec, scheduler, onExit);
+        scheduler.scheduleIncremental(running);
+    }
+
+    /**
+     * Stop the program that is run in slices, if any. Its exit command is
+     * not executed.
+     */
+    public static void stop() {
+        if (running != null) {
+            running.cancelled = true;
+            running = null;
+        }
+    }
+
+    /** True if a program is run in slices and did not exit yet. */
+    public static boolean isRunning() {
+        return running != null;
+    }
+
+    private static ExecutionEngine createEngine() {
+        ObjectFactory.setJsRepresentation(jsValues);
+        ExecutionEngine exec = new ExecutionEngine(jsValues ? new JsStack() : new UnboxedStack());
+        exec.setMaxStackDepth(maxStackDepth);
+        stats = collectStats ? new ExecutionStats() : null;
+        exec.setStats(stats);
+        profiler = profileInterval > 0 ? new Profiler(profileInterval) : null;
+        exec.setProfiler(profiler);
+        jit = jitEnabled ? new Jit(new JsBackend()) : null;
+        exec.setJit(jit);
+        wasm = wasmEnabled && WasmJsBackend.isAvailable() ? new Wasm(new WasmJsBackend()) : null;
+        exec.setWasm(wasm);
+        exec.setRegisterCode(registerCode && stats == null && profiler == null);
+        exec.setAstInterpreter(astInterpreter && stats == null && profiler == null);
+        return exec;
+    }
+
+    private static class Slices implements RepeatingCommand {
+        private final ExecutionEngine exec;
+        private final Scheduler scheduler;
+        private final Runnable onExit;
+        private boolean cancelled = false;
+
+        Slices(ExecutionEngine exec, Scheduler scheduler, Runnable onExit) {
+            this.exec = exec;
+            this.scheduler = scheduler;
+            this.onExit = onExit;
+        }
+
+        @Override
+        public boolean execute() {
+            if (cancelled) {
+                return false;
+            }
+            State state = exec.execute(SLICE);
+            if (state == State.RUNNING) {
+                return true;
+            }
+            if (state == State.BLOCKED) {
+                // All the threads sleep: resume when the first one wakes up.
+                int delay = (int) Math.max(1, exec.getWakeTime() - System.currentTimeMillis());
+                scheduler.scheduleFixedDelay(new RepeatingCommand() {
+                    @Override
+                    public boolean execute() {
+                        if (!cancelled) {
+                            scheduler.scheduleIncremental(Slices.this);
+                        }
+                        return false;
+                    }
+                }, delay);
+                return false;
+            }
+            running = null;
+            if (onExit != null) {
+                onExit.run();
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,54 @@
+package jvm.main;
+
+import jvm.execution.jit.Bailout;
+import jvm.execution.jit.CompiledCode;
+import jvm.execution.jit.JitBackend;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayNumber;
+
+/**
+ * JIT backend that compiles the methods with "new Function" in the browser.
+ *
+ * @author ctalau
+ */
+public class JsBackend implements JitBackend {
+    private final JavaScriptObject table = JavaScriptObject.createArray();
+    private final JsArrayNumber result = JavaScriptObject.createArray().cast();
+
+    @Override
+    public CompiledCode compile(int id, String source) {
+        final JavaScriptObject fn = define(table, id, source);
+        return new CompiledCode() {
+            @Override
+            public double run(int depth, int pc, double[] locals) {
+                JsArrayNumber args = JavaScriptObject.createArray().cast();
+                args.push(depth);
+                args.push(pc);
+                for (double local : locals) {
+                    args.push(local);
+                }
+                if (!invoke(fn, args, result)) {
+                    throw Bailout.INSTANCE;
+                }
+                return result.get(0);
+            }
+        };
+    }
+
+    private static native JavaScriptObject define(JavaScriptObject table, int id,
+            String source) /*-{
+        return table[id] = new Function("F", source)(table);
+    }-*/;
+
+    // Returns false if the compiled code bails out.
+    private static native boolean invoke(JavaScriptObject fn, JsArrayNumber args,
+            JsArrayNumber result) /*-{
+        try {
+            result[0] = fn.apply(null, args);
+            return true;
+        } catch (e) {
+            return false;
+        }
+    }-*/;
+}
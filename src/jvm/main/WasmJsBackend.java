@@ -0,0 +1,85 @@
+package jvm.main;
+
+import jvm.execution.jit.Bailout;
+import jvm.execution.wasm.WasmBackend;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * WebAssembly backend that instantiates the modules with the WebAssembly
+ * API of the browser.
+ *
+ * @author ctalau
+ */
+public class WasmJsBackend implements WasmBackend {
+    private final JavaScriptObject env = createEnv();
+    private final double[] result = new double[1];
+
+    /** True if the browser supports WebAssembly. */
+    public static native boolean isAvailable() /*-{
+        return typeof $wnd.WebAssembly === "object";
+    }-*/;
+
+    @Override
+    public boolean instantiate(int id, byte[] module) {
+        return instantiate(env, id, module);
+    }
+
+    @Override
+    public double call(int id, double[] args, byte[] memory) {
+        if (!invoke(env, id, args, memory, result)) {
+            throw Bailout.INSTANCE;
+        }
+        return result[0];
+    }
+
+    private static native JavaScriptObject createEnv() /*-{
+        var WebAssembly = $wnd.WebAssembly;
+        return {
+            memory: new WebAssembly.Memory({ initial: 1 }),
+            table: new WebAssembly.Table({ initial: 0, element: "anyfunc" }),
+            rem: function (a, b) { return a % b; }
+        };
+    }-*/;
+
+    // Returns false if the module cannot be compiled. The Java arrays are
+    // JavaScript arrays in the code generated by GWT, so they are passed
+    // as they are.
+    private static native boolean instantiate(JavaScriptObject env, int id,
+            byte[] bytes) /*-{
+        var WebAssembly = $wnd.WebAssembly;
+        try {
+            var module = new WebAssembly.Module(new Uint8Array(bytes));
+            var f = new WebAssembly.Instance(module, { m: env }).exports.f;
+            if (env.table.length <= id) {
+                env.table.grow(id + 1 - env.table.length);
+            }
+            env.table.set(id, f);
+            return true;
+        } catch (e) {
+            return false;
+        }
+    }-*/;
+
+    // Returns false if the function traps. The bytes are replaced with the
+    // content of the memory; the copies are done by the typed arrays.
+    private static native boolean invoke(JavaScriptObject env, int id,
+            double[] args, byte[] bytes, double[] result) /*-{
+        var size = bytes.length;
+        var missing = size - env.memory.buffer.byteLength;
+        if (missing > 0) {
+            env.memory.grow(Math.ceil(missing / 65536));
+        }
+        new Uint8Array(env.memory.buffer, 0, size).set(bytes);
+        try {
+            result[0] = env.table.get(id).apply(null, args);
+        } catch (e) {
+            return false;
+        }
+        var memory = new Int8Array(env.memory.buffer, 0, size);
+        for (var i = 0; i < size; i++) {
+            bytes[i] = memory[i];
+        }
+        return true;
+    }-*/;
+}
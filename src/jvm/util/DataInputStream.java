@@ -73,46 +73,11 @@ public class DataInputStream {
     }
 
     public double readDouble() {
-        double value;
-        long lvalue = readLong();
-        if (lvalue == 0x7f800000) {
-            value = Double.POSITIVE_INFINITY;
-        } else if (lvalue == 0xff800000) {
-            value = Double.NEGATIVE_INFINITY;
-        } else if ((lvalue >= 0x7f800001 && lvalue <= 0x7fffffff)
-                || (lvalue >= 0xff800001 && lvalue <= 0xffffffff)) {
-            value = Double.NaN;
-        } else {
-            int s = ((lvalue >> 63) == 0) ? 1 : -1;
-            int e = (int) ((lvalue >> 52) & 0x7ffL);
-            long m = (e == 0) ? (lvalue & 0xfffffffffffffL) << 1
-                    : (lvalue & 0xfffffffffffffL) | 0x10000000000000L;
-
-            value = (double) (s * m * Math.pow(2, e - 1075));
-        }
-        return value;
-
+        return Double.longBitsToDouble(readLong());
     }
 
     public float readFloat(){
-        float value;
-        int ivalue = readUInt();
-        if (ivalue == 0x7f800000) {
-            value = Float.POSITIVE_INFINITY;
-        } else if (ivalue == 0xff800000) {
-            value = Float.NEGATIVE_INFINITY;
-        } else if ((ivalue >= 0x7f800001 && ivalue <= 0x7fffffff)
-                || (ivalue >= 0xff800001 && ivalue <= 0xffffffff)) {
-            value = Float.NaN;
-        } else {
-            int s = ((ivalue >> 31) == 0) ? 1 : -1;
-            int e = ((ivalue >> 23) & 0xff);
-            int m = (e == 0) ? (ivalue & 0x7fffff) << 1
-                    : (ivalue & 0x7fffff) | 0x800000;
-
-            value = (float) (s * m * Math.pow(2, e - 150));
-        }
-        return value;
+        return Float.intBitsToFloat(readUInt());
     }
 
 
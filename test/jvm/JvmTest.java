@@ -1,12 +1,38 @@
 package jvm;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gwtjava.io.PrintStream;
 import gwtjava.io.fs.FileSystem;
+import gwtjava.lang.System;
 import jib.client.JibClassLoader;
+import jvm.classparser.JClass;
+import jvm.classparser.JMember.JBytecodeMethod;
+import jvm.execution.BoxedStack;
+import jvm.execution.DecodedCode;
 import jvm.execution.ExecutionEngine;
+import jvm.execution.ExecutionEngine.State;
+import jvm.execution.ExecutionStats;
 import jvm.execution.JClassLoader;
+import jvm.execution.OPCodes;
+import jvm.execution.Profiler;
+import jvm.execution.Stack;
+import jvm.execution.UnboxedStack;
+import jvm.execution.jit.Jit;
+import jvm.execution.wasm.Wasm;
+import jvm.main.JVM;
 
 import org.junit.Test;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+
 public class JvmTest {
     @Test
     public void testNativeFS() throws InstantiationException, IllegalAccessException {
@@ -26,9 +52,470 @@ public class JvmTest {
         run("jvm/sample/HelloWorld", JibClassLoader.class);
     }
 
+    @Test
+    public void testStop() {
+        final List<RepeatingCommand> commands = new ArrayList<RepeatingCommand>();
+        Scheduler scheduler = new IncrementalScheduler(commands);
+        final boolean[] exited = new boolean[1];
+        Runnable onExit = new Runnable() {
+            @Override
+            public void run() {
+                exited[0] = true;
+            }
+        };
+
+        JVM.setClassLoader(new TestClassLoader());
+        JVM.run("jvm/sample/ArithmeticBench", scheduler, onExit);
+        assertTrue(commands.get(0).execute());
+        // Starting another program stops the first one.
+        JVM.run("jvm/sample/ArithmeticBench", scheduler, onExit);
+        assertFalse(commands.get(0).execute());
+        assertTrue(commands.get(1).execute());
+        JVM.stop();
+        assertFalse(JVM.isRunning());
+        assertFalse(commands.get(1).execute());
+        assertFalse(exited[0]);
+    }
+
+    @Test
+    public void testDecodedInstructions() throws InstantiationException, IllegalAccessException {
+        assertEquals("table 11213100\n" +
+                "lookup 1230\n" +
+                "super 111\n" +
+                "wide 1048576 25\n",
+                runAndCapture("jvm/sample/DecodeSample"));
+    }
+
+    @Test
+    public void testVirtualDispatch() throws InstantiationException, IllegalAccessException {
+        assertEquals("48 60 4226\n9 3 27 7\n", runAndCapture("jvm/sample/DispatchSample"));
+    }
+
+    @Test
+    public void testPrimitiveArrays() throws InstantiationException, IllegalAccessException {
+        assertEquals("-56 127 abA -25536 7 false true\n" +
+                "5 256 30 10\n" +
+                "6 4 25 0 null y ab\n" +
+                "9 2 4 10 x true true false\n",
+                runAndCapture("jvm/sample/PrimitiveArraySample"));
+    }
+
+    @Test
+    public void testArithmetic() throws InstantiationException, IllegalAccessException {
+        assertEquals("978412 18 19247123 69177 48\n",
+                runAndCapture("jvm/sample/ArithmeticSample"));
+    }
+
+    @Test
+    public void testRecursion() throws InstantiationException, IllegalAccessException {
+        assertEquals("4501500 4501500\noverflow true\n5050\n",
+                runAndCapture("jvm/sample/RecursionSample"));
+        assertEquals(runAndCapture("jvm/sample/RecursionSample"),
+                runAndCapture("jvm/sample/RecursionSample", new BoxedStack()));
+    }
+
+    @Test
+    public void testSubtypes() throws InstantiationException, IllegalAccessException {
+        assertEquals("1010000 1111000 0000000 0000000 0000111 0000001 0000101 \n" +
+                "cast failed\n" +
+                "special failure\n",
+                runAndCapture("jvm/sample/SubtypeSample"));
+    }
+
+    @Test
+    public void testClone() throws InstantiationException, IllegalAccessException {
+        assertEquals("3 4 true p true true\n" +
+                "true 4 5 true\n" +
+                "not cloneable\n" +
+                "4 9 2\n",
+                runAndCapture("jvm/sample/CloneSample"));
+    }
+
+    @Test
+    public void testStatics() throws InstantiationException, IllegalAccessException {
+        assertEquals("5250 2625510 derived 500 4\n", runAndCapture("jvm/sample/StaticSample"));
+    }
+
+    @Test
+    public void testClassInit() throws InstantiationException, IllegalAccessException {
+        assertEquals("main Other Base Derived Created 21 42 22\n",
+                runAndCapture("jvm/sample/InitSample"));
+    }
+
+    @Test
+    public void testExceptions() throws InstantiationException, IllegalAccessException {
+        final StringBuilder err = new StringBuilder();
+        PrintStream saved = System.err;
+        System.setErr(new CapturingPrintStream(err));
+        String out;
+        try {
+            out = runAndCapture("jvm/sample/ExceptionSample");
+        } finally {
+            System.setErr(saved);
+        }
+        assertEquals("8000 1000\n", out);
+        assertEquals("java/lang/IllegalStateException\n" +
+                "\t at jvm/sample/ExceptionSample: fail()V 4\n" +
+                "\t at jvm/sample/ExceptionSample: main([Ljava/lang/String;)V 85\n",
+                err.toString());
+    }
+
+    @Test
+    public void testArrayCopy() throws InstantiationException, IllegalAccessException {
+        assertEquals("23453458\n" +
+                "null c c null 5\n" +
+                "4 zzzzz 230 5\n" +
+                "out of bounds\n" +
+                "store\n" +
+                "300 abcd 450 c\n",
+                runAndCapture("jvm/sample/ArrayCopySample"));
+    }
+
+    @Test
+    public void testTimeSlices() throws InstantiationException, IllegalAccessException {
+        String expected = runAndCapture("jvm/sample/RecursionSample");
+        final StringBuilder output = new StringBuilder();
+        PrintStream out = System.out;
+        System.setOut(new CapturingPrintStream(output));
+        int slices = 0;
+        try {
+            JClassLoader.setInstance(new TestClassLoader());
+            ExecutionEngine exec = new ExecutionEngine();
+            exec.boot("jvm/sample/RecursionSample");
+            while (exec.execute(1000) == State.RUNNING) {
+                slices++;
+            }
+            assertEquals(State.FINISHED, exec.execute(1000));
+        } finally {
+            System.setOut(out);
+        }
+        assertTrue(slices > 100);
+        assertEquals(expected, output.toString());
+    }
+
+    @Test
+    public void testThreads() throws InstantiationException, IllegalAccessException {
+        assertEquals("main\n" +
+                "9000 Thread-2 false\n" +
+                "consumed 4950\n" +
+                "started woke interrupted true\n" +
+                "static 43\n",
+                runAndCapture("jvm/sample/ThreadSample"));
+    }
+
+    @Test
+    public void testStats() throws InstantiationException, IllegalAccessException {
+        String expected = runAndCapture("jvm/sample/InitSample");
+        ExecutionStats stats = new ExecutionStats();
+        assertEquals(expected, runAndCapture("jvm/sample/InitSample", withStats(stats)));
+
+        assertEquals(2, stats.getInvocations("jvm/sample/InitSample$Other/next()I"));
+        assertEquals(12, stats.getInstructions("jvm/sample/InitSample$Other/next()I"));
+        assertEquals(2, stats.getAllocations("jvm/sample/InitSample$Created"));
+        assertTrue(stats.getOpcodeCount(OPCodes.OP_new) > 0);
+        assertTrue(stats.getLoadedClasses().contains("jvm/sample/InitSample$Derived"));
+        List<String> init = stats.getInitializedClasses();
+        assertTrue(init.indexOf("jvm/sample/InitSample$Base")
+                < init.indexOf("jvm/sample/InitSample$Derived"));
+        String report = stats.report(Integer.MAX_VALUE);
+        assertTrue(report.contains("invokestatic_quick\n"));
+        assertTrue(report.contains(" 2 jvm/sample/InitSample$Created\n"));
+    }
+
+    @Test
+    public void testSuperinstructions() throws InstantiationException, IllegalAccessException {
+        String expected;
+        ExecutionStats plain = new ExecutionStats();
+        DecodedCode.setSuperinstructions(false);
+        try {
+            expected = runAndCapture("jvm/sample/TreeSample", withStats(plain));
+        } finally {
+            DecodedCode.setSuperinstructions(true);
+        }
+        ExecutionStats stats = new ExecutionStats();
+        assertEquals(expected, runAndCapture("jvm/sample/TreeSample", withStats(stats)));
+        assertTrue(stats.getInstructions() < plain.getInstructions());
+        assertTrue(stats.getOpcodeCount(OPCodes.OP_iinc_goto) > 0);
+        assertTrue(stats.getOpcodeCount(OPCodes.OP_aload_getfield) > 0);
+    }
+
+    @Test
+    public void testProfiler() throws InstantiationException, IllegalAccessException {
+        String expected = runAndCapture("jvm/sample/RecursionSample");
+        final Profiler profiler = new Profiler(100);
+        assertEquals(expected, runAndCapture("jvm/sample/RecursionSample", new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setProfiler(profiler);
+            }
+        }));
+
+        String[] stacks = profiler.getCollapsedStacks().split("\n");
+        long samples = 0;
+        boolean sum = false, truncated = false;
+        for (String stack : stacks) {
+            int space = stack.lastIndexOf(' ');
+            samples += Long.parseLong(stack.substring(space + 1));
+            sum |= stack.startsWith("jvm/sample/RecursionSample.main:23;"
+                    + "jvm/sample/RecursionSample.sum:10;");
+            truncated |= stack.startsWith("[truncated];jvm/sample/RecursionSample.forever:19;");
+        }
+        assertTrue(samples > 100);
+        assertEquals(profiler.getSamples(), samples);
+        assertTrue(sum);
+        assertTrue(truncated);
+    }
+
+    @Test
+    public void testJit() throws InstantiationException, IllegalAccessException {
+        assumeTrue(NodeJitBackend.isAvailable());
+        String[] samples = { "jvm/sample/JitSample", "jvm/sample/ArithmeticSample",
+                "jvm/sample/RecursionSample" };
+        for (String sample : samples) {
+            String expected = runAndCapture(sample);
+            Jit jit = new Jit(new NodeJitBackend(), 20);
+            assertEquals(expected, runAndCapture(sample, withJit(jit)));
+            assertTrue(jit.getCompiledMethods().size() > 0);
+        }
+
+        Jit jit = new Jit(new NodeJitBackend(), 20);
+        runAndCapture("jvm/sample/JitSample", withJit(jit));
+        List<String> compiled = jit.getCompiledMethods();
+        assertTrue(compiled.contains("jvm/sample/JitSample/fib(I)I"));
+        assertTrue(compiled.contains("jvm/sample/JitSample/harmonic(I)D"));
+        assertTrue(compiled.contains("jvm/sample/JitSample/conversions(D)I"));
+        assertTrue(compiled.contains("jvm/sample/JitSample/divide(II)I"));
+        assertTrue(!compiled.contains("jvm/sample/JitSample/longs(J)J"));
+    }
+
+    @Test
+    public void testRegisterCode() throws InstantiationException, IllegalAccessException {
+        String[] samples = { "jvm/sample/JitSample", "jvm/sample/RecursionSample",
+                "jvm/sample/DecodeSample", "jvm/sample/ArithmeticSample" };
+        EngineSetup registerCode = new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setRegisterCode(true);
+            }
+        };
+        for (String sample : samples) {
+            assertEquals(runAndCapture(sample), runAndCapture(sample, registerCode));
+        }
+
+        // The loads, stores and constants mostly disappear; longs are not
+        // supported.
+        JClass cls = JClassLoader.getInstance().getClassByName("jvm/sample/ArithmeticSample");
+        DecodedCode code = ((JBytecodeMethod) cls.getDeclaredMethod("ints(I)I")).getDecodedCode();
+        assertTrue(code.registers.size() * 2 < code.size());
+        code = ((JBytecodeMethod) cls.getDeclaredMethod("longs(I)J")).getDecodedCode();
+        assertTrue(code.translated);
+        assertEquals(null, code.registers);
+    }
+
+    @Test
+    public void testAstInterpreter() throws InstantiationException, IllegalAccessException {
+        String[] samples = { "jvm/sample/DispatchSample", "jvm/sample/JitSample",
+                "jvm/sample/ArithmeticSample", "jvm/sample/TreeSample" };
+        EngineSetup astInterpreter = new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setAstInterpreter(true);
+            }
+        };
+        for (String sample : samples) {
+            assertEquals(runAndCapture(sample), runAndCapture(sample, astInterpreter));
+        }
+
+        // The methods called by the trees are translated when they are
+        // reached; the recursion that is too deep gives up.
+        JClassLoader loader = JClassLoader.getInstance();
+        JClass cls = loader.getClassByName("jvm/sample/TreeSample");
+        DecodedCode code = ((JBytecodeMethod) cls.getDeclaredMethod("sum([I)I")).getDecodedCode();
+        assertTrue(code.tree != null);
+        cls = loader.getClassByName("jvm/sample/TreeSample$Mul");
+        code = ((JBytecodeMethod) cls.getDeclaredMethod("eval()I")).getDecodedCode();
+        assertTrue(code.tree != null);
+        cls = loader.getClassByName("jvm/sample/TreeSample");
+        code = ((JBytecodeMethod) cls.getDeclaredMethod(
+                "length(Ljvm/sample/TreeSample$Point;)I")).getDecodedCode();
+        assertTrue(code.treeBuilt);
+        assertEquals(null, code.tree);
+    }
+
+    @Test
+    public void testWasm() throws InstantiationException, IllegalAccessException {
+        assumeTrue(NodeWasmBackend.isAvailable());
+        String[] samples = { "jvm/sample/WasmSample", "jvm/sample/JitSample",
+                "jvm/sample/ArithmeticSample" };
+        for (String sample : samples) {
+            String expected = runAndCapture(sample);
+            Wasm wasm = new Wasm(new NodeWasmBackend(), 20);
+            assertEquals(expected, runAndCapture(sample, withWasm(wasm)));
+            assertTrue(wasm.getCompiledMethods().size() > 0);
+        }
+
+        Wasm wasm = new Wasm(new NodeWasmBackend(), 20);
+        runAndCapture("jvm/sample/WasmSample", withWasm(wasm));
+        List<String> compiled = wasm.getCompiledMethods();
+        assertTrue(compiled.contains("jvm/sample/WasmSample/multiply([D[D[DI)V"));
+        assertTrue(compiled.contains("jvm/sample/WasmSample/sieve([Z)I"));
+        assertTrue(compiled.contains("jvm/sample/WasmSample/mix([B[C[S[F[I)I"));
+        assertTrue(compiled.contains("jvm/sample/WasmSample/count([II)I"));
+        assertTrue(compiled.contains("jvm/sample/WasmSample/at([II)I"));
+    }
+
+    private static EngineSetup withStats(final ExecutionStats stats) {
+        return new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setStats(stats);
+            }
+        };
+    }
+
+    private static EngineSetup withJit(final Jit jit) {
+        return new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setJit(jit);
+            }
+        };
+    }
+
+    private static EngineSetup withWasm(final Wasm wasm) {
+        return new EngineSetup() {
+            @Override
+            public void configure(ExecutionEngine exec) {
+                exec.setWasm(wasm);
+            }
+        };
+    }
+
+    @Test
+    public void testBoxedStack()throws InstantiationException, IllegalAccessException {
+        String[] samples = { "jvm/sample/ArithmeticSample",
+                "jvm/sample/DecodeSample", "jvm/sample/PrimitiveArraySample" };
+        for (String sample : samples) {
+            assertEquals(runAndCapture(sample),
+                    runAndCapture(sample, new BoxedStack()));
+        }
+    }
+
+    private String runAndCapture(String name) throws InstantiationException, IllegalAccessException {
+        return runAndCapture(name, new UnboxedStack(), null);
+    }
+
+    static String runAndCapture(String name, Stack stack) throws InstantiationException, IllegalAccessException {
+        return runAndCapture(name, stack, null);
+    }
+
+    static String runAndCapture(String name, EngineSetup setup) throws InstantiationException, IllegalAccessException {
+        return runAndCapture(name, new UnboxedStack(), setup);
+    }
+
+    /**
+     * Run the sample with a new class loader and return its output. The
+     * engine is configured by [setup], if not null, before it starts.
+     */
+    static String runAndCapture(String name, Stack stack, EngineSetup setup)
+            throws InstantiationException, IllegalAccessException {
+        final StringBuilder output = new StringBuilder();
+        PrintStream out = System.out;
+        System.setOut(new CapturingPrintStream(output));
+        try {
+            run(name, TestClassLoader.class, stack, setup);
+        } finally {
+            System.setOut(out);
+        }
+        return output.toString();
+    }
+
+    /** Configures the engine that runs a sample, before it starts. */
+    interface EngineSetup {
+        void configure(ExecutionEngine exec);
+    }
+
+    private static class CapturingPrintStream extends PrintStream {
+        private final StringBuilder output;
+
+        CapturingPrintStream(StringBuilder output) {
+            this.output = output;
+        }
+
+        @Override
+        public void print(Object string) {
+            output.append(string);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     private void run(String name, Class<? extends JClassLoader> cls) throws InstantiationException, IllegalAccessException{
+        run(name, cls, new UnboxedStack(), null);
+    }
+
+    /** Keeps the incremental commands, that the tests execute themselves. */
+    private static class IncrementalScheduler extends Scheduler {
+        private final List<RepeatingCommand> commands;
+
+        IncrementalScheduler(List<RepeatingCommand> commands) {
+            this.commands = commands;
+        }
+
+        @Override
+        public void scheduleIncremental(RepeatingCommand cmd) {
+            commands.add(cmd);
+        }
+
+        @Override
+        public void scheduleDeferred(ScheduledCommand cmd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleEntry(RepeatingCommand cmd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleEntry(ScheduledCommand cmd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleFinally(RepeatingCommand cmd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleFinally(ScheduledCommand cmd) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleFixedDelay(RepeatingCommand cmd, int delayMs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scheduleFixedPeriod(RepeatingCommand cmd, int delayMs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static void run(String name, Class<? extends JClassLoader> cls, Stack stack,
+            EngineSetup setup) throws InstantiationException, IllegalAccessException {
         JClassLoader.setInstance(cls.newInstance());
-        ExecutionEngine exec = new ExecutionEngine();
+        ExecutionEngine exec = new ExecutionEngine(stack);
+        if (setup != null) {
+            setup.configure(exec);
+        }
         exec.bootstrap(name);
     }
 }
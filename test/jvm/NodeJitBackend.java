@@ -0,0 +1,139 @@
+package jvm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+
+import jvm.execution.jit.Bailout;
+import jvm.execution.jit.CompiledCode;
+import jvm.execution.jit.JitBackend;
+
+/**
+ * JIT backend for the tests, that runs the compiled methods in a node
+ * process. The requests and the results are exchanged one per line.
+ */
+public class NodeJitBackend implements JitBackend {
+    private static final String SCRIPT =
+            "var tables = [];\n" +
+            "require('readline').createInterface({ input: process.stdin })\n" +
+            "  .on('line', function (line) {\n" +
+            "    var w = line.split(' ');\n" +
+            "    var F = tables[w[1]] || (tables[w[1]] = []);\n" +
+            "    var out;\n" +
+            "    try {\n" +
+            "      if (w[0] === 'c') {\n" +
+            "        var src = JSON.parse(line.substring(w[0].length + w[1].length + w[2].length + 3));\n" +
+            "        F[w[2]] = new Function('F', src)(F);\n" +
+            "        out = 'ok';\n" +
+            "      } else {\n" +
+            "        var r = F[w[2]].apply(null, w.slice(3).map(Number));\n" +
+            "        out = Object.is(r, -0) ? '-0' : String(r);\n" +
+            "      }\n" +
+            "    } catch (e) {\n" +
+            "      out = w[0] === 'c' ? 'error ' + e : 'b';\n" +
+            "    }\n" +
+            "    process.stdout.write(out + '\\n');\n" +
+            "  });\n";
+
+    private static Process node;
+    private static PrintWriter in;
+    private static BufferedReader out;
+    private static int tables;
+
+    private final int table;
+
+    public NodeJitBackend() {
+        start();
+        table = tables++;
+    }
+
+    /** True if node can be run. */
+    public static boolean isAvailable() {
+        try {
+            start();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static synchronized void start() {
+        if (node != null) {
+            return;
+        }
+        try {
+            node = new ProcessBuilder("node", "-e", SCRIPT).start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        in = new PrintWriter(node.getOutputStream(), true);
+        out = new BufferedReader(new InputStreamReader(node.getInputStream()));
+    }
+
+    private static synchronized String request(String line) {
+        in.println(line);
+        try {
+            String reply = out.readLine();
+            if (reply == null) {
+                throw new IllegalStateException("node exited");
+            }
+            return reply;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompiledCode compile(final int id, String source) {
+        String reply = request("c " + table + " " + id + " " + quote(source));
+        if (!reply.equals("ok")) {
+            throw new AssertionError(reply + "\n" + source);
+        }
+        return new CompiledCode() {
+            @Override
+            public double run(int depth, int pc, double[] locals) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("r ").append(table).append(' ').append(id)
+                  .append(' ').append(depth).append(' ').append(pc);
+                for (double local : locals) {
+                    sb.append(' ').append(number(local));
+                }
+                String reply = request(sb.toString());
+                if (reply.equals("b")) {
+                    throw Bailout.INSTANCE;
+                }
+                return Double.parseDouble(reply);
+            }
+        };
+    }
+
+    private static String number(double d) {
+        if (d == 0 && 1 / d < 0) {
+            return "-0";
+        }
+        return Double.isNaN(d) ? "NaN" : Double.isInfinite(d) ? (d > 0 ? "Infinity" : "-Infinity")
+                : Double.toString(d);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,138 @@
+package jvm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.Base64;
+
+import jvm.execution.jit.Bailout;
+import jvm.execution.wasm.WasmBackend;
+
+/**
+ * WebAssembly backend for the tests, that runs the modules in a node
+ * process. The requests and the results are exchanged one per line, with
+ * the modules and the memory in base64.
+ */
+public class NodeWasmBackend implements WasmBackend {
+    private static final String SCRIPT =
+            "var envs = [];\n" +
+            "require('readline').createInterface({ input: process.stdin })\n" +
+            "  .on('line', function (line) {\n" +
+            "    var w = line.split(' ');\n" +
+            "    var env = envs[w[1]] || (envs[w[1]] = {\n" +
+            "      memory: new WebAssembly.Memory({ initial: 1 }),\n" +
+            "      table: new WebAssembly.Table({ initial: 0, element: 'anyfunc' }),\n" +
+            "      rem: function (a, b) { return a % b; }\n" +
+            "    });\n" +
+            "    var id = Number(w[2]), bytes = Buffer.from(w[3], 'base64'), out;\n" +
+            "    if (w[0] === 'i') {\n" +
+            "      try {\n" +
+            "        var f = new WebAssembly.Instance(new WebAssembly.Module(bytes), { m: env }).exports.f;\n" +
+            "        if (env.table.length <= id) env.table.grow(id + 1 - env.table.length);\n" +
+            "        env.table.set(id, f);\n" +
+            "        out = 'ok';\n" +
+            "      } catch (e) {\n" +
+            "        out = 'error ' + e;\n" +
+            "      }\n" +
+            "    } else {\n" +
+            "      var missing = bytes.length - env.memory.buffer.byteLength;\n" +
+            "      if (missing > 0) env.memory.grow(Math.ceil(missing / 65536));\n" +
+            "      var memory = new Uint8Array(env.memory.buffer, 0, bytes.length);\n" +
+            "      memory.set(bytes);\n" +
+            "      try {\n" +
+            "        var r = env.table.get(id).apply(null, w.slice(4).map(Number));\n" +
+            "        out = (Object.is(r, -0) ? '-0' : String(r)) + ' '\n" +
+            "            + Buffer.from(memory).toString('base64');\n" +
+            "      } catch (e) {\n" +
+            "        out = 'b';\n" +
+            "      }\n" +
+            "    }\n" +
+            "    process.stdout.write(out + '\\n');\n" +
+            "  });\n";
+
+    private static Process node;
+    private static PrintWriter in;
+    private static BufferedReader out;
+    private static int envs;
+
+    private final int env;
+
+    public NodeWasmBackend() {
+        start();
+        env = envs++;
+    }
+
+    /** True if node can be run. */
+    public static boolean isAvailable() {
+        try {
+            start();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static synchronized void start() {
+        if (node != null) {
+            return;
+        }
+        try {
+            node = new ProcessBuilder("node", "-e", SCRIPT).start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        in = new PrintWriter(node.getOutputStream(), true);
+        out = new BufferedReader(new InputStreamReader(node.getInputStream()));
+    }
+
+    private static synchronized String request(String line) {
+        in.println(line);
+        try {
+            String reply = out.readLine();
+            if (reply == null) {
+                throw new IllegalStateException("node exited");
+            }
+            return reply;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean instantiate(int id, byte[] module) {
+        String reply = request("i " + env + " " + id + " "
+                + Base64.getEncoder().encodeToString(module));
+        if (!reply.equals("ok")) {
+            throw new AssertionError(reply);
+        }
+        return true;
+    }
+
+    @Override
+    public double call(int id, double[] args, byte[] memory) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("r ").append(env).append(' ').append(id).append(' ')
+          .append(Base64.getEncoder().encodeToString(memory));
+        for (double arg : args) {
+            sb.append(' ').append(number(arg));
+        }
+        String reply = request(sb.toString());
+        if (reply.equals("b")) {
+            throw Bailout.INSTANCE;
+        }
+        int space = reply.indexOf(' ');
+        byte[] result = Base64.getDecoder().decode(reply.substring(space + 1));
+        System.arraycopy(result, 0, memory, 0, memory.length);
+        String value = reply.substring(0, space);
+        return value.equals("undefined") ? 0 : Double.parseDouble(value);
+    }
+
+    private static String number(double d) {
+        if (d == 0 && 1 / d < 0) {
+            return "-0";
+        }
+        return Double.isNaN(d) ? "NaN" : Double.isInfinite(d) ? (d > 0 ? "Infinity" : "-Infinity")
+                : Double.toString(d);
+    }
+}
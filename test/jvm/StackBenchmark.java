@@ -0,0 +1,120 @@
+package jvm;
+
+import gwtjava.io.PrintStream;
+import gwtjava.lang.System;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+
+import jvm.classparser.JClass;
+import jvm.execution.BoxedStack;
+import jvm.execution.ExecutionEngine;
+import jvm.execution.JClassLoader;
+import jvm.execution.Stack;
+import jvm.execution.UnboxedStack;
+
+/**
+ * Compares the execution time and the memory allocated by the interpreter
+ * with the boxed and the unboxed stack, on an arithmetic-heavy program. The
+ * cost of loading the classes is measured separately and subtracted.
+ *
+ * Each stack is measured in its own JVM, so that the host JIT does not
+ * optimize the interpreter for one of them. Run it after "mvn test-compile":
+ *   java -cp target/classes:target/test-classes jvm.StackBenchmark [runs]
+ *
+ * @author ctalau
+ */
+public class StackBenchmark {
+    private static final String PROGRAM = "jvm/sample/ArithmeticBench";
+    private static final String EMPTY_PROGRAM = "jvm/sample/ArithmeticBench$Empty";
+
+    public static void main(String[] args) throws Exception {
+        String runs = args.length > 0 ? args[0] : "20";
+        if (args.length > 1) {
+            measure(args[1].equals("unboxed"), Integer.parseInt(runs));
+            return;
+        }
+        double[] boxed = fork("boxed", runs);
+        double[] unboxed = fork("unboxed", runs);
+        java.lang.System.out.printf("speedup %.2fx, allocation %.1f%%%n",
+                boxed[0] / unboxed[0], 100.0 * unboxed[1] / boxed[1]);
+    }
+
+    private static double[] fork(String stack, String runs) throws Exception {
+        String javaBin = java.lang.System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(javaBin, "-cp",
+                java.lang.System.getProperty("java.class.path"),
+                StackBenchmark.class.getName(), runs, stack)
+                .redirectErrorStream(true).start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line, last = null;
+        while ((line = in.readLine()) != null) {
+            java.lang.System.out.println(line);
+            last = line;
+        }
+        p.waitFor();
+        String[] fields = last.trim().split("\\s+");
+        return new double[] { Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[3]) };
+    }
+
+    /**
+     * Print the time and the bytes allocated by one run of the program,
+     * averaged over [runs] runs, after the same number of warm-up runs.
+     */
+    private static void measure(boolean unboxed, int runs) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream() {
+            @Override
+            public void print(Object string) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        try {
+            run(PROGRAM, unboxed, runs);
+            run(EMPTY_PROGRAM, unboxed, runs);
+            long[] total = run(PROGRAM, unboxed, runs);
+            long[] loading = run(EMPTY_PROGRAM, unboxed, runs);
+            java.lang.System.out.printf("%s %8.2f ms/run %10.1f KB/run%n",
+                    unboxed ? "unboxed" : "boxed  ",
+                    (total[0] - loading[0]) / 1e6 / runs,
+                    (total[1] - loading[1]) / 1024.0 / runs);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Returns the time in ns and the bytes allocated by [runs] runs.
+     */
+    private static long[] run(String program, boolean unboxed, int runs) {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long time = 0, bytes = 0;
+        for (int i = 0; i < runs; i++) {
+            JClassLoader.setInstance(new TestClassLoader() {
+                @Override
+                public void printSuperClasses(JClass jc) {
+                }
+            });
+            Stack stack = unboxed ? new UnboxedStack() : new BoxedStack();
+            long b0 = mx.getThreadAllocatedBytes(tid);
+            long t0 = java.lang.System.nanoTime();
+            new ExecutionEngine(stack).bootstrap(program);
+            time += java.lang.System.nanoTime() - t0;
+            bytes += mx.getThreadAllocatedBytes(tid) - b0;
+        }
+        return new long[] { time, bytes };
+    }
+}
@@ -38,7 +38,7 @@ public class TestClassLoader extends JClassLoader {
     }
 
     private static final int MB = 1000 * 1000;
-    private static final String [] PATH = { "test-classes/"};
+    private static final String [] PATH = { "test-classes/", "target/test-classes/"};
     private static final String RT_PATH = "/usr/lib/jvm/java-7-openjdk-amd64/jre/lib/";
     private static final String RT_JAR = "rt.jar";
 
@@ -0,0 +1,98 @@
+package jvm;
+
+import gwtjava.io.PrintStream;
+import gwtjava.lang.System;
+
+import jvm.classparser.JClass;
+import jvm.execution.ExecutionEngine;
+import jvm.execution.JClassLoader;
+import jvm.execution.jit.Jit;
+import jvm.execution.wasm.Wasm;
+
+/**
+ * Compares the execution time of the tiers of the execution engine on a
+ * corpus of sample programs: the interpreter alone, the register code, the
+ * tree interpreter, the JavaScript JIT and the WebAssembly compiler. The
+ * last two run the generated code in a node process, as in the tests, so
+ * their times include the exchanges with it; they are skipped if node
+ * cannot be run.
+ *
+ * Run it after "mvn test-compile":
+ *   java -cp target/classes:target/test-classes:$GWT_USER_JAR jvm.TierBenchmark [runs]
+ *
+ * @author ctalau
+ */
+public class TierBenchmark {
+    private static final String[] PROGRAMS = { "jvm/sample/ArithmeticBench",
+            "jvm/sample/WasmSample", "jvm/sample/JitSample", "jvm/sample/TreeSample" };
+    private static final String[] TIERS = { "interpreter", "registers", "tree", "jit", "wasm" };
+
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        boolean node = NodeJitBackend.isAvailable() && NodeWasmBackend.isAvailable();
+        java.lang.System.out.printf("%-28s", "ms/run");
+        for (String tier : TIERS) {
+            java.lang.System.out.printf("%12s", tier);
+        }
+        java.lang.System.out.println();
+        for (String program : PROGRAMS) {
+            java.lang.System.out.printf("%-28s", program);
+            for (String tier : TIERS) {
+                if (!node && (tier.equals("jit") || tier.equals("wasm"))) {
+                    java.lang.System.out.printf("%12s", "-");
+                    continue;
+                }
+                run(program, tier, runs);
+                java.lang.System.out.printf("%12.1f", run(program, tier, runs) / 1e6 / runs);
+            }
+            java.lang.System.out.println();
+        }
+    }
+
+    /**
+     * Returns the time in ns of [runs] runs of the program, with its output
+     * discarded.
+     */
+    private static long run(String program, String tier, int runs) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream() {
+            @Override
+            public void print(Object string) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        long time = 0;
+        try {
+            for (int i = 0; i < runs; i++) {
+                JClassLoader.setInstance(new TestClassLoader() {
+                    @Override
+                    public void printSuperClasses(JClass jc) {
+                    }
+                });
+                ExecutionEngine exec = new ExecutionEngine();
+                if (tier.equals("registers")) {
+                    exec.setRegisterCode(true);
+                } else if (tier.equals("tree")) {
+                    exec.setAstInterpreter(true);
+                } else if (tier.equals("jit")) {
+                    exec.setJit(new Jit(new NodeJitBackend()));
+                } else if (tier.equals("wasm")) {
+                    exec.setWasm(new Wasm(new NodeWasmBackend()));
+                }
+                long t0 = java.lang.System.nanoTime();
+                exec.bootstrap(program);
+                time += java.lang.System.nanoTime() - t0;
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return time;
+    }
+}
@@ -27,4 +27,20 @@ public class JavaObjectReprTest {
         assertEquals(0, obj.getField(jm));
     }
 
+    @Test
+    public void testInheritedFieldOffsets() {
+        JClassLoader.setInstance(jcl);
+        JClass jc = jcl.getClassByName("java/lang/StringBuilder");
+
+        ObjectRepr obj = ObjectFactory.newObject(jc);
+        JMemberConstant sub = new JMemberConstant(
+                new JClassConstant("java/lang/StringBuilder"), "count", "I");
+        JMemberConstant sup = new JMemberConstant(
+                new JClassConstant("java/lang/AbstractStringBuilder"), "count", "I");
+        obj.putField(sub, 42);
+        assertEquals(42, obj.getField(sup));
+        assertEquals(JClass.getFieldOffset(sub), JClass.getFieldOffset(sup));
+        assertEquals(0, ObjectFactory.newObject(jc).getField(sub));
+    }
+
 }
@@ -0,0 +1,23 @@
+package jvm.sample;
+
+/**
+ * Longer running version of [ArithmeticSample], used by StackBenchmark.
+ * [Empty] loads the same classes without doing the computation.
+ */
+public class ArithmeticBench {
+    static void run(int n) {
+        long l = ArithmeticSample.longs(n);
+        System.out.println(ArithmeticSample.ints(n) + " " + (int) l + " "
+                + (int) ArithmeticSample.doubles(n));
+    }
+
+    public static void main(String[] args) {
+        run(100000);
+    }
+
+    public static class Empty {
+        public static void main(String[] args) {
+            run(0);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package jvm.sample;
+
+/**
+ * Arithmetic, comparisons and branches on every primitive type.
+ */
+public class ArithmeticSample {
+    static int ints(int n) {
+        int acc = 0;
+        for (int i = 0; i < n; i++) {
+            acc += (i * 7) ^ (acc >>> 3);
+            if (acc % 5 == 0) {
+                acc -= i;
+            }
+        }
+        return acc;
+    }
+
+    static long longs(int n) {
+        long acc = 1;
+        for (int i = 0; i < n; i++) {
+            acc = acc * 31 + i;
+            if (acc > (1L << 40)) {
+                acc = acc >> 17;
+            }
+        }
+        return acc;
+    }
+
+    static double doubles(int n) {
+        double acc = 0;
+        float f = 0.5f;
+        for (int i = 1; i <= n; i++) {
+            acc += 1.0 / i;
+            f = f * 1.5f;
+            if (f > 1000) {
+                f = f / 1000;
+            }
+        }
+        return acc + f;
+    }
+
+    static int compares() {
+        double nan = 0.0 / 0.0;
+        float fnan = (float) nan;
+        int ret = 0;
+        if (nan < 1) ret += 1;
+        if (nan > 1) ret += 2;
+        if (fnan < 1) ret += 4;
+        if (fnan > 1) ret += 8;
+        if (!(nan >= 1)) ret += 16;
+        if (-1L < 1L) ret += 32;
+        return ret;
+    }
+
+    public static void main(String[] args) {
+        int n = 1000;
+        long l = longs(n);
+        System.out.println(ints(n) + " " + (int) (l >> 20) + " " + (int) l
+                + " " + (int) (doubles(n) * 1000) + " " + compares());
+    }
+}
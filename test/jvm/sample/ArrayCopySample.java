@@ -0,0 +1,60 @@
+package jvm.sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Bulk copies and fills of arrays, directly and through growing strings
+ * and lists.
+ */
+public class ArrayCopySample {
+    public static void main(String[] args) {
+        int[] a = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        System.arraycopy(a, 0, a, 2, 5);
+        System.arraycopy(a, 3, a, 0, 4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.length; i++) {
+            sb.append(a[i]);
+        }
+        System.out.println(sb);
+
+        String[] names = { "a", "b", "c" };
+        Object[] objs = new Object[4];
+        System.arraycopy(names, 0, objs, 1, 3);
+        String[] more = Arrays.copyOf(names, 5);
+        System.out.println(objs[0] + " " + objs[3] + " " + more[2] + " "
+                + more[4] + " " + more.length);
+
+        long[] l = new long[10];
+        Arrays.fill(l, 3, 8, 1L << 33);
+        char[] c = new char[5];
+        Arrays.fill(c, 'z');
+        byte[] b = Arrays.copyOfRange(new byte[] { 1, 2, 3 }, 1, 6);
+        System.out.println((int) (l[2] + l[3] + l[7] + l[8] >> 32) + " " + new String(c)
+                + " " + b[0] + b[1] + b[2] + " " + b.length);
+
+        try {
+            System.arraycopy(a, 4, a, 0, 5);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("out of bounds");
+        }
+        try {
+            System.arraycopy(a, 0, l, 0, 1);
+        } catch (ArrayStoreException e) {
+            System.out.println("store");
+        }
+
+        StringBuilder grown = new StringBuilder();
+        ArrayList<String> list = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            grown.append((char) ('a' + i % 26));
+            list.add(i % 2 == 0 ? "ab" : "c");
+        }
+        int sum = 0;
+        for (int i = 0; i < list.size(); i++) {
+            sum += list.get(i).length();
+        }
+        System.out.println(grown.length() + " " + grown.substring(26, 30) + " "
+                + sum + " " + list.get(299));
+    }
+}
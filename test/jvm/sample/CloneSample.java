@@ -0,0 +1,65 @@
+package jvm.sample;
+
+/**
+ * Object.clone() on objects of Cloneable classes, on the other classes and
+ * on arrays.
+ */
+public class CloneSample {
+    static class Point implements Cloneable {
+        int x;
+        long id;
+        String name;
+        int[] tags = { 1, 2 };
+
+        Point(int x, long id, String name) {
+            this.x = x;
+            this.id = id;
+            this.name = name;
+        }
+
+        Point copy() throws CloneNotSupportedException {
+            return (Point) super.clone();
+        }
+    }
+
+    static class Point3 extends Point {
+        double z;
+
+        Point3(int x, double z) {
+            super(x, 7L, "p3");
+            this.z = z;
+        }
+    }
+
+    static class Plain {
+        int v = 5;
+
+        Object copy() throws CloneNotSupportedException {
+            return super.clone();
+        }
+    }
+
+    public static void main(String[] args) throws CloneNotSupportedException {
+        Point p = new Point(3, 1L << 40, "p");
+        Point q = p.copy();
+        q.x++;
+        System.out.println(p.x + " " + q.x + " " + (q.id == p.id) + " "
+                + q.name + " " + (q.tags == p.tags) + " " + (q != p));
+
+        Point3 r = (Point3) new Point3(4, 2.5).copy();
+        System.out.println((r instanceof Point3) + " " + r.x + " "
+                + (int) (r.z * 2) + " " + (r.id == 7L));
+
+        try {
+            new Plain().copy();
+            System.out.println("cloned");
+        } catch (CloneNotSupportedException e) {
+            System.out.println("not cloneable");
+        }
+
+        int[] a = { 4, 5 };
+        int[] b = a.clone();
+        b[0] = 9;
+        System.out.println(a[0] + " " + b[0] + " " + b.length);
+    }
+}
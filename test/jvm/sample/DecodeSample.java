@@ -0,0 +1,59 @@
+package jvm.sample;
+
+/**
+ * Exercises the instructions with non-trivial operands: switches, branches,
+ * wide locals and calls through "super".
+ */
+public class DecodeSample {
+    static class Base {
+        int v() {
+            return 1;
+        }
+    }
+
+    static class Mid extends Base {
+        int v() {
+            return super.v() + 10;
+        }
+    }
+
+    static class Leaf extends Mid {
+        int v() {
+            return super.v() + 100;
+        }
+    }
+
+    static int table(int k) {
+        switch (k) {
+        case 1: return 10;
+        case 2: return 20;
+        case 3: return 30;
+        default: return -1;
+        }
+    }
+
+    static int lookup(int k) {
+        switch (k) {
+        case -1000: return 1;
+        case 7: return 2;
+        case 100000: return 3;
+        default: return 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        int t = 0;
+        for (int k = 0; k < 5; k++) {
+            t = t * 100 + table(k) + 1;
+        }
+        System.out.println("table " + t);
+        System.out.println("lookup " + lookup(-1000) + lookup(7) + lookup(100000) + lookup(8));
+        System.out.println("super " + new Leaf().v());
+
+        long big = 1L << 40;
+        double half = 0.5;
+        big += 3;
+        half *= 5;
+        System.out.println("wide " + (int) (big >> 20) + " " + (int) (half * 10));
+    }
+}
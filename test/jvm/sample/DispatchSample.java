@@ -0,0 +1,91 @@
+package jvm.sample;
+
+/**
+ * Virtual and interface calls from monomorphic, polymorphic and megamorphic
+ * call sites.
+ */
+public class DispatchSample {
+    interface Shape {
+        int area();
+    }
+
+    static class Square implements Shape {
+        public int area() {
+            return 4;
+        }
+    }
+
+    static class Rect implements Shape {
+        public int area() {
+            return 6;
+        }
+    }
+
+    static class Tri implements Shape {
+        public int area() {
+            return 3;
+        }
+    }
+
+    static class Big extends Square {
+        public int area() {
+            return 100;
+        }
+    }
+
+    static class Bigger extends Big {
+        public int area() {
+            return 1000;
+        }
+    }
+
+    static class Same extends Bigger {
+    }
+
+    interface Solid extends Shape {
+        int depth();
+    }
+
+    static abstract class Prism implements Solid {
+        public int volume() {
+            return area() * depth();
+        }
+    }
+
+    static class Cube extends Prism {
+        public int area() {
+            return 9;
+        }
+
+        public int depth() {
+            return 3;
+        }
+    }
+
+    static class Plain {
+        public int area() {
+            return 7;
+        }
+    }
+
+    static class Inherited extends Plain implements Shape {
+    }
+
+    public static void main(String[] args) {
+        Shape[] shapes = { new Square(), new Rect(), new Tri(), new Big(),
+                new Bigger(), new Same() };
+
+        int mono = 0, poly = 0, mega = 0;
+        for (int i = 0; i < 12; i++) {
+            mono += shapes[0].area();
+            poly += shapes[i % 2].area();
+            mega += shapes[i % shapes.length].area();
+        }
+        System.out.println(mono + " " + poly + " " + mega);
+
+        Solid solid = new Cube();
+        Shape inherited = new Inherited();
+        System.out.println(solid.area() + " " + solid.depth() + " "
+                + ((Prism) solid).volume() + " " + inherited.area());
+    }
+}
@@ -0,0 +1,56 @@
+package jvm.sample;
+
+/**
+ * Exceptions used for control flow, handlers in callers, finally blocks and
+ * an uncaught exception.
+ */
+public class ExceptionSample {
+    static class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static int digit(char c) throws ParseException {
+        if (c < '0' || c > '9') {
+            throw new ParseException();
+        }
+        return c - '0';
+    }
+
+    static int parse(String s) throws ParseException {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            n = 10 * n + digit(s.charAt(i));
+        }
+        return n;
+    }
+
+    static int finallyCount;
+
+    static int sumValid(String[] inputs) {
+        int sum = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            try {
+                sum += parse(inputs[i]);
+            } catch (ParseException e) {
+                sum -= 1;
+            } finally {
+                finallyCount++;
+            }
+        }
+        return sum;
+    }
+
+    static void fail() {
+        throw new IllegalStateException();
+    }
+
+    public static void main(String[] args) {
+        String[] inputs = { "12", "x", "30", "4y", "" };
+        int total = 0;
+        for (int i = 0; i < 200; i++) {
+            total += sumValid(inputs);
+        }
+        System.out.println(total + " " + finallyCount);
+        fail();
+    }
+}
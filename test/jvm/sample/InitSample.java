@@ -0,0 +1,52 @@
+package jvm.sample;
+
+/**
+ * Order of the class initializers: superclasses first, each one once, when
+ * the class is first used.
+ */
+public class InitSample {
+    static String log = "";
+
+    static class Base {
+        static int value = Other.next();
+        static {
+            log += "Base ";
+        }
+    }
+
+    static class Derived extends Base {
+        static {
+            log += "Derived ";
+        }
+
+        static int twice() {
+            return 2 * value;
+        }
+    }
+
+    static class Other {
+        static int counter = 20;
+        static {
+            log += "Other ";
+        }
+
+        static int next() {
+            return ++counter;
+        }
+    }
+
+    static class Created {
+        static {
+            log += "Created ";
+        }
+    }
+
+    public static void main(String[] args) {
+        log += "main ";
+        int v = Derived.twice();
+        new Created();
+        new Created();
+        log += Derived.value + " " + v + " " + Other.next();
+        System.out.println(log);
+    }
+}
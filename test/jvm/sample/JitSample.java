@@ -0,0 +1,107 @@
+package jvm.sample;
+
+/**
+ * Hot numeric methods, that the JIT compiles: loops, recursion, conversions,
+ * switches, and a recursion too deep for the compiled code.
+ */
+public class JitSample {
+    static int fib(int n) {
+        return n < 2 ? n : fib(n - 1) + fib(n - 2);
+    }
+
+    static int collatz(int n) {
+        int steps = 0;
+        while (n != 1) {
+            n = n % 2 == 0 ? n / 2 : 3 * n + 1;
+            steps++;
+        }
+        return steps;
+    }
+
+    static double harmonic(int n) {
+        double acc = 0;
+        for (int i = 1; i <= n; i++) {
+            acc += 1.0 / i;
+        }
+        return acc;
+    }
+
+    static float floats(float x) {
+        float acc = x;
+        for (int i = 0; i < 10; i++) {
+            acc = acc * 1.1f + 0.3f;
+        }
+        return acc;
+    }
+
+    static int conversions(double d) {
+        float f = (float) d;
+        return (int) d + (int) f + (short) d + (byte) d + (char) d;
+    }
+
+    static int table(int k) {
+        switch (k) {
+        case 1: return 10;
+        case 2: return 20;
+        case 3: return 30;
+        case 4: return 40;
+        default: return -1;
+        }
+    }
+
+    static int lookup(int k) {
+        switch (k) {
+        case -1000: return 1;
+        case 7: return 2;
+        case 100000: return 3;
+        default: return 0;
+        }
+    }
+
+    static int divide(int a, int b) {
+        return a / b + a % b;
+    }
+
+    static int deep(int n) {
+        return n == 0 ? 0 : 1 + deep(n - 1);
+    }
+
+    static long longs(long n) {
+        return n * n;
+    }
+
+    public static void main(String[] args) {
+        int acc = 0;
+        for (int i = 0; i < 20; i++) {
+            acc += fib(i) + collatz(i + 1) + table(i % 6) + lookup(i * 7);
+        }
+        System.out.println(acc + " " + fib(20) + " " + collatz(27));
+        System.out.println((int) (harmonic(1000) * 1e6) + " "
+                + (int) (floats(0.5f) * 1e6) + " " + (int) longs(1000));
+
+        double[] values = { 0.0 / 0.0, 1e20, -1e20, 65537.7, -3.9, 300.5 };
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < 100; k++) {
+            for (int i = 0; i < values.length; i++) {
+                int c = conversions(values[i]);
+                if (k == 0) {
+                    sb.append(c).append(' ');
+                }
+            }
+        }
+        System.out.println(sb.toString().trim());
+
+        for (int i = 0; i < 100; i++) {
+            acc += divide(i * 37 - 1000, i % 10 - 5 + (i % 10 == 5 ? 1 : 0));
+        }
+        System.out.println(acc + " " + divide(Integer.MIN_VALUE, -1));
+
+        // The compiled code gives up when the recursion gets too deep.
+        System.out.println(deep(1000));
+        try {
+            deep(1000000);
+        } catch (StackOverflowError e) {
+            System.out.println("overflow");
+        }
+    }
+}
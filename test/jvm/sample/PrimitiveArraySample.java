@@ -0,0 +1,54 @@
+package jvm.sample;
+
+/**
+ * Loads and stores on arrays of every element type.
+ */
+public class PrimitiveArraySample {
+    public static void main(String[] args) {
+        byte[] b = new byte[2];
+        b[0] = (byte) 200;
+        b[1] = 127;
+        char[] c = new char[3];
+        c[0] = 'a';
+        c[1] = (char) (c[0] + 1);
+        c[2] = (char) 65601;
+        short[] s = { (short) 40000, 7 };
+        boolean[] z = new boolean[2];
+        z[1] = true;
+        System.out.println(b[0] + " " + b[1] + " " + c[0] + c[1] + c[2] + " "
+                + s[0] + " " + s[1] + " " + z[0] + " " + z[1]);
+
+        long[] l = new long[2];
+        l[1] = 1L << 40;
+        l[0] = l[1] + 5;
+        float[] f = { 1.5f, 0 };
+        f[1] = f[0] * 2;
+        double[] d = new double[2];
+        d[0] = 0.25;
+        d[1] += d[0] * 4;
+        System.out.println((int) (l[0] - l[1]) + " " + (int) (l[1] >> 32) + " "
+                + (int) (f[1] * 10) + " " + (int) (d[1] * 10));
+
+        int[][] m = new int[3][4];
+        double[][][] cube = new double[2][2][2];
+        String[][] names = new String[2][];
+        names[1] = new String[] { "x", "y" };
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 4; j++)
+                m[i][j] = i * j;
+        cube[1][1][1] = 2.5;
+        System.out.println(m[2][3] + " " + m[0].length + " "
+                + (int) (cube[1][1][1] * 10) + " " + (int) cube[0][1][0]
+                + " " + names[0] + " " + names[1][1]
+                + " " + new String(c, 0, 2));
+
+        // Methods inherited from java/lang/Object.
+        int[] copy = m[2].clone();
+        copy[1] = 9;
+        double[] dcopy = d.clone();
+        System.out.println(copy[1] + " " + m[2][1] + " " + copy.length + " "
+                + (int) (dcopy[1] * 10) + " " + names.clone()[1][0] + " "
+                + (b.hashCode() == System.identityHashCode(b)) + " "
+                + b.equals(b) + " " + b.equals(b.clone()));
+    }
+}
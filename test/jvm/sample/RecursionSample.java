@@ -0,0 +1,32 @@
+package jvm.sample;
+
+/**
+ * Deep recursion, and infinite recursion that overflows the VM stack.
+ */
+public class RecursionSample {
+    static int depth;
+
+    static int sum(int n) {
+        return n == 0 ? 0 : n + sum(n - 1);
+    }
+
+    static long sumLongs(long n, long acc) {
+        return n == 0 ? acc : sumLongs(n - 1, acc + n);
+    }
+
+    static void forever() {
+        depth++;
+        forever();
+    }
+
+    public static void main(String[] args) {
+        System.out.println(sum(3000) + " " + (int) sumLongs(3000, 0));
+        try {
+            forever();
+        } catch (StackOverflowError e) {
+            System.out.println("overflow " + (depth > 3000));
+        }
+        // The stack is usable again after the overflow.
+        System.out.println(sum(100));
+    }
+}
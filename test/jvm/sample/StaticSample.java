@@ -0,0 +1,36 @@
+package jvm.sample;
+
+/**
+ * Static fields and methods, declared by the class, a superclass or an
+ * interface.
+ */
+public class StaticSample {
+    interface Table {
+        int[] PRIMES = { 2, 3, 5, 7 };
+    }
+
+    static class Base {
+        static int count;
+        static long total = 10;
+
+        static int next() {
+            return ++count;
+        }
+    }
+
+    static class Derived extends Base implements Table {
+        static String name = "derived";
+    }
+
+    static double half;
+
+    public static void main(String[] args) {
+        for (int i = 0; i < 1000; i++) {
+            Derived.count += Derived.PRIMES[i % 4];
+            Derived.total += Derived.next();
+            half += 0.5;
+        }
+        System.out.println(Base.count + " " + (int) Base.total + " "
+                + Derived.name + " " + (int) half + " " + Table.PRIMES.length);
+    }
+}
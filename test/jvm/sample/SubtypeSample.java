@@ -0,0 +1,71 @@
+package jvm.sample;
+
+/**
+ * Subtype tests of instanceof, checkcast and exception handlers.
+ */
+public class SubtypeSample {
+    interface Named {
+    }
+
+    interface Titled extends Named {
+    }
+
+    static class Base implements Named {
+    }
+
+    static class Derived extends Base implements Titled {
+    }
+
+    static class Other {
+    }
+
+    static class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static class SpecialFailure extends Failure {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static String test(boolean b) {
+        return b ? "1" : "0";
+    }
+
+    static void fail(boolean special) {
+        throw special ? new SpecialFailure() : new Failure();
+    }
+
+    static String handle(boolean special) {
+        try {
+            fail(special);
+        } catch (SpecialFailure e) {
+            return "special";
+        } catch (Failure e) {
+            return "failure";
+        }
+        return "none";
+    }
+
+    public static void main(String[] args) {
+        Object[] objs = { new Base(), new Derived(), new Other(), null,
+                new Derived[0], new int[0], new Named[0][0] };
+        String s = "";
+        for (int i = 0; i < objs.length; i++) {
+            Object o = objs[i];
+            s += test(o instanceof Base) + test(o instanceof Derived)
+                    + test(o instanceof Named) + test(o instanceof Titled)
+                    + test(o instanceof Object[]) + test(o instanceof Named[])
+                    + test(o instanceof Cloneable) + " ";
+        }
+        System.out.println(s);
+
+        Object o = new Other();
+        try {
+            Named n = (Named) o;
+            System.out.println("cast " + (n != null));
+        } catch (ClassCastException e) {
+            System.out.println("cast failed");
+        }
+        System.out.println(handle(true) + " " + handle(false));
+    }
+}
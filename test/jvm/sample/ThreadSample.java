@@ -0,0 +1,160 @@
+package jvm.sample;
+
+/**
+ * Threads that share a counter, a producer and a consumer that communicate
+ * through a bounded buffer, sleeps, joins, interrupts and a class that is
+ * used while another thread initializes it.
+ */
+public class ThreadSample {
+    private int count;
+
+    private synchronized void increment() {
+        count++;
+    }
+
+    static class Counter extends Thread {
+        private final ThreadSample shared;
+
+        Counter(ThreadSample shared) {
+            this.shared = shared;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < 3000; i++) {
+                shared.increment();
+            }
+        }
+    }
+
+    static class Buffer {
+        private final int[] items = new int[4];
+        private int head, size;
+
+        synchronized void put(int item) throws InterruptedException {
+            while (size == items.length) {
+                wait();
+            }
+            items[(head + size) % items.length] = item;
+            size++;
+            notifyAll();
+        }
+
+        synchronized int take() throws InterruptedException {
+            while (size == 0) {
+                wait();
+            }
+            int item = items[head];
+            head = (head + 1) % items.length;
+            size--;
+            notifyAll();
+            return item;
+        }
+    }
+
+    static int consumed;
+
+    static class Slow {
+        static int value;
+
+        static {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+            }
+            value = 42;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(Thread.currentThread().getName());
+
+        ThreadSample shared = new ThreadSample();
+        Thread[] counters = new Thread[3];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counter(shared);
+            counters[i].start();
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i].join();
+        }
+        System.out.println(shared.count + " " + counters[2].getName() + " "
+                + counters[0].isAlive());
+
+        final Buffer buffer = new Buffer();
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        buffer.put(i);
+                    }
+                    buffer.put(-1);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int item = buffer.take(); item >= 0; item = buffer.take()) {
+                        consumed += item;
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        consumer.start();
+        producer.start();
+        consumer.join();
+        System.out.println("consumed " + consumed);
+
+        final StringBuilder log = new StringBuilder();
+        Thread sleeper = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    log.append("woke ");
+                } catch (InterruptedException e) {
+                    log.append("sleep interrupted ");
+                }
+            }
+        });
+        sleeper.start();
+        log.append("started ");
+        sleeper.join();
+
+        final Object lock = new Object();
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                synchronized (lock) {
+                    lock.notify();
+                    try {
+                        lock.wait();
+                        log.append("notified");
+                    } catch (InterruptedException e) {
+                        log.append("interrupted " + Thread.holdsLock(lock));
+                    }
+                }
+            }
+        });
+        synchronized (lock) {
+            waiter.start();
+            lock.wait();
+        }
+        waiter.interrupt();
+        waiter.join();
+        System.out.println(log);
+
+        // Reads the static field while the other thread sleeps in the
+        // initializer of the class.
+        Thread initializer = new Thread(new Runnable() {
+            public void run() {
+                Slow.value++;
+            }
+        });
+        initializer.start();
+        Thread.sleep(5);
+        System.out.println("static " + Slow.value);
+        initializer.join();
+    }
+}
@@ -0,0 +1,181 @@
+package jvm.sample;
+
+/**
+ * Hot methods without side effects that read objects and arrays: field
+ * reads, virtual calls from monomorphic and polymorphic call sites, type
+ * checks, static arrays, longs, strings and a recursion too deep for the
+ * tree interpreter.
+ */
+public class TreeSample {
+    static int[] primes = { 2, 3, 5, 7, 11, 13 };
+
+    abstract static class Expr {
+        abstract int eval();
+    }
+
+    static class Const extends Expr {
+        final int value;
+
+        Const(int value) {
+            this.value = value;
+        }
+
+        int eval() {
+            return value;
+        }
+    }
+
+    static class Add extends Expr {
+        final Expr left, right;
+
+        Add(Expr left, Expr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int eval() {
+            return left.eval() + right.eval();
+        }
+    }
+
+    static class Mul extends Expr {
+        final Expr left, right;
+
+        Mul(Expr left, Expr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int eval() {
+            return left.eval() * right.eval();
+        }
+    }
+
+    static class Neg extends Expr {
+        final Expr arg;
+
+        Neg(Expr arg) {
+            this.arg = arg;
+        }
+
+        int eval() {
+            return -arg.eval();
+        }
+    }
+
+    static class Point {
+        final int x, y;
+        final double w;
+        Point next;
+
+        Point(int x, int y, double w) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+        }
+    }
+
+    static int sum(int[] a) {
+        int s = 0;
+        for (int i = 0; i < a.length; i++) {
+            s += a[i] * primes[i % primes.length];
+        }
+        return s;
+    }
+
+    static long hash(long[] a) {
+        long h = 17;
+        for (long v : a) {
+            h = h * 31 + (v ^ (v >>> 7));
+        }
+        return h;
+    }
+
+    static double weight(Point[] ps) {
+        double acc = 0;
+        for (Point p : ps) {
+            acc += p.x * p.w - p.y;
+        }
+        return acc;
+    }
+
+    static int count(Object[] objs) {
+        int n = 0;
+        for (Object o : objs) {
+            if (o instanceof Const) {
+                n += ((Const) o).value;
+            } else if (o instanceof Expr) {
+                n += 100;
+            } else if (o == null) {
+                n += 1000;
+            }
+        }
+        return n;
+    }
+
+    static int consts(Expr e) {
+        if (e instanceof Const) {
+            return 1;
+        } else if (e instanceof Add) {
+            Add a = (Add) e;
+            return consts(a.left) + consts(a.right);
+        }
+        return 0;
+    }
+
+    static String name(int k) {
+        switch (k) {
+        case 0: return "zero";
+        case 1: return "one";
+        default: return k < 0 ? "negative" : "many";
+        }
+    }
+
+    static int length(Point p) {
+        return p == null ? 0 : 1 + length(p.next);
+    }
+
+    public static void main(String[] args) {
+        Expr e = new Add(new Mul(new Const(3), new Const(4)),
+                new Neg(new Add(new Const(5), new Mul(new Const(2), new Const(-1)))));
+        Expr sums = new Add(new Add(new Const(1), new Const(2)), new Const(3));
+        int[] ints = new int[20];
+        long[] longs = new long[10];
+        Point[] points = new Point[5];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * i - 7;
+        }
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = (long) i << 40 | i;
+        }
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Point(i, 2 * i, 0.5 + i);
+        }
+        Object[] objs = { new Const(7), e, null, "s", new Const(-2), points[0] };
+
+        int acc = 0;
+        long h = 0;
+        double w = 0;
+        String names = "";
+        for (int i = 0; i < 300; i++) {
+            acc += e.eval() + sums.eval() + sum(ints) + count(objs) + consts(sums);
+            h += hash(longs);
+            w += weight(points);
+            names = name(i % 3 - 1);
+        }
+        System.out.println(acc + " " + (int) (h ^ (h >>> 32)) + " " + (int) (w * 100) + " "
+                + names);
+
+        Point list = null;
+        for (int i = 0; i < 1000; i++) {
+            Point p = new Point(i, i, 0);
+            p.next = list;
+            list = p;
+        }
+        int n = 0;
+        for (int i = 0; i < 100; i++) {
+            n += length(list) + length(points[1]);
+        }
+        System.out.println(n);
+    }
+}
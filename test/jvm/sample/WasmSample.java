@@ -0,0 +1,172 @@
+package jvm.sample;
+
+/**
+ * Numeric kernels on arrays of primitives, that are compiled to WebAssembly:
+ * a matrix product, a prime sieve, an n-body step, the other kinds of
+ * arrays, an accessor on a large array, and a recursion that gives up
+ * after changing an array.
+ */
+public class WasmSample {
+    static void multiply(double[] a, double[] b, double[] c, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum += a[i * n + k] * b[k * n + j];
+                }
+                c[i * n + j] = sum;
+            }
+        }
+    }
+
+    static int sieve(boolean[] composite) {
+        int count = 0;
+        for (int i = 2; i < composite.length; i++) {
+            if (!composite[i]) {
+                count++;
+                for (int j = 2 * i; j < composite.length; j += i) {
+                    composite[j] = true;
+                }
+            }
+        }
+        return count;
+    }
+
+    static double distance(double dx, double dy) {
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    static void advance(double[] x, double[] y, double[] vx, double[] vy,
+            double[] mass, double dt) {
+        int n = x.length;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                double d = dx * dx + dy * dy + 0.01;
+                double mag = dt / (d * d);
+                vx[i] -= dx * mass[j] * mag;
+                vy[i] -= dy * mass[j] * mag;
+                vx[j] += dx * mass[i] * mag;
+                vy[j] += dy * mass[i] * mag;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] += dt * vx[i];
+            y[i] += dt * vy[i];
+        }
+    }
+
+    static int mix(byte[] b, char[] c, short[] s, float[] f, int[] out) {
+        int acc = 0;
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) (b[i] * 3 + i);
+            c[i] = (char) (c[i] * 7 - i);
+            s[i] = (short) (s[i] * 5 - 1000 * i);
+            f[i] = f[i] * 1.5f % 7f;
+            out[i] = b[i] + c[i] + s[i] + (int) (f[i] * 100);
+            acc += out[i];
+        }
+        return acc;
+    }
+
+    static int count(int[] calls, int n) {
+        calls[0]++;
+        return n == 0 ? 0 : 1 + count(calls, n - 1);
+    }
+
+    static void swapHalves(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int t = a[i];
+            a[i] = b[a.length - 1 - i];
+            b[a.length - 1 - i] = t;
+        }
+    }
+
+    static int at(int[] a, int i) {
+        return a[i];
+    }
+
+    static int sumAt(int[] a) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += at(a, i);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        int n = 12;
+        double[] a = new double[n * n], b = new double[n * n], c = new double[n * n];
+        for (int i = 0; i < n * n; i++) {
+            a[i] = i % 7 - 3;
+            b[i] = (i * 5) % 11 * 0.5;
+        }
+        for (int k = 0; k < 30; k++) {
+            multiply(a, b, c, n);
+        }
+        double trace = 0;
+        for (int i = 0; i < n; i++) {
+            trace += c[i * n + i];
+        }
+        System.out.println((int) (trace * 100));
+
+        System.out.println(sieve(new boolean[20000]));
+
+        double[] x = { 0, 1, 0, -1 }, y = { 0, 0, 1, 0 };
+        double[] vx = { 0, 0, -1, 0 }, vy = { 0, 1, 0, -1 }, mass = { 10, 1, 1, 1 };
+        for (int step = 0; step < 200; step++) {
+            advance(x, y, vx, vy, mass, 0.001);
+        }
+        System.out.println((int) (x[1] * 1e6) + " " + (int) (y[2] * 1e6) + " "
+                + (int) (distance(x[3], y[3]) * 1e6));
+
+        byte[] bs = new byte[50];
+        char[] cs = new char[50];
+        short[] ss = new short[50];
+        float[] fs = new float[50];
+        int[] out = new int[50];
+        for (int i = 0; i < 50; i++) {
+            bs[i] = (byte) (i * 11);
+            cs[i] = (char) (i * 1000);
+            ss[i] = (short) (i * 700);
+            fs[i] = i * 0.25f;
+        }
+        int acc = 0;
+        for (int k = 0; k < 40; k++) {
+            acc += mix(bs, cs, ss, fs, out);
+        }
+        System.out.println(acc + " " + bs[7] + " " + (int) cs[49] + " " + ss[33] + " " + out[20]);
+
+        // The same array twice.
+        int[] p = { 1, 2, 3, 4, 5 };
+        for (int k = 0; k < 25; k++) {
+            swapHalves(p, p);
+        }
+        System.out.println(p[0] + " " + p[2] + " " + p[4]);
+
+        // The accessor is called by the interpreter and by compiled code.
+        int[] big = new int[5000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = i % 13;
+        }
+        int total = 0;
+        for (int k = 0; k < 40; k++) {
+            total += at(big, k * 97) + sumAt(big);
+        }
+        System.out.println(total);
+
+        // The compiled code gives up on the deep recursion, and the
+        // interpreter counts the calls again from the start.
+        int[] calls = new int[1];
+        for (int k = 0; k < 30; k++) {
+            count(calls, 10);
+        }
+        try {
+            count(calls, 1000000);
+        } catch (StackOverflowError e) {
+            System.out.println("overflow");
+        }
+        System.out.println(calls[0]);
+    }
+}